@@ -0,0 +1,907 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.file;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+import org.apache.felix.cm.PersistenceManager;
+import org.osgi.framework.BundleContext;
+
+
+/**
+ * The <code>JournalPersistenceManager</code> class stores configuration data
+ * in a single append-only journal file.
+ * <p>
+ * Each call to {@link #store(String, Dictionary)} or {@link #delete(String)}
+ * appends a record to the journal. A record contains the PID and, for
+ * stored configurations, the configuration data in the format written by
+ * {@link ConfigurationHandler}. Each record is protected by a CRC32
+ * checksum. When the journal is opened, it is read sequentially in one pass
+ * and the latest record of each PID is kept in memory. A damaged record at
+ * the end of the journal, for example one partially written when the
+ * platform crashed, is discarded together with anything following it.
+ * <p>
+ * Before a store or delete returns, the journal is forced to the storage
+ * device. Threads storing configurations concurrently share a single force
+ * of the journal (group commit), so a burst of updates requires far fewer
+ * synchronous writes than configurations are written.
+ * <p>
+ * Once the journal has grown to more than twice the size of the records it
+ * still needs, it is compacted by writing the live records to a new file
+ * which then atomically replaces the journal.
+ * <p>
+ * A journal file whose header is damaged is not opened, so that the
+ * configurations it contains are not lost by starting over.
+ * <p>
+ * When this persistence manager is used by the Configuration Admin Service,
+ * it is selected by setting the <code>felix.cm.pm</code> framework property
+ * to {@link #DEFAULT_PERSISTENCE_MANAGER_NAME journal}. The journal file may
+ * be configured with the <code>felix.cm.journal</code> framework property;
+ * it defaults to the <code>config.journal</code> file in the persistent
+ * storage area of the Configuration Admin bundle.
+ */
+public class JournalPersistenceManager implements PersistenceManager
+{
+
+    /**
+     * The default name of the journal file if no location is configured
+     * (value is "config.journal").
+     */
+    public static final String DEFAULT_JOURNAL_FILE = "config.journal";
+
+    /**
+     * The name of this persistence manager when registered in the service
+     * registry (value is "journal").
+     */
+    public static final String DEFAULT_PERSISTENCE_MANAGER_NAME = "journal";
+
+    /**
+     * The extension of the compacted journal file while it is being written
+     * (value is ".tmp").
+     */
+    private static final String TMP_EXT = ".tmp";
+
+    // "FCMJ", the first bytes of every journal file
+    private static final int MAGIC = 0x46434d4a;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    // record header: length of the record data and its checksum
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    // upper bound of the record data, so that a damaged length read from
+    // the journal cannot cause a huge allocation
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private static final byte RECORD_STORE = 1;
+
+    private static final byte RECORD_DELETE = 2;
+
+    // marks the journal as holding the migrated configurations
+    private static final byte RECORD_MIGRATED = 3;
+
+    // do not compact journals smaller than this
+    private static final long MIN_COMPACT_SIZE = 64 * 1024;
+
+    /**
+     * The access control context we use in the presence of a security manager.
+     */
+    private final AccessControlContext acc;
+
+    /**
+     * The journal file.
+     */
+    private final File file;
+
+    /**
+     * The latest record data of each PID, guarded by this instance.
+     */
+    private final Map<String, byte[]> records = new HashMap<>();
+
+    // the record marking the journal as migrated, guarded by this instance
+    private byte[] migratedRecord;
+
+    // the journal, guarded by this instance
+    private FileChannel channel;
+
+    // the size of the journal, guarded by this instance
+    private long size;
+
+    // the size of the records in the journal still needed, guarded by
+    // this instance
+    private long liveSize;
+
+    // the number of times the journal has been replaced by compaction,
+    // guarded by this instance
+    private int generation;
+
+    // guards the force of the journal
+    private final Object syncLock = new Object();
+
+    // the generation and size of the journal known to be on the storage
+    // device, guarded by syncLock
+    private int syncedGeneration;
+
+    private long syncedSize;
+
+
+    /**
+     * Creates an instance of this persistence manager using the given file
+     * as the journal.
+     * <p>
+     * If <code>location</code> is <code>null</code>, the
+     * {@link #DEFAULT_JOURNAL_FILE config.journal} file in the persistent
+     * storage area of the bundle identified by <code>bundleContext</code> is
+     * used or, if there is no such area, in the current working directory.
+     * A relative <code>location</code> is resolved inside the persistent
+     * storage area if available. Any missing parent directories are created.
+     *
+     * @param bundleContext The <code>BundleContext</code> to optionally get
+     *      the data location for the journal. This may be <code>null</code>.
+     * @param location The journal file location or <code>null</code>.
+     *
+     * @throws IllegalArgumentException If the parent directory of the
+     *      journal cannot be created.
+     * @throws IOException If the journal cannot be opened or read or if
+     *      its header is damaged.
+     */
+    public JournalPersistenceManager( final BundleContext bundleContext, final String location ) throws IOException
+    {
+        // setup the access control context from the calling setup
+        if ( System.getSecurityManager() != null )
+        {
+            acc = AccessController.getContext();
+        }
+        else
+        {
+            acc = null;
+        }
+
+        File journalFile = null;
+        if ( location == null && bundleContext != null )
+        {
+            journalFile = bundleContext.getDataFile( DEFAULT_JOURNAL_FILE );
+        }
+        if ( journalFile == null )
+        {
+            journalFile = new File( location != null ? location : DEFAULT_JOURNAL_FILE );
+        }
+
+        // ensure the file is absolute
+        if ( !journalFile.isAbsolute() )
+        {
+            if ( bundleContext != null )
+            {
+                final File bundleJournalFile = bundleContext.getDataFile( journalFile.getPath() );
+                if ( bundleJournalFile != null )
+                {
+                    journalFile = bundleJournalFile;
+                }
+            }
+            if ( !journalFile.isAbsolute() )
+            {
+                journalFile = new File( System.getProperty( "user.dir" ), journalFile.getPath() );
+            }
+        }
+
+        final File dir = journalFile.getParentFile();
+        if ( !dir.isDirectory() && !dir.mkdirs() )
+        {
+            throw new IllegalArgumentException( "Cannot create directory " + dir );
+        }
+
+        this.file = journalFile;
+
+        doPrivileged( new PrivilegedExceptionAction<Object>()
+        {
+            @Override
+            public Object run() throws IOException
+            {
+                open();
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Returns the journal file.
+     *
+     * @return The journal file.
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+
+    /**
+     * Returns whether the journal has been marked with {@link #setMigrated()}.
+     *
+     * @return <code>true</code> if the journal has been marked as migrated.
+     */
+    public synchronized boolean isMigrated()
+    {
+        return migratedRecord != null;
+    }
+
+
+    /**
+     * Marks the journal as holding the configurations migrated from another
+     * persistence manager. The mark is kept in the journal, so a migration
+     * interrupted before this method is called is repeated on the next start.
+     *
+     * @throws IOException If the mark cannot be written to the journal.
+     */
+    public void setMigrated() throws IOException
+    {
+        if ( isMigrated() )
+        {
+            return;
+        }
+
+        final byte[] record = createRecord( RECORD_MIGRATED, "", null );
+        doPrivileged( new PrivilegedExceptionAction<Object>()
+        {
+            @Override
+            public Object run() throws IOException
+            {
+                append( "", record, RECORD_MIGRATED );
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Closes the journal. Further calls to {@link #store(String, Dictionary)}
+     * and {@link #delete(String)} fail.
+     */
+    public synchronized void close()
+    {
+        if ( channel != null )
+        {
+            try
+            {
+                channel.close();
+            }
+            catch ( IOException ioe )
+            {
+                // ignore
+            }
+            channel = null;
+        }
+    }
+
+
+    @Override
+    public synchronized boolean exists( final String pid )
+    {
+        return records.containsKey( pid );
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Dictionary load( final String pid ) throws IOException
+    {
+        final byte[] data;
+        synchronized ( this )
+        {
+            data = records.get( pid );
+        }
+        if ( data == null )
+        {
+            throw new IOException( "No configuration stored for " + pid );
+        }
+        return read( data );
+    }
+
+
+    /**
+     * Returns the configurations stored at the time of the call. The
+     * configurations are parsed when they are returned from the enumeration.
+     */
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Enumeration getDictionaries()
+    {
+        final List<byte[]> snapshot;
+        synchronized ( this )
+        {
+            snapshot = new ArrayList<>( records.values() );
+        }
+
+        return new Enumeration()
+        {
+            private final Iterator<byte[]> iterator = snapshot.iterator();
+
+            private Dictionary next = seek();
+
+            private Dictionary seek()
+            {
+                while ( iterator.hasNext() )
+                {
+                    try
+                    {
+                        return read( iterator.next() );
+                    }
+                    catch ( IOException ioe )
+                    {
+                        // ignore, check next configuration
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasMoreElements()
+            {
+                return next != null;
+            }
+
+            @Override
+            public Object nextElement()
+            {
+                if ( next == null )
+                {
+                    throw new NoSuchElementException();
+                }
+
+                final Dictionary toReturn = next;
+                next = seek();
+                return toReturn;
+            }
+        };
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void store( final String pid, final Dictionary properties ) throws IOException
+    {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ConfigurationHandler.write( data, properties );
+        final byte[] record = createRecord( RECORD_STORE, pid, data.toByteArray() );
+
+        doPrivileged( new PrivilegedExceptionAction<Object>()
+        {
+            @Override
+            public Object run() throws IOException
+            {
+                append( pid, record, RECORD_STORE );
+                return null;
+            }
+        } );
+    }
+
+
+    @Override
+    public void delete( final String pid ) throws IOException
+    {
+        synchronized ( this )
+        {
+            if ( !records.containsKey( pid ) )
+            {
+                return;
+            }
+        }
+
+        final byte[] record = createRecord( RECORD_DELETE, pid, null );
+        doPrivileged( new PrivilegedExceptionAction<Object>()
+        {
+            @Override
+            public Object run() throws IOException
+            {
+                append( pid, record, RECORD_DELETE );
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Appends the record to the journal, compacts the journal if required
+     * and waits for the record to be on the storage device.
+     */
+    private void append( final String pid, final byte[] record, final byte type ) throws IOException
+    {
+        final int appendGeneration;
+        final long appendSize;
+        synchronized ( this )
+        {
+            if ( channel == null )
+            {
+                throw new IOException( "Journal " + file + " is closed" );
+            }
+
+            try
+            {
+                writeFully( channel, record );
+            }
+            catch ( IOException ioe )
+            {
+                // remove a partially written record, which would hide any
+                // records appended later when reading the journal
+                try
+                {
+                    channel.truncate( size );
+                    channel.position( size );
+                }
+                catch ( IOException ignore )
+                {
+                    // ignore
+                }
+                throw ioe;
+            }
+            size += record.length;
+
+            final byte[] old;
+            if ( type == RECORD_STORE )
+            {
+                old = records.put( pid, record );
+            }
+            else if ( type == RECORD_DELETE )
+            {
+                old = records.remove( pid );
+            }
+            else
+            {
+                old = migratedRecord;
+                migratedRecord = record;
+            }
+            if ( old != null )
+            {
+                liveSize -= old.length;
+            }
+            if ( type != RECORD_DELETE )
+            {
+                liveSize += record.length;
+            }
+
+            appendGeneration = generation;
+            appendSize = size;
+
+            if ( needsCompaction() )
+            {
+                try
+                {
+                    compact();
+                }
+                catch ( IOException ioe )
+                {
+                    // the record has been appended to the current journal,
+                    // compaction is tried again with the next record
+                }
+            }
+
+            if ( appendGeneration != generation )
+            {
+                // the compacted journal has already been forced
+                return;
+            }
+        }
+
+        sync( appendGeneration, appendSize );
+    }
+
+
+    private boolean needsCompaction()
+    {
+        return size > MIN_COMPACT_SIZE && size > 2 * liveSize;
+    }
+
+
+    /**
+     * Forces the journal to the storage device unless another thread has
+     * already done so after the given size has been written.
+     */
+    private void sync( final int appendGeneration, final long appendSize ) throws IOException
+    {
+        synchronized ( syncLock )
+        {
+            if ( syncedGeneration == appendGeneration && syncedSize >= appendSize )
+            {
+                return;
+            }
+
+            final FileChannel current;
+            final long currentSize;
+            synchronized ( this )
+            {
+                if ( generation != appendGeneration )
+                {
+                    // the journal has been replaced by a compacted journal,
+                    // which has been forced including the record
+                    return;
+                }
+                current = channel;
+                currentSize = size;
+            }
+            if ( current == null )
+            {
+                throw new IOException( "Journal " + file + " is closed" );
+            }
+
+            try
+            {
+                current.force( false );
+            }
+            catch ( ClosedChannelException cce )
+            {
+                synchronized ( this )
+                {
+                    if ( generation == appendGeneration )
+                    {
+                        throw cce;
+                    }
+                }
+                // closed for compaction, which forced the record
+                return;
+            }
+            syncedGeneration = appendGeneration;
+            syncedSize = currentSize;
+        }
+    }
+
+
+    /**
+     * Writes the records still needed to a new journal which then replaces
+     * the current journal. Must be called while synchronized on this
+     * instance.
+     */
+    private void compact() throws IOException
+    {
+        final File tmpFile = new File( file.getPath() + TMP_EXT );
+        long newSize = HEADER_SIZE;
+        try ( RandomAccessFile raf = new RandomAccessFile( tmpFile, "rw" ) )
+        {
+            raf.setLength( 0 );
+            final FileChannel tmpChannel = raf.getChannel();
+            writeFully( tmpChannel, createHeader() );
+            for ( final byte[] record : records.values() )
+            {
+                writeFully( tmpChannel, record );
+                newSize += record.length;
+            }
+            if ( migratedRecord != null )
+            {
+                writeFully( tmpChannel, migratedRecord );
+                newSize += migratedRecord.length;
+            }
+            tmpChannel.force( true );
+        }
+
+        // the journal is closed while being replaced, since open files
+        // cannot be replaced on all platforms
+        boolean replaced = false;
+        channel.close();
+        try
+        {
+            try
+            {
+                Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+            }
+            catch ( AtomicMoveNotSupportedException amnse )
+            {
+                Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+            replaced = true;
+            syncDirectory();
+        }
+        finally
+        {
+            channel = openChannel();
+            if ( replaced )
+            {
+                size = newSize;
+                liveSize = newSize - HEADER_SIZE;
+                generation++;
+            }
+            channel.position( size );
+        }
+    }
+
+
+    /**
+     * Reads the journal, if it exists, and opens it for appending records.
+     * A journal with a damaged header is not opened, since starting over
+     * would drop the configurations it contains.
+     */
+    private synchronized void open() throws IOException
+    {
+        long validSize = 0;
+        if ( file.length() > 0 )
+        {
+            try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ),
+                64 * 1024 ) ) )
+            {
+                validSize = readJournal( in, file.length() );
+            }
+            if ( validSize == 0 )
+            {
+                throw new IOException( "Journal " + file + " has a damaged header" );
+            }
+        }
+
+        channel = openChannel();
+        if ( validSize == 0 )
+        {
+            // new or empty journal
+            channel.truncate( 0 );
+            writeFully( channel, createHeader() );
+            channel.force( true );
+            syncDirectory();
+            size = HEADER_SIZE;
+        }
+        else
+        {
+            // discard any damaged records at the end
+            if ( channel.size() > validSize )
+            {
+                channel.truncate( validSize );
+            }
+            channel.position( validSize );
+            size = validSize;
+        }
+
+        liveSize = migratedRecord != null ? migratedRecord.length : 0;
+        for ( final byte[] record : records.values() )
+        {
+            liveSize += record.length;
+        }
+
+        if ( needsCompaction() )
+        {
+            compact();
+        }
+    }
+
+
+    /**
+     * Reads the records of the journal into the records map. Reading stops
+     * at the first record which is incomplete, damaged or longer than the
+     * rest of the journal.
+     *
+     * @param in The journal contents
+     * @param fileSize The size of the journal file
+     * @return The size of the valid part of the journal or 0 if the journal
+     *      has no valid header.
+     */
+    private long readJournal( final DataInputStream in, final long fileSize ) throws IOException
+    {
+        try
+        {
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+            {
+                return 0;
+            }
+        }
+        catch ( EOFException eofe )
+        {
+            return 0;
+        }
+
+        long validSize = HEADER_SIZE;
+        final CRC32 crc = new CRC32();
+        for ( ;; )
+        {
+            final byte[] body;
+            final long checksum;
+            try
+            {
+                final int length = in.readInt();
+                checksum = in.readInt() & 0xffffffffL;
+                if ( length <= 0 || length > MAX_RECORD_SIZE
+                    || length > fileSize - validSize - RECORD_HEADER_SIZE )
+                {
+                    break;
+                }
+                body = new byte[length];
+                in.readFully( body );
+            }
+            catch ( EOFException eofe )
+            {
+                break;
+            }
+
+            crc.reset();
+            crc.update( body );
+            if ( crc.getValue() != checksum )
+            {
+                break;
+            }
+
+            final DataInputStream recordIn = new DataInputStream( new ByteArrayInputStream( body ) );
+            final byte type = recordIn.readByte();
+            final String pid = recordIn.readUTF();
+            if ( type == RECORD_STORE || type == RECORD_MIGRATED )
+            {
+                final byte[] record = new byte[RECORD_HEADER_SIZE + body.length];
+                ByteBuffer.wrap( record ).putInt( body.length ).putInt( ( int ) checksum ).put( body );
+                if ( type == RECORD_STORE )
+                {
+                    records.put( pid, record );
+                }
+                else
+                {
+                    migratedRecord = record;
+                }
+            }
+            else if ( type == RECORD_DELETE )
+            {
+                records.remove( pid );
+            }
+            else
+            {
+                break;
+            }
+            validSize += RECORD_HEADER_SIZE + body.length;
+        }
+        return validSize;
+    }
+
+
+    /**
+     * Forces the directory of the journal to the storage device, so that
+     * the creation or replacement of the journal file is durable.
+     */
+    private void syncDirectory()
+    {
+        try ( FileChannel dir = FileChannel.open( file.getParentFile().toPath(), StandardOpenOption.READ ) )
+        {
+            dir.force( true );
+        }
+        catch ( IOException ioe )
+        {
+            // ignore, directories cannot be forced on all platforms
+        }
+    }
+
+
+    private FileChannel openChannel() throws IOException
+    {
+        @SuppressWarnings("resource")
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        return raf.getChannel();
+    }
+
+
+    private static byte[] createHeader()
+    {
+        return ByteBuffer.allocate( HEADER_SIZE ).putInt( MAGIC ).putInt( VERSION ).array();
+    }
+
+
+    /**
+     * Creates a record consisting of the length and checksum of the record
+     * body followed by the body, which contains the type, the PID and the
+     * configuration data if any.
+     */
+    private static byte[] createRecord( final byte type, final String pid, final byte[] data ) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( 0 );
+        out.writeInt( 0 );
+        out.writeByte( type );
+        out.writeUTF( pid );
+        if ( data != null )
+        {
+            out.write( data );
+        }
+        out.close();
+
+        final byte[] record = bytes.toByteArray();
+        if ( record.length - RECORD_HEADER_SIZE > MAX_RECORD_SIZE )
+        {
+            throw new IOException( "Configuration " + pid + " is too large to be stored" );
+        }
+        final CRC32 crc = new CRC32();
+        crc.update( record, RECORD_HEADER_SIZE, record.length - RECORD_HEADER_SIZE );
+        ByteBuffer.wrap( record ).putInt( record.length - RECORD_HEADER_SIZE ).putInt( ( int ) crc.getValue() );
+        return record;
+    }
+
+
+    /**
+     * Parses the configuration data of a store record.
+     */
+    @SuppressWarnings("rawtypes")
+    static Dictionary read( final byte[] record ) throws IOException
+    {
+        final DataInputStream in = new DataInputStream( new ByteArrayInputStream( record ) );
+        in.skipBytes( RECORD_HEADER_SIZE + 1 );
+        in.readUTF();
+        return ConfigurationHandler.read( in );
+    }
+
+
+    private static void writeFully( final FileChannel channel, final byte[] data ) throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.wrap( data );
+        while ( buffer.hasRemaining() )
+        {
+            channel.write( buffer );
+        }
+    }
+
+
+    private void doPrivileged( final PrivilegedExceptionAction<Object> action ) throws IOException
+    {
+        if ( System.getSecurityManager() == null )
+        {
+            try
+            {
+                action.run();
+            }
+            catch ( IOException ioe )
+            {
+                throw ioe;
+            }
+            catch ( Exception e )
+            {
+                throw new IOException( e );
+            }
+            return;
+        }
+
+        try
+        {
+            AccessController.doPrivileged( action, acc );
+        }
+        catch ( PrivilegedActionException pae )
+        {
+            throw ( IOException ) pae.getException();
+        }
+    }
+}
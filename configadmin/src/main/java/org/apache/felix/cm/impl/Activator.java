@@ -18,13 +18,16 @@
  */
 package org.apache.felix.cm.impl;
 
+import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Dictionary;
+import java.util.Enumeration;
 import java.util.Hashtable;
 
 import org.apache.felix.cm.PersistenceManager;
 import org.apache.felix.cm.file.FilePersistenceManager;
+import org.apache.felix.cm.file.JournalPersistenceManager;
 import org.apache.felix.cm.impl.persistence.PersistenceManagerTracker;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
@@ -50,6 +53,13 @@ import org.osgi.service.log.LogService;
  * this property is not set the <code>config</code> directory in the current
  * working directory as specified in the <code>user.dir</code> system property
  * is used.
+ * <p>
+ * If the <code>felix.cm.pm</code> framework property is set to
+ * <code>journal</code>, a {@link JournalPersistenceManager} is registered as
+ * well and used instead. Its journal file is taken from the
+ * <code>felix.cm.journal</code> framework property. Until the journal has
+ * been marked as migrated, the configurations of the
+ * {@link FilePersistenceManager} are copied into it on each start.
  */
 public class Activator implements BundleActivator
 {
@@ -73,11 +83,25 @@ public class Activator implements BundleActivator
      */
     private static final String CM_CONFIG_PM = "felix.cm.pm";
 
+    /**
+     * The name of the framework context property defining the location of
+     * the journal file of the journal persistence manager (value is
+     * "felix.cm.journal").
+     *
+     * @see #start(BundleContext)
+     */
+    private static final String CM_CONFIG_JOURNAL = "felix.cm.journal";
+
     private volatile PersistenceManagerTracker tracker;
 
     // the service registration of the default file persistence manager
     private volatile ServiceRegistration<PersistenceManager> filepmRegistration;
 
+    // the journal persistence manager and its service registration, if used
+    private volatile JournalPersistenceManager journalpm;
+
+    private volatile ServiceRegistration<PersistenceManager> journalpmRegistration;
+
     @Override
     public void start( final BundleContext bundleContext ) throws BundleException
     {
@@ -96,6 +120,10 @@ public class Activator implements BundleActivator
         {
             configuredPM = null;
         }
+        if ( JournalPersistenceManager.DEFAULT_PERSISTENCE_MANAGER_NAME.equals( configuredPM ) )
+        {
+            this.registerJournalPersistenceManager( bundleContext, defaultPM );
+        }
         try
         {
             this.tracker = new PersistenceManagerTracker(bundleContext, defaultPM, configuredPM);
@@ -123,6 +151,7 @@ public class Activator implements BundleActivator
 
         // shutdown the file persistence manager and unregister
         this.unregisterFilePersistenceManager();
+        this.unregisterJournalPersistenceManager();
     }
 
     private PersistenceManager registerFilePersistenceManager(final BundleContext bundleContext)
@@ -157,6 +186,75 @@ public class Activator implements BundleActivator
         }
     }
 
+    @SuppressWarnings("rawtypes")
+    private void registerJournalPersistenceManager( final BundleContext bundleContext, final PersistenceManager filePM )
+    {
+        JournalPersistenceManager jpm = null;
+        try
+        {
+            jpm = new JournalPersistenceManager( bundleContext,
+                    bundleContext.getProperty( CM_CONFIG_JOURNAL ) );
+
+            // copy the configurations of the file persistence manager into
+            // the journal until the copy has completed once, so configurations
+            // deleted later on are not copied again on the next start
+            if ( !jpm.isMigrated() )
+            {
+                int count = 0;
+                for ( Enumeration e = filePM.getDictionaries(); e.hasMoreElements(); )
+                {
+                    final Dictionary dict = ( Dictionary ) e.nextElement();
+                    final Object pid = dict.get( Constants.SERVICE_PID );
+                    if ( pid instanceof String )
+                    {
+                        jpm.store( ( String ) pid, dict );
+                        count++;
+                    }
+                }
+                jpm.setMigrated();
+                if ( count > 0 )
+                {
+                    Log.logger.log( LogService.LOG_INFO, "Copied {0} configurations into journal {1}",
+                            new Object[] { count, jpm.getFile() } );
+                }
+            }
+
+            final Dictionary<String, Object> props = new Hashtable<>();
+            props.put( Constants.SERVICE_DESCRIPTION, "Platform Filesystem Journal Persistence Manager" );
+            props.put( Constants.SERVICE_VENDOR, "The Apache Software Foundation" );
+            props.put( Constants.SERVICE_RANKING, new Integer( Integer.MIN_VALUE ) );
+            props.put( PersistenceManager.PROPERTY_NAME, JournalPersistenceManager.DEFAULT_PERSISTENCE_MANAGER_NAME );
+            journalpmRegistration = bundleContext.registerService( PersistenceManager.class, jpm, props );
+            journalpm = jpm;
+        }
+        catch ( final IOException ioe )
+        {
+            Log.logger.log( LogService.LOG_ERROR, "Cannot create the JournalPersistenceManager", ioe );
+            if ( jpm != null )
+            {
+                jpm.close();
+            }
+        }
+        catch ( final IllegalArgumentException iae )
+        {
+            Log.logger.log( LogService.LOG_ERROR, "Cannot create the JournalPersistenceManager", iae );
+        }
+    }
+
+    private void unregisterJournalPersistenceManager()
+    {
+        if ( this.journalpmRegistration != null )
+        {
+            this.journalpmRegistration.unregister();
+            this.journalpmRegistration = null;
+        }
+        if ( this.journalpm != null )
+        {
+            this.journalpm.close();
+            this.journalpm = null;
+        }
+    }
+
     public static String getLocation(final Bundle bundle)
     {
         if (System.getSecurityManager() != null)
@@ -49,6 +49,13 @@ public class CaseInsensitiveDictionary extends Dictionary<String, Object>
      */
     private SortedMap<String, Object> internalMap;
 
+    /**
+     * Whether the backend dictionary is shared with another dictionary. A
+     * shared backend dictionary is never modified but copied before the
+     * first modification.
+     */
+    private volatile boolean shared;
+
     public CaseInsensitiveDictionary()
     {
         internalMap = new TreeMap<>( CASE_INSENSITIVE_ORDER );
@@ -93,6 +100,28 @@ public class CaseInsensitiveDictionary extends Dictionary<String, Object>
     }
 
 
+    private CaseInsensitiveDictionary( SortedMap<String, Object> internalMap )
+    {
+        this.internalMap = internalMap;
+        this.shared = true;
+    }
+
+
+    /**
+     * Returns a copy of the given dictionary which shares the properties with
+     * the dictionary until either of them is modified. This is considerably
+     * cheaper than a regular copy if the copy is only read.
+     *
+     * @param props The dictionary to copy
+     * @return The copy
+     */
+    public static CaseInsensitiveDictionary copyOnWrite( CaseInsensitiveDictionary props )
+    {
+        props.shared = true;
+        return new CaseInsensitiveDictionary( props.internalMap );
+    }
+
+
     CaseInsensitiveDictionary( CaseInsensitiveDictionary props, boolean deepCopy )
     {
         if ( deepCopy )
@@ -198,7 +227,7 @@ public class CaseInsensitiveDictionary extends Dictionary<String, Object>
         checkKey( key );
         value = checkValue( value );
 
-        return internalMap.put( key, value );
+        return writableMap().put( key, value );
     }
 
 
@@ -215,7 +244,7 @@ public class CaseInsensitiveDictionary extends Dictionary<String, Object>
             throw new NullPointerException( "key" );
         }
 
-        return internalMap.remove( key );
+        return writableMap().remove( key );
     }
 
 
@@ -233,6 +262,17 @@ public class CaseInsensitiveDictionary extends Dictionary<String, Object>
 
     // ---------- internal -----------------------------------------------------
 
+    private SortedMap<String, Object> writableMap()
+    {
+        if ( shared )
+        {
+            internalMap = new TreeMap<>( internalMap );
+            shared = false;
+        }
+        return internalMap;
+    }
+
+
     /**
      * Ensures the <code>key</code> complies with the <em>symbolic-name</em>
      * production of the OSGi core specification (1.3.2):
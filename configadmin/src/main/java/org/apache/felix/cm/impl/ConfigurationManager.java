@@ -87,6 +87,26 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class ConfigurationManager implements BundleListener
 {
+    /**
+     * The name of the framework context property defining the number of
+     * threads used to update managed services and managed service factories
+     * (value is "felix.cm.update.threads"). If this property is not set or
+     * set to 1, all updates are delivered sequentially by a single thread.
+     * Otherwise updates for different PIDs and services are delivered
+     * concurrently, see {@link ParallelUpdateThread}.
+     */
+    private static final String CM_UPDATE_THREADS = "felix.cm.update.threads";
+
+    /**
+     * The name of the framework context property defining the time in
+     * milliseconds after which an update is reported as slow if updates
+     * are delivered concurrently (value is "felix.cm.update.timeout").
+     */
+    private static final String CM_UPDATE_TIMEOUT = "felix.cm.update.timeout";
+
+    // the default slow update timeout in milliseconds
+    private static final long DEFAULT_UPDATE_TIMEOUT = 5000;
+
     // random number generator to create configuration PIDs for factory
     // configurations
     private static Random numberGenerator;
@@ -168,7 +188,16 @@ public class ConfigurationManager implements BundleListener
         // initialize the asynchonous updater thread
         ThreadGroup tg = new ThreadGroup( "Configuration Admin Service" );
         tg.setDaemon( true );
-        this.updateThread = new UpdateThread( tg, "CM Configuration Updater" );
+        final long updateThreads = getLongProperty( CM_UPDATE_THREADS, 1 );
+        if ( updateThreads > 1 )
+        {
+            this.updateThread = new ParallelUpdateThread( tg, "CM Configuration Updater", ( int ) updateThreads,
+                getLongProperty( CM_UPDATE_TIMEOUT, DEFAULT_UPDATE_TIMEOUT ) );
+        }
+        else
+        {
+            this.updateThread = new UpdateThread( tg, "CM Configuration Updater" );
+        }
         this.eventThread = new UpdateThread( tg, "CM Event Dispatcher" );
 
         // register as bundle and service listener
@@ -689,6 +718,24 @@ public class ConfigurationManager implements BundleListener
 
     // ---------- internal -----------------------------------------------------
 
+    private long getLongProperty( final String name, final long defaultValue )
+    {
+        final String value = bundleContext.getProperty( name );
+        if ( value != null )
+        {
+            try
+            {
+                return Long.parseLong( value.trim() );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                Log.logger.log( LogService.LOG_WARNING, "Ignoring invalid value {0} of property {1}", new Object[]
+                        { value, name } );
+            }
+        }
+        return defaultValue;
+    }
+
     private ServiceReference<ConfigurationAdmin> getServiceReference()
     {
         ServiceRegistration<ConfigurationAdmin> reg = configurationAdminRegistration;
@@ -1041,7 +1088,7 @@ public class ConfigurationManager implements BundleListener
      * ManagedService is registered with multiple PIDs an instance of this
      * class is used for each registered PID.
      */
-    private class ManagedServiceUpdate implements Runnable
+    private class ManagedServiceUpdate implements UpdateThread.OrderedTask
     {
         private final String[] pids;
 
@@ -1113,6 +1160,22 @@ public class ConfigurationManager implements BundleListener
             managedServiceTracker.provideConfiguration( sr, configPid, null, properties, revision, this.configs );
         }
 
+        @Override
+        public Collection<?> getOrderingKeys()
+        {
+            final List<Object> keys = new ArrayList<Object>( Arrays.asList( this.pids ) );
+            keys.add( this.sr );
+            return keys;
+        }
+
+
+        @Override
+        public Object getCoalescingKey()
+        {
+            return null;
+        }
+
+
         @Override
         public String toString()
         {
@@ -1127,7 +1190,7 @@ public class ConfigurationManager implements BundleListener
      * multiple PIDs an instance of this class is used for each registered
      * PID.
      */
-    private class ManagedServiceFactoryUpdate implements Runnable
+    private class ManagedServiceFactoryUpdate implements UpdateThread.OrderedTask
     {
         private final String[] factoryPids;
 
@@ -1251,6 +1314,22 @@ public class ConfigurationManager implements BundleListener
         }
 
 
+        @Override
+        public Collection<?> getOrderingKeys()
+        {
+            final List<Object> keys = new ArrayList<Object>( Arrays.asList( this.factoryPids ) );
+            keys.add( this.sr );
+            return keys;
+        }
+
+
+        @Override
+        public Object getCoalescingKey()
+        {
+            return null;
+        }
+
+
         @Override
         public String toString()
         {
@@ -1258,7 +1337,7 @@ public class ConfigurationManager implements BundleListener
         }
     }
 
-    private abstract class ConfigurationProvider<T> implements Runnable
+    private abstract class ConfigurationProvider<T> implements UpdateThread.OrderedTask
     {
 
         protected final ConfigurationImpl config;
@@ -1300,6 +1379,27 @@ public class ConfigurationManager implements BundleListener
         }
 
 
+        /**
+         * Returns the service PID of the configuration and the services
+         * currently registered for it.
+         */
+        @Override
+        public Collection<?> getOrderingKeys()
+        {
+            final TargetedPID servicePid = getTargetedServicePid();
+            final List<Object> keys = new ArrayList<Object>( this.getHelper().getServices( servicePid ) );
+            keys.add( servicePid.getServicePid() );
+            return keys;
+        }
+
+
+        @Override
+        public Object getCoalescingKey()
+        {
+            return null;
+        }
+
+
         protected boolean provideReplacement( ServiceReference<T> sr )
         {
             if ( this.config.getFactoryPid() == null )
@@ -1361,6 +1461,18 @@ public class ConfigurationManager implements BundleListener
         }
 
 
+        /**
+         * A pending update is superseded by a later update of the same
+         * configuration, which provides the later revision to the same
+         * services.
+         */
+        @Override
+        public Object getCoalescingKey()
+        {
+            return config.getPid();
+        }
+
+
         @Override
         public void run()
         {
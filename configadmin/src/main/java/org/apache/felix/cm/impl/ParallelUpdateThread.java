@@ -0,0 +1,481 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.service.log.LogService;
+
+
+/**
+ * The <code>ParallelUpdateThread</code> runs the update tasks on a number of
+ * worker threads. Tasks sharing an ordering key, that is a PID or a target
+ * service, are run in the order in which they are scheduled, while tasks
+ * without common keys are run concurrently. Tasks not implementing
+ * {@link UpdateThread.OrderedTask} share a single key.
+ * <p>
+ * A pending update of a configuration which has not been started yet is
+ * dropped when a newer update of the same configuration is scheduled.
+ * <p>
+ * Tasks running longer than the configured timeout are reported as slow
+ * consumers. Their worker thread is replaced by a new worker such that
+ * tasks for other PIDs and services are not held up by the slow consumer.
+ */
+public class ParallelUpdateThread extends UpdateThread
+{
+
+    // the key of tasks without ordering keys
+    private static final Object DEFAULT_KEY = new Object();
+
+    // the thread group into which the worker threads will be placed
+    private final ThreadGroup workerThreadGroup;
+
+    // the threads' base name
+    private final String workerBaseName;
+
+    // the number of worker threads not blocked by slow consumers
+    private final int threads;
+
+    // the time in milliseconds after which a task is reported as slow
+    private final long timeout;
+
+    // the queues of tasks per ordering key, the head of each queue is
+    // running or ready to run once it is at the head of all its queues
+    private final Map<Object, LinkedList<Task>> queues = new HashMap<>();
+
+    // the tasks ready to run, in scheduling order
+    private final LinkedList<Task> ready = new LinkedList<>();
+
+    // the tasks currently running
+    private final Set<Task> running = new LinkedHashSet<>();
+
+    // the pending updates by coalescing key
+    private final Map<Object, Task> pendingUpdates = new HashMap<>();
+
+    // the active worker threads
+    private final List<Thread> workers = new ArrayList<>();
+
+    // the worker threads which are not blocked by a slow consumer
+    private int available;
+
+    // the number of tasks scheduled and not run yet
+    private int pending;
+
+    // whether processing has been started and not been terminated
+    private boolean active;
+
+    // whether termination has been initiated
+    private boolean terminated;
+
+    // the thread reporting slow consumers
+    private Thread watchdog;
+
+    // the counter for worker thread names
+    private int workerCounter;
+
+    public ParallelUpdateThread( final ThreadGroup tg, final String name, final int threads, final long timeout )
+    {
+        super( tg, name );
+        this.workerThreadGroup = tg;
+        this.workerBaseName = name;
+        this.threads = Math.max( 1, threads );
+        this.timeout = Math.max( 1, timeout );
+    }
+
+
+    /**
+     * Starts the worker threads and the watchdog reporting slow consumers.
+     * This method does nothing if the workers have already been started.
+     */
+    @Override
+    void start()
+    {
+        synchronized ( queues )
+        {
+            if ( this.active || this.terminated )
+            {
+                return;
+            }
+            this.active = true;
+            for ( int i = 0; i < threads; i++ )
+            {
+                startWorker();
+            }
+
+            this.watchdog = new Thread( workerThreadGroup, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    watch();
+                }
+            }, workerBaseName + " Watchdog" );
+            this.watchdog.setDaemon( true );
+            this.watchdog.start();
+        }
+    }
+
+
+    /**
+     * Terminates the worker threads after all outstanding tasks have been
+     * processed. Tasks scheduled after termination has been initiated are
+     * not processed any more. If the tasks are not processed within 5
+     * seconds, the workers are interrupted and an ERROR message is logged.
+     */
+    @Override
+    void terminate()
+    {
+        final List<Thread> threadsToJoin;
+        synchronized ( queues )
+        {
+            if ( !this.active )
+            {
+                return;
+            }
+            this.active = false;
+            this.terminated = true;
+            queues.notifyAll();
+            threadsToJoin = new ArrayList<>( workers );
+        }
+
+        final long end = System.currentTimeMillis() + 5000;
+        for ( final Thread worker : threadsToJoin )
+        {
+            try
+            {
+                worker.join( Math.max( 1, end - System.currentTimeMillis() ) );
+            }
+            catch ( InterruptedException ie )
+            {
+                // don't really care
+            }
+        }
+
+        synchronized ( queues )
+        {
+            if ( !workers.isEmpty() )
+            {
+                Log.logger.log( LogService.LOG_ERROR,
+                    "{0} worker threads of {1} did not terminate within 5 seconds; interrupting", new Object[]
+                        { workers.size(), workerBaseName } );
+                for ( final Thread worker : workers )
+                {
+                    worker.interrupt();
+                }
+            }
+            watchdog.interrupt();
+        }
+    }
+
+
+    /**
+     * Queues the given task to be run once all earlier tasks sharing one
+     * of its ordering keys have been run.
+     */
+    @Override
+    void schedule( final Runnable update )
+    {
+        final Collection<?> keys;
+        final Object coalescingKey;
+        if ( update instanceof OrderedTask )
+        {
+            keys = ( ( OrderedTask ) update ).getOrderingKeys();
+            coalescingKey = ( ( OrderedTask ) update ).getCoalescingKey();
+        }
+        else
+        {
+            keys = Collections.singleton( DEFAULT_KEY );
+            coalescingKey = null;
+        }
+
+        final Task task = new Task( update, new LinkedHashSet<>( keys ), coalescingKey );
+        synchronized ( queues )
+        {
+            if ( terminated )
+            {
+                Log.logger.log( LogService.LOG_DEBUG, "Not scheduling task {0} after termination", new Object[]
+                    { update } );
+                return;
+            }
+
+            Log.logger.log( LogService.LOG_DEBUG, "Scheduling task {0}", new Object[]
+                { update } );
+
+            if ( coalescingKey != null )
+            {
+                final Task superseded = pendingUpdates.put( coalescingKey, task );
+                if ( superseded != null )
+                {
+                    superseded.superseded = true;
+                    Log.logger.log( LogService.LOG_DEBUG, "Task {0} is superseded by {1}", new Object[]
+                        { superseded.runnable, update } );
+                }
+            }
+
+            for ( final Object key : task.keys )
+            {
+                LinkedList<Task> queue = queues.get( key );
+                if ( queue == null )
+                {
+                    queue = new LinkedList<>();
+                    queues.put( key, queue );
+                }
+                else
+                {
+                    task.blockers++;
+                }
+                queue.add( task );
+            }
+            pending++;
+
+            if ( task.blockers == 0 )
+            {
+                ready.add( task );
+                queues.notifyAll();
+            }
+        }
+    }
+
+
+    // takes ready tasks and runs them until the dispatcher is terminated
+    // and all tasks have been run or this worker is no longer needed
+    @Override
+    public void run()
+    {
+        for ( ;; )
+        {
+            final Task task;
+            synchronized ( queues )
+            {
+                for ( ;; )
+                {
+                    if ( available > threads || ( !active && pending == 0 ) )
+                    {
+                        // either replaced while running a slow task or done
+                        available--;
+                        workers.remove( Thread.currentThread() );
+                        queues.notifyAll();
+                        return;
+                    }
+                    if ( !ready.isEmpty() )
+                    {
+                        break;
+                    }
+                    try
+                    {
+                        queues.wait();
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        if ( !active )
+                        {
+                            available--;
+                            workers.remove( Thread.currentThread() );
+                            return;
+                        }
+                    }
+                }
+
+                task = ready.removeFirst();
+                if ( task.coalescingKey != null && pendingUpdates.get( task.coalescingKey ) == task )
+                {
+                    pendingUpdates.remove( task.coalescingKey );
+                }
+                task.thread = Thread.currentThread();
+                task.started = System.currentTimeMillis();
+                running.add( task );
+            }
+
+            try
+            {
+                if ( task.superseded )
+                {
+                    Log.logger.log( LogService.LOG_DEBUG, "Skipping superseded task {0}", new Object[]
+                        { task.runnable } );
+                }
+                else
+                {
+                    runTask( task.runnable );
+                }
+            }
+            finally
+            {
+                synchronized ( queues )
+                {
+                    running.remove( task );
+                    if ( task.slow )
+                    {
+                        Log.logger.log( LogService.LOG_WARNING, "Slow task {0} completed after {1}ms", new Object[]
+                            { task.runnable, System.currentTimeMillis() - task.started } );
+                        available++;
+                    }
+                    complete( task );
+                }
+            }
+        }
+    }
+
+
+    // runs a task, logging any issues
+    private void runTask( final Runnable task )
+    {
+        final Thread thread = Thread.currentThread();
+        final String name = thread.getName();
+        try
+        {
+            // set the thread name indicating the current task
+            thread.setName( name + " (" + task + ")" );
+
+            Log.logger.log( LogService.LOG_DEBUG, "Running task {0}", new Object[]
+                { task } );
+
+            run0( task );
+        }
+        catch ( Throwable t )
+        {
+            Log.logger.log( LogService.LOG_ERROR, "Unexpected problem executing task", t );
+        }
+        finally
+        {
+            thread.setName( name );
+        }
+    }
+
+
+    // removes the task from the head of its queues and makes the tasks
+    // ready which are now at the head of all their queues
+    private void complete( final Task task )
+    {
+        pending--;
+        for ( final Object key : task.keys )
+        {
+            final LinkedList<Task> queue = queues.get( key );
+            queue.removeFirst();
+            if ( queue.isEmpty() )
+            {
+                queues.remove( key );
+            }
+            else
+            {
+                final Task next = queue.getFirst();
+                if ( --next.blockers == 0 )
+                {
+                    ready.add( next );
+                }
+            }
+        }
+        queues.notifyAll();
+    }
+
+
+    // checks for slow consumers until all tasks have been run after
+    // termination
+    private void watch()
+    {
+        synchronized ( queues )
+        {
+            while ( active || pending > 0 )
+            {
+                try
+                {
+                    queues.wait( timeout );
+                }
+                catch ( InterruptedException ie )
+                {
+                    return;
+                }
+                checkSlowConsumers();
+            }
+        }
+    }
+
+
+    // reports tasks running longer than the timeout and replaces their
+    // worker threads, must be called with the lock held
+    private void checkSlowConsumers()
+    {
+        final long now = System.currentTimeMillis();
+        for ( final Task task : running )
+        {
+            if ( !task.slow && now - task.started >= timeout )
+            {
+                task.slow = true;
+                Log.logger.log( LogService.LOG_WARNING,
+                    "Task {0} has not completed within {1}ms in thread {2}; further updates for its PIDs and services are delayed",
+                    new Object[]
+                        { task.runnable, timeout, task.thread.getName() } );
+
+                // the slow task's worker does not count as available any more
+                available--;
+                if ( active )
+                {
+                    startWorker();
+                }
+            }
+        }
+    }
+
+
+    // starts a new worker thread, must be called with the lock held
+    private void startWorker()
+    {
+        final Thread worker = new Thread( workerThreadGroup, this, workerBaseName + " #" + ( ++workerCounter ) );
+        worker.setDaemon( true );
+        workers.add( worker );
+        available++;
+        worker.start();
+    }
+
+
+    // a scheduled task with its ordering keys
+    private static final class Task
+    {
+        final Runnable runnable;
+
+        final Set<Object> keys;
+
+        final Object coalescingKey;
+
+        // the number of queues in which this task is not at the head
+        int blockers;
+
+        boolean superseded;
+
+        boolean slow;
+
+        Thread thread;
+
+        long started;
+
+        Task( final Runnable runnable, final Set<Object> keys, final Object coalescingKey )
+        {
+            this.runnable = runnable;
+            this.keys = keys;
+            this.coalescingKey = coalescingKey;
+        }
+    }
+}
@@ -23,8 +23,10 @@ import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Dictionary;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.osgi.framework.InvalidSyntaxException;
 
@@ -625,6 +627,68 @@ public class SimpleFilter
         return matched;
     }
 
+    /**
+     * Returns the keys of the dictionaries which may match this filter
+     * according to the given index, or <code>null</code> if the filter cannot
+     * be narrowed down by the index and all dictionaries have to be checked.
+     * <p>
+     * Only equality comparisons of indexed properties are answered from the
+     * index. An AND filter uses its most selective indexed operand, an OR
+     * filter the union of its operands if all of them are indexed. The
+     * returned keys are only candidates: {@link #matches(Dictionary)} must
+     * still be called for each of the dictionaries.
+     */
+    public Set<String> plan(Index index)
+    {
+        switch (m_op)
+        {
+            case EQ:
+                return (m_value instanceof String)
+                    ? index.lookup(m_name, (String) m_value)
+                    : null;
+            case AND:
+                Set<String> smallest = null;
+                for (SimpleFilter sf : (List<SimpleFilter>) m_value)
+                {
+                    Set<String> candidates = sf.plan(index);
+                    if ((candidates != null)
+                        && ((smallest == null) || (candidates.size() < smallest.size())))
+                    {
+                        smallest = candidates;
+                    }
+                }
+                return smallest;
+            case OR:
+                Set<String> union = new HashSet<String>();
+                for (SimpleFilter sf : (List<SimpleFilter>) m_value)
+                {
+                    Set<String> candidates = sf.plan(index);
+                    if (candidates == null)
+                    {
+                        return null;
+                    }
+                    union.addAll(candidates);
+                }
+                return union;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * An index of property values used by {@link SimpleFilter#plan(Index)}.
+     */
+    public interface Index
+    {
+        /**
+         * Returns the keys of the dictionaries which may have the given
+         * value for the given property, or <code>null</code> if the property
+         * is not indexed. Dictionaries whose value of the property cannot be
+         * indexed must be included.
+         */
+        Set<String> lookup(String name, String value);
+    }
+
     private static final Class<?>[] STRING_CLASS = new Class[] { String.class };
 
     private static boolean compare(Object lhs, Object rhsUnknown, int op)
@@ -22,6 +22,7 @@ import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.Collection;
 import java.util.LinkedList;
 
 import org.osgi.service.log.LogService;
@@ -200,6 +201,27 @@ public class UpdateThread implements Runnable
     }
 
 
+    /**
+     * A task which declares the PIDs and services it has to be ordered with.
+     * A {@link ParallelUpdateThread} runs tasks sharing an ordering key in
+     * the order in which they are scheduled and other tasks concurrently.
+     */
+    interface OrderedTask extends Runnable
+    {
+        /**
+         * Returns the ordering keys of this task, which are the PIDs and the
+         * service references it provides configuration to.
+         */
+        Collection<?> getOrderingKeys();
+
+        /**
+         * Returns the key of this task if it supersedes any pending task with
+         * the same key or <code>null</code> if this task is always run.
+         */
+        Object getCoalescingKey();
+    }
+
+
     // queue the given runnable to be run as soon as possible
     void schedule( Runnable update )
     {
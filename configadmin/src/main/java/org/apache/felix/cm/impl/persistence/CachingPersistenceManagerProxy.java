@@ -20,6 +20,7 @@ package org.apache.felix.cm.impl.persistence;
 
 
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -30,6 +31,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -46,6 +48,12 @@ import org.osgi.service.cm.ConfigurationAdmin;
  * underlying actual {@link PersistenceManager} implementation. All API calls
  * are also (or primarily) routed through a local cache of dictionaries indexed
  * by the <code>service.pid</code>.
+ * <p>
+ * The cached dictionaries are additionally indexed by the values of the
+ * <code>service.factoryPid</code> and <code>service.bundleLocation</code>
+ * properties and of any further configured properties. Filters passed to
+ * {@link #getDictionaries(SimpleFilter)} are planned against these indexes
+ * such that only the candidate dictionaries have to be matched.
  */
 public class CachingPersistenceManagerProxy implements ExtPersistenceManager
 {
@@ -66,16 +74,55 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
      */
     private volatile boolean fullyLoaded;
 
-    /** Factory configuration cache. */
-    private final Map<String, Set<String>> factoryConfigCache = new HashMap<>();
+    /** Indexes of the cached dictionaries by property name. */
+    private final Map<String, PropertyIndex> indexes = new TreeMap<>( CaseInsensitiveDictionary.CASE_INSENSITIVE_ORDER );
+
+    /** The factory pid index, also contained in the indexes. */
+    private final PropertyIndex factoryPidIndex;
+
+    /** Index lookup for filter planning, must be called with the lock held. */
+    private final SimpleFilter.Index index = new SimpleFilter.Index()
+    {
+        @Override
+        public Set<String> lookup( final String name, final String value )
+        {
+            if ( Constants.SERVICE_PID.equalsIgnoreCase( name ) )
+            {
+                return cache.containsKey( value ) ? Collections.singleton( value ) : Collections.<String>emptySet();
+            }
+            final PropertyIndex propertyIndex = indexes.get( name );
+            return propertyIndex == null ? null : propertyIndex.lookup( value );
+        }
+    };
 
     /**
      * Creates a new caching layer for the given actual {@link PersistenceManager}.
      * @param pm The actual {@link PersistenceManager}
      */
     public CachingPersistenceManagerProxy( final PersistenceManager pm )
+    {
+        this( pm, Collections.<String>emptyList() );
+    }
+
+    /**
+     * Creates a new caching layer for the given actual {@link PersistenceManager}
+     * which additionally indexes the given properties.
+     * @param pm The actual {@link PersistenceManager}
+     * @param indexedProperties The names of additional properties to index
+     */
+    public CachingPersistenceManagerProxy( final PersistenceManager pm, final Collection<String> indexedProperties )
     {
         this.pm = pm;
+        this.factoryPidIndex = new PropertyIndex();
+        this.indexes.put( ConfigurationAdmin.SERVICE_FACTORYPID, this.factoryPidIndex );
+        this.indexes.put( ConfigurationAdmin.SERVICE_BUNDLELOCATION, new PropertyIndex() );
+        for ( final String name : indexedProperties )
+        {
+            if ( !Constants.SERVICE_PID.equalsIgnoreCase( name ) && !this.indexes.containsKey( name ) )
+            {
+                this.indexes.put( name, new PropertyIndex() );
+            }
+        }
     }
 
     @Override
@@ -96,23 +143,7 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
         try
         {
             lock.lock();
-            final Dictionary props = cache.remove( pid );
-            if ( props != null )
-            {
-                final String factoryPid = (String)props.get(ConfigurationAdmin.SERVICE_FACTORYPID);
-                if ( factoryPid != null )
-                {
-                    final Set<String> factoryPids = this.factoryConfigCache.get(factoryPid);
-                    if ( factoryPids != null )
-                    {
-                        factoryPids.remove(pid);
-                        if ( factoryPids.isEmpty() )
-                        {
-                            this.factoryConfigCache.remove(factoryPid);
-                        }
-                    }
-                }
-            }
+            this.uncache( pid );
             pm.delete(pid);
         }
         finally
@@ -151,7 +182,8 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
      * <p>
      * Note, that each call to this method will return new dictionary objects.
      * That is modifying the contents of a dictionary returned from this method
-     * has no influence on the dictionaries stored in the cache.
+     * has no influence on the dictionaries stored in the cache. The returned
+     * dictionaries share their contents with the cache until they are modified.
      */
     @Override
     public Enumeration getDictionaries() throws IOException
@@ -170,22 +202,27 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
             {
                 dict = new CaseInsensitiveDictionary(props);
                 cache.put( pid, dict );
-                final String factoryPid = (String)props.get(ConfigurationAdmin.SERVICE_FACTORYPID);
-                if ( factoryPid != null )
+                for ( final Map.Entry<String, PropertyIndex> entry : this.indexes.entrySet() )
                 {
-                    Set<String> factoryPids = this.factoryConfigCache.get(factoryPid);
-                    if ( factoryPids == null )
-                    {
-                        factoryPids = new HashSet<>();
-                        this.factoryConfigCache.put(factoryPid, factoryPids);
-                    }
-                    factoryPids.add(pid);
+                    entry.getValue().add( pid, dict.get( entry.getKey() ) );
                 }
             }
         }
         return dict;
     }
 
+    private final void uncache(final String pid)
+    {
+        final CaseInsensitiveDictionary dict = cache.remove( pid );
+        if ( dict != null )
+        {
+            for ( final Map.Entry<String, PropertyIndex> entry : this.indexes.entrySet() )
+            {
+                entry.getValue().remove( pid, dict.get( entry.getKey() ) );
+            }
+        }
+    }
+
     @Override
     public Collection<Dictionary> getDictionaries( final SimpleFilter filter ) throws IOException
     {
@@ -212,13 +249,22 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
                 }
             }
 
-            // Deep copy the configuration to avoid any threading issue
+            // only check the candidates of the filter if it can be planned
+            // against the indexes, all cached dictionaries otherwise
+            final Set<String> candidates = filter == null ? null : filter.plan( this.index );
             final List<Dictionary> configs = new ArrayList<>();
-            for (final Dictionary d : cache.values())
+            if ( candidates != null )
             {
-                if ( d.get( Constants.SERVICE_PID ) != null && ( filter == null || filter.matches( d ) ) )
+                for ( final String pid : candidates )
                 {
-                    configs.add( new CaseInsensitiveDictionary( d ) );
+                    this.addMatching( configs, cache.get( pid ), filter );
+                }
+            }
+            else
+            {
+                for ( final CaseInsensitiveDictionary d : cache.values() )
+                {
+                    this.addMatching( configs, d, filter );
                 }
             }
             return configs;
@@ -230,6 +276,16 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
     }
 
 
+    private void addMatching( final List<Dictionary> configs, final CaseInsensitiveDictionary d, final SimpleFilter filter )
+    {
+        if ( d != null && d.get( Constants.SERVICE_PID ) != null && ( filter == null || filter.matches( d ) ) )
+        {
+            // Copy the configuration to avoid any threading issue
+            configs.add( CaseInsensitiveDictionary.copyOnWrite( d ) );
+        }
+    }
+
+
     /**
      * Returns the dictionary for the given PID or <code>null</code> if no
      * such dictionary is stored by the underlying persistence manager. This
@@ -263,7 +319,7 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
                     }
                 }
             }
-            return loaded == null ? null : new CaseInsensitiveDictionary(loaded);
+            return loaded == null ? null : CaseInsensitiveDictionary.copyOnWrite(loaded);
         }
         finally
         {
@@ -289,7 +345,7 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
         {
             lock.lock();
             pm.store( pid, properties );
-            this.cache.remove(pid);
+            this.uncache(pid);
             this.cache(properties);
         }
         finally
@@ -328,7 +384,7 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
             }
             for(final String targetFactoryPid : targetedFactoryPids)
             {
-                final Set<String> cachedPids = this.factoryConfigCache.get(targetFactoryPid);
+                final Set<String> cachedPids = this.factoryPidIndex.values.get(targetFactoryPid);
                 if ( cachedPids != null )
                 {
                     pids.addAll(cachedPids);
@@ -341,4 +397,92 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
         }
         return pids;
     }
+
+    /**
+     * Index of the values of a property. String values, including the
+     * elements of arrays and collections, are indexed. Dictionaries having
+     * values of other types are returned for every lookup, as the filter
+     * may still match them after type coercion.
+     */
+    private static final class PropertyIndex
+    {
+        final Map<String, Set<String>> values = new HashMap<>();
+
+        final Set<String> unindexed = new HashSet<>();
+
+        void add( final String pid, final Object value )
+        {
+            for ( final Object v : elements( value ) )
+            {
+                if ( v instanceof String )
+                {
+                    Set<String> pids = values.get( v );
+                    if ( pids == null )
+                    {
+                        pids = new HashSet<>();
+                        values.put( ( String ) v, pids );
+                    }
+                    pids.add( pid );
+                }
+                else
+                {
+                    unindexed.add( pid );
+                }
+            }
+        }
+
+        void remove( final String pid, final Object value )
+        {
+            for ( final Object v : elements( value ) )
+            {
+                final Set<String> pids = values.get( v );
+                if ( pids != null )
+                {
+                    pids.remove( pid );
+                    if ( pids.isEmpty() )
+                    {
+                        values.remove( v );
+                    }
+                }
+            }
+            unindexed.remove( pid );
+        }
+
+        Set<String> lookup( final String value )
+        {
+            final Set<String> pids = values.get( value );
+            if ( unindexed.isEmpty() )
+            {
+                return pids == null ? Collections.<String>emptySet() : pids;
+            }
+            final Set<String> result = new HashSet<>( unindexed );
+            if ( pids != null )
+            {
+                result.addAll( pids );
+            }
+            return result;
+        }
+
+        private static Collection<?> elements( final Object value )
+        {
+            if ( value == null )
+            {
+                return Collections.emptyList();
+            }
+            else if ( value instanceof Collection )
+            {
+                return ( Collection<?> ) value;
+            }
+            else if ( value.getClass().isArray() )
+            {
+                final List<Object> list = new ArrayList<>();
+                for ( int i = 0; i < Array.getLength( value ); i++ )
+                {
+                    list.add( Array.get( value, i ) );
+                }
+                return list;
+            }
+            return Collections.singletonList( value );
+        }
+    }
 }
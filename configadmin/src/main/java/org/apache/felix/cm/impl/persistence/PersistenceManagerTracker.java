@@ -49,6 +49,14 @@ import org.osgi.util.tracker.ServiceTrackerCustomizer;
 public class PersistenceManagerTracker
     implements ServiceTrackerCustomizer<PersistenceManager, PersistenceManagerTracker.Holder>
 {
+    /**
+     * The name of the framework context property listing additional
+     * configuration properties to be indexed by the configuration cache
+     * (value is "felix.cm.index"). The property names are separated by
+     * commas.
+     */
+    private static final String CM_CONFIG_INDEX = "felix.cm.index";
+
     /** Tracker for the persistence manager. */
     private final ServiceTracker<PersistenceManager, Holder> persistenceManagerTracker;
 
@@ -144,11 +152,28 @@ public class PersistenceManagerTracker
         }
         else
         {
-            extPM = new CachingPersistenceManagerProxy( pm );
+            extPM = new CachingPersistenceManagerProxy( pm, this.getIndexedProperties() );
         }
         return extPM;
     }
 
+    private List<String> getIndexedProperties()
+    {
+        final List<String> names = new ArrayList<>();
+        final String value = this.bundleContext.getProperty( CM_CONFIG_INDEX );
+        if ( value != null )
+        {
+            for ( final String name : value.split( "," ) )
+            {
+                if ( !name.trim().isEmpty() )
+                {
+                    names.add( name.trim() );
+                }
+            }
+        }
+        return names;
+    }
+
     @Override
     public Holder addingService(final ServiceReference<PersistenceManager> reference)
     {
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.file;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournalPersistenceManagerTest
+{
+    private File file = new File( System.getProperty( "java.io.tmpdir" ), "config.journal" );
+
+    private JournalPersistenceManager jpm;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file.delete();
+        jpm = new JournalPersistenceManager( null, file.getAbsolutePath() );
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        jpm.close();
+        file.delete();
+    }
+
+    @Test
+    public void testStoreLoad() throws IOException
+    {
+        jpm.store( "pid1", createDictionary( "pid1", "value1" ) );
+        jpm.store( "pid2", createDictionary( "pid2", "value2" ) );
+        jpm.store( "pid1", createDictionary( "pid1", "value3" ) );
+        jpm.delete( "pid2" );
+        jpm.delete( "pid3" );
+
+        check( jpm );
+
+        jpm.close();
+        jpm = new JournalPersistenceManager( null, file.getAbsolutePath() );
+
+        check( jpm );
+    }
+
+    @Test
+    public void testLoadMissing() throws IOException
+    {
+        try
+        {
+            jpm.load( "missing" );
+            fail( "Expected IOException for missing configuration" );
+        }
+        catch ( IOException ioe )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDamagedRecord() throws IOException
+    {
+        jpm.store( "pid1", createDictionary( "pid1", "value1" ) );
+        jpm.close();
+
+        // simulate a partially written record
+        final FileOutputStream out = new FileOutputStream( file, true );
+        out.write( new byte[] { 0, 0, 1, 0, 1, 2, 3, 4, 5 } );
+        out.close();
+
+        jpm = new JournalPersistenceManager( null, file.getAbsolutePath() );
+        assertEquals( "value1", jpm.load( "pid1" ).get( "prop" ) );
+
+        // records appended after the damaged record must be found again
+        jpm.store( "pid2", createDictionary( "pid2", "value2" ) );
+        jpm.close();
+
+        jpm = new JournalPersistenceManager( null, file.getAbsolutePath() );
+        assertEquals( "value1", jpm.load( "pid1" ).get( "prop" ) );
+        assertEquals( "value2", jpm.load( "pid2" ).get( "prop" ) );
+    }
+
+    @Test
+    public void testDamagedRecordLength() throws IOException
+    {
+        jpm.store( "pid1", createDictionary( "pid1", "value1" ) );
+        jpm.close();
+
+        // a record length beyond the end of the journal must not be read
+        final FileOutputStream out = new FileOutputStream( file, true );
+        out.write( new byte[] { 0x7f, ( byte ) 0xff, ( byte ) 0xff, ( byte ) 0xff, 1, 2, 3, 4, 1, 0 } );
+        out.close();
+        final long damagedSize = file.length();
+
+        jpm = new JournalPersistenceManager( null, file.getAbsolutePath() );
+        assertEquals( "value1", jpm.load( "pid1" ).get( "prop" ) );
+        assertTrue( file.length() < damagedSize );
+    }
+
+    @Test
+    public void testDamagedHeader() throws IOException
+    {
+        jpm.store( "pid1", createDictionary( "pid1", "value1" ) );
+        jpm.close();
+
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.writeInt( 0 );
+        raf.close();
+        final long damagedSize = file.length();
+
+        try
+        {
+            jpm = new JournalPersistenceManager( null, file.getAbsolutePath() );
+            fail( "Expected IOException for damaged journal header" );
+        }
+        catch ( IOException ioe )
+        {
+            // expected, the journal is left alone
+        }
+        assertEquals( damagedSize, file.length() );
+
+        // an empty journal file is started over
+        file.delete();
+        file.createNewFile();
+        jpm = new JournalPersistenceManager( null, file.getAbsolutePath() );
+        assertFalse( jpm.getDictionaries().hasMoreElements() );
+    }
+
+    @Test
+    public void testMigrated() throws IOException
+    {
+        assertFalse( jpm.isMigrated() );
+        jpm.store( "pid1", createDictionary( "pid1", "value1" ) );
+        jpm.close();
+
+        // an interrupted migration is not marked
+        jpm = new JournalPersistenceManager( null, file.getAbsolutePath() );
+        assertFalse( jpm.isMigrated() );
+        jpm.setMigrated();
+        assertTrue( jpm.isMigrated() );
+        jpm.close();
+
+        jpm = new JournalPersistenceManager( null, file.getAbsolutePath() );
+        assertTrue( jpm.isMigrated() );
+        assertEquals( "value1", jpm.load( "pid1" ).get( "prop" ) );
+    }
+
+    @Test
+    public void testCompaction() throws IOException
+    {
+        jpm.setMigrated();
+
+        final StringBuilder value = new StringBuilder();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            value.append( 'x' );
+        }
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            jpm.store( "pid", createDictionary( "pid", value.toString() + i ) );
+        }
+        jpm.store( "other", createDictionary( "other", "other" ) );
+
+        // the journal has been compacted at least once
+        assertTrue( "Journal has not been compacted: " + file.length(), file.length() < 200 * 1024 );
+
+        jpm.close();
+        jpm = new JournalPersistenceManager( null, file.getAbsolutePath() );
+        assertTrue( jpm.isMigrated() );
+        assertEquals( value.toString() + 999, jpm.load( "pid" ).get( "prop" ) );
+        assertEquals( "other", jpm.load( "other" ).get( "prop" ) );
+    }
+
+    @Test
+    public void testGetDictionariesSnapshot() throws IOException
+    {
+        jpm.store( "pid1", createDictionary( "pid1", "value1" ) );
+        jpm.store( "pid2", createDictionary( "pid2", "value2" ) );
+
+        final Enumeration<?> dictionaries = jpm.getDictionaries();
+        jpm.delete( "pid1" );
+        jpm.store( "pid3", createDictionary( "pid3", "value3" ) );
+
+        int count = 0;
+        while ( dictionaries.hasMoreElements() )
+        {
+            final Dictionary<?, ?> dict = ( Dictionary<?, ?> ) dictionaries.nextElement();
+            assertFalse( "pid3".equals( dict.get( "service.pid" ) ) );
+            count++;
+        }
+        assertEquals( 2, count );
+    }
+
+    private void check( final JournalPersistenceManager pm ) throws IOException
+    {
+        assertTrue( pm.exists( "pid1" ) );
+        assertFalse( pm.exists( "pid2" ) );
+
+        final Dictionary<?, ?> dict = pm.load( "pid1" );
+        assertEquals( "pid1", dict.get( "service.pid" ) );
+        assertEquals( "value3", dict.get( "prop" ) );
+        assertEquals( Long.valueOf( 42 ), dict.get( "long" ) );
+        assertArrayEquals( new String[] { "a", "b" }, ( String[] ) dict.get( "array" ) );
+
+        // every load returns a new dictionary
+        assertFalse( dict == pm.load( "pid1" ) );
+    }
+
+    private Dictionary<String, Object> createDictionary( final String pid, final String value )
+    {
+        final Dictionary<String, Object> dict = new Hashtable<>();
+        dict.put( "service.pid", pid );
+        dict.put( "prop", value );
+        dict.put( "long", Long.valueOf( 42 ) );
+        dict.put( "array", new String[] { "a", "b" } );
+        return dict;
+    }
+}
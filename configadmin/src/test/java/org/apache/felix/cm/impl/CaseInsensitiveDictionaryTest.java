@@ -290,4 +290,28 @@ public class CaseInsensitiveDictionaryTest
             // expected
         }
     }
+
+
+    @Test
+    public void testCopyOnWrite()
+    {
+        final CaseInsensitiveDictionary dict = new CaseInsensitiveDictionary();
+        dict.put( "a", "1" );
+        dict.put( "b", "2" );
+
+        final CaseInsensitiveDictionary copy = CaseInsensitiveDictionary.copyOnWrite( dict );
+        assertEquals( "1", copy.get( "A" ) );
+        assertEquals( 2, copy.size() );
+
+        copy.put( "a", "3" );
+        copy.remove( "b" );
+        assertEquals( "3", copy.get( "a" ) );
+        assertEquals( "1", dict.get( "a" ) );
+        assertEquals( "2", dict.get( "b" ) );
+
+        final CaseInsensitiveDictionary other = CaseInsensitiveDictionary.copyOnWrite( dict );
+        dict.put( "c", "4" );
+        assertEquals( 2, other.size() );
+        assertEquals( 3, dict.size() );
+    }
 }
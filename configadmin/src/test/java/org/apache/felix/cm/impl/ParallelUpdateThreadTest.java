@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+public class ParallelUpdateThreadTest
+{
+
+    private ParallelUpdateThread updateThread;
+
+    private final List<String> log = Collections.synchronizedList( new ArrayList<String>() );
+
+
+    @After
+    public void tearDown()
+    {
+        if ( updateThread != null )
+        {
+            updateThread.terminate();
+        }
+    }
+
+
+    @Test
+    public void testOrderingPerKey() throws Exception
+    {
+        updateThread = new ParallelUpdateThread( null, "Test updater", 4, 5000 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            updateThread.schedule( new Task( String.valueOf( i ), null, "a" ) );
+        }
+        updateThread.start();
+        updateThread.terminate();
+
+        final List<String> expected = new ArrayList<>();
+        for ( int i = 0; i < 100; i++ )
+        {
+            expected.add( String.valueOf( i ) );
+        }
+        assertEquals( expected, log );
+    }
+
+
+    @Test
+    public void testConcurrentKeys() throws Exception
+    {
+        updateThread = new ParallelUpdateThread( null, "Test updater", 2, 5000 );
+        updateThread.start();
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final BlockingTask blocking = new BlockingTask( release, "a" );
+        updateThread.schedule( blocking );
+        assertTrue( blocking.started.await( 5, TimeUnit.SECONDS ) );
+
+        // a task for another key is run while the first task is blocked
+        final Task other = new Task( "b1", null, "b" );
+        updateThread.schedule( other );
+        assertTrue( other.done.await( 5, TimeUnit.SECONDS ) );
+
+        // a task sharing a key has to wait for the blocked task
+        final Task shared = new Task( "ab", null, "a", "b" );
+        updateThread.schedule( shared );
+        assertFalse( shared.done.await( 100, TimeUnit.MILLISECONDS ) );
+
+        release.countDown();
+        assertTrue( shared.done.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( Arrays.asList( "b1", "a", "ab" ), log );
+    }
+
+
+    @Test
+    public void testCoalescing() throws Exception
+    {
+        updateThread = new ParallelUpdateThread( null, "Test updater", 2, 5000 );
+        updateThread.start();
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final BlockingTask blocking = new BlockingTask( release, "a" );
+        updateThread.schedule( blocking );
+        assertTrue( blocking.started.await( 5, TimeUnit.SECONDS ) );
+
+        updateThread.schedule( new Task( "update1", "pid", "a" ) );
+        updateThread.schedule( new Task( "other", "other", "a" ) );
+        final Task last = new Task( "update2", "pid", "a" );
+        updateThread.schedule( last );
+
+        release.countDown();
+        assertTrue( last.done.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( Arrays.asList( "a", "other", "update2" ), log );
+    }
+
+
+    @Test
+    public void testSlowConsumer() throws Exception
+    {
+        updateThread = new ParallelUpdateThread( null, "Test updater", 1, 50 );
+        updateThread.start();
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final BlockingTask blocking = new BlockingTask( release, "a" );
+        updateThread.schedule( blocking );
+        assertTrue( blocking.started.await( 5, TimeUnit.SECONDS ) );
+
+        // the worker blocked by the slow task is replaced
+        final Task other = new Task( "b", null, "b" );
+        updateThread.schedule( other );
+        assertTrue( other.done.await( 5, TimeUnit.SECONDS ) );
+
+        release.countDown();
+        final Task next = new Task( "a2", null, "a" );
+        updateThread.schedule( next );
+        assertTrue( next.done.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( Arrays.asList( "b", "a", "a2" ), log );
+    }
+
+
+    private class Task implements UpdateThread.OrderedTask
+    {
+        private final String name;
+
+        private final Object coalescingKey;
+
+        private final List<String> keys;
+
+        final CountDownLatch done = new CountDownLatch( 1 );
+
+        Task( final String name, final Object coalescingKey, final String... keys )
+        {
+            this.name = name;
+            this.coalescingKey = coalescingKey;
+            this.keys = Arrays.asList( keys );
+        }
+
+        @Override
+        public void run()
+        {
+            log.add( name );
+            done.countDown();
+        }
+
+        @Override
+        public Collection<?> getOrderingKeys()
+        {
+            return keys;
+        }
+
+        @Override
+        public Object getCoalescingKey()
+        {
+            return coalescingKey;
+        }
+    }
+
+    private class BlockingTask extends Task
+    {
+        private final CountDownLatch release;
+
+        final CountDownLatch started = new CountDownLatch( 1 );
+
+        BlockingTask( final CountDownLatch release, final String key )
+        {
+            super( key, null, key );
+            this.release = release;
+        }
+
+        @Override
+        public void run()
+        {
+            started.countDown();
+            try
+            {
+                release.await( 5, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                // ignore
+            }
+            super.run();
+        }
+    }
+}
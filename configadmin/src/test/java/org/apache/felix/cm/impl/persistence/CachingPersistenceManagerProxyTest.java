@@ -23,9 +23,11 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Set;
 
@@ -178,4 +180,61 @@ public class CachingPersistenceManagerProxyTest
         assertTrue(pids.contains("new_pid_for_newf1"));
         assertTrue(pids.contains("new_pid_for_newf2"));
     }
-}
\ No newline at end of file
+
+    @Test public void testIndexedQueries() throws Exception
+    {
+        final PersistenceManager pm = this.createAndPopulatePersistenceManager();
+        final Dictionary<String, Object> tagged = createConfiguration("tagged", null);
+        tagged.put("tags", new String[] {"x", "y"});
+        tagged.put(ConfigurationAdmin.SERVICE_BUNDLELOCATION, "location");
+        pm.store("tagged", tagged);
+        final Dictionary<String, Object> numbered = createConfiguration("numbered", null);
+        numbered.put("tags", Integer.valueOf(5));
+        pm.store("numbered", numbered);
+
+        final CachingPersistenceManagerProxy cpm = new CachingPersistenceManagerProxy(pm, Arrays.asList("Tags"));
+
+        assertPids(cpm, "(service.factoryPid=" + FACTORY_PID_B + ")", FB_PID_A, FB_PID_B);
+        assertPids(cpm, "(&(service.factoryPid=" + FACTORY_PID_A + ")(value=" + PREFIX + FA_PID_B + "))", FA_PID_B);
+        assertPids(cpm, "(|(service.pid=" + PID_A + ")(SERVICE.PID=" + PID_C + "))", PID_A, PID_C);
+        assertPids(cpm, "(service.bundleLocation=location)", "tagged");
+        assertPids(cpm, "(tags=y)", "tagged");
+        assertPids(cpm, "(tags=5)", "numbered");
+        assertPids(cpm, "(&(value=" + PREFIX + PID_B + ")(!(service.pid=" + PID_A + ")))", PID_B);
+
+        // indexes follow modifications
+        cpm.store(FB_PID_B, createConfiguration(FB_PID_B, FACTORY_PID_A));
+        cpm.delete(FB_PID_A);
+        assertPids(cpm, "(service.factoryPid=" + FACTORY_PID_B + ")");
+        assertPids(cpm, "(service.factoryPid=" + FACTORY_PID_A + ")", FA_PID_A, FA_PID_B, FA_PID_C, FB_PID_B);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test public void testReturnedDictionariesAreCopies() throws Exception
+    {
+        final CachingPersistenceManagerProxy cpm = new CachingPersistenceManagerProxy(this.createAndPopulatePersistenceManager());
+
+        final Dictionary dict = cpm.load(PID_A);
+        dict.remove(Constants.SERVICE_PID);
+        dict.put("value", "modified");
+
+        assertEquals(PID_A, cpm.load(PID_A).get(Constants.SERVICE_PID));
+        assertEquals(PREFIX + PID_A, cpm.load(PID_A).get("value"));
+        for (final Dictionary d : cpm.getDictionaries(SimpleFilter.parse("(service.pid=" + PID_A + ")")))
+        {
+            d.remove("value");
+        }
+        assertEquals(PREFIX + PID_A, cpm.getDictionaries(SimpleFilter.parse("(service.pid=" + PID_A + ")")).iterator().next().get("value"));
+    }
+
+    private void assertPids(final CachingPersistenceManagerProxy cpm, final String filter, final String... pids)
+    throws Exception
+    {
+        final Set<String> found = new HashSet<>();
+        for (final Dictionary dict : cpm.getDictionaries(SimpleFilter.parse(filter)))
+        {
+            found.add((String) dict.get(Constants.SERVICE_PID));
+        }
+        assertEquals(new HashSet<>(Arrays.asList(pids)), found);
+    }
+}
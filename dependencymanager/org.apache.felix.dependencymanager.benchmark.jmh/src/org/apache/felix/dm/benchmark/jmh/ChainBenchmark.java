@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh;
+
+import org.apache.felix.dm.benchmark.jmh.runtime.Chain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the propagation of a service through a chain of adapters or aspects: the base Track
+ * is registered, and the benchmark waits until all links are started, then the base Track is
+ * unregistered and the benchmark waits until all links are stopped.
+ * 
+ * With Dependency Manager, the chain is made of DM adapter and aspect components. SCR and iPOJO
+ * don't have such concepts, so the links are plain components requiring the previous link using
+ * a filter (and a service ranking for aspects).
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class ChainBenchmark extends RuntimeBenchmark {
+    @Param({ "ADAPTER", "ASPECT" })
+    public Chain chain;
+
+    @Param({ "1", "10", "50" })
+    public int length;
+
+    @Setup(Level.Trial)
+    public void deployLinks() throws Exception {
+        m_runtime.deployLinks(chain, length);
+    }
+
+    @TearDown(Level.Trial)
+    public void undeployLinks() throws Exception {
+        m_runtime.undeployLinks();
+    }
+
+    @Benchmark
+    public void propagate() throws Exception {
+        cycleLinks(chain, length);
+    }
+}
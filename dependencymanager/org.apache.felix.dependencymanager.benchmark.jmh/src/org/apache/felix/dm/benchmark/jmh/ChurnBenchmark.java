@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh;
+
+import org.apache.felix.dm.benchmark.jmh.runtime.Chain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures dependency injection churn: independent components, each one requiring a Track
+ * which is repeatedly registered and unregistered.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class ChurnBenchmark extends RuntimeBenchmark {
+    @Param({ "1", "10", "100" })
+    public int components;
+
+    @Setup(Level.Trial)
+    public void deployLinks() throws Exception {
+        m_runtime.deployLinks(Chain.CHURN, components);
+    }
+
+    @TearDown(Level.Trial)
+    public void undeployLinks() throws Exception {
+        m_runtime.undeployLinks();
+    }
+
+    @Benchmark
+    public void churn() throws Exception {
+        cycleLinks(Chain.CHURN, components);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the creation and the teardown of the Artist/Album/Track graph (630 components by default).
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class LifecycleBenchmark extends RuntimeBenchmark {
+    /**
+     * Deactivates the graph after each measured activation.
+     */
+    @State(Scope.Thread)
+    public static class Inactive {
+        @TearDown(Level.Invocation)
+        public void deactivate(LifecycleBenchmark benchmark) throws Exception {
+            benchmark.deactivateGraph();
+        }
+    }
+
+    /**
+     * Activates the graph before each measured deactivation.
+     */
+    @State(Scope.Thread)
+    public static class Active {
+        @Setup(Level.Invocation)
+        public void activate(LifecycleBenchmark benchmark) throws Exception {
+            benchmark.activateGraph();
+        }
+    }
+
+    @Benchmark
+    public void create(Inactive graph) throws Exception {
+        activateGraph();
+    }
+
+    @Benchmark
+    public void teardown(Active graph) throws Exception {
+        deactivateGraph();
+    }
+
+    @Benchmark
+    public void createAndTeardown() throws Exception {
+        activateGraph();
+        deactivateGraph();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.dm.benchmark.jmh.runtime.BenchmarkController;
+import org.apache.felix.dm.benchmark.jmh.runtime.Chain;
+import org.apache.felix.dm.benchmark.jmh.runtime.ComponentRuntime;
+import org.apache.felix.dm.benchmark.jmh.runtime.EmbeddedFramework;
+import org.apache.felix.dm.benchmark.scenario.Track;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Base class for the benchmarks: starts a fresh embedded framework with the benchmarked runtime
+ * for each trial, so all runtimes are measured in the same conditions.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public abstract class RuntimeBenchmark {
+    @Param({ "dm", "scr", "ipojo" })
+    public String runtime;
+
+    protected EmbeddedFramework m_framework;
+    protected BenchmarkController m_controller;
+    protected ComponentRuntime m_runtime;
+
+    @Setup(Level.Trial)
+    public void startRuntime() throws Exception {
+        m_framework = new EmbeddedFramework();
+        m_controller = new BenchmarkController();
+        m_runtime = ComponentRuntime.create(runtime);
+        m_runtime.start(m_framework, m_controller);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopRuntime() throws Exception {
+        m_runtime.stop();
+        m_framework.stop();
+    }
+
+    /**
+     * Activates the Artist/Album/Track graph, and waits until all its components are started.
+     */
+    protected void activateGraph() throws Exception {
+        m_controller.expectAdded(ComponentRuntime.GRAPH_SIZE);
+        m_runtime.activateGraph();
+        m_controller.awaitAdded();
+    }
+
+    /**
+     * Deactivates the Artist/Album/Track graph, and waits until all its components are stopped.
+     */
+    protected void deactivateGraph() throws Exception {
+        m_controller.expectRemoved(ComponentRuntime.GRAPH_SIZE);
+        m_runtime.deactivateGraph();
+        m_controller.awaitRemoved();
+    }
+
+    /**
+     * Registers the base Tracks of a chain of deployed links, waits until all links are started,
+     * then unregisters the base Tracks and waits until all links are stopped.
+     */
+    protected void cycleLinks(Chain chain, int length) throws Exception {
+        List<ServiceRegistration<Track>> bases = new ArrayList<>();
+        m_controller.expectAdded(length);
+        for (int i = 0; i < chain.bases(length); i ++) {
+            bases.add(m_framework.getBundleContext().registerService(Track.class, () -> {}, chain.base(i)));
+        }
+        m_controller.awaitAdded();
+
+        m_controller.expectRemoved(length);
+        bases.forEach(ServiceRegistration::unregister);
+        m_controller.awaitRemoved();
+    }
+}
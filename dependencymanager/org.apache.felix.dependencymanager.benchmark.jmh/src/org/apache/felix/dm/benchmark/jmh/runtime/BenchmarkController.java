@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh.runtime;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.dm.benchmark.controller.ScenarioController;
+import org.apache.felix.dm.benchmark.scenario.Album;
+import org.apache.felix.dm.benchmark.scenario.Artist;
+import org.apache.felix.dm.benchmark.scenario.Track;
+
+/**
+ * ScenarioController injected in all benchmarked components, whatever the runtime managing them.
+ * Benchmarks declare how many component activations (or deactivations) they expect, and then wait
+ * until the components have notified this controller.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class BenchmarkController implements ScenarioController {
+    /**
+     * Max time we wait for the expected components to be started or stopped.
+     */
+    private final static long TIMEOUT_SECONDS = 60;
+
+    private volatile CountDownLatch m_added = new CountDownLatch(0);
+    private volatile CountDownLatch m_removed = new CountDownLatch(0);
+
+    /**
+     * Declares the number of components expected to be started by the next step of a benchmark.
+     */
+    public void expectAdded(int components) {
+        m_added = new CountDownLatch(components);
+    }
+
+    /**
+     * Declares the number of components expected to be stopped by the next step of a benchmark.
+     */
+    public void expectRemoved(int components) {
+        m_removed = new CountDownLatch(components);
+    }
+
+    /**
+     * Waits until all expected components are started.
+     */
+    public void awaitAdded() throws InterruptedException {
+        await(m_added, "started");
+    }
+
+    /**
+     * Waits until all expected components are stopped.
+     */
+    public void awaitRemoved() throws InterruptedException {
+        await(m_removed, "stopped");
+    }
+
+    @Override
+    public void artistAdded(Artist artist) {
+        int size = artist.getAlbums().size();
+        if (size != Artist.ALBUMS) {
+            throw new IllegalStateException("Artist has not created expected number of albums:" + size);
+        }
+        artist.play();
+        m_added.countDown();
+    }
+
+    @Override
+    public void artistRemoved(Artist artist) {
+        m_removed.countDown();
+    }
+
+    @Override
+    public void albumAdded(Album album) {
+        int size = album.getMusicTracks().size();
+        if (size != Artist.TRACKS) {
+            throw new IllegalStateException("Album does not contain expected number of music tracks:" + size);
+        }
+        m_added.countDown();
+    }
+
+    @Override
+    public void albumRemoved(Album album) {
+        m_removed.countDown();
+    }
+
+    @Override
+    public void trackAdded(Track track) {
+        m_added.countDown();
+    }
+
+    @Override
+    public void trackRemoved(Track track) {
+        m_removed.countDown();
+    }
+
+    private void await(CountDownLatch latch, String state) throws InterruptedException {
+        if (! latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Components not " + state + " timely: " + latch.getCount() + " missing");
+        }
+    }
+}
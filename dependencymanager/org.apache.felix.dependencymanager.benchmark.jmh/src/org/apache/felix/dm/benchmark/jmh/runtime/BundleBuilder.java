@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Builds the bundles generated by the SCR and iPOJO runtimes.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class BundleBuilder {
+    private final Manifest m_manifest = new Manifest();
+    private final Map<String, byte[]> m_resources = new LinkedHashMap<>();
+
+    public BundleBuilder(String symbolicName) {
+        Attributes main = m_manifest.getMainAttributes();
+        main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        main.putValue("Bundle-ManifestVersion", "2");
+        main.putValue("Bundle-SymbolicName", symbolicName);
+        main.putValue("Bundle-Version", "1.0.0");
+    }
+
+    /**
+     * Adds a manifest header.
+     */
+    public BundleBuilder header(String name, String value) {
+        m_manifest.getMainAttributes().putValue(name, value);
+        return this;
+    }
+
+    /**
+     * Adds a text resource, encoded in UTF-8.
+     */
+    public BundleBuilder resource(String path, String content) {
+        m_resources.put(path, content.getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    /**
+     * Adds the class files of the given classes, loaded from the benchmark class path.
+     */
+    public BundleBuilder classes(Class<?> ... classes) throws IOException {
+        for (Class<?> clazz : classes) {
+            String path = clazz.getName().replace('.', '/') + ".class";
+            try (InputStream in = clazz.getClassLoader().getResourceAsStream(path)) {
+                if (in == null) {
+                    throw new IOException("Class file not found: " + path);
+                }
+                m_resources.put(path, readFully(in));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes the bundle in the given file.
+     */
+    public File build(File file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file.toPath()); JarOutputStream jar = new JarOutputStream(out, m_manifest)) {
+            for (Map.Entry<String, byte[]> resource : m_resources.entrySet()) {
+                jar.putNextEntry(new ZipEntry(resource.getKey()));
+                jar.write(resource.getValue());
+                jar.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+}
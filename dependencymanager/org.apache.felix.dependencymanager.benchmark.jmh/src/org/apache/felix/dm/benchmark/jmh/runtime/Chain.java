@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh.runtime;
+
+import java.util.Hashtable;
+
+import org.osgi.framework.Constants;
+
+/**
+ * The kinds of ChainLink sequences deployed by the benchmarks.
+ * 
+ * Each link i requires the Track matching {@link #filter(int)} and provides a Track with
+ * {@link #properties(int)}. The Tracks the chain is built on are registered by the benchmark
+ * itself, using {@link #base(int)} properties.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public enum Chain {
+    /**
+     * Independent links, each one requiring its own externally registered Track.
+     */
+    CHURN,
+    
+    /**
+     * Link i adapts the Track provided by link i-1 (the base Track for the first link).
+     */
+    ADAPTER,
+    
+    /**
+     * Link i is an aspect on top of link i-1, using an increasing service ranking.
+     */
+    ASPECT;
+    
+    /**
+     * Number of Tracks to register for a chain of the given length.
+     */
+    public int bases(int length) {
+        return this == CHURN ? length : 1;
+    }
+
+    /**
+     * Properties of the i-th base Track.
+     */
+    public Hashtable<String, Object> base(int i) {
+        Hashtable<String, Object> props = new Hashtable<>();
+        if (this == CHURN) {
+            props.put("id", "churn-" + i);
+        } else {
+            props.put("chain", name());
+            props.put("rank", 0);
+        }
+        return props;
+    }
+
+    /**
+     * Filter of the Track required by the i-th link.
+     */
+    public String filter(int i) {
+        if (this == CHURN) {
+            return "(id=churn-" + i + ")";
+        }
+        return "(&(chain=" + name() + ")(rank=" + i + "))";
+    }
+
+    /**
+     * Properties of the Track provided by the i-th link.
+     */
+    public Hashtable<String, Object> properties(int i) {
+        Hashtable<String, Object> props = new Hashtable<>();
+        if (this == CHURN) {
+            props.put("id", "link-" + i);
+        } else {
+            props.put("chain", name());
+            props.put("rank", i + 1);
+            if (this == ASPECT) {
+                props.put(Constants.SERVICE_RANKING, i + 1);
+            }
+        }
+        return props;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh.runtime;
+
+import static org.apache.felix.dm.benchmark.scenario.Artist.ALBUMS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
+
+/**
+ * A dependency injection runtime compared by the benchmarks. Each implementation declares the
+ * same components (the Artist/Album/Track graph, and the ChainLink sequences), using its own
+ * component model.
+ * 
+ * All components notify the {@link BenchmarkController} when they are started or stopped, and
+ * the methods of this interface don't wait for the components: the benchmarks do.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public interface ComponentRuntime {
+    /**
+     * Number of components of the Artist/Album/Track graph.
+     */
+    int GRAPH_SIZE = ARTISTS * (1 + ALBUMS * (1 + TRACKS));
+
+    /**
+     * Starts the runtime in the given framework, and prepares the components of the graph.
+     */
+    void start(EmbeddedFramework framework, BenchmarkController controller) throws Exception;
+
+    /**
+     * Stops the runtime, and releases all the resources it has created.
+     */
+    void stop() throws Exception;
+
+    /**
+     * Activates the Artist/Album/Track graph.
+     */
+    void activateGraph() throws Exception;
+
+    /**
+     * Deactivates the Artist/Album/Track graph.
+     */
+    void deactivateGraph() throws Exception;
+
+    /**
+     * Declares a sequence of ChainLink components.
+     */
+    void deployLinks(Chain chain, int length) throws Exception;
+
+    /**
+     * Removes the ChainLink components previously declared.
+     */
+    void undeployLinks() throws Exception;
+
+    /**
+     * Creates the runtime registered under the given name.
+     */
+    static ComponentRuntime create(String name) {
+        switch (name) {
+        case "dm":
+            return new DependencyManagerRuntime();
+        case "scr":
+            return new ScrRuntime();
+        case "ipojo":
+            return new IpojoRuntime();
+        default:
+            throw new IllegalArgumentException("Unknown runtime: " + name);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh.runtime;
+
+import static org.apache.felix.dm.benchmark.scenario.Artist.ALBUMS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.felix.dm.Component;
+import org.apache.felix.dm.DependencyManager;
+import org.apache.felix.dm.benchmark.jmh.chain.ChainLink;
+import org.apache.felix.dm.benchmark.scenario.Album;
+import org.apache.felix.dm.benchmark.scenario.Artist;
+import org.apache.felix.dm.benchmark.scenario.Helper;
+import org.apache.felix.dm.benchmark.scenario.Track;
+import org.apache.felix.dm.benchmark.scenario.impl.AlbumImpl;
+import org.apache.felix.dm.benchmark.scenario.impl.ArtistImpl;
+import org.apache.felix.dm.benchmark.scenario.impl.TrackImpl;
+
+/**
+ * Dependency Manager runtime. Dependency Manager is used from the class path, with the
+ * system bundle context: the graph is declared like in the benchmark "dependencymanager"
+ * bundle, and chains are made of real DM adapters and aspects.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class DependencyManagerRuntime implements ComponentRuntime {
+    private volatile DependencyManager m_dm;
+    private volatile BenchmarkController m_controller;
+    private final List<Component> m_graph = new ArrayList<>();
+    private final List<Component> m_links = new ArrayList<>();
+
+    @Override
+    public void start(EmbeddedFramework framework, BenchmarkController controller) {
+        m_dm = new DependencyManager(framework.getBundleContext());
+        m_controller = controller;
+    }
+
+    @Override
+    public void stop() {
+        m_dm.clear();
+    }
+
+    @Override
+    public void activateGraph() {
+        // Components are recreated each time, like when the benchmark bundle is restarted.
+        m_graph.clear();
+        IntStream.range(0, ARTISTS)
+            .mapToObj(i -> createArtist()).peek(m_graph::add)
+            .flatMap(this::createAlbums).peek(m_graph::add)
+            .flatMap(this::createTracks).forEach(m_graph::add);
+
+        m_graph.forEach(m_dm::add);
+    }
+
+    @Override
+    public void deactivateGraph() {
+        m_graph.forEach(m_dm::remove);
+        m_graph.clear();
+    }
+
+    @Override
+    public void deployLinks(Chain chain, int length) {
+        for (int i = 0; i < length; i ++) {
+            m_links.add(createLink(chain, i));
+        }
+        m_links.forEach(m_dm::add);
+    }
+
+    @Override
+    public void undeployLinks() {
+        m_links.forEach(m_dm::remove);
+        m_links.clear();
+    }
+
+    private Component createArtist() {
+        return m_dm.createComponent().setInterface(Artist.class.getName(), null).setImplementation(new ArtistImpl(m_controller));
+    }
+
+    private Stream<Component> createAlbums(Component artist) {
+        return IntStream.range(0, ALBUMS).mapToObj(i -> {
+            long id = Helper.generateId();
+            artist.add(m_dm.createServiceDependency().setService(Album.class, "(id=" + id + ")").setRequired(true).setCallbacks("addAlbum", null));
+
+            Hashtable<String, Object> props = new Hashtable<>();
+            props.put("id", String.valueOf(id));
+            return m_dm.createComponent().setInterface(Album.class.getName(), props).setImplementation(new AlbumImpl(m_controller));
+        });
+    }
+
+    private Stream<Component> createTracks(Component album) {
+        return IntStream.range(0, TRACKS).mapToObj(i -> {
+            long id = Helper.generateId();
+            album.add(m_dm.createServiceDependency().setService(Track.class, "(id=" + id + ")").setRequired(true).setCallbacks("addTrack", null));
+
+            Hashtable<String, Object> props = new Hashtable<>();
+            props.put("id", String.valueOf(id));
+            return m_dm.createComponent().setInterface(Track.class.getName(), props).setImplementation(new TrackImpl(m_controller));
+        });
+    }
+
+    private Component createLink(Chain chain, int i) {
+        ChainLink link = new ChainLink(m_controller);
+        switch (chain) {
+        case ADAPTER:
+            return m_dm.createAdapterComponent()
+                .setAdaptee(Track.class, chain.filter(i))
+                .setAdapteeField("m_next")
+                .setPropagate(false)
+                .setInterface(Track.class.getName(), chain.properties(i))
+                .setImplementation(link);
+        case ASPECT:
+            // the aspect ranking (i + 1) orders the aspects on top of the base Track
+            return m_dm.createAspectComponent()
+                .setAspect(Track.class, "(chain=" + chain.name() + ")", i + 1)
+                .setAspectField("m_next")
+                .setImplementation(link);
+        default:
+            return m_dm.createComponent()
+                .setInterface(Track.class.getName(), chain.properties(i))
+                .setImplementation(link)
+                .add(m_dm.createServiceDependency().setService(Track.class, chain.filter(i)).setRequired(true).setAutoConfig("m_next"));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.stream.Stream;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+
+/**
+ * OSGi framework embedded in the benchmark JVM. The scenario and controller packages are
+ * exported by the system bundle, so the benchmarks and the components share the same classes.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class EmbeddedFramework {
+    /**
+     * Packages shared between the class path and the bundles installed in the framework.
+     */
+    private final static String EXPORTS = 
+        "org.apache.felix.dm.benchmark.scenario;version=1.0.0," +
+        "org.apache.felix.dm.benchmark.scenario.impl;version=1.0.0," +
+        "org.apache.felix.dm.benchmark.controller;version=1.0.0," +
+        "org.apache.felix.dm.benchmark.jmh.chain;version=1.0.0";
+
+    private final Path m_dir;
+    private final Framework m_framework;
+
+    public EmbeddedFramework() throws Exception {
+        m_dir = Files.createTempDirectory("dm-benchmark");
+        Map<String, String> config = new HashMap<>();
+        config.put(Constants.FRAMEWORK_STORAGE, m_dir.resolve("cache").toString());
+        config.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+        config.put(Constants.FRAMEWORK_SYSTEMPACKAGES_EXTRA, EXPORTS);
+
+        FrameworkFactory factory = ServiceLoader.load(FrameworkFactory.class).iterator().next();
+        m_framework = factory.newFramework(config);
+        m_framework.start();
+    }
+
+    /**
+     * Returns the system bundle context.
+     */
+    public BundleContext getBundleContext() {
+        return m_framework.getBundleContext();
+    }
+
+    /**
+     * Returns a new file, in a directory removed when the framework is stopped.
+     */
+    public File newFile(String name) {
+        return m_dir.resolve(name).toFile();
+    }
+
+    /**
+     * Stops the framework, and removes its storage.
+     */
+    public void stop() throws Exception {
+        m_framework.stop();
+        m_framework.waitForStop(10000);
+        try (Stream<Path> paths = Files.walk(m_dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            // best effort: the directory is in the temp dir anyway
+        }
+    }
+
+    /**
+     * Returns the location of the jar containing the given class, which can be used to install it as a bundle.
+     */
+    public static String locationOf(Class<?> clazz) {
+        return clazz.getProtectionDomain().getCodeSource().getLocation().toString();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh.runtime;
+
+import static org.apache.felix.dm.benchmark.scenario.Artist.ALBUMS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.felix.dm.benchmark.controller.ScenarioController;
+import org.apache.felix.dm.benchmark.jmh.ipojo.IpojoAlbum;
+import org.apache.felix.dm.benchmark.jmh.ipojo.IpojoArtist;
+import org.apache.felix.dm.benchmark.jmh.ipojo.IpojoChainLink;
+import org.apache.felix.dm.benchmark.jmh.ipojo.IpojoTrack;
+import org.apache.felix.dm.benchmark.scenario.Album;
+import org.apache.felix.dm.benchmark.scenario.Artist;
+import org.apache.felix.dm.benchmark.scenario.Helper;
+import org.apache.felix.dm.benchmark.scenario.Track;
+import org.apache.felix.ipojo.ComponentFactory;
+import org.apache.felix.ipojo.manipulator.Pojoization;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * iPOJO runtime. iPOJO needs manipulated classes: the iPOJO flavors of the scenario classes are
+ * packaged in bundles, which are manipulated when the runtime is started, using metadata
+ * generated for the same graph as the other runtimes.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class IpojoRuntime implements ComponentRuntime {
+    private final static String IMPORTS = 
+        "org.apache.felix.dm.benchmark.scenario,org.apache.felix.dm.benchmark.controller";
+
+    private volatile EmbeddedFramework m_framework;
+    private volatile BundleContext m_context;
+    private volatile ServiceRegistration<ScenarioController> m_controller;
+    private volatile Bundle m_ipojo;
+    private volatile Bundle m_graph;
+    private volatile Bundle m_links;
+    private int m_generation;
+
+    @Override
+    public void start(EmbeddedFramework framework, BenchmarkController controller) throws Exception {
+        m_framework = framework;
+        m_context = framework.getBundleContext();
+        m_controller = m_context.registerService(ScenarioController.class, controller, null);
+        m_ipojo = m_context.installBundle(EmbeddedFramework.locationOf(ComponentFactory.class));
+        m_ipojo.start();
+        m_graph = install("graph", graph(), IpojoArtist.class, IpojoAlbum.class, IpojoTrack.class);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (m_links != null) {
+            undeployLinks();
+        }
+        m_graph.uninstall();
+        m_ipojo.uninstall();
+        m_controller.unregister();
+    }
+
+    @Override
+    public void activateGraph() throws Exception {
+        m_graph.start();
+    }
+
+    @Override
+    public void deactivateGraph() throws Exception {
+        m_graph.stop();
+    }
+
+    @Override
+    public void deployLinks(Chain chain, int length) throws Exception {
+        StringBuilder xml = new StringBuilder();
+        xml.append(type("link", IpojoChainLink.class, Track.class, chain.properties(0).keySet().toArray(new String[0])));
+        xml.append("    <requires field=\"m_next\" id=\"next\"/>\n");
+        xml.append("  </component>\n");
+        for (int i = 0; i < length; i ++) {
+            xml.append(instance("link", "link-" + i, chain.properties(i), Collections.singletonMap("next", chain.filter(i))));
+        }
+        m_links = install("links", xml, IpojoChainLink.class);
+        m_links.start();
+    }
+
+    @Override
+    public void undeployLinks() throws Exception {
+        m_links.uninstall();
+        m_links = null;
+    }
+
+    private StringBuilder graph() {
+        StringBuilder xml = new StringBuilder();
+        xml.append(type("artist", IpojoArtist.class, Artist.class));
+        for (int album = 0; album < ALBUMS; album ++) {
+            xml.append(requires("album-" + album, Album.class, "addAlbum"));
+        }
+        xml.append("  </component>\n");
+        xml.append(type("album", IpojoAlbum.class, Album.class, "id"));
+        for (int track = 0; track < TRACKS; track ++) {
+            xml.append(requires("track-" + track, Track.class, "addTrack"));
+        }
+        xml.append("  </component>\n");
+        xml.append(type("track", IpojoTrack.class, Track.class, "id"));
+        xml.append("  </component>\n");
+
+        for (int artist = 0; artist < ARTISTS; artist ++) {
+            Map<String, String> albumFilters = new LinkedHashMap<>();
+            for (int album = 0; album < ALBUMS; album ++) {
+                String albumId = String.valueOf(Helper.generateId());
+                albumFilters.put("album-" + album, "(id=" + albumId + ")");
+                Map<String, String> trackFilters = new LinkedHashMap<>();
+                for (int track = 0; track < TRACKS; track ++) {
+                    String trackId = String.valueOf(Helper.generateId());
+                    trackFilters.put("track-" + track, "(id=" + trackId + ")");
+                    xml.append(instance("track", "track-" + trackId, Collections.singletonMap("id", trackId), null));
+                }
+                xml.append(instance("album", "album-" + albumId, Collections.singletonMap("id", albumId), trackFilters));
+            }
+            xml.append(instance("artist", "artist-" + artist, null, albumFilters));
+        }
+        return xml;
+    }
+
+    /**
+     * Opens an immediate component type providing one service, and requiring the controller.
+     */
+    private static String type(String name, Class<?> impl, Class<?> service, String ... properties) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("  <component name=\"benchmark.").append(name).append("\" classname=\"").append(impl.getName()).append("\" immediate=\"true\">\n");
+        xml.append("    <provides specifications=\"").append(service.getName()).append("\">\n");
+        for (String property : properties) {
+            xml.append("      <property name=\"").append(property).append("\" type=\"")
+                .append("rank".equals(property) || "service.ranking".equals(property) ? "int" : "java.lang.String").append("\"/>\n");
+        }
+        xml.append("    </provides>\n");
+        xml.append("    <requires field=\"m_controller\"/>\n");
+        xml.append("    <callback transition=\"validate\" method=\"start\"/>\n");
+        xml.append("    <callback transition=\"invalidate\" method=\"stop\"/>\n");
+        return xml.toString();
+    }
+
+    private static String requires(String id, Class<?> service, String bind) {
+        return "    <requires id=\"" + id + "\" specification=\"" + service.getName() + "\">"
+            + "<callback type=\"bind\" method=\"" + bind + "\"/></requires>\n";
+    }
+
+    private static String instance(String type, String name, Map<String, ?> properties, Map<String, String> filters) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("  <instance component=\"benchmark.").append(type).append("\" name=\"").append(name).append("\">\n");
+        if (properties != null) {
+            properties.forEach((key, value) -> xml.append("    <property name=\"").append(key).append("\" value=\"").append(value).append("\"/>\n"));
+        }
+        if (filters != null) {
+            xml.append("    <property name=\"requires.filters\">\n");
+            filters.forEach((id, filter) -> xml.append("      <property name=\"").append(id)
+                .append("\" value=\"").append(filter.replace("&", "&amp;")).append("\"/>\n"));
+            xml.append("    </property>\n");
+        }
+        return xml.append("  </instance>\n").toString();
+    }
+
+    private Bundle install(String name, CharSequence components, Class<?> ... classes) throws Exception {
+        String metadata = "<ipojo>\n" + components + "</ipojo>\n";
+        String symbolicName = "org.apache.felix.dm.benchmark.jmh.ipojo." + name;
+        int generation = m_generation ++;
+        File in = new BundleBuilder(symbolicName)
+            .header("Import-Package", IMPORTS)
+            .classes(classes)
+            .build(m_framework.newFile(symbolicName + "-" + generation + ".jar"));
+        File out = m_framework.newFile(symbolicName + "-" + generation + "-manipulated.jar");
+
+        Pojoization pojoization = new Pojoization();
+        pojoization.setUseLocalXSD();
+        pojoization.pojoization(in, out, new ByteArrayInputStream(metadata.getBytes(StandardCharsets.UTF_8)), getClass().getClassLoader());
+        if (! pojoization.getErrors().isEmpty()) {
+            throw new IllegalStateException("Could not manipulate " + symbolicName + ": " + pojoization.getErrors());
+        }
+        return m_context.installBundle(out.toURI().toString());
+    }
+}
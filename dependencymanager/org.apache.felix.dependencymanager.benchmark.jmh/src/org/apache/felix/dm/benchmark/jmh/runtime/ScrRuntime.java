@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh.runtime;
+
+import static org.apache.felix.dm.benchmark.scenario.Artist.ALBUMS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.felix.dm.benchmark.controller.ScenarioController;
+import org.apache.felix.dm.benchmark.jmh.chain.ChainLink;
+import org.apache.felix.dm.benchmark.scenario.Album;
+import org.apache.felix.dm.benchmark.scenario.Artist;
+import org.apache.felix.dm.benchmark.scenario.Helper;
+import org.apache.felix.dm.benchmark.scenario.Track;
+import org.apache.felix.dm.benchmark.scenario.impl.AlbumImpl;
+import org.apache.felix.dm.benchmark.scenario.impl.ArtistImpl;
+import org.apache.felix.dm.benchmark.scenario.impl.TrackImpl;
+import org.apache.felix.scr.info.ScrInfo;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Declarative Services runtime, using Felix SCR. The components are described with DS 1.4 XML
+ * descriptors, generated in bundles which are installed in the framework: the scenario classes
+ * are reused as is, using constructor injection for the controller.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class ScrRuntime implements ComponentRuntime {
+    private final static String IMPORTS = 
+        "org.apache.felix.dm.benchmark.scenario,org.apache.felix.dm.benchmark.scenario.impl," +
+        "org.apache.felix.dm.benchmark.controller,org.apache.felix.dm.benchmark.jmh.chain";
+
+    private volatile EmbeddedFramework m_framework;
+    private volatile BundleContext m_context;
+    private volatile ServiceRegistration<ScenarioController> m_controller;
+    private volatile Bundle m_scr;
+    private volatile Bundle m_graph;
+    private volatile Bundle m_links;
+    private int m_generation;
+
+    @Override
+    public void start(EmbeddedFramework framework, BenchmarkController controller) throws Exception {
+        BundleContext context = framework.getBundleContext();
+        m_framework = framework;
+        m_context = context;
+        m_controller = context.registerService(ScenarioController.class, controller, null);
+        m_scr = context.installBundle(EmbeddedFramework.locationOf(ScrInfo.class));
+        m_scr.start();
+        m_graph = install("graph", graph());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (m_links != null) {
+            undeployLinks();
+        }
+        m_graph.uninstall();
+        m_scr.uninstall();
+        m_controller.unregister();
+    }
+
+    @Override
+    public void activateGraph() throws Exception {
+        m_graph.start();
+    }
+
+    @Override
+    public void deactivateGraph() throws Exception {
+        m_graph.stop();
+    }
+
+    @Override
+    public void deployLinks(Chain chain, int length) throws Exception {
+        StringBuilder xml = new StringBuilder();
+        for (int i = 0; i < length; i ++) {
+            xml.append(component("link-" + i, ChainLink.class, Track.class, chain.properties(i)));
+            xml.append(reference("next", Track.class, chain.filter(i), " field=\"m_next\""));
+            xml.append("  </scr:component>\n");
+        }
+        m_links = install("links", xml);
+        m_links.start();
+    }
+
+    @Override
+    public void undeployLinks() throws Exception {
+        m_links.uninstall();
+        m_links = null;
+    }
+
+    private StringBuilder graph() {
+        StringBuilder xml = new StringBuilder();
+        StringBuilder albums = new StringBuilder();
+        StringBuilder tracks = new StringBuilder();
+        for (int artist = 0; artist < ARTISTS; artist ++) {
+            xml.append(component("artist-" + artist, ArtistImpl.class, Artist.class, null));
+            for (int album = 0; album < ALBUMS; album ++) {
+                String albumId = String.valueOf(Helper.generateId());
+                xml.append(reference("album-" + album, Album.class, "(id=" + albumId + ")", " bind=\"addAlbum\""));
+                albums.append(component("album-" + albumId, AlbumImpl.class, Album.class, Collections.singletonMap("id", albumId)));
+                for (int track = 0; track < TRACKS; track ++) {
+                    String trackId = String.valueOf(Helper.generateId());
+                    albums.append(reference("track-" + track, Track.class, "(id=" + trackId + ")", " bind=\"addTrack\""));
+                    tracks.append(component("track-" + trackId, TrackImpl.class, Track.class, Collections.singletonMap("id", trackId)));
+                    tracks.append("  </scr:component>\n");
+                }
+                albums.append("  </scr:component>\n");
+            }
+            xml.append("  </scr:component>\n");
+        }
+        return xml.append(albums).append(tracks);
+    }
+
+    /**
+     * Opens an immediate component providing one service, with the controller injected in its constructor.
+     */
+    private static String component(String name, Class<?> impl, Class<?> service, Map<String, ?> properties) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("  <scr:component name=\"").append(name).append("\" immediate=\"true\" init=\"1\" activate=\"start\" deactivate=\"stop\">\n");
+        xml.append("    <implementation class=\"").append(impl.getName()).append("\"/>\n");
+        if (properties != null) {
+            properties.forEach((key, value) -> xml.append("    <property name=\"").append(key)
+                .append("\" type=\"").append(value instanceof Integer ? "Integer" : "String")
+                .append("\" value=\"").append(value).append("\"/>\n"));
+        }
+        xml.append("    <service><provide interface=\"").append(service.getName()).append("\"/></service>\n");
+        xml.append(reference("controller", ScenarioController.class, null, " parameter=\"0\""));
+        return xml.toString();
+    }
+
+    private static String reference(String name, Class<?> service, String filter, String injection) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("    <reference name=\"").append(name).append("\" interface=\"").append(service.getName()).append("\"");
+        if (filter != null) {
+            xml.append(" target=\"").append(filter.replace("&", "&amp;")).append("\"");
+        }
+        return xml.append(injection).append("/>\n").toString();
+    }
+
+    private Bundle install(String name, CharSequence components) throws Exception {
+        String xml = "<components xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.4.0\">\n" + components + "</components>\n";
+        // a new file each time, because the framework may not have released the previous one
+        String symbolicName = "org.apache.felix.dm.benchmark.jmh.scr." + name;
+        BundleBuilder builder = new BundleBuilder(symbolicName)
+            .header("Import-Package", IMPORTS)
+            .header("Service-Component", "OSGI-INF/components.xml")
+            .resource("OSGI-INF/components.xml", xml);
+        return m_context.installBundle(builder.build(m_framework.newFile(symbolicName + "-" + (m_generation ++) + ".jar")).toURI().toString());
+    }
+}
@@ -173,7 +173,7 @@ public class DMCommand {
             @Parameter(names = {"bundleIds", "bid", "bi", "b"}, absentValue = "") 
             String bundleIds,
             
-            @Descriptor("<Max number of top components to display (0=all)> This command displays components callbacks (init/start) times>") 
+            @Descriptor("<Max number of top components to display (0=all)> This command displays components callbacks (init/start) and activation times>") 
             @Parameter(names = {"top"}, absentValue = "-1") 
             int top) throws Throwable
         {
@@ -314,7 +314,7 @@ public class DMCommand {
         }
 
     /**
-     * Displays components callbacks (init/start/stop/destroy) elapsed time.
+     * Displays components callbacks (init/start/stop/destroy) elapsed time, and components activation time.
      * The components are sorted (the most time consuming components are displayed first).
      * @param max the max number of components to display (0 means all components)
      */
@@ -348,7 +348,8 @@ public class DMCommand {
         
         Collections.reverse(components);
 
-        System.out.printf("%-100s %10s %10s%n%n", "Top components (sorted by start duration time)", "[init time]", "[start time]");
+        System.out.printf("%-100s %10s %10s %17s%n%n", "Top components (sorted by start duration time)", "[init time]", "[start time]", 
+            "[activation time]");
         
         if (components.size() > 0) {
             System.out.println();
@@ -356,8 +357,12 @@ public class DMCommand {
             max = max == 0 ? components.size() : Math.min(components.size(), max);
             for (int i = 0 ; i < components.size()  && i < max; i++) {
                 ComponentDeclaration decl = components.get(i).getComponentDeclaration();
-                System.out.printf("%-100s %10d %10d%n", decl.getClassName(),
-                    decl.getCallbacksTime().get("init"), decl.getCallbacksTime().get("start"));
+                // the activation time is only available when components are activated in dependency order
+                // (see the "org.apache.felix.dependencymanager.parallel.graph" property)
+                Long activation = decl.getCallbacksTime().get("activation");
+                System.out.printf("%-100s %10d %10d %17s%n", decl.getClassName(),
+                    decl.getCallbacksTime().get("init"), decl.getCallbacksTime().get("start"), 
+                    activation != null ? activation : "-");
             }
         }
     }
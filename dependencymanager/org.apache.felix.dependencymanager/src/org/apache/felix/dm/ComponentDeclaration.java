@@ -56,6 +56,7 @@ public interface ComponentDeclaration {
     public BundleContext getBundleContext();
     /** Returns the dependency manager for this component */
     public DependencyManager getDependencyManager();
-    /** Returns the execution time in nanos for each component callbacks (init/start/stop/destroy) */
+    /** Returns the execution time in nanos for each component callbacks (init/start/stop/destroy), and the 
+     *  component activation time ("activation") when components are activated in parallel in dependency order */
     public Map<String, Long> getCallbacksTime(); 
 }
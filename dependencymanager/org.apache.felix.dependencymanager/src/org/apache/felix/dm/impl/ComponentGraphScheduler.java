@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.dm.Component;
+import org.apache.felix.dm.ComponentDeclaration;
+import org.apache.felix.dm.ComponentDependencyDeclaration;
+import org.apache.felix.dm.context.ComponentContext;
+import org.apache.felix.dm.context.DependencyContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * Activates added components in dependency order, using a work-stealing pool.
+ * 
+ * Components added to this scheduler are linked to the components they depend on (the ones providing a service
+ * matching one of their service dependencies) which are not yet activated. A component is started only once all
+ * its providers have been started, so its service dependencies are resolved when its trackers are opened, instead
+ * of being satisfied by a recursive cascade of service events. Independent subgraphs are activated concurrently.
+ * 
+ * Components keep their own executor, so all the events of a given component are still handled serially.
+ * When dependencies are cyclic, the components of the cycle are started without waiting for each other.
+ * 
+ * The time spent activating each component is recorded in its callbacks times, with the "activation" key.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class ComponentGraphScheduler {
+    /**
+     * Key used to record activation times in the components callbacks times.
+     */
+    public final static String ACTIVATION = "activation";
+    
+    /**
+     * The pool used to activate components.
+     */
+    private final ForkJoinPool m_pool;
+    
+    /**
+     * Components added, which are not yet linked to their providers.
+     */
+    private final Queue<Node> m_added = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * Flag telling if the link task is scheduled in the pool.
+     */
+    private final AtomicBoolean m_linking = new AtomicBoolean();
+    
+    /**
+     * Components added, and not yet activated.
+     */
+    private final ConcurrentMap<Component, Node> m_nodes = new ConcurrentHashMap<>();
+
+    public ComponentGraphScheduler(ForkJoinPool pool) {
+        m_pool = pool;
+    }
+
+    /**
+     * Schedules the activation of a component, once its providers have been activated.
+     */
+    public void add(Component c) {
+        Node node = new Node(c);
+        m_nodes.put(c, node);
+        m_added.add(node);
+        if (m_linking.compareAndSet(false, true)) {
+            m_pool.execute(this::link);
+        }
+    }
+
+    /**
+     * Cancels the activation of a component, if it has not been activated yet. If the component is being activated,
+     * this method waits until it is started.
+     */
+    public void remove(Component c) {
+        Node node = m_nodes.remove(c);
+        if (node != null) {
+            node.cancel();
+        }
+    }
+
+    /**
+     * Links the added components to their providers, and activates the components which don't have to wait for
+     * any provider. Only one link task runs at a time.
+     */
+    private void link() {
+        try {
+            List<Node> batch = new ArrayList<>();
+            Node node;
+            while ((node = m_added.poll()) != null) {
+                batch.add(node);
+            }
+            if (batch.size() > 0) {
+                link(batch);
+            }
+        } finally {
+            m_linking.set(false);
+            if (m_added.peek() != null && m_linking.compareAndSet(false, true)) {
+                m_pool.execute(this::link);
+            }
+        }
+    }
+
+    private void link(List<Node> batch) {
+        // Index the services of the components not yet activated (including the ones from previous batches).
+        Map<String, List<Node>> providers = new HashMap<>();
+        for (Node node : m_nodes.values()) {
+            String[] services = node.m_component.getComponentDeclaration().getServices();
+            if (services != null) {
+                for (String service : services) {
+                    providers.computeIfAbsent(service, k -> new ArrayList<>()).add(node);
+                }
+            }
+        }
+        
+        // Find the providers of each component of the batch.
+        Map<Node, List<Node>> edges = new LinkedHashMap<>();
+        for (Node node : batch) {
+            edges.put(node, getProviders(node, providers));
+        }
+        
+        // Edges between the batch and previous batches can't create cycles, but edges inside the batch can:
+        // sort the batch topologically, and don't link the components that are part of a cycle.
+        Map<Node, Integer> inDegree = new LinkedHashMap<>();
+        Map<Node, List<Node>> dependents = new HashMap<>();
+        for (Node node : batch) {
+            inDegree.put(node, 0);
+        }
+        for (Map.Entry<Node, List<Node>> edge : edges.entrySet()) {
+            for (Node provider : edge.getValue()) {
+                if (inDegree.containsKey(provider)) {
+                    inDegree.merge(edge.getKey(), 1, Integer::sum);
+                    dependents.computeIfAbsent(provider, k -> new ArrayList<>()).add(edge.getKey());
+                }
+            }
+        }
+        Queue<Node> ready = new ArrayDeque<>();
+        inDegree.forEach((node, degree) -> {
+            if (degree == 0) {
+                ready.add(node);
+            }
+        });
+        Node node;
+        while ((node = ready.poll()) != null) {
+            inDegree.remove(node);
+            for (Node dependent : dependents.getOrDefault(node, Collections.emptyList())) {
+                if (inDegree.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        for (Node cyclic : inDegree.keySet()) {
+            edges.get(cyclic).removeIf(inDegree::containsKey);
+        }
+
+        for (Map.Entry<Node, List<Node>> edge : edges.entrySet()) {
+            for (Node provider : edge.getValue()) {
+                provider.addDependent(edge.getKey());
+            }
+        }
+        for (Node added : batch) {
+            // release the count held by the link step
+            added.release();
+        }
+    }
+
+    private List<Node> getProviders(Node node, Map<String, List<Node>> providers) {
+        List<Node> result = new ArrayList<>();
+        for (DependencyContext dc : ((ComponentContext) node.m_component).getDependencies()) {
+            if (! (dc instanceof ComponentDependencyDeclaration)) {
+                continue;
+            }
+            ComponentDependencyDeclaration cdd = (ComponentDependencyDeclaration) dc;
+            if (! "service".equals(cdd.getType())) {
+                continue;
+            }
+            List<Node> candidates = providers.get(cdd.getSimpleName());
+            if (candidates == null) {
+                continue;
+            }
+            Filter filter = null;
+            try {
+                if (cdd.getFilter() != null) {
+                    filter = FrameworkUtil.createFilter(cdd.getFilter());
+                }
+            } catch (InvalidSyntaxException e) {
+                continue; // the dependency will report the error when started
+            }
+            for (Node candidate : candidates) {
+                if (candidate != node && matches(filter, candidate.m_component.getComponentDeclaration()) && ! result.contains(candidate)) {
+                    result.add(candidate);
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean matches(Filter filter, ComponentDeclaration provider) {
+        if (filter == null) {
+            return true;
+        }
+        Hashtable<String, Object> props = new Hashtable<>();
+        Dictionary<String, Object> declared = provider.getServiceProperties();
+        if (declared != null) {
+            Enumeration<String> keys = declared.keys();
+            while (keys.hasMoreElements()) {
+                String key = keys.nextElement();
+                props.put(key, declared.get(key));
+            }
+        }
+        props.put(Constants.OBJECTCLASS, provider.getServices());
+        return filter.match(props);
+    }
+
+    /**
+     * Starts a component whose providers have all been activated, and releases its dependents, even if the
+     * component fails to start (the failure is logged, since the pool doesn't report the exceptions of its tasks).
+     */
+    private void activate(Node node) {
+        List<Node> dependents = Collections.emptyList();
+        try {
+            synchronized (node) {
+                if (node.m_done) {
+                    return; // removed
+                }
+                long t1 = System.nanoTime();
+                try {
+                    ((ComponentContext) node.m_component).start();
+                } catch (Exception e) {
+                    ((ComponentContext) node.m_component).getLogger().err("Could not activate component %s", e, node.m_component);
+                } finally {
+                    long t2 = System.nanoTime();
+                    node.m_component.getComponentDeclaration().getCallbacksTime().put(ACTIVATION, t2 - t1);
+                    node.m_done = true;
+                    dependents = node.m_dependents;
+                }
+            }
+        } finally {
+            m_nodes.remove(node.m_component, node);
+            dependents.forEach(Node::release);
+        }
+    }
+
+    /**
+     * A component waiting for its providers to be activated.
+     */
+    private class Node {
+        final Component m_component;
+        
+        /**
+         * Number of providers not yet activated, plus one until the node is linked.
+         */
+        final AtomicInteger m_pending = new AtomicInteger(1);
+        
+        /**
+         * Components waiting for this one (guarded by this).
+         */
+        final List<Node> m_dependents = new ArrayList<>();
+        
+        /**
+         * True when the component has been activated, or removed (guarded by this).
+         */
+        boolean m_done;
+
+        Node(Component component) {
+            m_component = component;
+        }
+
+        synchronized void addDependent(Node dependent) {
+            if (! m_done) {
+                dependent.m_pending.incrementAndGet();
+                m_dependents.add(dependent);
+            }
+        }
+
+        void release() {
+            if (m_pending.decrementAndGet() == 0) {
+                ForkJoinTask<?> task = ForkJoinTask.adapt(() -> activate(this));
+                if (ForkJoinTask.getPool() == m_pool) {
+                    task.fork(); // push in the local queue, idle workers will steal it
+                } else {
+                    m_pool.execute(task);
+                }
+            }
+        }
+
+        void cancel() {
+            List<Node> dependents;
+            synchronized (this) {
+                if (m_done) {
+                    return;
+                }
+                m_done = true;
+                dependents = m_dependents;
+            }
+            dependents.forEach(Node::release);
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.apache.felix.dm.impl;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.felix.dm.Component;
 import org.apache.felix.dm.ComponentDeclaration;
@@ -33,14 +34,21 @@ import org.osgi.framework.BundleContext;
  * If a ComponentExecutorFactory is registered in the OSGi registry, this class will use it to get an 
  * Executor used for components management and lifecycle callbacks.
  * 
+ * If the "org.apache.felix.dependencymanager.parallel.graph" OSGi property is set to true, added components are
+ * activated in dependency order using a work-stealing pool (see {@link ComponentGraphScheduler}). The
+ * "org.apache.felix.dependencymanager.parallel" property can then be used to select the components which are
+ * activated this way.
+ * 
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class ComponentScheduler {
     private final static ComponentScheduler m_instance = new ComponentScheduler();
     private final static String PARALLEL = "org.apache.felix.dependencymanager.parallel";
+    private final static String PARALLEL_GRAPH = "org.apache.felix.dependencymanager.parallel.graph";
     private volatile ComponentExecutorFactory m_componentExecutorFactory;
     private final Executor m_serial = new SerialExecutor(null);
     private ConcurrentMap<Component, Component> m_pending = new ConcurrentHashMap<>();
+    private volatile ComponentGraphScheduler m_graph;
 
     public static ComponentScheduler instance() {
         return m_instance;
@@ -65,7 +73,10 @@ public class ComponentScheduler {
     }
 
     public void add(final Component c) {
-        if (mayStartNow(c)) {
+        if (usesGraph(c)) {
+            getGraphScheduler().add(c);
+        }
+        else if (mayStartNow(c)) {
             ((ComponentContext) c).start();
         }
         else {
@@ -88,9 +99,38 @@ public class ComponentScheduler {
 
     public void remove(final Component c) {
         m_pending.remove(c);
+        ComponentGraphScheduler graph = m_graph;
+        if (graph != null) {
+            graph.remove(c);
+        }
         ((ComponentContext) c).stop();
     }
 
+    private boolean usesGraph(Component c) {
+        BundleContext ctx = c.getDependencyManager().getBundleContext();
+        if (! Boolean.parseBoolean(ctx.getProperty(PARALLEL_GRAPH))) {
+            return false;
+        }
+        String parallel = ctx.getProperty(PARALLEL);
+        return parallel != null ? requiresThreadPool(c, parallel) : requiresThreadPool(c, "*");
+    }
+
+    private ComponentGraphScheduler getGraphScheduler() {
+        ComponentGraphScheduler graph = m_graph;
+        if (graph == null) {
+            synchronized (this) {
+                graph = m_graph;
+                if (graph == null) {
+                    // async mode: tasks which are never joined are processed in FIFO order
+                    ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                        ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+                    m_graph = graph = new ComponentGraphScheduler(pool);
+                }
+            }
+        }
+        return graph;
+    }
+
     private boolean mayStartNow(Component c) {
         ComponentExecutorFactory execFactory = m_componentExecutorFactory;
         BundleContext ctx = c.getDependencyManager().getBundleContext();
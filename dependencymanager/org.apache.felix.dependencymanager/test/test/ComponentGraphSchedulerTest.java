@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.dm.context.DependencyContext;
+import org.apache.felix.dm.impl.ComponentGraphScheduler;
+import org.apache.felix.dm.impl.ComponentImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the activation of components in dependency order.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class ComponentGraphSchedulerTest {
+    private final List<String> m_started = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Components are added from a task of a single threaded pool, so they are linked in the same batch.
+     */
+    private final ForkJoinPool m_pool = new ForkJoinPool(1);
+    private final ComponentGraphScheduler m_scheduler = new ComponentGraphScheduler(m_pool);
+
+    @Test
+    public void providersAreActivatedBeforeTheirConsumers() throws Exception {
+        ComponentImpl consumer = component("consumer", null, null);
+        consumer.add(new GraphServiceDependency("Provider", "(id=1)"));
+        ComponentImpl other = component("other", null, null);
+        other.add(new GraphServiceDependency("Provider", "(id=2)"));
+        ComponentImpl provider = component("provider", "Provider", "1");
+
+        add(consumer, other, provider);
+
+        Assert.assertEquals(3, m_started.size());
+        Assert.assertTrue("consumer started before its provider", m_started.indexOf("provider") < m_started.indexOf("consumer"));
+        Assert.assertNotNull(consumer.getCallbacksTime().get(ComponentGraphScheduler.ACTIVATION));
+        Assert.assertNotNull(provider.getCallbacksTime().get(ComponentGraphScheduler.ACTIVATION));
+    }
+
+    @Test
+    public void cyclicComponentsAreActivated() throws Exception {
+        ComponentImpl c1 = component("c1", "Service1", null);
+        c1.add(new GraphServiceDependency("Service2", null));
+        ComponentImpl c2 = component("c2", "Service2", null);
+        c2.add(new GraphServiceDependency("Service1", null));
+
+        add(c1, c2);
+
+        Assert.assertEquals(2, m_started.size());
+        Assert.assertTrue(m_started.containsAll(Arrays.asList("c1", "c2")));
+    }
+
+    @Test
+    public void removedComponentsAreNotActivated() throws Exception {
+        ComponentImpl consumer = component("consumer", null, null);
+        consumer.add(new GraphServiceDependency("Provider", null));
+        ComponentImpl provider = component("provider", "Provider", null);
+
+        m_pool.submit(() -> {
+            m_scheduler.add(consumer);
+            m_scheduler.add(provider);
+            m_scheduler.remove(provider);
+        }).get();
+        m_pool.awaitQuiescence(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(Arrays.asList("consumer"), m_started);
+    }
+
+    @Test
+    public void consumersAreActivatedWhenTheirProviderFails() throws Exception {
+        ComponentImpl consumer = component("consumer", null, null);
+        consumer.add(new GraphServiceDependency("Provider", null));
+        ComponentImpl provider = component("failing", "Provider", null);
+
+        add(consumer, provider);
+
+        Assert.assertEquals(Arrays.asList("failing", "consumer"), m_started);
+        Assert.assertNotNull(provider.getCallbacksTime().get(ComponentGraphScheduler.ACTIVATION));
+    }
+
+    private void add(ComponentImpl ... components) throws Exception {
+        m_pool.submit(() -> Arrays.stream(components).forEach(m_scheduler::add)).get();
+        Assert.assertTrue("components not activated", m_pool.awaitQuiescence(10, TimeUnit.SECONDS));
+    }
+
+    private ComponentImpl component(String name, String service, String id) {
+        ComponentImpl c = new ComponentImpl();
+        c.setImplementation(new Recorder(name));
+        if (service != null) {
+            Hashtable<String, Object> props = new Hashtable<>();
+            if (id != null) {
+                props.put("id", id);
+            }
+            c.setInterface(service, props);
+        }
+        return c;
+    }
+
+    public class Recorder {
+        private final String m_name;
+
+        Recorder(String name) {
+            m_name = name;
+        }
+
+        public void start() {
+            m_started.add(m_name);
+            if (m_name.startsWith("failing")) {
+                throw new IllegalStateException(m_name);
+            }
+        }
+    }
+
+    /**
+     * Optional service dependency, which is not tracked (the components are not started in a framework).
+     */
+    static class GraphServiceDependency extends SimpleServiceDependency {
+        private final String m_service;
+        private final String m_filter;
+
+        GraphServiceDependency(String service, String filter) {
+            m_service = service;
+            m_filter = filter;
+        }
+
+        @Override
+        public String getType() {
+            return "service";
+        }
+
+        @Override
+        public String getSimpleName() {
+            return m_service;
+        }
+
+        @Override
+        public String getFilter() {
+            return m_filter;
+        }
+
+        @Override
+        public DependencyContext createCopy() {
+            return new GraphServiceDependency(m_service, m_filter);
+        }
+    }
+}
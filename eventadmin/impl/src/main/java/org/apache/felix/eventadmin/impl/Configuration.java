@@ -32,6 +32,7 @@ import org.apache.felix.eventadmin.impl.adapter.LogEventAdapter;
 import org.apache.felix.eventadmin.impl.adapter.ServiceEventAdapter;
 import org.apache.felix.eventadmin.impl.handler.EventAdminImpl;
 import org.apache.felix.eventadmin.impl.security.SecureEventAdminFactory;
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
 import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.framework.BundleContext;
@@ -116,6 +117,42 @@ import org.osgi.service.metatype.MetaTypeProvider;
  * </p>
  * <p>
  * <p>
+ *      <tt>org.apache.felix.eventadmin.AsyncOrdering</tt> - The scope in which
+ *         posted events are delivered in order.
+ * </p>
+ * <p>
+ * One of <tt>thread</tt> (events posted by the same thread are delivered in order),
+ * <tt>topic</tt> (events of the same topic are delivered in order), <tt>handler</tt>
+ * (each handler receives its events in order, independent of other handlers) or
+ * <tt>unordered</tt>. The default is <tt>thread</tt>.
+ * </p>
+ * <p>
+ * <p>
+ *      <tt>org.apache.felix.eventadmin.AsyncQueueCapacity</tt> - The maximum number
+ *         of posted events queued per ordering scope.
+ * </p>
+ * The default value is 0, which means the queues are unbounded.
+ * </p>
+ * <p>
+ * <p>
+ *      <tt>org.apache.felix.eventadmin.AsyncOverflowPolicy</tt> - What happens to
+ *         an event posted to a full queue.
+ * </p>
+ * One of <tt>block</tt> (the posting thread waits, the default), <tt>drop</tt>
+ * (the posted event is discarded) or <tt>dropOldest</tt> (the oldest queued event
+ * is discarded). Threads delivering asynchronous events never wait.
+ * </p>
+ * <p>
+ * <p>
+ *      <tt>org.apache.felix.eventadmin.AsyncBatchSize</tt> - The maximum number
+ *         of queued events a queue delivers before its delivery thread is handed
+ *         back to the pool. The events are still delivered to the handlers one
+ *         at a time.
+ * </p>
+ * The default value is 0, which means a queue is drained completely.
+ * </p>
+ * <p>
+ * <p>
  * These properties are read at startup and serve as a default configuration.
  * If a configuration admin is configured, the event admin can be configured
  * through the config admin.
@@ -135,6 +172,10 @@ public class Configuration
     static final String PROP_IGNORE_TIMEOUT = "org.apache.felix.eventadmin.IgnoreTimeout";
     static final String PROP_IGNORE_TOPIC = "org.apache.felix.eventadmin.IgnoreTopic";
     static final String PROP_LOG_LEVEL = "org.apache.felix.eventadmin.LogLevel";
+    static final String PROP_ASYNC_ORDERING = "org.apache.felix.eventadmin.AsyncOrdering";
+    static final String PROP_ASYNC_QUEUE_CAPACITY = "org.apache.felix.eventadmin.AsyncQueueCapacity";
+    static final String PROP_ASYNC_OVERFLOW_POLICY = "org.apache.felix.eventadmin.AsyncOverflowPolicy";
+    static final String PROP_ASYNC_BATCH_SIZE = "org.apache.felix.eventadmin.AsyncBatchSize";
 
     /** The bundle context. */
     private final BundleContext m_bundleContext;
@@ -155,6 +196,14 @@ public class Configuration
 
     private int m_logLevel;
 
+    private AsyncDeliverTasks.Ordering m_asyncOrdering;
+
+    private int m_asyncQueueCapacity;
+
+    private AsyncDeliverTasks.Overflow m_asyncOverflowPolicy;
+
+    private int m_asyncBatchSize;
+
     // The thread pool used - this is a member because we need to close it on stop
     private volatile DefaultThreadPool m_sync_pool;
 
@@ -329,6 +378,18 @@ public class Configuration
                     m_bundleContext.getProperty(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+
+            // The ordering scope, bounds and batching of asynchronous delivery. By
+            // default events posted by the same thread are delivered in order and
+            // the queues are unbounded.
+            m_asyncOrdering = getEnumProperty(PROP_ASYNC_ORDERING,
+                    m_bundleContext.getProperty(PROP_ASYNC_ORDERING), AsyncDeliverTasks.Ordering.THREAD);
+            m_asyncQueueCapacity = getIntProperty(PROP_ASYNC_QUEUE_CAPACITY,
+                    m_bundleContext.getProperty(PROP_ASYNC_QUEUE_CAPACITY), 0, 0);
+            m_asyncOverflowPolicy = getEnumProperty(PROP_ASYNC_OVERFLOW_POLICY,
+                    m_bundleContext.getProperty(PROP_ASYNC_OVERFLOW_POLICY), AsyncDeliverTasks.Overflow.BLOCK);
+            m_asyncBatchSize = getIntProperty(PROP_ASYNC_BATCH_SIZE,
+                    m_bundleContext.getProperty(PROP_ASYNC_BATCH_SIZE), 0, 0);
         }
         else
         {
@@ -371,6 +432,14 @@ public class Configuration
                     config.get(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+            m_asyncOrdering = getEnumProperty(PROP_ASYNC_ORDERING,
+                    config.get(PROP_ASYNC_ORDERING), AsyncDeliverTasks.Ordering.THREAD);
+            m_asyncQueueCapacity = getIntProperty(PROP_ASYNC_QUEUE_CAPACITY,
+                    config.get(PROP_ASYNC_QUEUE_CAPACITY), 0, 0);
+            m_asyncOverflowPolicy = getEnumProperty(PROP_ASYNC_OVERFLOW_POLICY,
+                    config.get(PROP_ASYNC_OVERFLOW_POLICY), AsyncDeliverTasks.Overflow.BLOCK);
+            m_asyncBatchSize = getIntProperty(PROP_ASYNC_BATCH_SIZE,
+                    config.get(PROP_ASYNC_BATCH_SIZE), 0, 0);
         }
         // a timeout less or equals to 100 means : disable timeout
         if ( m_timeout <= 100 )
@@ -395,6 +464,14 @@ public class Configuration
             PROP_TIMEOUT + "=" + m_timeout);
         LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
             PROP_REQUIRE_TOPIC + "=" + m_requireTopic);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_ASYNC_ORDERING + "=" + m_asyncOrdering);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_ASYNC_QUEUE_CAPACITY + "=" + m_asyncQueueCapacity);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_ASYNC_OVERFLOW_POLICY + "=" + m_asyncOverflowPolicy);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_ASYNC_BATCH_SIZE + "=" + m_asyncBatchSize);
 
         // Note that this uses a lazy thread pool that will create new threads on
         // demand - in case none of its cached threads is free - until threadPoolSize
@@ -441,6 +518,8 @@ public class Configuration
         {
             m_admin.update(m_timeout, m_ignoreTimeout, m_requireTopic, m_ignoreTopics);
         }
+        m_admin.updateAsyncDelivery(m_asyncOrdering, m_asyncQueueCapacity,
+                m_asyncOverflowPolicy, m_asyncBatchSize);
 
     }
 
@@ -510,7 +589,8 @@ public class Configuration
         {
             return new MetaTypeProviderImpl((ManagedService)managedService,
                     m_threadPoolSize, m_timeout, m_requireTopic,
-                    m_ignoreTimeout, m_ignoreTopics, m_asyncToSyncThreadRatio);
+                    m_ignoreTimeout, m_ignoreTopics, m_asyncToSyncThreadRatio,
+                    m_asyncOrdering, m_asyncQueueCapacity, m_asyncOverflowPolicy, m_asyncBatchSize);
         }
         catch (final Throwable t)
         {
@@ -621,6 +701,32 @@ public class Configuration
         return defaultValue;
     }
 
+    /**
+     * Returns the constant of the enum type whose name matches the value of the
+     * property, ignoring case and underscores, or the default. Additionally, a
+     * warning is generated in case the value does not match any constant.
+     */
+    private <T extends Enum<T>> T getEnumProperty(final String key, final Object value,
+        final T defaultValue)
+    {
+        if(null != value)
+        {
+            final String name = value.toString().trim().replace("_", "");
+            for(final T constant : defaultValue.getDeclaringClass().getEnumConstants())
+            {
+                if ( constant.name().replace("_", "").equalsIgnoreCase(name) )
+                {
+                    return constant;
+                }
+            }
+
+            LogWrapper.getLogger().log(LogWrapper.LOG_WARNING,
+                    "Value for property: " + key + " is unknown - Using default");
+        }
+
+        return defaultValue;
+    }
+
     /**
      * Returns true if the value of the property is set and is either 1, true, or yes
      * Returns false if the value of the property is set and is either 0, false, or no
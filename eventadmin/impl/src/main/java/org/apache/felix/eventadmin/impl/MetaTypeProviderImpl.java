@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Dictionary;
 
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.service.metatype.AttributeDefinition;
@@ -42,6 +43,10 @@ public class MetaTypeProviderImpl
     private final String[] m_ignoreTimeout;
     private final String[] m_ignoreTopic;
     private final double m_asyncThreadPoolRatio;
+    private final AsyncDeliverTasks.Ordering m_asyncOrdering;
+    private final int m_asyncQueueCapacity;
+    private final AsyncDeliverTasks.Overflow m_asyncOverflowPolicy;
+    private final int m_asyncBatchSize;
 
     private final ManagedService m_delegatee;
 
@@ -50,7 +55,11 @@ public class MetaTypeProviderImpl
             final int timeout, final boolean requireTopic,
             final String[] ignoreTimeout,
             final String[] ignoreTopic,
-            final double asyncThreadPoolRatio)
+            final double asyncThreadPoolRatio,
+            final AsyncDeliverTasks.Ordering asyncOrdering,
+            final int asyncQueueCapacity,
+            final AsyncDeliverTasks.Overflow asyncOverflowPolicy,
+            final int asyncBatchSize)
     {
         m_threadPoolSize = threadPoolSize;
         m_timeout = timeout;
@@ -59,6 +68,10 @@ public class MetaTypeProviderImpl
         m_ignoreTimeout = ignoreTimeout;
         m_ignoreTopic = ignoreTopic;
         m_asyncThreadPoolRatio = asyncThreadPoolRatio;
+        m_asyncOrdering = asyncOrdering;
+        m_asyncQueueCapacity = asyncQueueCapacity;
+        m_asyncOverflowPolicy = asyncOverflowPolicy;
+        m_asyncBatchSize = asyncBatchSize;
     }
 
     private ObjectClassDefinition ocd;
@@ -143,6 +156,29 @@ public class MetaTypeProviderImpl
                     "are ignored. If a single value neither ends with a dot nor with a start, this is assumed " +
                     "to define an exact topic. A single star can be used to disable delivery completely.",
                     AttributeDefinition.STRING, m_ignoreTopic, Integer.MAX_VALUE, null, null));
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_ASYNC_ORDERING, "Async Ordering",
+                    "The scope in which posted events are delivered in order. By default events posted " +
+                    "by the same thread are delivered in order. Events can also be ordered per topic or " +
+                    "per event handler only, which allows more events to be delivered in parallel.",
+                    AttributeDefinition.STRING, new String[] {m_asyncOrdering.name().toLowerCase()}, 0,
+                    new String[] {"Per posting thread", "Per topic", "Per event handler", "Unordered"},
+                    new String[] {"thread", "topic", "handler", "unordered"}));
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_ASYNC_QUEUE_CAPACITY, "Async Queue Capacity",
+                    "The maximum number of posted events queued per ordering scope. The default value " +
+                    "is 0, which means the queues are unbounded.",
+                    m_asyncQueueCapacity ) );
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_ASYNC_OVERFLOW_POLICY, "Async Overflow Policy",
+                    "What happens to an event posted to a full queue. By default the posting thread " +
+                    "waits until the queue has room. Threads delivering asynchronous events never wait.",
+                    AttributeDefinition.STRING, new String[] {m_asyncOverflowPolicy == AsyncDeliverTasks.Overflow.DROP_OLDEST
+                            ? "dropOldest" : m_asyncOverflowPolicy.name().toLowerCase()}, 0,
+                    new String[] {"Block the posting thread", "Drop the posted event", "Drop the oldest queued event"},
+                    new String[] {"block", "drop", "dropOldest"}));
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_ASYNC_BATCH_SIZE, "Async Batch Size",
+                    "The maximum number of queued events a queue delivers before its delivery thread " +
+                    "is handed back to the pool. The events are still delivered to the handlers one at a time. " +
+                    "The default value is 0, which means a queue is drained completely.",
+                    m_asyncBatchSize ) );
             ocd = new ObjectClassDefinition()
             {
 
@@ -21,6 +21,7 @@ package org.apache.felix.eventadmin.impl.handler;
 import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
 import org.apache.felix.eventadmin.impl.tasks.SyncDeliverTasks;
+import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.apache.felix.eventadmin.impl.util.Matchers;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.event.Event;
@@ -153,6 +154,8 @@ public class EventAdminImpl implements EventAdmin
      */
     public void stop()
     {
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+                "Stopping event admin: " + m_postManager);
         this.tracker.close();
         this.tracker = null;
     }
@@ -172,6 +175,26 @@ public class EventAdminImpl implements EventAdmin
         this.m_ignoreTopics = Matchers.createEventTopicMatchers(ignoreTopics);
     }
 
+    /**
+     * Update the asynchronous delivery lanes with new configuration.
+     */
+    public void updateAsyncDelivery(final AsyncDeliverTasks.Ordering ordering,
+                    final int capacity,
+                    final AsyncDeliverTasks.Overflow overflow,
+                    final int batchSize)
+    {
+        this.m_postManager.update(ordering, capacity, overflow, batchSize);
+    }
+
+    /**
+     * Returns the asynchronous event dispatcher, which provides the queue
+     * depth and drop statistics of the delivery lanes.
+     */
+    public AsyncDeliverTasks getAsyncDeliverTasks()
+    {
+        return this.m_postManager;
+    }
+
     /**
      * This is a utility method that will throw a <tt>NullPointerException</tt>
      * in case that the given object is null. The message will be of the form
@@ -18,6 +18,7 @@
  */
 package org.apache.felix.eventadmin.impl.handler;
 
+import java.security.Permission;
 import java.util.Collection;
 import java.util.Iterator;
 
@@ -325,6 +326,14 @@ public class EventHandlerProxy {
         return this.topics;
     }
 
+    /**
+     * Has this handler an event filter?
+     */
+    public boolean hasFilter()
+    {
+        return this.filter != null;
+    }
+
     /**
      * Check if this handler is allowed to receive the event
      * - blacklisted
@@ -332,6 +341,21 @@ public class EventHandlerProxy {
      * - check permission
      */
     public boolean canDeliver(final Event event)
+    {
+        return this.canDeliver(event, PermissionsUtil.createSubscribePermission(event.getTopic()), true);
+    }
+
+    /**
+     * Check if this handler is allowed to receive the event
+     * - blacklisted
+     * - check filter (if requested)
+     * - check permission
+     *
+     * @param event The event
+     * @param permission The subscribe permission for the topic of the event or <code>null</code>
+     * @param checkFilter Whether the filter of the handler has to be checked
+     */
+    public boolean canDeliver(final Event event, final Permission permission, final boolean checkFilter)
     {
         if ( this.blacklisted )
         {
@@ -346,14 +370,13 @@ public class EventHandlerProxy {
 
         // filter match
         final Filter eventFilter = this.filter;
-        if ( eventFilter != null && !event.matches(eventFilter) )
+        if ( checkFilter && eventFilter != null && !event.matches(eventFilter) )
         {
             return false;
         }
 
         // permission check
-        final Object p = PermissionsUtil.createSubscribePermission(event.getTopic());
-        if (p != null && !bundle.hasPermission(p) )
+        if (permission != null && !bundle.hasPermission(permission) )
         {
             return false;
         }
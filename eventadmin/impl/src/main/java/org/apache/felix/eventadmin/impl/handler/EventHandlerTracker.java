@@ -18,14 +18,17 @@
  */
 package org.apache.felix.eventadmin.impl.handler;
 
+import java.security.Permission;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.felix.eventadmin.impl.security.PermissionsUtil;
 import org.apache.felix.eventadmin.impl.util.Matchers;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
@@ -40,6 +43,9 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandlerProxy> {
 
+    /** The maximum number of topics in the topic cache. */
+    private static final int MAX_CACHED_TOPICS = 4096;
+
     /** The proxies in this list match all events. */
 	private final List<EventHandlerProxy> matchingAllEvents;
 
@@ -54,6 +60,16 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 	private final Map<String, List<EventHandlerProxy>> matchingPrefixTopic;
 
 
+	/** This is a cache of the resolved handlers for a topic. The key is the
+	 * topic, the value are the handlers subscribed to it.
+	 */
+	private final Map<String, TopicHandlers> topicCache;
+
+	/** The generation of the handler collections, incremented on each change.
+	 * Cached topic resolutions of an older generation are not used.
+	 */
+	private volatile long generation;
+
 	/** The context for the proxies. */
 	private HandlerContext handlerContext;
 
@@ -64,6 +80,7 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 		this.matchingAllEvents = new CopyOnWriteArrayList<>();
 		this.matchingTopic = new ConcurrentHashMap<>();
 		this.matchingPrefixTopic = new ConcurrentHashMap<>();
+		this.topicCache = new ConcurrentHashMap<>();
 	}
 
     /**
@@ -161,6 +178,7 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
     			}
     		}
 		}
+		this.invalidateTopicCache();
 	}
 
     /**
@@ -189,6 +207,16 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
                 }
             }
         }
+        this.invalidateTopicCache();
+	}
+
+	/**
+	 * Invalidate all cached topic resolutions. Must be called after
+	 * the handler collections have been changed.
+	 */
+	private void invalidateTopicCache() {
+	    this.generation++;
+	    this.topicCache.clear();
 	}
 
 	/**
@@ -200,10 +228,46 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 	public Collection<EventHandlerProxy> getHandlers(final Event event) {
 	    final String topic = event.getTopic();
 
-		final Set<EventHandlerProxy> handlers = new HashSet<>();
+	    final long currentGeneration = this.generation;
+	    TopicHandlers resolved = this.topicCache.get(topic);
+	    if ( resolved == null || resolved.generation != currentGeneration )
+	    {
+	        resolved = this.resolve(topic, currentGeneration);
+	        if ( this.topicCache.size() >= MAX_CACHED_TOPICS )
+	        {
+	            this.topicCache.clear();
+	        }
+	        this.topicCache.put(topic, resolved);
+	    }
+
+	    // only the filters of the handlers have to be evaluated per event
+	    final List<EventHandlerProxy> handlers = new ArrayList<>(
+	            resolved.unfiltered.length + resolved.filtered.length);
+	    for(final EventHandlerProxy p : resolved.unfiltered)
+	    {
+	        if ( p.canDeliver(event, resolved.permission, false) )
+	        {
+	            handlers.add(p);
+	        }
+	    }
+	    for(final EventHandlerProxy p : resolved.filtered)
+	    {
+	        if ( p.canDeliver(event, resolved.permission, true) )
+	        {
+	            handlers.add(p);
+	        }
+	    }
+		return handlers;
+	}
+
+	/**
+	 * Resolve the handlers subscribed to the topic.
+	 */
+	private TopicHandlers resolve(final String topic, final long currentGeneration) {
+		final Set<EventHandlerProxy> handlers = new LinkedHashSet<>();
 
 		// Add all handlers matching everything
-        this.checkHandlerAndAdd(handlers, this.matchingAllEvents, event);
+		handlers.addAll(this.matchingAllEvents);
 
 		// Now check for prefix matches
 		if ( !this.matchingPrefixTopic.isEmpty() )
@@ -212,38 +276,71 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 			while (pos != -1)
 			{
 			    final String prefix = topic.substring(0, pos);
-		        this.checkHandlerAndAdd(handlers, this.matchingPrefixTopic.get(prefix), event);
+			    this.addAll(handlers, this.matchingPrefixTopic.get(prefix));
 
 				pos = prefix.lastIndexOf('/');
 			}
 		}
 
 		// Add the handlers for matching topic names
-		this.checkHandlerAndAdd(handlers, this.matchingTopic.get(topic), event);
+		this.addAll(handlers, this.matchingTopic.get(topic));
 
-		return handlers;
+		final List<EventHandlerProxy> unfiltered = new ArrayList<>();
+		final List<EventHandlerProxy> filtered = new ArrayList<>();
+		for(final EventHandlerProxy p : handlers)
+		{
+		    if ( p.hasFilter() )
+		    {
+		        filtered.add(p);
+		    }
+		    else
+		    {
+		        unfiltered.add(p);
+		    }
+		}
+		return new TopicHandlers(currentGeneration,
+		        unfiltered.toArray(new EventHandlerProxy[unfiltered.size()]),
+		        filtered.toArray(new EventHandlerProxy[filtered.size()]),
+		        PermissionsUtil.createSubscribePermission(topic));
 	}
 
-	/**
-	 * Checks each handler from the proxy list if it can deliver the event
-	 * If the event can be delivered, the proxy is added to the handlers.
-	 */
-	private void checkHandlerAndAdd( final Set<EventHandlerProxy> handlers,
-	        final List<EventHandlerProxy> proxies,
-	        final Event event)
+	private void addAll(final Set<EventHandlerProxy> handlers, final List<EventHandlerProxy> proxies)
 	{
 	    if ( proxies != null )
 	    {
-            for(final EventHandlerProxy p : proxies)
-            {
-                if ( p.canDeliver(event) )
-                {
-                    handlers.add(p);
-                }
-            }
+	        handlers.addAll(proxies);
 	    }
 	}
 
+    /**
+     * The handlers subscribed to a topic.
+     */
+    private static final class TopicHandlers
+    {
+        /** The generation of the handler collections this is resolved from. */
+        public final long generation;
+
+        /** The handlers without event filter. */
+        public final EventHandlerProxy[] unfiltered;
+
+        /** The handlers with an event filter. */
+        public final EventHandlerProxy[] filtered;
+
+        /** The subscribe permission for the topic or <code>null</code>. */
+        public final Permission permission;
+
+        public TopicHandlers(final long generation,
+                final EventHandlerProxy[] unfiltered,
+                final EventHandlerProxy[] filtered,
+                final Permission permission)
+        {
+            this.generation = generation;
+            this.unfiltered = unfiltered;
+            this.filtered = filtered;
+            this.permission = permission;
+        }
+    }
+
     /**
      * The context object passed to the proxies.
      */
@@ -18,20 +18,60 @@
  */
 package org.apache.felix.eventadmin.impl.tasks;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.Map;
+import java.util.Collections;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.service.event.Event;
 
 /**
  * This class does the actual work of the asynchronous event dispatch.
  *
+ * Posted events are queued in delivery lanes. Each lane is drained by at most
+ * one thread from the pool at a time, which keeps the events of a lane in
+ * order. The {@link Ordering} decides which events share a lane. Lanes can be
+ * bounded, in which case the {@link Overflow} policy decides what happens to
+ * an event posted to a full lane.
+ *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class AsyncDeliverTasks
 {
+    /** The scope in which posted events are delivered in order. */
+    public enum Ordering
+    {
+        /** Events posted by the same thread are delivered in order (default). */
+        THREAD,
+        /** Events with the same topic are delivered in order. */
+        TOPIC,
+        /** Each handler receives its events in order, independent of other handlers. */
+        HANDLER,
+        /** No ordering, events are delivered in parallel. */
+        UNORDERED
+    }
+
+    /** What happens to an event posted to a full lane. */
+    public enum Overflow
+    {
+        /** The posting thread waits until the lane has room (default). */
+        BLOCK,
+        /** The posted event is discarded. */
+        DROP,
+        /** The oldest queued event of the lane is discarded. */
+        DROP_OLDEST
+    }
+
+    /** The key of the single lane used for unordered delivery. */
+    private static final Object UNORDERED_LANE = new Object();
+
+    /** The lane the current thread is delivering events for. */
+    private static final ThreadLocal<Lane> CURRENT_LANE = new ThreadLocal<Lane>();
+
     /** The thread pool to use to spin-off new threads. */
     private final DefaultThreadPool m_pool;
 
@@ -41,8 +81,31 @@ public class AsyncDeliverTasks
      */
     private final SyncDeliverTasks m_deliver_task;
 
-    /** A map of running threads currently delivering async events. */
-    private final Map<Long, TaskExecuter> m_running_threads = new ConcurrentHashMap<Long, TaskExecuter>();
+    /** The lanes currently delivering async events. */
+    private final ConcurrentMap<Object, Lane> m_lanes = new ConcurrentHashMap<Object, Lane>();
+
+    private volatile Ordering m_ordering = Ordering.THREAD;
+
+    /** The maximum number of queued events per lane, 0 means unbounded. */
+    private volatile int m_capacity;
+
+    private volatile Overflow m_overflow = Overflow.BLOCK;
+
+    /** The maximum number of events a lane delivers before it hands its
+     * thread back to the pool, 0 means the lane is drained completely.
+     * Each event is still delivered on its own, as handlers have no batch API.
+     */
+    private volatile int m_batchSize;
+
+    private final AtomicLong m_queued = new AtomicLong();
+
+    private final AtomicLong m_maxQueueDepth = new AtomicLong();
+
+    private final AtomicLong m_delivered = new AtomicLong();
+
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    private final AtomicLong m_blocked = new AtomicLong();
 
     /**
      * The constructor of the class that will use the asynchronous.
@@ -59,134 +122,314 @@ public class AsyncDeliverTasks
     }
 
     /**
-     * This does not block an unrelated thread used to send a synchronous event.
-     *
-     * @param tasks The event handler dispatch tasks to execute
+     * Update the lane configuration. Events already queued are delivered
+     * in the lanes they have been queued in.
      *
+     * @param ordering The ordering scope of posted events
+     * @param capacity The maximum number of queued events per lane, 0 for unbounded lanes
+     * @param overflow The policy for events posted to a full lane
+     * @param batchSize The maximum number of events delivered by a lane before
+     *      its thread is handed back to the pool, 0 for no limit
      */
-    public void execute(final Collection<EventHandlerProxy> tasks, final Event event)
+    public void update(final Ordering ordering, final int capacity, final Overflow overflow, final int batchSize)
     {
-        /*
-        final Iterator i = tasks.iterator();
-        boolean hasOrdered = false;
-        while ( i.hasNext() )
+        m_ordering = ordering;
+        m_capacity = Math.max(0, capacity);
+        m_overflow = overflow;
+        m_batchSize = Math.max(0, batchSize);
+        for(final Lane lane : m_lanes.values())
         {
-            final EventHandlerProxy task = (EventHandlerProxy)i.next();
-            if ( !task.isAsyncOrderedDelivery() )
+            synchronized ( lane )
             {
-                // do somethimg
-            }
-            else
-            {
-                hasOrdered = true;
+                // the capacity might have been raised
+                lane.notifyAll();
             }
+        }
+    }
 
+    /**
+     * This does not block an unrelated thread used to send a synchronous event,
+     * unless the lane is full and the overflow policy is {@link Overflow#BLOCK}.
+     *
+     * @param tasks The event handler dispatch tasks to execute
+     *
+     */
+    public void execute(final Collection<EventHandlerProxy> tasks, final Event event)
+    {
+        if ( tasks.isEmpty() )
+        {
+            return;
         }
-        if ( hasOrdered )
-        {*/
-            final TaskInfo info = new TaskInfo(tasks, event);
-            final Long currentThreadId = Thread.currentThread().getId();
-            TaskExecuter executer = m_running_threads.get(currentThreadId);
-            if ( executer == null )
+        switch ( m_ordering )
+        {
+            case TOPIC:
+                enqueue(event.getTopic(), tasks, event);
+                break;
+            case HANDLER:
+                for(final EventHandlerProxy task : tasks)
+                {
+                    enqueue(task, Collections.singletonList(task), event);
+                }
+                break;
+            case UNORDERED:
+                enqueue(UNORDERED_LANE, tasks, event);
+                break;
+            default:
+                enqueue(Thread.currentThread().getId(), tasks, event);
+        }
+    }
+
+    /**
+     * Returns the number of events currently queued in all lanes.
+     */
+    public long getQueuedEvents()
+    {
+        return m_queued.get();
+    }
+
+    /**
+     * Returns the largest number of events queued in a single lane so far.
+     */
+    public long getMaxQueueDepth()
+    {
+        return m_maxQueueDepth.get();
+    }
+
+    /**
+     * Returns the number of events delivered so far.
+     */
+    public long getDeliveredEvents()
+    {
+        return m_delivered.get();
+    }
+
+    /**
+     * Returns the number of events discarded because of a full lane.
+     */
+    public long getDroppedEvents()
+    {
+        return m_dropped.get();
+    }
+
+    /**
+     * Returns the number of posts which had to wait for a full lane.
+     */
+    public long getBlockedPosts()
+    {
+        return m_blocked.get();
+    }
+
+    /**
+     * Returns the number of currently active lanes.
+     */
+    public int getLaneCount()
+    {
+        return m_lanes.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AsyncDeliverTasks [ordering=" + m_ordering
+                + ", capacity=" + m_capacity
+                + ", overflow=" + m_overflow
+                + ", batchSize=" + m_batchSize
+                + ", lanes=" + getLaneCount()
+                + ", queued=" + getQueuedEvents()
+                + ", maxQueueDepth=" + getMaxQueueDepth()
+                + ", delivered=" + getDeliveredEvents()
+                + ", dropped=" + getDroppedEvents()
+                + ", blocked=" + getBlockedPosts() + "]";
+    }
+
+    private void enqueue(final Object key, final Collection<EventHandlerProxy> tasks, final Event event)
+    {
+        final TaskInfo info = new TaskInfo(tasks, event);
+        boolean blocked = false;
+        while ( true )
+        {
+            Lane lane = m_lanes.get(key);
+            if ( lane == null )
             {
-                executer = new TaskExecuter(currentThreadId, m_running_threads);
+                final Lane created = new Lane(key,
+                        key == UNORDERED_LANE ? Math.max(1, m_pool.getPoolSize()) : 1);
+                lane = m_lanes.putIfAbsent(key, created);
+                if ( lane == null )
+                {
+                    lane = created;
+                }
             }
-            synchronized ( executer )
+            boolean start = false;
+            synchronized ( lane )
             {
-                executer.add(info);
-                if ( !executer.isActive() )
+                if ( lane.retired )
                 {
-                    // reactivate thread
-                    executer.setSyncDeliverTasks(m_deliver_task);
-                    if ( !m_pool.executeTask(executer) )
+                    continue;
+                }
+                final int capacity = m_capacity;
+                if ( capacity > 0 && lane.queue.size() >= capacity )
+                {
+                    final Overflow overflow = m_overflow;
+                    if ( overflow == Overflow.DROP )
+                    {
+                        m_dropped.incrementAndGet();
+                        return;
+                    }
+                    else if ( overflow == Overflow.DROP_OLDEST )
+                    {
+                        lane.queue.poll();
+                        m_queued.decrementAndGet();
+                        m_dropped.incrementAndGet();
+                    }
+                    // a thread delivering async events must never wait for a lane,
+                    // as it might be the one which has to drain it
+                    else if ( CURRENT_LANE.get() == null )
                     {
-                        // scheduling failed: last resort, call directly
-                        executer.run();
+                        if ( !blocked )
+                        {
+                            blocked = true;
+                            m_blocked.incrementAndGet();
+                        }
+                        try
+                        {
+                            lane.wait();
+                            continue;
+                        }
+                        catch ( final InterruptedException ie )
+                        {
+                            // stop waiting and queue the event anyway
+                            Thread.currentThread().interrupt();
+                        }
                     }
-                    m_running_threads.put(currentThreadId, executer);
                 }
+                lane.queue.add(info);
+                m_queued.incrementAndGet();
+                updateMaxQueueDepth(lane.queue.size());
+                if ( lane.workers < lane.maxWorkers && lane.workers < lane.queue.size() )
+                {
+                    lane.workers++;
+                    start = true;
+                }
+            }
+            if ( start )
+            {
+                start(lane);
             }
-        //}
+            return;
+        }
+    }
+
+    private void updateMaxQueueDepth(final long depth)
+    {
+        long max = m_maxQueueDepth.get();
+        while ( depth > max && !m_maxQueueDepth.compareAndSet(max, depth) )
+        {
+            max = m_maxQueueDepth.get();
+        }
+    }
+
+    private void start(final Lane lane)
+    {
+        if ( !m_pool.executeTask(lane) )
+        {
+            // scheduling failed: last resort, call directly
+            lane.run();
+        }
     }
 
     private final static class TaskInfo {
         public final Collection<EventHandlerProxy> tasks;
         public final Event event;
 
-        public TaskInfo next;
-
         public TaskInfo(final Collection<EventHandlerProxy> tasks, final Event event) {
             this.tasks = tasks;
             this.event = event;
         }
     }
 
-    private final static class TaskExecuter implements Runnable
+    /**
+     * A lane of queued events. All access to the queue and the worker count
+     * is guarded by the lane itself.
+     */
+    private final class Lane implements Runnable
     {
-        private volatile TaskInfo first;
-        private volatile TaskInfo last;
+        private final Object key;
 
-        private volatile SyncDeliverTasks m_deliver_task;
+        private final int maxWorkers;
 
-        private final Map<Long, TaskExecuter> m_running_threads;
+        private final ArrayDeque<TaskInfo> queue = new ArrayDeque<TaskInfo>();
 
-        private final long threadId;
+        private int workers;
 
-        public TaskExecuter(final long threadId, final Map<Long, TaskExecuter> runningThreads) {
-            m_running_threads = runningThreads;
-            this.threadId = threadId;
-        }
-
-        public boolean isActive()
-        {
-            return this.m_deliver_task != null;
-        }
+        /** Set once the lane has been removed from the lanes map. */
+        private boolean retired;
 
-        public void setSyncDeliverTasks(final SyncDeliverTasks syncDeliverTasks)
+        public Lane(final Object key, final int maxWorkers)
         {
-            this.m_deliver_task = syncDeliverTasks;
+            this.key = key;
+            this.maxWorkers = maxWorkers;
         }
 
         @Override
         public void run()
         {
-            boolean running;
-            do
+            final Lane previous = CURRENT_LANE.get();
+            CURRENT_LANE.set(this);
+            final int batchSize = m_batchSize;
+            int delivered = 0;
+            boolean yield = false;
+            try
             {
-                TaskInfo info = null;
-                synchronized ( this )
+                while ( true )
                 {
-                    info = first;
-                    first = info.next;
-                    if ( first == null )
+                    final TaskInfo info;
+                    synchronized ( this )
                     {
-                        last = null;
+                        if ( queue.isEmpty() )
+                        {
+                            workers--;
+                            if ( workers == 0 )
+                            {
+                                retired = true;
+                                m_lanes.remove(key, this);
+                                // wake up posts waiting for a capacity change
+                                notifyAll();
+                            }
+                            return;
+                        }
+                        if ( batchSize > 0 && delivered == batchSize )
+                        {
+                            // keep the worker slot, but give other lanes a chance
+                            yield = true;
+                            return;
+                        }
+                        info = queue.poll();
+                        m_queued.decrementAndGet();
+                        if ( m_capacity > 0 )
+                        {
+                            notifyAll();
+                        }
                     }
-                }
-                m_deliver_task.execute(info.tasks, info.event, true);
-                synchronized ( this )
-                {
-                    running = first != null;
-                    if ( !running )
+                    try
+                    {
+                        m_deliver_task.execute(info.tasks, info.event, true);
+                    }
+                    catch ( final RuntimeException e )
                     {
-                        this.m_deliver_task = null;
-                        this.m_running_threads.remove(threadId);
+                        LogWrapper.getLogger().log(LogWrapper.LOG_WARNING,
+                                "Exception during asynchronous event delivery: " + e, e);
                     }
+                    delivered++;
+                    m_delivered.incrementAndGet();
                 }
-            } while ( running );
-        }
-
-        public void add(final TaskInfo info)
-        {
-            if ( first == null )
-            {
-                first = info;
-                last = info;
             }
-            else
+            finally
             {
-                last.next = info;
-                last = info;
+                CURRENT_LANE.set(previous);
+                if ( yield )
+                {
+                    start(this);
+                }
             }
         }
     }
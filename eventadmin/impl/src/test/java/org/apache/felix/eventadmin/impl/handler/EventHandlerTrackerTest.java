@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+public class EventHandlerTrackerTest {
+
+    private EventHandlerTracker tracker;
+
+    private EventHandlerProxy exact;
+
+    private EventHandlerProxy prefix;
+
+    private EventHandlerProxy all;
+
+    private EventHandlerProxy filtered;
+
+    @Before public void setUp()
+    {
+        tracker = new EventHandlerTracker(createProxy(BundleContext.class, Collections.<String, Object>emptyMap()));
+        tracker.update(null, false);
+
+        exact = tracker.addingService(createReference("a/b/c", null));
+        prefix = tracker.addingService(createReference("a/*", null));
+        all = tracker.addingService(createReference("*", null));
+        filtered = tracker.addingService(createReference("a/b/c", "(x=1)"));
+    }
+
+    @Test public void testGetHandlers()
+    {
+        for(int i = 0; i < 2; i++)
+        {
+            assertHandlers(event("a/b/c", 2), exact, prefix, all);
+            assertHandlers(event("a/b/c", 1), exact, prefix, all, filtered);
+            assertHandlers(event("a/b", 1), prefix, all);
+            assertHandlers(event("b", 1), all);
+        }
+    }
+
+    @Test public void testCacheInvalidation()
+    {
+        assertHandlers(event("a/b/c", 1), exact, prefix, all, filtered);
+
+        tracker.removedService(null, prefix);
+        assertHandlers(event("a/b/c", 1), exact, all, filtered);
+
+        final EventHandlerProxy added = tracker.addingService(createReference("a/b/*", null));
+        assertHandlers(event("a/b/c", 1), exact, all, filtered, added);
+        assertHandlers(event("a/b", 1), all);
+    }
+
+    private void assertHandlers(final Event event, final EventHandlerProxy... expected)
+    {
+        final Set<EventHandlerProxy> expectedSet = new HashSet<>();
+        Collections.addAll(expectedSet, expected);
+        assertEquals(expectedSet, new HashSet<>(tracker.getHandlers(event)));
+        assertEquals(expected.length, tracker.getHandlers(event).size());
+    }
+
+    private Event event(final String topic, final int x)
+    {
+        final Map<String, Object> props = new HashMap<>();
+        props.put("x", x);
+        return new Event(topic, props);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ServiceReference<EventHandler> createReference(final String topic, final String filter)
+    {
+        final Map<String, Object> props = new HashMap<>();
+        props.put(EventConstants.EVENT_TOPIC, topic);
+        props.put(EventConstants.EVENT_FILTER, filter);
+        props.put("getBundle", createProxy(Bundle.class, Collections.<String, Object>emptyMap()));
+        return createProxy(ServiceReference.class, props);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T createProxy(final Class<T> type, final Map<String, Object> values)
+    {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable
+            {
+                switch (method.getName())
+                {
+                    case "getProperty":
+                        return values.get(args[0]);
+                    case "getBundle":
+                        return values.get("getBundle");
+                    case "createFilter":
+                        return FrameworkUtil.createFilter((String) args[0]);
+                    case "hasPermission":
+                        return true;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return type.getSimpleName() + values;
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+
+public class AsyncDeliverTasksTest {
+
+    private DefaultThreadPool pool;
+
+    private RecordingDeliverTasks deliverTasks;
+
+    private AsyncDeliverTasks asyncTasks;
+
+    /** The handlers to deliver to, the recording deliver tasks ignores them. */
+    private final Collection<EventHandlerProxy> handlers = Collections.nCopies(1, null);
+
+    @Before public void setUp()
+    {
+        pool = new DefaultThreadPool(4, false);
+        deliverTasks = new RecordingDeliverTasks(pool);
+        asyncTasks = new AsyncDeliverTasks(pool, deliverTasks);
+    }
+
+    @After public void tearDown()
+    {
+        deliverTasks.release();
+        pool.close();
+    }
+
+    @Test public void testDrop() throws Exception
+    {
+        asyncTasks.update(AsyncDeliverTasks.Ordering.THREAD, 2, AsyncDeliverTasks.Overflow.DROP, 0);
+        postWhileBlocked("a/block", "a/1", "a/2", "a/3", "a/4");
+
+        assertEquals(2, asyncTasks.getDroppedEvents());
+        assertEquals(2, asyncTasks.getQueuedEvents());
+        assertEquals(2, asyncTasks.getMaxQueueDepth());
+
+        deliverTasks.release();
+        awaitDelivered(3);
+        assertEquals(Arrays.asList("a/block", "a/1", "a/2"), deliverTasks.topics());
+    }
+
+    @Test public void testDropOldest() throws Exception
+    {
+        asyncTasks.update(AsyncDeliverTasks.Ordering.THREAD, 2, AsyncDeliverTasks.Overflow.DROP_OLDEST, 0);
+        postWhileBlocked("a/block", "a/1", "a/2", "a/3", "a/4");
+
+        assertEquals(2, asyncTasks.getDroppedEvents());
+
+        deliverTasks.release();
+        awaitDelivered(3);
+        assertEquals(Arrays.asList("a/block", "a/3", "a/4"), deliverTasks.topics());
+    }
+
+    @Test public void testBlock() throws Exception
+    {
+        asyncTasks.update(AsyncDeliverTasks.Ordering.THREAD, 1, AsyncDeliverTasks.Overflow.BLOCK, 0);
+        final Thread poster = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    postWhileBlocked("a/block", "a/1", "a/2");
+                }
+                catch (final InterruptedException e)
+                {
+                    // ignore
+                }
+            }
+        };
+        poster.start();
+
+        final long end = System.currentTimeMillis() + 5000;
+        while ( asyncTasks.getBlockedPosts() == 0 && System.currentTimeMillis() < end )
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(1, asyncTasks.getBlockedPosts());
+        assertTrue(poster.isAlive());
+
+        deliverTasks.release();
+        poster.join(5000);
+        awaitDelivered(3);
+        assertEquals(Arrays.asList("a/block", "a/1", "a/2"), deliverTasks.topics());
+        assertEquals(0, asyncTasks.getDroppedEvents());
+    }
+
+    @Test public void testTopicOrdering() throws Exception
+    {
+        asyncTasks.update(AsyncDeliverTasks.Ordering.TOPIC, 0, AsyncDeliverTasks.Overflow.BLOCK, 1);
+        asyncTasks.execute(handlers, new Event("a/block", (Map<String, ?>) null));
+        assertTrue(deliverTasks.started.await(5, TimeUnit.SECONDS));
+
+        // a blocked topic does not hold up other topics
+        for(int i = 0; i < 10; i++)
+        {
+            asyncTasks.execute(handlers, new Event("b/" + (i % 2), (Map<String, ?>) null));
+        }
+        awaitDelivered(10);
+        assertEquals(1, asyncTasks.getLaneCount());
+
+        deliverTasks.release();
+        awaitDelivered(11);
+        assertEquals("a/block", deliverTasks.topics().get(10));
+    }
+
+    @Test public void testUnordered() throws Exception
+    {
+        asyncTasks.update(AsyncDeliverTasks.Ordering.UNORDERED, 0, AsyncDeliverTasks.Overflow.BLOCK, 0);
+        deliverTasks.release();
+        for(int i = 0; i < 100; i++)
+        {
+            asyncTasks.execute(handlers, new Event("a/" + i, (Map<String, ?>) null));
+        }
+        awaitDelivered(100);
+        assertEquals(100, asyncTasks.getDeliveredEvents());
+        assertEquals(0, asyncTasks.getQueuedEvents());
+    }
+
+    /**
+     * Posts the first event, waits until its delivery blocks and posts the others.
+     */
+    private void postWhileBlocked(final String first, final String... others) throws InterruptedException
+    {
+        asyncTasks.execute(handlers, new Event(first, (Map<String, ?>) null));
+        assertTrue(deliverTasks.started.await(5, TimeUnit.SECONDS));
+        for(final String topic : others)
+        {
+            asyncTasks.execute(handlers, new Event(topic, (Map<String, ?>) null));
+        }
+    }
+
+    private void awaitDelivered(final int count) throws InterruptedException
+    {
+        final long end = System.currentTimeMillis() + 5000;
+        while ( deliverTasks.topics().size() < count && System.currentTimeMillis() < end )
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(count, deliverTasks.topics().size());
+    }
+
+    /**
+     * Records the delivered topics. The delivery of topics ending with "block"
+     * waits until it is released.
+     */
+    private static class RecordingDeliverTasks extends SyncDeliverTasks
+    {
+        private final List<String> topics = new ArrayList<>();
+
+        final CountDownLatch started = new CountDownLatch(1);
+
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        RecordingDeliverTasks(final DefaultThreadPool pool)
+        {
+            super(pool, 0);
+        }
+
+        @Override
+        public void execute(final Collection<EventHandlerProxy> tasks, final Event event, final boolean filterAsyncUnordered)
+        {
+            if ( event.getTopic().endsWith("block") )
+            {
+                started.countDown();
+                try
+                {
+                    released.await(5, TimeUnit.SECONDS);
+                }
+                catch (final InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized ( topics )
+            {
+                topics.add(event.getTopic());
+            }
+        }
+
+        void release()
+        {
+            released.countDown();
+        }
+
+        List<String> topics()
+        {
+            synchronized ( topics )
+            {
+                return new ArrayList<>(topics);
+            }
+        }
+    }
+}
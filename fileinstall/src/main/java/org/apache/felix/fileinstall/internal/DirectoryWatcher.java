@@ -39,7 +39,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
@@ -63,6 +74,7 @@ import org.osgi.framework.Version;
 import org.osgi.framework.startlevel.BundleStartLevel;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
 import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.FrameworkWiring;
 
 /**
  * -DirectoryWatcher-
@@ -79,8 +91,11 @@ import org.osgi.framework.wiring.BundleRevision;
  * - If some jar files have been updated, it updates them.
  *    - If it fails to update a bundle, it tries to update it in following
  *      iterations until it is successful.
- * - If any bundle gets updated or uninstalled, it refreshes the framework
- *   for the changes to take effect.
+ * - Bundles are installed and updated sequentially, unless the parallelism
+ *   is set above 1.  Bundles with the same symbolic name are never installed
+ *   or updated concurrently.
+ * - If any bundle gets updated or uninstalled, it refreshes the bundles
+ *   depending on it for the changes to take effect.
  * - If it detects any new installations, uninstallations or updations,
  *   it tries to start all the managed bundle unless it has been configured
  *   to only install bundles.
@@ -110,6 +125,8 @@ public class DirectoryWatcher extends Thread implements BundleListener
     public final static String FRAGMENT_SCOPE = "felix.fileinstall.fragmentRefreshScope";
     public final static String DISABLE_NIO2 = "felix.fileinstall.disableNio2";
     public final static String SUBDIR_MODE = "felix.fileinstall.subdir.mode";
+    public final static String CHECKSUM_MODE = "felix.fileinstall.checksum.mode";
+    public final static String PARALLELISM = "felix.fileinstall.bundles.parallelism";
 
     public final static String SCOPE_NONE = "none";
     public final static String SCOPE_MANAGED = "managed";
@@ -139,6 +156,8 @@ public class DirectoryWatcher extends Thread implements BundleListener
     String fragmentScope;
     String optionalScope;
     boolean disableNio2;
+    String checksumMode;
+    int parallelism;
     int frameworkStartLevel;
 
     // Map of all installed artifacts
@@ -147,6 +166,12 @@ public class DirectoryWatcher extends Thread implements BundleListener
     // The scanner to report files changes
     Scanner scanner;
 
+    // The executor used to install and update bundles concurrently, or null if parallelism is disabled
+    final ExecutorService executor;
+
+    // Locks serializing the installation and update of bundles with the same symbolic name
+    private final ConcurrentMap<String, Object> symbolicNameLocks = new ConcurrentHashMap<String, Object>();
+
     // Represents files that could not be processed because of a missing artifact listener
     final Set<File> processingFailures = new HashSet<File>();
     
@@ -157,7 +182,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
     Set<Bundle> consistentlyFailingBundles = new HashSet<Bundle>();
 
     // Represents artifacts that could not be installed
-    final Map<File, Artifact> installationFailures = new HashMap<File, Artifact>();
+    final Map<File, Artifact> installationFailures = new ConcurrentHashMap<File, Artifact>();
 
     // flag (acces to which must be synchronized) that indicates wheter there's a change in state of system,
     // which may result in an attempt to start the watched bundles
@@ -188,15 +213,18 @@ public class DirectoryWatcher extends Thread implements BundleListener
         fragmentScope = properties.get(FRAGMENT_SCOPE);
         optionalScope = properties.get(OPTIONAL_SCOPE);
         disableNio2 = getBoolean(properties, DISABLE_NIO2, false);
+        checksumMode = properties.get(CHECKSUM_MODE);
+        parallelism = getInt(properties, PARALLELISM, 1); // by default, install bundles sequentially to keep the order of bundle ids
+        executor = parallelism > 1 ? createExecutor() : null;
         this.context.addBundleListener(this);
 
         if (disableNio2) {
-            scanner = new Scanner(watchedDirectory, filter, properties.get(SUBDIR_MODE));
+            scanner = new Scanner(watchedDirectory, filter, properties.get(SUBDIR_MODE), checksumMode);
         } else {
             try {
-                scanner = new WatcherScanner(context, watchedDirectory, filter, properties.get(SUBDIR_MODE));
+                scanner = new WatcherScanner(context, watchedDirectory, filter, properties.get(SUBDIR_MODE), checksumMode);
             } catch (Throwable t) {
-                scanner = new Scanner(watchedDirectory, filter, properties.get(SUBDIR_MODE));
+                scanner = new Scanner(watchedDirectory, filter, properties.get(SUBDIR_MODE), checksumMode);
             }
         }
     }
@@ -496,10 +524,12 @@ public class DirectoryWatcher extends Thread implements BundleListener
             toRefresh.addAll(installedBundles);
             findBundlesWithFragmentsToRefresh(toRefresh);
             findBundlesWithOptionalPackagesToRefresh(toRefresh);
-            if (toRefresh.size() > 0)
+            Collection<Bundle> closure = getRefreshClosure(toRefresh);
+            if (closure.size() > 0)
             {
                 // Refresh if any bundle got uninstalled or updated.
-                refresh(toRefresh);
+                log(Logger.LOG_DEBUG, "Refreshing " + closure.size() + " bundles", null);
+                refresh(closure);
                 // set the state to reattempt starting managed bundles which aren't already STARTING or ACTIVE
                 setStateChanged(true);
             }
@@ -681,6 +711,36 @@ public class DirectoryWatcher extends Thread implements BundleListener
         return (rev.getTypes() & BundleRevision.TYPE_FRAGMENT) != 0;
     }
 
+    /**
+     * Compute the minimal set of bundles to refresh.  Only bundles whose
+     * previous revisions are still in use, and resolved bundles which can
+     * pick up a new fragment or optional import, need to be refreshed, along
+     * with the bundles depending on them.  Bundles which have just been
+     * installed or updated but not resolved yet are left out.
+     *
+     * @param bundles the bundles affected by the changes
+     * @return the dependency closure of the bundles to refresh
+     */
+    Collection<Bundle> getRefreshClosure(Collection<Bundle> bundles)
+    {
+        FrameworkWiring wiring = systemBundle.adapt(FrameworkWiring.class);
+        Collection<Bundle> removalPending = wiring.getRemovalPendingBundles();
+        Set<Bundle> roots = new HashSet<Bundle>();
+        for (Bundle b : bundles)
+        {
+            if (removalPending.contains(b)
+                    || (b.getState() & (Bundle.RESOLVED | Bundle.STARTING | Bundle.ACTIVE | Bundle.STOPPING)) != 0)
+            {
+                roots.add(b);
+            }
+        }
+        if (roots.isEmpty())
+        {
+            return roots;
+        }
+        return wiring.getDependencyClosure(roots);
+    }
+
     /**
      * Convenience to refresh the packages
      */
@@ -779,6 +839,10 @@ public class DirectoryWatcher extends Thread implements BundleListener
     {
         this.context.removeBundleListener(this);
         interrupt();
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
         for (Artifact artifact : getArtifacts()) {
             deleteTransformedFile(artifact);
             deleteJaredDirectory(artifact);
@@ -877,16 +941,15 @@ public class DirectoryWatcher extends Thread implements BundleListener
      * @param artifacts Collection of {@link Artifact}s to be installed
      * @return List of Bundles just installed
      */
-    private Collection<Bundle> install(Collection<Artifact> artifacts)
+    private Collection<Bundle> install(Collection<Artifact> artifacts) throws InterruptedException
     {
-        List<Bundle> bundles = new ArrayList<Bundle>();
-        for (Artifact artifact : artifacts) {
-            Bundle bundle = install(artifact);
-            if (bundle != null) {
-                bundles.add(bundle);
+        return process(artifacts, new ArtifactTask()
+        {
+            public Bundle process(Artifact artifact)
+            {
+                return install(artifact);
             }
-        }
-        return bundles;
+        });
     }
 
     /**
@@ -912,18 +975,88 @@ public class DirectoryWatcher extends Thread implements BundleListener
      * @param artifacts    Collection of {@link Artifact}s to be updated.
      * @return Collection of bundles that got updated
      */
-    private Collection<Bundle> update(Collection<Artifact> artifacts)
+    private Collection<Bundle> update(Collection<Artifact> artifacts) throws InterruptedException
+    {
+        return process(artifacts, new ArtifactTask()
+        {
+            public Bundle process(Artifact artifact)
+            {
+                return update(artifact);
+            }
+        });
+    }
+
+    /**
+     * Process a collection of artifacts.  Artifacts handled by an {@link ArtifactInstaller}
+     * are processed sequentially in the calling thread, as installers are not required to be
+     * thread safe, while bundles are installed or updated concurrently by the executor.
+     *
+     * @param artifacts Collection of {@link Artifact}s to be processed
+     * @param task the task to run on each artifact
+     * @return Collection of bundles returned by the task
+     */
+    private Collection<Bundle> process(Collection<Artifact> artifacts, final ArtifactTask task) throws InterruptedException
     {
         List<Bundle> bundles = new ArrayList<Bundle>();
-        for (Artifact artifact : artifacts) {
-            Bundle bundle = update(artifact);
-            if (bundle != null) {
-                bundles.add(bundle);
+        List<Future<Bundle>> futures = new ArrayList<Future<Bundle>>();
+        boolean concurrent = executor != null && artifacts.size() > 1;
+        for (final Artifact artifact : artifacts) {
+            if (concurrent && !(artifact.getListener() instanceof ArtifactInstaller)) {
+                futures.add(executor.submit(new Callable<Bundle>()
+                {
+                    public Bundle call()
+                    {
+                        return task.process(artifact);
+                    }
+                }));
+            } else {
+                Bundle bundle = task.process(artifact);
+                if (bundle != null) {
+                    bundles.add(bundle);
+                }
+            }
+        }
+        for (Future<Bundle> future : futures) {
+            try {
+                Bundle bundle = future.get();
+                if (bundle != null) {
+                    bundles.add(bundle);
+                }
+            } catch (ExecutionException e) {
+                log(Logger.LOG_ERROR, "Failed to process artifact", e.getCause());
             }
         }
         return bundles;
     }
 
+    private ExecutorService createExecutor()
+    {
+        final String name = getName();
+        // Threads are only created when bundles are installed or updated, and die when idle
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(parallelism, parallelism,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        tpe.allowCoreThreadTimeOut(true);
+        return tpe;
+    }
+
+    /**
+     * A task installing or updating a single artifact.
+     */
+    private interface ArtifactTask
+    {
+        Bundle process(Artifact artifact);
+    }
+
     /**
      * Install an artifact and return the bundle object.
      * It uses {@link Artifact#getPath()} as location
@@ -1009,41 +1142,45 @@ public class DirectoryWatcher extends Thread implements BundleListener
             String sn = m.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME);
             String vStr = m.getMainAttributes().getValue(Constants.BUNDLE_VERSION);
             Version v = vStr == null ? Version.emptyVersion : Version.parseVersion(vStr);
-            Bundle[] bundles = context.getBundles();
-            for (Bundle b : bundles) {
-                if (b.getSymbolicName() != null && b.getSymbolicName().equals(sn)) {
-                    vStr = b.getHeaders().get(Constants.BUNDLE_VERSION);
-                    Version bv = vStr == null ? Version.emptyVersion : Version.parseVersion(vStr);
-                    if (v.equals(bv)) {
-                        is.reset();
-                        if (Util.loadChecksum(b, context) != checksum) {
-                            log(Logger.LOG_WARNING,
-                                    "A bundle with the same symbolic name ("
-                                            + sn + ") and version (" + vStr
-                                            + ") is already installed.  Updating this bundle instead.", null
-                            );
-                            stopTransient(b);
-                            Util.storeChecksum(b, checksum, context);
-                            b.update(is);
-                            modified.set(true);
+            // Looking for an existing bundle and installing a new one must be atomic
+            synchronized (symbolicNameLock(sn))
+            {
+                Bundle[] bundles = context.getBundles();
+                for (Bundle b : bundles) {
+                    if (b.getSymbolicName() != null && b.getSymbolicName().equals(sn)) {
+                        vStr = b.getHeaders().get(Constants.BUNDLE_VERSION);
+                        Version bv = vStr == null ? Version.emptyVersion : Version.parseVersion(vStr);
+                        if (v.equals(bv)) {
+                            is.reset();
+                            if (Util.loadChecksum(b, context) != checksum) {
+                                log(Logger.LOG_WARNING,
+                                        "A bundle with the same symbolic name ("
+                                                + sn + ") and version (" + vStr
+                                                + ") is already installed.  Updating this bundle instead.", null
+                                );
+                                stopTransient(b);
+                                Util.storeChecksum(b, checksum, context);
+                                b.update(is);
+                                modified.set(true);
+                            }
+                            return b;
                         }
-                        return b;
                     }
                 }
-            }
-            is.reset();
-            Util.log(context, Logger.LOG_INFO, "Installing bundle " + sn
-                    + " / " + v, null);
-            Bundle b = context.installBundle(bundleLocation, is);
-            Util.storeChecksum(b, checksum, context);
-            modified.set(true);
-
-            // Set default start level at install time, the user can override it if he wants
-            if (startLevel != 0) {
-                b.adapt(BundleStartLevel.class).setStartLevel(startLevel);
-            }
+                is.reset();
+                Util.log(context, Logger.LOG_INFO, "Installing bundle " + sn
+                        + " / " + v, null);
+                Bundle b = context.installBundle(bundleLocation, is);
+                Util.storeChecksum(b, checksum, context);
+                modified.set(true);
+
+                // Set default start level at install time, the user can override it if he wants
+                if (startLevel != 0) {
+                    b.adapt(BundleStartLevel.class).setStartLevel(startLevel);
+                }
 
-            return b;
+                return b;
+            }
         }
         finally
         {
@@ -1139,7 +1276,10 @@ public class DirectoryWatcher extends Thread implements BundleListener
                     : new FileInputStream(path);
                 try
                 {
-                    bundle.update(in);
+                    synchronized (symbolicNameLock(bundle.getSymbolicName()))
+                    {
+                        bundle.update(in);
+                    }
                 }
                 finally
                 {
@@ -1167,7 +1307,10 @@ public class DirectoryWatcher extends Thread implements BundleListener
                 InputStream in = new FileInputStream(transformed != null ? transformed : path);
                 try
                 {
-                    bundle.update(in);
+                    synchronized (symbolicNameLock(bundle.getSymbolicName()))
+                    {
+                        bundle.update(in);
+                    }
                 }
                 finally
                 {
@@ -1182,6 +1325,26 @@ public class DirectoryWatcher extends Thread implements BundleListener
         return bundle;
     }
 
+    /**
+     * Returns the lock used to install or update the bundles with the
+     * given symbolic name, ignoring its directives.
+     */
+    private Object symbolicNameLock(String symbolicName)
+    {
+        String key = symbolicName != null ? symbolicName.split(";")[0].trim() : "";
+        Object lock = symbolicNameLocks.get(key);
+        if (lock == null)
+        {
+            Object newLock = new Object();
+            lock = symbolicNameLocks.putIfAbsent(key, newLock);
+            if (lock == null)
+            {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
     private void stopTransient(Bundle bundle) throws BundleException
     {
         // Stop the bundle transiently so that it will be restarted when startAllBundles() is called
@@ -114,6 +114,8 @@ public class FileInstall implements BundleActivator, ServiceTrackerCustomizer
             set(ht, DirectoryWatcher.FRAGMENT_SCOPE);
             set(ht, DirectoryWatcher.DISABLE_NIO2);
             set(ht, DirectoryWatcher.SUBDIR_MODE);
+            set(ht, DirectoryWatcher.CHECKSUM_MODE);
+            set(ht, DirectoryWatcher.PARALLELISM);
 
             // check if dir is an array of dirs
             String dirs = ht.get(DirectoryWatcher.DIR);
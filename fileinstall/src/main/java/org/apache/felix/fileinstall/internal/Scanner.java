@@ -20,8 +20,12 @@ package org.apache.felix.fileinstall.internal;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -29,6 +33,7 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.zip.CRC32;
 
@@ -44,6 +49,13 @@ import java.util.zip.CRC32;
  * will wait until the checksum does not change anymore before reporting
  * the change on this file.  This allows to not report the change until
  * a big copy if complete for example.
+ *
+ * By default, the checksum of a file only covers its name, length and
+ * last modification date.  In the {@link #CHECKSUM_MODE_CONTENT} mode,
+ * the checksum is a digest of the file content, so that touching or
+ * copying again a file with the same bytes is not reported as a change.
+ * As computing a digest requires to read the whole file, it is only
+ * computed again when the attributes of the file have changed.
  */
 public class Scanner implements Closeable {
 
@@ -51,16 +63,23 @@ public class Scanner implements Closeable {
     public final static String SUBDIR_MODE_SKIP = "skip";
     public final static String SUBDIR_MODE_RECURSE = "recurse";
 
+    public final static String CHECKSUM_MODE_ATTRIBUTES = "attributes";
+    public final static String CHECKSUM_MODE_CONTENT = "content";
+
     final File directory;
     final FilenameFilter filter;
     final boolean jarSubdir;
     final boolean skipSubdir;
     final boolean recurseSubdir;
+    final boolean contentChecksum;
 
     // Store checksums of files or directories
     Map<File, Long> lastChecksums = new HashMap<File, Long>();
     Map<File, Long> storedChecksums = new HashMap<File, Long>();
 
+    // Store content digests of files or directories, along with the attributes checksum they have been computed for
+    final Map<File, Digest> digests = new ConcurrentHashMap<File, Digest>();
+
     /**
      * Create a scanner for the specified directory
      *
@@ -79,6 +98,19 @@ public class Scanner implements Closeable {
      * @param subdirMode to use when scanning
      */
     public Scanner(File directory, final String filterString, String subdirMode)
+    {
+        this(directory, filterString, subdirMode, null);
+    }
+
+    /**
+     * Create a scanner for the specified directory and file filter
+     *
+     * @param directory the directory to scan
+     * @param filterString a filter for file names
+     * @param subdirMode to use when scanning
+     * @param checksumMode the way checksums of files are computed
+     */
+    public Scanner(File directory, final String filterString, String subdirMode, String checksumMode)
     {
         this.directory = canon(directory);
         if (filterString != null && filterString.length() > 0)
@@ -99,6 +131,7 @@ public class Scanner implements Closeable {
         this.jarSubdir = subdirMode == null || SUBDIR_MODE_JAR.equals(subdirMode);
         this.skipSubdir = SUBDIR_MODE_SKIP.equals(subdirMode);
         this.recurseSubdir = SUBDIR_MODE_RECURSE.equals(subdirMode);
+        this.contentChecksum = CHECKSUM_MODE_CONTENT.equals(checksumMode);
     }
 
     /**
@@ -155,7 +188,7 @@ public class Scanner implements Closeable {
             }
             long lastChecksum = lastChecksums.get(file) != null ? (Long) lastChecksums.get(file) : 0;
             long storedChecksum = storedChecksums.get(file) != null ? (Long) storedChecksums.get(file) : 0;
-            long newChecksum = checksum(file);
+            long newChecksum = computeChecksum(file);
             lastChecksums.put(file, newChecksum);
             // Only handle file when it does not change anymore and it has changed
             // since last reported
@@ -173,6 +206,7 @@ public class Scanner implements Closeable {
             // Remove no longer used checksums
             lastChecksums.remove(file);
             storedChecksums.remove(file);
+            digests.remove(file);
         }
         return files;
     }
@@ -211,11 +245,35 @@ public class Scanner implements Closeable {
     {
         if (file != null && storedChecksums.containsKey(file))
         {
-            long newChecksum = checksum(file);
+            long newChecksum = computeChecksum(file);
             storedChecksums.put(file, newChecksum);
         }
     }
 
+    /**
+     * Compute the checksum of a file or directory according to the checksum mode
+     * of this scanner.  In content mode, the digest of the file is reused as long
+     * as its attributes do not change.
+     *
+     * @param file the file or directory
+     * @return a checksum identifying any change
+     */
+    long computeChecksum(File file)
+    {
+        long attributes = checksum(file);
+        if (!contentChecksum)
+        {
+            return attributes;
+        }
+        Digest digest = digests.get(file);
+        if (digest == null || digest.attributes != attributes)
+        {
+            digest = new Digest(attributes, digest(file));
+            digests.put(file, digest);
+        }
+        return digest.value;
+    }
+
     /**
      * Compute a cheksum for the file or directory that consists of the name, length and the last modified date
      * for a file and its children in case of a directory
@@ -260,4 +318,87 @@ public class Scanner implements Closeable {
         }
     }
 
+    /**
+     * Compute a digest of the content of the file, or of the names and contents
+     * of the children of a directory.
+     *
+     * @param file the file or directory
+     * @return a checksum identifying any change in the content
+     */
+    static long digest(File file)
+    {
+        MessageDigest md;
+        try
+        {
+            md = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        digest(file, md, new byte[8192]);
+        byte[] bytes = md.digest();
+        long l = 0;
+        for (int i = 0; i < 8; i++)
+        {
+            l = (l << 8) | (bytes[i] & 0xff);
+        }
+        return l;
+    }
+
+    private static void digest(File file, MessageDigest md, byte[] buffer)
+    {
+        md.update(file.getName().getBytes());
+        if (file.isFile())
+        {
+            try
+            {
+                InputStream in = new FileInputStream(file);
+                try
+                {
+                    int n;
+                    while ((n = in.read(buffer)) > 0)
+                    {
+                        md.update(buffer, 0, n);
+                    }
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch (IOException e)
+            {
+                // The file can not be read, maybe because it is still being written,
+                // so rely on its attributes until it can be read
+                md.update(Long.toString(checksum(file)).getBytes());
+            }
+        }
+        else if (file.isDirectory())
+        {
+            File[] children = file.listFiles();
+            if (children != null)
+            {
+                // Sort children so that the digest does not depend on the listing order
+                Arrays.sort(children);
+                for (File aChildren : children)
+                {
+                    digest(aChildren, md, buffer);
+                }
+            }
+        }
+    }
+
+    static class Digest
+    {
+        final long attributes;
+        final long value;
+
+        Digest(long attributes, long value)
+        {
+            this.attributes = attributes;
+            this.value = value;
+        }
+    }
+
 }
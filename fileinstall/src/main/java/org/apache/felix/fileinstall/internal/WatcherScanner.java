@@ -45,7 +45,19 @@ public class WatcherScanner extends Scanner {
      * @param subdirMode to use when scanning
      */
     public WatcherScanner(BundleContext bundleContext, File directory, String filterString, String subdirMode) throws IOException {
-        super(directory, filterString, subdirMode);
+        this(bundleContext, directory, filterString, subdirMode, null);
+    }
+
+    /**
+     * Create a scanner for the specified directory and file filter
+     *
+     * @param directory the directory to scan
+     * @param filterString a filter for file names
+     * @param subdirMode to use when scanning
+     * @param checksumMode the way checksums of files are computed
+     */
+    public WatcherScanner(BundleContext bundleContext, File directory, String filterString, String subdirMode, String checksumMode) throws IOException {
+        super(directory, filterString, subdirMode, checksumMode);
         this.bundleContext = bundleContext;
         if (filterString != null) {
             this.fileMatcher = FileSystems.getDefault().getPathMatcher("regex:" + filterString);
@@ -74,7 +86,7 @@ public class WatcherScanner extends Scanner {
                 File file = iterator.next();
                 long lastChecksum = lastChecksums.get(file) != null ? (Long) lastChecksums.get(file) : 0;
                 long storedChecksum = storedChecksums.get(file) != null ? (Long) storedChecksums.get(file) : 0;
-                long newChecksum = checksum(file);
+                long newChecksum = computeChecksum(file);
                 lastChecksums.put(file, newChecksum);
                 if (file.exists()) {
                     // Only handle file when it does not change anymore and it has changed since last reported
@@ -101,6 +113,7 @@ public class WatcherScanner extends Scanner {
                 // Remove no longer used checksums
                 lastChecksums.remove(file);
                 storedChecksums.remove(file);
+                digests.remove(file);
                 changed.remove(file);
             }
 
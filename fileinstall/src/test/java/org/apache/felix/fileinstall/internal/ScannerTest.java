@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import junit.framework.TestCase;
+
+
+/**
+ * Test class for the Scanner checksum modes
+ */
+public class ScannerTest extends TestCase
+{
+
+    File dir;
+    File file;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        dir = new File("target/scanner-" + getName()).getAbsoluteFile();
+        delete(dir);
+        assertTrue(dir.mkdirs());
+        file = new File(dir, "bundle.jar").getCanonicalFile();
+        write(file, "content");
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        delete(dir);
+        super.tearDown();
+    }
+
+
+    public void testAttributesModeReportsTouchedFile() throws Exception
+    {
+        Scanner scanner = new Scanner(dir, null, null, Scanner.CHECKSUM_MODE_ATTRIBUTES);
+        assertEquals(Collections.singleton(file), scanner.scan(true));
+
+        assertTrue(file.setLastModified(file.lastModified() + 10000));
+        assertEquals(Collections.singleton(file), scanner.scan(true));
+    }
+
+
+    public void testContentModeSkipsTouchedFile() throws Exception
+    {
+        Scanner scanner = new Scanner(dir, null, null, Scanner.CHECKSUM_MODE_CONTENT);
+        assertEquals(Collections.singleton(file), scanner.scan(true));
+        long checksum = scanner.getChecksum(file);
+
+        assertTrue(file.setLastModified(file.lastModified() + 10000));
+        assertTrue(scanner.scan(true).isEmpty());
+        assertEquals(checksum, scanner.getChecksum(file));
+
+        write(file, "modified");
+        assertTrue(file.setLastModified(file.lastModified() + 20000));
+        assertEquals(Collections.singleton(file), scanner.scan(true));
+        assertTrue(checksum != scanner.getChecksum(file));
+    }
+
+
+    public void testContentModeSkipsStoredChecksum() throws Exception
+    {
+        Scanner scanner = new Scanner(dir, null, null, Scanner.CHECKSUM_MODE_CONTENT);
+        scanner.initialize(Collections.singletonMap(file, Scanner.digest(file)));
+
+        assertTrue(file.setLastModified(file.lastModified() + 10000));
+        assertTrue(scanner.scan(true).isEmpty());
+    }
+
+
+    private static void write(File file, String content) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content.getBytes());
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
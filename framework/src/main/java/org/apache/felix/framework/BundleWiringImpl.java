@@ -19,6 +19,8 @@
 package org.apache.felix.framework;
 
 import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.cache.JarContent;
+import org.apache.felix.framework.cache.MappedJarContent;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.resolver.ResourceNotFoundException;
 import org.apache.felix.framework.util.CompoundEnumeration;
@@ -167,6 +169,24 @@ public class BundleWiringImpl implements BundleWiring
     // Thread local to keep track of deferred activation.
     private static final ThreadLocal m_deferredActivation = new ThreadLocal();
 
+    // Thread local counting the class loading cycles and dynamic import
+    // attempts of the current thread, which determine whether and for how
+    // long a not found result may be cached.
+    private static final ThreadLocal<int[]> m_lookupEvents = new ThreadLocal<int[]>();
+    private static final int CYCLE_EVENT = 0;
+    private static final int DYNAMIC_IMPORT_EVENT = 1;
+
+    // Maximum number of cached not found results per kind; zero disables
+    // the cache.
+    private final int m_missCacheSize;
+    // Cached not found results mapped to the resolver generation they are
+    // valid for, or -1 if they are valid for the lifetime of the wiring.
+    private volatile ConcurrentHashMap<String, Integer> m_classMisses;
+    private volatile ConcurrentHashMap<String, Integer> m_resourceMisses;
+
+    // Index of the directories of the content path, built on demand.
+    private volatile ContentIndex m_contentIndex;
+
     // Flag indicating whether this wiring has been disposed.
     private volatile boolean m_isDisposed = false;
 
@@ -463,6 +483,23 @@ public class BundleWiringImpl implements BundleWiring
 
         m_useLocalURLs =
             m_configMap.get(FelixConstants.USE_LOCALURLS_PROP) != null;
+
+        int missCacheSize = FelixConstants.CLASSLOADER_MISSCACHE_SIZE_VALUE;
+        String str = (String) m_configMap.get(FelixConstants.CLASSLOADER_MISSCACHE_SIZE_PROP);
+        if (str != null)
+        {
+            try
+            {
+                missCacheSize = Integer.parseInt(str.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Invalid value for " + FelixConstants.CLASSLOADER_MISSCACHE_SIZE_PROP
+                    + ": " + str);
+            }
+        }
+        m_missCacheSize = missCacheSize;
     }
 
     private static List<List<String>> parsePkgFilters(BundleCapability cap, String filtername)
@@ -683,6 +720,10 @@ public class BundleWiringImpl implements BundleWiring
         // both values updates at the same time, but it seems unlikely
         // to cause any issues.
         m_wires = Util.newImmutableList(wires);
+
+        // The new wire may provide classes and resources that were
+        // not found before.
+        clearMissCaches();
     }
 
     @Override
@@ -1542,37 +1583,74 @@ public class BundleWiringImpl implements BundleWiring
                     }
                 }
 
-                // Look in the revision's imports. Note that the search may
-                // be aborted if this method throws an exception, otherwise
-                // it continues if a null is returned.
-                result = searchImports(pkgName, name, isClass);
-
-                // If not found, try the revision's own class path.
-                if (result == null)
+                // If the class or resource was not found in an earlier search
+                // of the required bundles, the revision's own class path, and
+                // the dynamic imports, then only implicit boot delegation is
+                // left to try.
+                if (isCachedMiss(pkgName, name, isClass))
+                {
+                    result = tryImplicitBootDelegation(name, isClass);
+                }
+                else
                 {
-                    if (isClass)
+                    int[] events = getLookupEvents();
+                    int cycles = events[CYCLE_EVENT];
+                    int dynamicImports = events[DYNAMIC_IMPORT_EVENT];
+                    int generation = m_resolver.getRevisionGeneration();
+
+                    // Look in the revision's imports. Note that the search may
+                    // be aborted if this method throws an exception, otherwise
+                    // it continues if a null is returned.
+                    result = searchImports(pkgName, name, isClass);
+
+                    // If not found, try the revision's own class path.
+                    if (result == null)
                     {
-                        ClassLoader cl = getClassLoaderInternal();
-                        if (cl == null)
+                        if (isClass)
                         {
-                            throw new ClassNotFoundException(
-                                    "Unable to load class '"
-                                            + name
-                                            + "' because the bundle wiring for "
-                                            + m_revision.getSymbolicName()
-                                            + " is no longer valid.");
+                            ClassLoader cl = getClassLoaderInternal();
+                            if (cl == null)
+                            {
+                                throw new ClassNotFoundException(
+                                        "Unable to load class '"
+                                                + name
+                                                + "' because the bundle wiring for "
+                                                + m_revision.getSymbolicName()
+                                                + " is no longer valid.");
+                            }
+                            result = ((BundleClassLoader) cl).findClass(name);
+                        }
+                        else
+                        {
+                            result = m_revision.getResourceLocal(name);
                         }
-                        result = ((BundleClassLoader) cl).findClass(name);
-                    }
-                    else
-                    {
-                        result = m_revision.getResourceLocal(name);
-                    }
 
-                    // If still not found, then try the revision's dynamic imports.
-                    if (result == null)
-                    {
-                        result = searchDynamicImports(pkgName, name, isClass);
+                        // If still not found, then try the revision's dynamic imports.
+                        if (result == null)
+                        {
+                            BundleRevision provider = resolveDynamicImport(pkgName);
+                            if (provider != null)
+                            {
+                                // Return the class or resource.
+                                result = (isClass)
+                                    ? (Object) ((BundleWiringImpl) provider.getWiring()).getClassByDelegation(name)
+                                    : (Object) ((BundleWiringImpl) provider.getWiring()).getResourceByDelegation(name);
+                            }
+                            else
+                            {
+                                // Cache the result unless it was caused by a
+                                // class loading cycle; if a dynamic import was
+                                // attempted, it is only valid until the
+                                // revisions known to the resolver change.
+                                if (events[CYCLE_EVENT] == cycles)
+                                {
+                                    addCachedMiss(name, isClass,
+                                        (events[DYNAMIC_IMPORT_EVENT] == dynamicImports)
+                                            ? -1 : generation);
+                                }
+                                result = tryImplicitBootDelegation(name, isClass);
+                            }
+                        }
                     }
                 }
             }
@@ -1586,6 +1664,7 @@ public class BundleWiringImpl implements BundleWiring
             // If a cycle is detected, we should return null to break the
             // cycle. This should only ever be return to internal class
             // loading code and not to the actual instigator of the class load.
+            getLookupEvents()[CYCLE_EVENT]++;
             return null;
         }
 
@@ -1662,13 +1741,15 @@ public class BundleWiringImpl implements BundleWiring
         return null;
     }
 
-    private Object searchDynamicImports(
-            final String pkgName, final String name, final boolean isClass)
-                    throws ClassNotFoundException, ResourceNotFoundException
+    private BundleRevision resolveDynamicImport(String pkgName)
     {
         // At this point, the module's imports were searched and so was the
         // the module's content. Now we make an attempt to load the
         // class/resource via a dynamic import, if possible.
+        if (hasDynamicRequirements())
+        {
+            getLookupEvents()[DYNAMIC_IMPORT_EVENT]++;
+        }
         BundleRevision provider = null;
         try
         {
@@ -1688,15 +1769,110 @@ public class BundleWiringImpl implements BundleWiring
         // created package sources, but subsequent requests for
         // classes/resources in the associated package will be
         // processed as part of normal static imports.
-        if (provider != null)
+        return provider;
+    }
+
+    private boolean hasDynamicRequirements()
+    {
+        List<BundleRequirement> dynamics = Util.getDynamicRequirements(getRequirements(null));
+        return (dynamics != null) && !dynamics.isEmpty();
+    }
+
+    private static int[] getLookupEvents()
+    {
+        int[] events = m_lookupEvents.get();
+        if (events == null)
         {
-            // Return the class or resource.
-            return (isClass)
-                    ? (Object) ((BundleWiringImpl) provider.getWiring()).getClassByDelegation(name)
-                            : (Object) ((BundleWiringImpl) provider.getWiring()).getResourceByDelegation(name);
+            events = new int[2];
+            m_lookupEvents.set(events);
         }
+        return events;
+    }
 
-        return tryImplicitBootDelegation(name, isClass);
+    private boolean isCachedMiss(String pkgName, String name, boolean isClass)
+    {
+        // Imported packages are atomic, so their providers are always asked.
+        Map<String, Integer> misses = (isClass) ? m_classMisses : m_resourceMisses;
+        if ((misses == null) || m_importedPkgs.containsKey(pkgName))
+        {
+            return false;
+        }
+        Integer generation = misses.get(name);
+        if ((generation != null)
+            && ((generation.intValue() < 0)
+                || (generation.intValue() == m_resolver.getRevisionGeneration())))
+        {
+            ClassLoaderDiagnosticsImpl diagnostics = m_resolver.getClassLoaderDiagnostics();
+            if (diagnostics != null)
+            {
+                diagnostics.hit();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void addCachedMiss(String name, boolean isClass, int generation)
+    {
+        if (m_missCacheSize <= 0)
+        {
+            return;
+        }
+        ConcurrentHashMap<String, Integer> misses = (isClass) ? m_classMisses : m_resourceMisses;
+        if (misses == null)
+        {
+            misses = new ConcurrentHashMap<String, Integer>();
+            if (isClass)
+            {
+                m_classMisses = misses;
+            }
+            else
+            {
+                m_resourceMisses = misses;
+            }
+        }
+        // Keep the cache bounded by simply starting over once it is full.
+        else if (misses.size() >= m_missCacheSize)
+        {
+            misses.clear();
+        }
+        misses.put(name, Integer.valueOf(generation));
+
+        ClassLoaderDiagnosticsImpl diagnostics = m_resolver.getClassLoaderDiagnostics();
+        if (diagnostics != null)
+        {
+            diagnostics.miss();
+        }
+    }
+
+    private void clearMissCaches()
+    {
+        m_classMisses = null;
+        m_resourceMisses = null;
+    }
+
+    /**
+     * Returns the contents of the revision's content path which contain
+     * entries in the directory of the given entry, in content path order.
+     * @param name the name of the entry.
+     * @return the contents which may contain the entry.
+    **/
+    private List<Content> getContentPath(String name)
+    {
+        List<Content> contentPath = m_revision.getContentPath();
+        // There is nothing to skip with a single content.
+        if ((contentPath == null) || (contentPath.size() < 2))
+        {
+            return contentPath;
+        }
+
+        ContentIndex index = m_contentIndex;
+        if ((index == null) || (index.m_contentPath != contentPath))
+        {
+            index = new ContentIndex(contentPath);
+            m_contentIndex = index;
+        }
+        return index.getContentPath(name);
     }
 
     private Object tryImplicitBootDelegation(final String name, final boolean isClass)
@@ -1916,6 +2092,69 @@ public class BundleWiringImpl implements BundleWiring
         }
     }
 
+    /**
+     * Maps the directories of a content path to the contents containing
+     * entries in them, so that class loading only needs to look into those.
+    **/
+    private static class ContentIndex
+    {
+        private final List<Content> m_contentPath;
+        private final Map<String, List<Content>> m_dirs;
+
+        ContentIndex(List<Content> contentPath)
+        {
+            m_contentPath = contentPath;
+            // Only the entries of JAR files are fixed for the lifetime of
+            // the revision; directories, such as those of exploded bundles,
+            // may change, so a content path with one is not indexed.
+            for (Content content : contentPath)
+            {
+                if (!(content instanceof JarContent) && !(content instanceof MappedJarContent))
+                {
+                    m_dirs = null;
+                    return;
+                }
+            }
+            Map<String, List<Content>> dirs = new HashMap<String, List<Content>>();
+            for (Content content : contentPath)
+            {
+                Enumeration<String> entries = content.getEntries();
+                while ((entries != null) && entries.hasMoreElements())
+                {
+                    String dir = getDirectory(entries.nextElement());
+                    List<Content> contents = dirs.get(dir);
+                    if (contents == null)
+                    {
+                        contents = new ArrayList<Content>(1);
+                        dirs.put(dir, contents);
+                    }
+                    if (contents.isEmpty() || (contents.get(contents.size() - 1) != content))
+                    {
+                        contents.add(content);
+                    }
+                }
+            }
+            m_dirs = dirs;
+        }
+
+        List<Content> getContentPath(String name)
+        {
+            if (m_dirs == null)
+            {
+                return m_contentPath;
+            }
+            List<Content> contents = m_dirs.get(getDirectory(name));
+            return (contents == null) ? Collections.<Content>emptyList() : contents;
+        }
+
+        private static String getDirectory(String name)
+        {
+            int start = ((name.length() > 0) && (name.charAt(0) == '/')) ? 1 : 0;
+            int end = name.lastIndexOf('/');
+            return (end > start) ? name.substring(start, end) : "";
+        }
+    }
+
     public static class BundleClassLoader extends SecureClassLoader implements BundleReference
     {
         static final boolean m_isParallel;
@@ -2041,7 +2280,7 @@ public class BundleWiringImpl implements BundleWiring
                 byte[] bytes = null;
 
                 // Check the bundle class path.
-                List<Content> contentPath = m_wiring.m_revision.getContentPath();
+                List<Content> contentPath = m_wiring.getContentPath(actual);
                 Content content = null;
                 for (int i = 0;
                         (bytes == null) &&
@@ -2272,6 +2511,10 @@ public class BundleWiringImpl implements BundleWiring
                             allWovenReqs.addAll(0, m_wiring.m_wovenReqs);
                         }
                         m_wiring.m_wovenReqs = allWovenReqs;
+
+                        // Woven dynamic imports may provide classes and
+                        // resources that were not found before.
+                        m_wiring.clearMissCaches();
                     }
                 }
             }
@@ -16,30 +16,40 @@
  * specific language governing permissions and limitations
  * under the License.
  */
-package org.apache.felix.resolver.util;
+package org.apache.felix.framework;
 
-import org.osgi.resource.Requirement;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class OpenHashMapList extends OpenHashMap<Requirement, CandidateSelector> {
-    private static final long serialVersionUID = 0L;
+import org.apache.felix.framework.ext.ClassLoaderDiagnostics;
 
-    public OpenHashMapList() {
-        super();
+class ClassLoaderDiagnosticsImpl implements ClassLoaderDiagnostics
+{
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+
+    void hit()
+    {
+        m_hits.incrementAndGet();
+    }
+
+    void miss()
+    {
+        m_misses.incrementAndGet();
     }
 
-    public OpenHashMapList(int initialCapacity) {
-        super(initialCapacity);
+    public long getMissCacheHits()
+    {
+        return m_hits.get();
     }
 
-    public OpenHashMapList deepClone() {
-        OpenHashMapList copy = (OpenHashMapList) super.clone();
-        Object[] values = copy.value;
-        for (int i = values.length; i-- > 0;) {
-            if (values[i] != null) {
-                values[i] = ((CandidateSelector) values[i]).copy();
-            }
-        }
-        return copy;
+    public long getMissCacheMisses()
+    {
+        return m_misses.get();
     }
 
+    public void reset()
+    {
+        m_hits.set(0);
+        m_misses.set(0);
+    }
 }
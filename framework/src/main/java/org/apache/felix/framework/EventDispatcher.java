@@ -28,17 +28,20 @@ import java.util.EventListener;
 import java.util.EventObject;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.util.*;
 import org.osgi.framework.AllServiceListener;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkEvent;
 import org.osgi.framework.FrameworkListener;
@@ -64,6 +67,10 @@ public class EventDispatcher
         m_syncBndlListeners = Collections.EMPTY_MAP;
     private Map<BundleContext, List<ListenerInfo>>
         m_svcListeners = Collections.EMPTY_MAP;
+    // Service listeners keyed by the object classes their filter requires;
+    // listeners which may match any service are kept under the null key.
+    private Map<String, List<ListenerInfo>>
+        m_svcListenerIndex = Collections.EMPTY_MAP;
 
     // A single thread is used to deliver events for all dispatchers.
     private static Thread m_thread = null;
@@ -260,6 +267,7 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                m_svcListenerIndex = addListenerIndex(m_svcListenerIndex, info);
             }
         }
         return null;
@@ -312,6 +320,7 @@ public class EventDispatcher
 
             // Try to find the instance in our list.
             int idx = -1;
+            ListenerInfo removed = null;
             for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
             {
                 List<ListenerInfo> infos = entry.getValue();
@@ -328,6 +337,7 @@ public class EventDispatcher
                         {
                             returnInfo = new ListenerInfo(infos.get(i), true);
                         }
+                        removed = info;
                         idx = i;
                         break;
                     }
@@ -358,6 +368,10 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                if (removed != null)
+                {
+                    m_svcListenerIndex = removeListenerIndex(m_svcListenerIndex, removed);
+                }
             }
         }
 
@@ -386,6 +400,11 @@ public class EventDispatcher
             m_syncBndlListeners = removeListenerInfos(m_syncBndlListeners, bc);
 
             // Remove all service listeners associated with the specified bundle.
+            List<ListenerInfo> infos = m_svcListeners.get(bc);
+            for (int i = 0; (infos != null) && (i < infos.size()); i++)
+            {
+                m_svcListenerIndex = removeListenerIndex(m_svcListenerIndex, infos.get(i));
+            }
             m_svcListeners = removeListenerInfos(m_svcListeners, bc);
         }
     }
@@ -427,6 +446,8 @@ public class EventDispatcher
                             info.getSecurityContext(),
                             info.isRemoved());
                         m_svcListeners = updateListenerInfo(m_svcListeners, i, newInfo);
+                        m_svcListenerIndex = addListenerIndex(
+                            removeListenerIndex(m_svcListenerIndex, info), newInfo);
                         return oldFilter;
                     }
                 }
@@ -533,13 +554,22 @@ public class EventDispatcher
     {
         // Take a snapshot of the listener array.
         Map<BundleContext, List<ListenerInfo>> listeners = null;
+        Map<String, List<ListenerInfo>> index = null;
         synchronized (this)
         {
             listeners = m_svcListeners;
+            index = m_svcListenerIndex;
         }
 
-        // Use service registry hooks to filter target listeners.
-        listeners = filterListenersUsingHooks(event, felix, listeners);
+        // Use service registry hooks to filter target listeners. The hooks
+        // always get to see all listeners, but only those listeners which
+        // can possibly match the service's object classes are considered
+        // for delivery afterwards.
+        Map<BundleContext, List<ListenerInfo>> filtered =
+            filterListenersUsingHooks(event, felix, listeners);
+        listeners = selectListeners(
+            index, event.getServiceReference(),
+            (filtered != listeners) ? filtered : null);
 
         // Fire all service events immediately on the calling thread.
         fireEventImmediately(
@@ -1099,6 +1129,179 @@ public class EventDispatcher
         return copy;
     }
 
+    private static Map<BundleContext, List<ListenerInfo>> selectListeners(
+        Map<String, List<ListenerInfo>> index, ServiceReference ref,
+        Map<BundleContext, List<ListenerInfo>> restriction)
+    {
+        // If the hooks removed listeners, only the remaining ones may be used.
+        Set<ListenerInfo> allowed = null;
+        if (restriction != null)
+        {
+            allowed = Collections.newSetFromMap(new IdentityHashMap<ListenerInfo, Boolean>());
+            for (List<ListenerInfo> infos : restriction.values())
+            {
+                if (infos != null)
+                {
+                    allowed.addAll(infos);
+                }
+            }
+        }
+
+        Object value = ref.getProperty(Constants.OBJECTCLASS);
+        String[] classes = (value instanceof String[])
+            ? (String[]) value
+            : (value instanceof String) ? new String[] { (String) value } : new String[0];
+
+        // A listener may be indexed under more than one object class, so
+        // we need to weed out duplicates if the service has several.
+        Set<ListenerInfo> seen = (classes.length > 1)
+            ? Collections.newSetFromMap(new IdentityHashMap<ListenerInfo, Boolean>())
+            : null;
+
+        Map<BundleContext, List<ListenerInfo>> result =
+            new HashMap<BundleContext, List<ListenerInfo>>();
+        selectListeners(result, index.get(null), allowed, seen);
+        for (String clazz : classes)
+        {
+            selectListeners(result, index.get(clazz), allowed, seen);
+        }
+        return result;
+    }
+
+    private static void selectListeners(
+        Map<BundleContext, List<ListenerInfo>> result, List<ListenerInfo> infos,
+        Set<ListenerInfo> allowed, Set<ListenerInfo> seen)
+    {
+        for (int i = 0; (infos != null) && (i < infos.size()); i++)
+        {
+            ListenerInfo info = infos.get(i);
+            if (((allowed == null) || allowed.contains(info))
+                && ((seen == null) || seen.add(info)))
+            {
+                List<ListenerInfo> selected = result.get(info.getBundleContext());
+                if (selected == null)
+                {
+                    selected = new ArrayList<ListenerInfo>();
+                    result.put(info.getBundleContext(), selected);
+                }
+                selected.add(info);
+            }
+        }
+    }
+
+    /**
+     * Returns the object classes of which a service must have at least one
+     * to be matched by the given service listener. Listeners which always
+     * get called and listeners whose filter does not constrain the object
+     * class can match any service, so <code>null</code> is returned for them.
+     * @param info The service listener information.
+     * @return The object classes used to index the listener or <code>null</code>.
+    **/
+    private static Set<String> getIndexKeys(ListenerInfo info)
+    {
+        Filter filter = info.getParsedFilter();
+        if ((filter == null) || (info.getListener() instanceof UnfilteredServiceListener))
+        {
+            return null;
+        }
+        try
+        {
+            return getRequiredObjectClasses(SimpleFilter.parse(filter.toString()));
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    private static Set<String> getRequiredObjectClasses(SimpleFilter sf)
+    {
+        if ((sf.getOperation() == SimpleFilter.EQ)
+            && Constants.OBJECTCLASS.equalsIgnoreCase(sf.getName()))
+        {
+            return Collections.singleton((String) sf.getValue());
+        }
+        else if (sf.getOperation() == SimpleFilter.AND)
+        {
+            // Any of the sub-filters constraining the object class will do.
+            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+            for (int i = 0; i < sfs.size(); i++)
+            {
+                Set<String> classes = getRequiredObjectClasses(sfs.get(i));
+                if (classes != null)
+                {
+                    return classes;
+                }
+            }
+        }
+        else if (sf.getOperation() == SimpleFilter.OR)
+        {
+            // Every sub-filter has to constrain the object class.
+            Set<String> classes = new HashSet<String>();
+            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+            for (int i = 0; i < sfs.size(); i++)
+            {
+                Set<String> subClasses = getRequiredObjectClasses(sfs.get(i));
+                if (subClasses == null)
+                {
+                    return null;
+                }
+                classes.addAll(subClasses);
+            }
+            return classes;
+        }
+        return null;
+    }
+
+    private static Map<String, List<ListenerInfo>> addListenerIndex(
+        Map<String, List<ListenerInfo>> index, ListenerInfo info)
+    {
+        // Make a copy of the map, since we will be mutating it.
+        Map<String, List<ListenerInfo>> copy =
+            new HashMap<String, List<ListenerInfo>>(index);
+        Set<String> keys = getIndexKeys(info);
+        for (String key : (keys != null) ? keys : Collections.<String>singleton(null))
+        {
+            List<ListenerInfo> infos = copy.get(key);
+            infos = (infos == null)
+                ? new ArrayList<ListenerInfo>()
+                : new ArrayList<ListenerInfo>(infos);
+            infos.add(info);
+            copy.put(key, infos);
+        }
+        return copy;
+    }
+
+    private static Map<String, List<ListenerInfo>> removeListenerIndex(
+        Map<String, List<ListenerInfo>> index, ListenerInfo info)
+    {
+        // Make a copy of the map, since we will be mutating it.
+        Map<String, List<ListenerInfo>> copy =
+            new HashMap<String, List<ListenerInfo>>(index);
+        Set<String> keys = getIndexKeys(info);
+        for (String key : (keys != null) ? keys : Collections.<String>singleton(null))
+        {
+            List<ListenerInfo> infos = copy.remove(key);
+            if (infos != null)
+            {
+                infos = new ArrayList<ListenerInfo>(infos);
+                for (int i = 0; i < infos.size(); i++)
+                {
+                    if (infos.get(i) == info)
+                    {
+                        infos.remove(i);
+                        break;
+                    }
+                }
+                if (!infos.isEmpty())
+                {
+                    copy.put(key, infos);
+                }
+            }
+        }
+        return copy;
+    }
+
     /**
      * This is the dispatching thread's main loop.
     **/
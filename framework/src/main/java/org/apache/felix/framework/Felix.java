@@ -89,6 +89,7 @@ import java.net.URLStreamHandler;
 import java.security.AccessControlException;
 import java.security.Permission;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
@@ -106,6 +107,11 @@ import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -274,6 +280,19 @@ public class Felix extends BundleImpl implements Framework
      *       string provides control over the size of the internal buffer of the
      *       disk cache for performance reasons.
      *   </li>
+     *   <li><tt>felix.cache.mmap</tt> - Determines whether bundle JAR files
+     *       copied into the cache are mapped into memory and indexed once when
+     *       they are installed, instead of being opened as zip files. Bundles
+     *       installed by reference are never mapped. Mapped JAR files do not
+     *       count towards <tt>felix.cache.filelimit</tt>. The default value is
+     *       <tt>false</tt>.
+     *   </li>
+     *   <li><tt>felix.classloader.misscache.size</tt> - Specifies the
+     *       maximum number of classes and resources per bundle wiring that
+     *       are remembered as not found, so that repeated lookups of them
+     *       do not search the wiring again. A value of <tt>0</tt> disables
+     *       the cache. The default value is <tt>256</tt>.
+     *   </li>
      *   <li><tt>org.osgi.framework.system.packages</tt> - Specifies a
      *       comma-delimited list of packages that should be exported via the
      *       System Bundle from the parent class loader. The framework will set
@@ -1456,126 +1475,87 @@ public class Felix extends BundleImpl implements Framework
             int high = (isLowering) ? m_activeStartLevel : m_targetStartLevel;
             m_activeStartLevel = (isLowering) ? high : low;
 
-            // Process bundles and stop or start them accordingly.
-            while (bundlesRemaining)
+            // Bundles of the same start level may be started concurrently
+            // if configured, otherwise they are processed one at a time.
+            int parallelism = getStartLevelParallelism();
+            ExecutorService executor = null;
+            if (!isLowering && (parallelism > 1))
             {
-                StartLevelTuple tuple;
-
-                // Remove our tuple to be processed while holding the queue lock
-                // and update the active start level accordingly, which allows
-                // us to determine in startBundle() if concurrent requests to
-                // start a bundle should be handled synchronously or just added
-                // to the queue and handled asynchronously.
-                synchronized (m_startLevelBundles)
-                {
-                    if (isLowering)
-                    {
-                        tuple = m_startLevelBundles.last();
-                    }
-                    else
-                    {
-                        tuple = m_startLevelBundles.first();
-                    }
-
-                    if ((tuple.m_level >= low) && (tuple.m_level <= high))
-                    {
-                        m_activeStartLevel = tuple.m_level;
-                    }
-                }
+                executor = createStartLevelExecutor(parallelism);
+            }
 
-                // Ignore the system bundle, since its start() and
-                // stop() methods get called explicitly in Felix.start()
-                // and Felix.stop(), respectively.
-                if (tuple.m_bundle.getBundleId() != 0)
+            try
+            {
+                // Process bundles and stop or start them accordingly.
+                while (bundlesRemaining)
                 {
-                    // Lock the current bundle.
-                    try
+                    if (executor != null)
                     {
-                        acquireBundleLock(tuple.m_bundle,
-                            Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
-                            | Bundle.STARTING | Bundle.STOPPING);
-                    }
-                    catch (IllegalStateException ex)
-                    {
-                        // Ignore if the bundle has been uninstalled.
-                        if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+                        try
                         {
-                            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
-                            m_logger.log(tuple.m_bundle,
-                                Logger.LOG_ERROR,
-                                "Error locking " + tuple.m_bundle._getLocation(), ex);
+                            bundlesRemaining = processStartLevelBatch(executor, low, high);
                         }
-                        else
+                        catch (InterruptedException ex)
                         {
+                            // Stop the start level change at the last start level
+                            // whose bundles have all been processed and drop the
+                            // remaining ones, so they are not retried over and over.
+                            Thread.currentThread().interrupt();
                             synchronized (m_startLevelBundles)
                             {
-                                m_startLevelBundles.remove(tuple);
-                                bundlesRemaining = !m_startLevelBundles.isEmpty();
+                                m_startLevelBundles.clear();
+                                m_targetStartLevel = m_activeStartLevel - 1;
                             }
+                            m_logger.log(Logger.LOG_WARNING,
+                                "Start level change interrupted at start level "
+                                + m_targetStartLevel + ".", ex);
+                            bundlesRemaining = false;
                         }
                         continue;
                     }
 
-                    try
+                    StartLevelTuple tuple;
+
+                    // Remove our tuple to be processed while holding the queue lock
+                    // and update the active start level accordingly, which allows
+                    // us to determine in startBundle() if concurrent requests to
+                    // start a bundle should be handled synchronously or just added
+                    // to the queue and handled asynchronously.
+                    synchronized (m_startLevelBundles)
                     {
-                        // Start the bundle if necessary.
-                        // Note that we only attempt to start the bundle if
-                        // its start level is equal to the active start level,
-                        // which means we assume lower bundles are in the state
-                        // they should be in (i.e., we won't attempt to restart
-                        // them if they previously failed to start).
-                        if (!isLowering
-                            && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
+                        if (isLowering)
                         {
-                            try
-                            {
-// TODO: LAZY - Not sure if this is the best way...
-                                int options = Bundle.START_TRANSIENT;
-                                options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
-                                    ? options | Bundle.START_ACTIVATION_POLICY
-                                    : options;
-                                startBundle(tuple.m_bundle, options);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error starting " + tuple.m_bundle._getLocation(), th);
-                            }
+                            tuple = m_startLevelBundles.last();
                         }
-                        // Stop the bundle if necessary.
-                        else if (isLowering
-                            && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
+                        else
                         {
-                            try
-                            {
-                                stopBundle(tuple.m_bundle, false);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error stopping " + tuple.m_bundle._getLocation(), th);
-                            }
+                            tuple = m_startLevelBundles.first();
+                        }
+
+                        if ((tuple.m_level >= low) && (tuple.m_level <= high))
+                        {
+                            m_activeStartLevel = tuple.m_level;
                         }
                     }
-                    finally
+
+                    if (!processStartLevelTuple(tuple, isLowering))
                     {
-                        // Always release bundle lock.
-                        releaseBundleLock(tuple.m_bundle);
+                        continue;
                     }
-                }
 
-                synchronized (m_startLevelBundles)
+                    synchronized (m_startLevelBundles)
+                    {
+                        m_startLevelBundles.remove(tuple);
+                        bundlesRemaining = !m_startLevelBundles.isEmpty();
+                    }
+                }
+            }
+            finally
+            {
+                // Always release the threads used to start the bundles.
+                if (executor != null)
                 {
-                    m_startLevelBundles.remove(tuple);
-                    bundlesRemaining = !m_startLevelBundles.isEmpty();
+                    executor.shutdown();
                 }
             }
 
@@ -1606,6 +1586,228 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Starts all queued bundles of the lowest queued start level concurrently
+     * using the given executor and waits until all of them are processed.
+     * Bundles of the next start level are only started once this method
+     * returns, so the ordering between start levels is retained.
+     * @param executor The executor used to start the bundles.
+     * @param low The lowest start level being processed.
+     * @param high The highest start level being processed.
+     * @return <tt>true</tt> if there are remaining bundles to process.
+     * @throws InterruptedException If the thread was interrupted while
+     *         waiting for the bundles to be processed.
+    **/
+    private boolean processStartLevelBatch(ExecutorService executor, int low, int high)
+        throws InterruptedException
+    {
+        final List<StartLevelTuple> batch = new ArrayList<StartLevelTuple>();
+        synchronized (m_startLevelBundles)
+        {
+            int level = m_startLevelBundles.first().m_level;
+            for (StartLevelTuple tuple : m_startLevelBundles)
+            {
+                if (tuple.m_level != level)
+                {
+                    break;
+                }
+                batch.add(tuple);
+            }
+
+            if ((level >= low) && (level <= high))
+            {
+                m_activeStartLevel = level;
+            }
+        }
+
+        // Resolve the bundles of the batch which are going to be started
+        // together up front, so the concurrent starts do not compete for
+        // the global lock to resolve them one by one. Bundles which are not
+        // persistently started are left alone, like the sequential path
+        // does. Bundles which fail to resolve are reported when they are
+        // started.
+        List<Bundle> bundles = new ArrayList<Bundle>(batch.size());
+        for (StartLevelTuple tuple : batch)
+        {
+            if ((tuple.m_bundle.getBundleId() != 0)
+                && (tuple.m_bundle.getState() == Bundle.INSTALLED)
+                && ((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
+                && (tuple.m_level == m_activeStartLevel))
+            {
+                bundles.add(tuple.m_bundle);
+            }
+        }
+        if (!bundles.isEmpty())
+        {
+            resolveBundles(bundles);
+        }
+
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(batch.size());
+        for (final StartLevelTuple tuple : batch)
+        {
+            tasks.add(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    return processStartLevelTuple(tuple, false);
+                }
+            });
+        }
+
+        List<Future<Boolean>> results = executor.invokeAll(tasks);
+
+        synchronized (m_startLevelBundles)
+        {
+            for (int i = 0; i < results.size(); i++)
+            {
+                boolean processed;
+                try
+                {
+                    processed = results.get(i).get();
+                }
+                catch (Exception ex)
+                {
+                    // Failures to start are already reported by the task.
+                    processed = true;
+                }
+                if (processed)
+                {
+                    m_startLevelBundles.remove(batch.get(i));
+                }
+            }
+            return !m_startLevelBundles.isEmpty();
+        }
+    }
+
+    /**
+     * Starts or stops the bundle of the given tuple as required by the
+     * active start level.
+     * @param tuple The bundle to process along with its start level.
+     * @param isLowering Whether the start level is being lowered.
+     * @return <tt>true</tt> if the tuple is done and can be dequeued,
+     *         <tt>false</tt> if its bundle could not be locked.
+    **/
+    private boolean processStartLevelTuple(StartLevelTuple tuple, boolean isLowering)
+    {
+        // Ignore the system bundle, since its start() and
+        // stop() methods get called explicitly in Felix.start()
+        // and Felix.stop(), respectively.
+        if (tuple.m_bundle.getBundleId() != 0)
+        {
+            // Lock the current bundle.
+            try
+            {
+                acquireBundleLock(tuple.m_bundle,
+                    Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
+                    | Bundle.STARTING | Bundle.STOPPING);
+            }
+            catch (IllegalStateException ex)
+            {
+                // Ignore if the bundle has been uninstalled.
+                if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error locking " + tuple.m_bundle._getLocation(), ex);
+                    return false;
+                }
+                return true;
+            }
+
+            try
+            {
+                // Start the bundle if necessary.
+                // Note that we only attempt to start the bundle if
+                // its start level is equal to the active start level,
+                // which means we assume lower bundles are in the state
+                // they should be in (i.e., we won't attempt to restart
+                // them if they previously failed to start).
+                if (!isLowering
+                    && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+                        || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
+                        && (tuple.m_level == m_activeStartLevel)))
+                {
+                    try
+                    {
+// TODO: LAZY - Not sure if this is the best way...
+                        int options = Bundle.START_TRANSIENT;
+                        options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
+                            ? options | Bundle.START_ACTIVATION_POLICY
+                            : options;
+                        startBundle(tuple.m_bundle, options);
+                    }
+                    catch (Throwable th)
+                    {
+                        fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                        m_logger.log(tuple.m_bundle,
+                            Logger.LOG_ERROR,
+                            "Error starting " + tuple.m_bundle._getLocation(), th);
+                    }
+                }
+                // Stop the bundle if necessary.
+                else if (isLowering
+                    && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
+                        || (tuple.m_bundle.getState() == Bundle.STARTING))
+                        && (tuple.m_level == m_activeStartLevel)))
+                {
+                    try
+                    {
+                        stopBundle(tuple.m_bundle, false);
+                    }
+                    catch (Throwable th)
+                    {
+                        fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                        m_logger.log(tuple.m_bundle,
+                            Logger.LOG_ERROR,
+                            "Error stopping " + tuple.m_bundle._getLocation(), th);
+                    }
+                }
+            }
+            finally
+            {
+                // Always release bundle lock.
+                releaseBundleLock(tuple.m_bundle);
+            }
+        }
+        return true;
+    }
+
+    private int getStartLevelParallelism()
+    {
+        String s = (String) m_configMap.get(FelixConstants.STARTLEVEL_PARALLELISM_PROP);
+        if (s != null)
+        {
+            try
+            {
+                return Integer.parseInt(s.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Ignore and return the default value.
+            }
+        }
+        return 1;
+    }
+
+    private ExecutorService createStartLevelExecutor(int parallelism)
+    {
+        return Executors.newFixedThreadPool(parallelism, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                // Named as the start level thread, so that startBundle()
+                // does not queue the bundles started by the pool.
+                Thread thread = new Thread(r, FrameworkStartLevelImpl.THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     /**
      * Returns the start level into which newly installed bundles will
      * be placed by default; this method implements functionality for
@@ -4830,6 +5032,15 @@ public class Felix extends BundleImpl implements Framework
     **/
     private void fireServiceEvent(ServiceEvent event, Dictionary oldProps)
     {
+        // Not found results of the class loaders may depend on the
+        // resolver hooks, so they must not outlive a change of them.
+        String[] classNames = (String[])
+            event.getServiceReference().getProperty(Constants.OBJECTCLASS);
+        if ((classNames != null) && Arrays.asList(classNames).contains(
+            org.osgi.framework.hooks.resolver.ResolverHookFactory.class.getName()))
+        {
+            m_resolver.resolverHooksChanged();
+        }
         m_dispatcher.fireServiceEvent(event, oldProps, this);
     }
 
@@ -5208,6 +5419,10 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
+            // Save the wiring of the remaining bundles so it can be
+            // re-applied on the next start.
+            m_resolver.saveResolutionCache();
+
             // Dispose of the bundles to close their associated contents.
             bundles = getBundles();
             for (int i = 0; i < bundles.length; i++)
@@ -0,0 +1,495 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.Util;
+import org.apache.felix.framework.wiring.BundleWireImpl;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * Persisted wiring of the bundles that were resolved when the framework was
+ * last shut down. The wiring is stored in the system bundle's data area
+ * together with a fingerprint of the manifests of all installed bundles and
+ * of the capabilities provided by the system bundle. A saved state is only
+ * loaded if the fingerprint still matches, in which case the resolver can
+ * re-apply the recorded wires instead of computing them again.
+ *
+ * Wires are recorded by bundle identifier and by the index of the
+ * requirement and capability in the declared requirements and capabilities
+ * of their owning revision, which is stable as long as the manifest does
+ * not change.
+**/
+class ResolutionCache
+{
+    private static final String CACHE_FILE = "resolution.cache";
+    private static final int CACHE_VERSION = 1;
+
+    // Maps bundle identifier to the wires of its resolved revision.
+    private final Map<Long, List<CachedWire>> m_wires;
+    // Maps host bundle identifier to the identifiers of its fragments.
+    private final Map<Long, List<Long>> m_fragments;
+    // Revisions whose wiring was created from this cache.
+    private final Set<BundleRevision> m_applied = new HashSet<BundleRevision>();
+
+    private ResolutionCache(
+        Map<Long, List<CachedWire>> wires, Map<Long, List<Long>> fragments)
+    {
+        m_wires = wires;
+        m_fragments = fragments;
+    }
+
+    /**
+     * Loads the resolution state saved by the last shut down of the given
+     * framework.
+     * @param felix the framework.
+     * @return the saved state or <tt>null</tt> if there is no saved state or
+     *         if the installed bundles or the framework configuration
+     *         have changed since it was saved.
+    **/
+    static ResolutionCache load(Felix felix)
+    {
+        File file = felix.getDataFile(felix, CACHE_FILE);
+        if ((file == null) || !file.isFile())
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            if ((in.readInt() != CACHE_VERSION)
+                || !in.readUTF().equals(getFingerprint(felix)))
+            {
+                felix.getLogger().log(Logger.LOG_DEBUG,
+                    "Discarding outdated resolution cache.");
+                return null;
+            }
+
+            Map<Long, List<CachedWire>> wires = new HashMap<Long, List<CachedWire>>();
+            Map<Long, List<Long>> fragments = new HashMap<Long, List<Long>>();
+            for (int i = in.readInt(); i > 0; i--)
+            {
+                long id = in.readLong();
+                boolean fragment = in.readBoolean();
+                int count = in.readInt();
+                List<CachedWire> list = new ArrayList<CachedWire>(count);
+                for (int j = 0; j < count; j++)
+                {
+                    CachedWire wire = new CachedWire(
+                        in.readLong(), in.readInt(), in.readLong(), in.readLong(), in.readInt());
+                    list.add(wire);
+                    if (fragment)
+                    {
+                        List<Long> hosted = fragments.get(wire.m_provider);
+                        if (hosted == null)
+                        {
+                            hosted = new ArrayList<Long>();
+                            fragments.put(wire.m_provider, hosted);
+                        }
+                        hosted.add(id);
+                    }
+                }
+                wires.put(id, list);
+            }
+            return new ResolutionCache(wires, fragments);
+        }
+        catch (Exception ex)
+        {
+            felix.getLogger().log(Logger.LOG_WARNING,
+                "Unable to read resolution cache.", ex);
+            return null;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (Exception ex)
+                {
+                    // Not much we can do.
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the wiring of the current revisions of all resolved bundles of
+     * the given framework, so that it can be re-applied on the next start.
+     * Revisions with dynamic wires only get their static wires recorded.
+     * @param felix the framework.
+    **/
+    static void save(Felix felix)
+    {
+        File file = felix.getDataFile(felix, CACHE_FILE);
+        if (file == null)
+        {
+            return;
+        }
+
+        DataOutputStream out = null;
+        try
+        {
+            Map<Long, List<CachedWire>> wires = new TreeMap<Long, List<CachedWire>>();
+            Set<Long> fragments = new HashSet<Long>();
+            for (Bundle bundle : felix.getBundles())
+            {
+                if ((bundle.getBundleId() == 0) || ((BundleImpl) bundle).isExtension())
+                {
+                    continue;
+                }
+                BundleRevision revision = bundle.adapt(BundleRevision.class);
+                BundleWiring wiring = (revision != null) ? revision.getWiring() : null;
+                if (wiring == null)
+                {
+                    continue;
+                }
+                List<CachedWire> list = encode(wiring);
+                if (list != null)
+                {
+                    wires.put(bundle.getBundleId(), list);
+                    if (Util.isFragment(revision))
+                    {
+                        fragments.add(bundle.getBundleId());
+                    }
+                }
+            }
+
+            out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(CACHE_VERSION);
+            out.writeUTF(getFingerprint(felix));
+            out.writeInt(wires.size());
+            for (Entry<Long, List<CachedWire>> entry : wires.entrySet())
+            {
+                out.writeLong(entry.getKey());
+                out.writeBoolean(fragments.contains(entry.getKey()));
+                out.writeInt(entry.getValue().size());
+                for (CachedWire wire : entry.getValue())
+                {
+                    out.writeLong(wire.m_requirementOwner);
+                    out.writeInt(wire.m_requirementIndex);
+                    out.writeLong(wire.m_provider);
+                    out.writeLong(wire.m_capabilityOwner);
+                    out.writeInt(wire.m_capabilityIndex);
+                }
+            }
+            out.close();
+            out = null;
+        }
+        catch (Exception ex)
+        {
+            felix.getLogger().log(Logger.LOG_WARNING,
+                "Unable to save resolution cache.", ex);
+        }
+        finally
+        {
+            if (out != null)
+            {
+                try
+                {
+                    out.close();
+                }
+                catch (Exception ex)
+                {
+                    // Not much we can do.
+                }
+                // Do not leave a partially written state behind.
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the recorded wires for the given unresolved revision and all
+     * unresolved revisions it depends on, including the fragments attached
+     * to any of the hosts. The result only contains wires to revisions that
+     * are part of the result, to the system bundle, to extension bundles,
+     * or to revisions previously wired from this cache; otherwise the
+     * recorded wiring might not be consistent with the current state and
+     * <tt>null</tt> is returned.
+     * @param felix the framework.
+     * @param root the unresolved revision.
+     * @return a wire map in the format returned by the resolver or
+     *         <tt>null</tt> if the wiring cannot be taken from the cache.
+    **/
+    Map<Resource, List<Wire>> getWires(Felix felix, BundleRevision root)
+    {
+        Map<Resource, List<Wire>> wireMap = new LinkedHashMap<Resource, List<Wire>>();
+        List<BundleRevision> pending = new ArrayList<BundleRevision>();
+        pending.add(root);
+        while (!pending.isEmpty())
+        {
+            BundleRevision revision = pending.remove(pending.size() - 1);
+            if (wireMap.containsKey(revision))
+            {
+                continue;
+            }
+            long id = revision.getBundle().getBundleId();
+            List<CachedWire> cached = m_wires.get(id);
+            if ((cached == null) || (revision.getWiring() != null)
+                || ((BundleImpl) revision.getBundle()).isExtension())
+            {
+                return null;
+            }
+
+            List<Wire> wires = new ArrayList<Wire>(cached.size());
+            for (CachedWire cw : cached)
+            {
+                BundleRevision reqOwner = getRevision(felix, cw.m_requirementOwner);
+                BundleRevision provider = getRevision(felix, cw.m_provider);
+                BundleRevision capOwner = getRevision(felix, cw.m_capabilityOwner);
+                if ((reqOwner == null) || (provider == null) || (capOwner == null))
+                {
+                    return null;
+                }
+                List<BundleRequirement> reqs = reqOwner.getDeclaredRequirements(null);
+                List<BundleCapability> caps = capOwner.getDeclaredCapabilities(null);
+                if ((cw.m_requirementIndex >= reqs.size())
+                    || (cw.m_capabilityIndex >= caps.size()))
+                {
+                    return null;
+                }
+
+                if (provider.getWiring() == null)
+                {
+                    pending.add(provider);
+                }
+                else if ((provider.getBundle().getBundleId() != 0)
+                    && !((BundleImpl) provider.getBundle()).isExtension()
+                    && !m_applied.contains(provider))
+                {
+                    return null;
+                }
+
+                wires.add(new BundleWireImpl(
+                    revision,
+                    reqs.get(cw.m_requirementIndex),
+                    provider,
+                    caps.get(cw.m_capabilityIndex)));
+            }
+            wireMap.put(revision, wires);
+
+            List<Long> fragments = m_fragments.get(id);
+            if (fragments != null)
+            {
+                for (Long fragmentId : fragments)
+                {
+                    BundleRevision fragment = getRevision(felix, fragmentId);
+                    if (fragment == null)
+                    {
+                        return null;
+                    }
+                    pending.add(fragment);
+                }
+            }
+        }
+        return wireMap;
+    }
+
+    /**
+     * Records that the wiring of the given revisions was created from this
+     * cache, so that other cached wirings may depend on them.
+     * @param revisions the revisions wired from this cache.
+    **/
+    void applied(Set<Resource> revisions)
+    {
+        for (Resource revision : revisions)
+        {
+            m_applied.add((BundleRevision) revision);
+        }
+    }
+
+    private static BundleRevision getRevision(Felix felix, long id)
+    {
+        Bundle bundle = felix.getBundle(id);
+        return (bundle != null) ? bundle.adapt(BundleRevision.class) : null;
+    }
+
+    private static List<CachedWire> encode(BundleWiring wiring)
+    {
+        List<BundleWire> wires = wiring.getRequiredWires(null);
+        List<CachedWire> result = new ArrayList<CachedWire>(wires.size());
+        for (BundleWire wire : wires)
+        {
+            BundleRequirement req = wire.getRequirement();
+            BundleCapability cap = wire.getCapability();
+            // Dynamic wires are not created by a resolve of the revision.
+            if (FelixConstants.RESOLUTION_DYNAMIC.equals(
+                req.getDirectives().get(Constants.RESOLUTION_DIRECTIVE)))
+            {
+                continue;
+            }
+            BundleRevision reqOwner = req.getRevision();
+            BundleRevision capOwner = cap.getRevision();
+            BundleRevision provider = wire.getProvider();
+            int reqIdx = indexOf(reqOwner.getDeclaredRequirements(null), req);
+            int capIdx = indexOf(capOwner.getDeclaredCapabilities(null), cap);
+            // Only wires between current revisions can be recorded.
+            if ((reqIdx < 0) || (capIdx < 0)
+                || !isCurrent(reqOwner) || !isCurrent(capOwner) || !isCurrent(provider))
+            {
+                return null;
+            }
+            result.add(new CachedWire(
+                reqOwner.getBundle().getBundleId(), reqIdx,
+                provider.getBundle().getBundleId(),
+                capOwner.getBundle().getBundleId(), capIdx));
+        }
+        return result;
+    }
+
+    private static boolean isCurrent(BundleRevision revision)
+    {
+        return revision.getBundle().adapt(BundleRevision.class) == revision;
+    }
+
+    private static int indexOf(List<?> list, Object o)
+    {
+        for (int i = 0; i < list.size(); i++)
+        {
+            if (list.get(i) == o)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Calculates a fingerprint of the state the resolver operates on, which
+     * consists of the manifests of all installed bundles and the
+     * capabilities provided by the system bundle.
+    **/
+    private static String getFingerprint(Felix felix) throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(felix.getProperty("java.specification.version")).append('\n');
+        for (BundleCapability cap
+            : felix.adapt(BundleRevision.class).getDeclaredCapabilities(null))
+        {
+            sb.append(cap.getNamespace());
+            for (Entry<String, Object> attr
+                : new TreeMap<String, Object>(cap.getAttributes()).entrySet())
+            {
+                // The framework UUID changes on every start.
+                if (!attr.getKey().equals(Constants.FRAMEWORK_UUID))
+                {
+                    Object value = attr.getValue();
+                    sb.append(';').append(attr.getKey()).append('=')
+                        .append((value instanceof Object[])
+                            ? Arrays.asList((Object[]) value) : value);
+                }
+            }
+            sb.append(new TreeMap<String, String>(cap.getDirectives())).append('\n');
+        }
+        digest.update(sb.toString().getBytes("UTF-8"));
+
+        Bundle[] bundles = felix.getBundles();
+        List<Long> ids = new ArrayList<Long>(bundles.length);
+        Map<Long, Bundle> bundleMap = new HashMap<Long, Bundle>();
+        for (Bundle bundle : bundles)
+        {
+            if (bundle.getBundleId() != 0)
+            {
+                ids.add(bundle.getBundleId());
+                bundleMap.put(bundle.getBundleId(), bundle);
+            }
+        }
+        Collections.sort(ids);
+        for (Long id : ids)
+        {
+            BundleRevisionImpl revision = (BundleRevisionImpl)
+                bundleMap.get(id).adapt(BundleRevision.class);
+            sb.setLength(0);
+            sb.append(id).append('\n');
+            if (revision != null)
+            {
+                for (Entry<String, Object> header
+                    : new TreeMap<String, Object>(revision.getHeaders()).entrySet())
+                {
+                    sb.append(header.getKey()).append(": ")
+                        .append(header.getValue()).append('\n');
+                }
+            }
+            digest.update(sb.toString().getBytes("UTF-8"));
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest())
+        {
+            result.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        }
+        return result.toString();
+    }
+
+    private static class CachedWire
+    {
+        final long m_requirementOwner;
+        final int m_requirementIndex;
+        final long m_provider;
+        final long m_capabilityOwner;
+        final int m_capabilityIndex;
+
+        CachedWire(long requirementOwner, int requirementIndex,
+            long provider, long capabilityOwner, int capabilityIndex)
+        {
+            m_requirementOwner = requirementOwner;
+            m_requirementIndex = requirementIndex;
+            m_provider = provider;
+            m_capabilityOwner = capabilityOwner;
+            m_capabilityIndex = capabilityIndex;
+        }
+    }
+}
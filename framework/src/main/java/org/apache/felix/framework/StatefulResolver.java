@@ -40,6 +40,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.ext.ClassLoaderDiagnostics;
 import org.apache.felix.framework.resolver.CandidateComparator;
 import org.apache.felix.framework.resolver.ResolveException;
 import org.apache.felix.framework.util.FelixConstants;
@@ -91,6 +92,14 @@ class StatefulResolver
     private final Map<String, List<BundleRevision>> m_singletons;
     // Selected singleton bundle revisions.
     private final Set<BundleRevision> m_selectedSingletons;
+    // Wiring saved on the last shutdown, if still valid.
+    private ResolutionCache m_resolutionCache;
+    // Incremented whenever a revision is added or removed or the resolver
+    // hooks change, which may change the outcome of dynamic imports.
+    private volatile int m_revisionGeneration = 0;
+    // Counters of the class loaders' cache of not found results.
+    private final ClassLoaderDiagnosticsImpl m_classLoaderDiagnostics =
+        new ClassLoaderDiagnosticsImpl();
 
     StatefulResolver(Felix felix, ServiceRegistry registry)
     {
@@ -168,18 +177,78 @@ class StatefulResolver
 
     void start()
     {
+        if (isResolutionCacheEnabled())
+        {
+            ResolutionCache cache = ResolutionCache.load(m_felix);
+            synchronized (this)
+            {
+                m_resolutionCache = cache;
+            }
+        }
+
         m_registry.registerService(m_felix,
                 new String[] { Resolver.class.getName() },
                 new ResolverImpl(m_logger, 1),
                 null);
+
+        m_registry.registerService(m_felix,
+                new String[] { ClassLoaderDiagnostics.class.getName() },
+                m_classLoaderDiagnostics,
+                null);
+    }
+
+    ClassLoaderDiagnosticsImpl getClassLoaderDiagnostics()
+    {
+        return m_classLoaderDiagnostics;
+    }
+
+    int getRevisionGeneration()
+    {
+        return m_revisionGeneration;
+    }
+
+    /**
+     * Called when a resolver hook is registered, modified, or unregistered,
+     * since the hooks may filter the candidates of dynamic imports.
+    **/
+    synchronized void resolverHooksChanged()
+    {
+        m_revisionGeneration++;
+    }
+
+    /**
+     * Persists the current wiring so that it can be re-applied on the
+     * next start, if the resolution cache is enabled.
+    **/
+    void saveResolutionCache()
+    {
+        if (isResolutionCacheEnabled())
+        {
+            ResolutionCache.save(m_felix);
+        }
+    }
+
+    private boolean isResolutionCacheEnabled()
+    {
+        return "true".equalsIgnoreCase(
+            m_felix.getProperty(FelixConstants.RESOLVER_CACHE_PROP));
     }
 
     synchronized void addRevision(BundleRevision br)
     {
+        // Adding an unresolved revision changes the state the saved
+        // wiring was calculated for.
+        if (br.getWiring() == null)
+        {
+            m_resolutionCache = null;
+        }
+
+        m_revisionGeneration++;
+
         // Always attempt to remove the revision, since
         // this method can be used for re-indexing a revision
         // after it has been resolved.
-        removeRevision(br);
+        removeRevisionInternal(br);
 
         m_revisions.add(br);
 
@@ -206,6 +275,13 @@ class StatefulResolver
     }
 
     synchronized void removeRevision(BundleRevision br)
+    {
+        m_resolutionCache = null;
+        m_revisionGeneration++;
+        removeRevisionInternal(br);
+    }
+
+    private void removeRevisionInternal(BundleRevision br)
     {
         if (m_revisions.remove(br))
         {
@@ -427,6 +503,7 @@ class StatefulResolver
         m_isResolving = true;
 
         Map<Resource, List<Wire>> wireMap = null;
+        Map<Resource, List<Wire>> cachedWireMap = null;
         try
         {
             // Make our own copy of revisions.
@@ -469,20 +546,27 @@ class StatefulResolver
                 }
             }
 
+            // Re-apply the wiring saved on the last shutdown where possible.
+            cachedWireMap = applyResolutionCache(record, mandatory, optional);
+
             // Catch any resolve exception to rethrow later because
             // we may need to call end() on resolver hooks.
             ResolutionException rethrow = null;
             try
             {
                 // Resolve the revision.
-                wireMap = m_resolver.resolve(
-                    new ResolveContextImpl(
-                        this,
-                        getWirings(),
-                        record,
-                        mandatory,
-                        optional,
-                        getFragments()));
+                if (!mandatory.isEmpty() || !optional.isEmpty()
+                    || (cachedWireMap == null))
+                {
+                    wireMap = m_resolver.resolve(
+                        new ResolveContextImpl(
+                            this,
+                            getWirings(),
+                            record,
+                            mandatory,
+                            optional,
+                            getFragments()));
+                }
             }
             catch (ResolutionException ex)
             {
@@ -507,11 +591,97 @@ class StatefulResolver
             m_isResolving = false;
             // Always release the global lock.
             m_felix.releaseGlobalLock();
+            // Revisions wired from the cache stay resolved even
+            // if resolving the remaining revisions failed.
+            fireResolvedEvents(cachedWireMap);
         }
 
         fireResolvedEvents(wireMap);
     }
 
+    /**
+     * Wires the given revisions from the resolution cache, if possible.
+     * Revisions wired from the cache are removed from the given sets.
+     * This is only done if there are no resolver hooks and no security
+     * manager, since both may exclude candidates the saved wiring uses.
+     * @param record the resolver hook record of the resolve operation.
+     * @param mandatory the mandatory revisions to resolve.
+     * @param optional the optional revisions to resolve.
+     * @return the wires of all revisions wired from the cache or
+     *         <tt>null</tt> if no revision could be wired from the cache.
+    **/
+    private Map<Resource, List<Wire>> applyResolutionCache(
+        ResolverHookRecord record,
+        Set<BundleRevision> mandatory,
+        Set<BundleRevision> optional)
+    {
+        ResolutionCache cache;
+        synchronized (this)
+        {
+            cache = m_resolutionCache;
+        }
+        if ((cache == null) || !record.getResolverHookRefs().isEmpty()
+            || (System.getSecurityManager() != null))
+        {
+            return null;
+        }
+
+        List<BundleRevision> roots = new ArrayList<BundleRevision>(mandatory);
+        roots.addAll(optional);
+
+        Map<Resource, List<Wire>> result = null;
+        for (BundleRevision root : roots)
+        {
+            if (root.getWiring() != null)
+            {
+                continue;
+            }
+            Map<Resource, List<Wire>> wireMap = cache.getWires(m_felix, root);
+            if (wireMap == null)
+            {
+                continue;
+            }
+            boolean singletonConflict = false;
+            for (Resource resource : wireMap.keySet())
+            {
+                BundleRevision br = (BundleRevision) resource;
+                if (Util.isSingleton(br) && !isSelectedSingleton(br))
+                {
+                    singletonConflict = true;
+                    break;
+                }
+            }
+            if (singletonConflict)
+            {
+                continue;
+            }
+
+            try
+            {
+                markResolvedRevisions(wireMap);
+            }
+            catch (ResolveException ex)
+            {
+                // Fall back to the resolver for everything else.
+                synchronized (this)
+                {
+                    m_resolutionCache = null;
+                }
+                break;
+            }
+            cache.applied(wireMap.keySet());
+            mandatory.removeAll(wireMap.keySet());
+            optional.removeAll(wireMap.keySet());
+
+            if (result == null)
+            {
+                result = new LinkedHashMap<Resource, List<Wire>>();
+            }
+            result.putAll(wireMap);
+        }
+        return result;
+    }
+
     BundleRevision resolve(BundleRevision revision, String pkgName)
         throws ResolutionException, BundleException
     {
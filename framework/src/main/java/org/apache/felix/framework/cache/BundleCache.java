@@ -75,6 +75,12 @@ import java.util.Map;
  *       string provides control over the size of the internal buffer of the
  *       disk cache for performance reasons.
  *   </li>
+ *   <li><tt>felix.cache.mmap</tt> - Determines whether bundle JAR files
+ *       are mapped into memory and indexed once when they are installed,
+ *       instead of being opened as zip files. Mapped JAR files do not count
+ *       towards <tt>felix.cache.filelimit</tt>. The default value is
+ *       <tt>false</tt>.
+ *   </li>
  * <p>
  * For specific information on how to configure the Felix framework, refer
  * to the Felix framework usage documentation.
@@ -87,6 +93,7 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_MMAP_PROP = "felix.cache.mmap";
     private static final ThreadLocal m_defaultBuffer = new ThreadLocal();
     private static volatile int DEFAULT_BUFFER = 1024 * 64;
 
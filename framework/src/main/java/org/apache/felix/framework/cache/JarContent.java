@@ -215,11 +215,6 @@ public class JarContent implements Content
         {
             return null;
         }
-        // Any embedded JAR files will be extracted to the embedded directory.
-        // Since embedded JAR file names may clash when extracting from multiple
-        // embedded JAR files, the embedded directory is per embedded JAR file.
-        File embedDir = new File(m_rootDir, m_file.getName() + EMBEDDED_DIRECTORY);
-
         // Find the entry in the JAR file and create the
         // appropriate content type for it.
 
@@ -234,33 +229,10 @@ public class JarContent implements Content
         }
         else if ((ze != null) && ze.getName().endsWith(".jar"))
         {
-            File extractJar = new File(embedDir, entryName);
-
             try
             {
-                if (!BundleCache.getSecureAction().fileExists(extractJar))
-                {
-                    // Extracting the embedded JAR file impacts all other existing
-                    // contents for this revision, so we have to grab the revision
-                    // lock first before trying to extract the embedded JAR file
-                    // to avoid a race condition.
-                    synchronized (m_revisionLock)
-                    {
-                        if (!BundleCache.getSecureAction().fileExists(extractJar))
-                        {
-                            // Make sure that the embedded JAR's parent directory exists;
-                            // it may be in a sub-directory.
-                            File jarDir = extractJar.getParentFile();
-                            if (!BundleCache.getSecureAction().fileExists(jarDir) && !BundleCache.getSecureAction().mkdirs(jarDir))
-                            {
-                                throw new IOException("Unable to create embedded JAR directory.");
-                            }
-
-                            // Extract embedded JAR into its directory.
-                            BundleCache.copyStreamToFile(m_zipFile.getInputStream(ze), extractJar);
-                        }
-                    }
-                }
+                File extractJar = extractEmbeddedJar(
+                    this, m_revisionLock, m_rootDir, m_file, entryName);
                 return new JarContent(
                     m_logger, m_configMap, m_zipFactory, m_revisionLock,
                     extractJar.getParentFile(), extractJar, null);
@@ -277,6 +249,57 @@ public class JarContent implements Content
         return null;
     }
 
+    /**
+     * Extracts an embedded JAR file of the given content, unless it has
+     * already been extracted.
+     * @param content the content of the JAR file containing the embedded JAR file.
+     * @param revisionLock the lock of the revision the content belongs to.
+     * @param rootDir the directory the embedded JAR files are extracted into.
+     * @param file the JAR file containing the embedded JAR file.
+     * @param entryName the name of the embedded JAR file entry.
+     * @return the extracted JAR file.
+     * @throws Exception if the embedded JAR file could not be extracted.
+    **/
+    static File extractEmbeddedJar(Content content, Object revisionLock,
+        File rootDir, File file, String entryName) throws Exception
+    {
+        // Any embedded JAR files will be extracted to the embedded directory.
+        // Since embedded JAR file names may clash when extracting from multiple
+        // embedded JAR files, the embedded directory is per embedded JAR file.
+        File embedDir = new File(rootDir, file.getName() + EMBEDDED_DIRECTORY);
+        File extractJar = new File(embedDir, entryName);
+
+        if (!BundleCache.getSecureAction().fileExists(extractJar))
+        {
+            // Extracting the embedded JAR file impacts all other existing
+            // contents for this revision, so we have to grab the revision
+            // lock first before trying to extract the embedded JAR file
+            // to avoid a race condition.
+            synchronized (revisionLock)
+            {
+                if (!BundleCache.getSecureAction().fileExists(extractJar))
+                {
+                    // Make sure that the embedded JAR's parent directory exists;
+                    // it may be in a sub-directory.
+                    File jarDir = extractJar.getParentFile();
+                    if (!BundleCache.getSecureAction().fileExists(jarDir) && !BundleCache.getSecureAction().mkdirs(jarDir))
+                    {
+                        throw new IOException("Unable to create embedded JAR directory.");
+                    }
+
+                    // Extract embedded JAR into its directory.
+                    InputStream is = content.getEntryAsStream(entryName);
+                    if (is == null)
+                    {
+                        throw new IOException("Unable to read embedded JAR file " + entryName);
+                    }
+                    BundleCache.copyStreamToFile(is, extractJar);
+                }
+            }
+        }
+        return extractJar;
+    }
+
 // TODO: SECURITY - This will need to consider security.
     public String getEntryAsNativeLibrary(String entryName)
     {
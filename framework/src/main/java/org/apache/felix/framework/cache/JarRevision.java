@@ -19,6 +19,7 @@
 package org.apache.felix.framework.cache;
 
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.MappedZipFile;
 import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.WeakZipFileFactory;
@@ -41,7 +42,11 @@ import java.util.zip.ZipEntry;
  * file system, but it is possible to mark the JAR as 'by reference', which
  * will result in the bundle JAR be used 'in place' and not being copied. In
  * either case, some of the contents may be extracted into the revision
- * directory, such as embedded JAR files and native libraries.
+ * directory, such as embedded JAR files and native libraries. If the
+ * <tt>felix.cache.mmap</tt> property is enabled, a JAR file copied into the
+ * revision directory is mapped into memory and indexed once instead of being
+ * opened as a zip file. JAR files used by reference are never mapped, since
+ * they may be changed in place while they are mapped.
  * </p>
 **/
 class JarRevision extends BundleArchiveRevision
@@ -51,6 +56,7 @@ class JarRevision extends BundleArchiveRevision
     private final WeakZipFileFactory m_zipFactory;
     private final File m_bundleFile;
     private final WeakZipFile m_zipFile;
+    private final MappedZipFile m_mappedZipFile;
 
     public JarRevision(
         Logger logger, Map configMap, WeakZipFileFactory zipFactory,
@@ -75,28 +81,59 @@ class JarRevision extends BundleArchiveRevision
         // Save and process the bundle JAR.
         initialize(byReference, is);
 
-        // Open shared copy of the JAR file.
-        WeakZipFile zipFile = null;
-        try
+        // Map the JAR file if configured and possible.
+        MappedZipFile mappedZipFile = null;
+        if (!byReference
+            && Boolean.valueOf((String) configMap.get(BundleCache.CACHE_MMAP_PROP)).booleanValue())
         {
-            // Open bundle JAR file.
-            zipFile = m_zipFactory.create(m_bundleFile);
-            // Error if no jar file.
-            if (zipFile == null)
+            try
+            {
+                mappedZipFile = new MappedZipFile(m_bundleFile);
+            }
+            catch (IOException ex)
             {
-                throw new IOException("No JAR file found.");
+                logger.log(
+                    Logger.LOG_DEBUG,
+                    "Unable to map JAR file, falling back to regular access: " + m_bundleFile, ex);
             }
-            m_zipFile = zipFile;
         }
-        catch (Exception ex)
+        m_mappedZipFile = mappedZipFile;
+
+        if (m_mappedZipFile != null)
         {
-            if (zipFile != null) zipFile.close();
-            throw ex;
+            m_zipFile = null;
+        }
+        else
+        {
+            // Open shared copy of the JAR file.
+            WeakZipFile zipFile = null;
+            try
+            {
+                // Open bundle JAR file.
+                zipFile = m_zipFactory.create(m_bundleFile);
+                // Error if no jar file.
+                if (zipFile == null)
+                {
+                    throw new IOException("No JAR file found.");
+                }
+                m_zipFile = zipFile;
+            }
+            catch (Exception ex)
+            {
+                if (zipFile != null) zipFile.close();
+                throw ex;
+            }
         }
     }
 
     public Map<String, Object> getManifestHeader() throws Exception
     {
+        if (m_mappedZipFile != null)
+        {
+            MappedZipFile.Entry manifestEntry = m_mappedZipFile.getEntry("META-INF/MANIFEST.MF");
+            return manifestEntry != null ? BundleCache.getMainAttributes(new StringMap(), m_mappedZipFile.getInputStream(manifestEntry), manifestEntry.getSize()) : null;
+        }
+
         // Read and parse headers into a case insensitive map of manifest attributes and return it.
         ZipEntry manifestEntry = m_zipFile.getEntry("META-INF/MANIFEST.MF");
 
@@ -107,13 +144,26 @@ class JarRevision extends BundleArchiveRevision
 
     public Content getContent() throws Exception
     {
+        if (m_mappedZipFile != null)
+        {
+            return new MappedJarContent(getLogger(), getConfig(), m_zipFactory,
+                this, getRevisionRootDir(), m_bundleFile, m_mappedZipFile);
+        }
         return new JarContent(getLogger(), getConfig(), m_zipFactory,
             this, getRevisionRootDir(), m_bundleFile, m_zipFile);
     }
 
     protected void close() throws Exception
     {
-        m_zipFile.close();
+        if (m_mappedZipFile != null)
+        {
+            // Release the mapping, so the revision directory can be deleted.
+            m_mappedZipFile.close();
+        }
+        else
+        {
+            m_zipFile.close();
+        }
     }
 
     //
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.MappedZipFile;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.Map;
+
+/**
+ * <p>
+ * This class implements the content of a JAR file which is mapped into
+ * memory by a <tt>MappedZipFile</tt>. Entries are looked up in the index
+ * built when the JAR file was mapped and are read without any locking or
+ * open file descriptor. Native libraries are extracted by a regular
+ * <tt>JarContent</tt>, since they are rarely used.
+ * </p>
+**/
+public class MappedJarContent implements Content
+{
+    private final Logger m_logger;
+    private final Map m_configMap;
+    private final WeakZipFileFactory m_zipFactory;
+    private final Object m_revisionLock;
+    private final File m_rootDir;
+    private final File m_file;
+    private final MappedZipFile m_zipFile;
+    private final boolean m_isZipFileOwner;
+    private JarContent m_nativeLibContent;
+
+    public MappedJarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, File file, MappedZipFile zipFile)
+    {
+        this(logger, configMap, zipFactory, revisionLock, rootDir, file, zipFile, false);
+    }
+
+    private MappedJarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, File file, MappedZipFile zipFile,
+        boolean isZipFileOwner)
+    {
+        m_logger = logger;
+        m_configMap = configMap;
+        m_zipFactory = zipFactory;
+        m_revisionLock = revisionLock;
+        m_rootDir = rootDir;
+        m_file = file;
+        m_zipFile = zipFile;
+        m_isZipFileOwner = isZipFileOwner;
+    }
+
+    protected void finalize()
+    {
+        close();
+    }
+
+    public void close()
+    {
+        if (m_isZipFileOwner)
+        {
+            m_zipFile.close();
+        }
+        JarContent content;
+        synchronized (this)
+        {
+            content = m_nativeLibContent;
+            m_nativeLibContent = null;
+        }
+        if (content != null)
+        {
+            content.close();
+        }
+    }
+
+    public boolean hasEntry(String name) throws IllegalStateException
+    {
+        return m_zipFile.getEntry(name) != null;
+    }
+
+    public Enumeration<String> getEntries()
+    {
+        Enumeration<String> e = m_zipFile.names();
+
+        // Spec says to return null if there are no entries.
+        return (e.hasMoreElements()) ? e : null;
+    }
+
+    public byte[] getEntryAsBytes(String name) throws IllegalStateException
+    {
+        MappedZipFile.Entry entry = m_zipFile.getEntry(name);
+        if (entry == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return m_zipFile.getBytes(entry);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "MappedJarContent: Unable to read bytes for file " + name + " in ZIP file " + m_file.getAbsolutePath(), ex);
+            return null;
+        }
+    }
+
+    public InputStream getEntryAsStream(String name)
+        throws IllegalStateException, IOException
+    {
+        MappedZipFile.Entry entry = m_zipFile.getEntry(name);
+        if (entry == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return m_zipFile.getInputStream(entry);
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    public URL getEntryAsURL(String name)
+    {
+        if (hasEntry(name))
+        {
+            try
+            {
+                return new URL("jar:" + m_file.toURI().toURL().toExternalForm() + "!/" + name);
+            }
+            catch (MalformedURLException e)
+            {
+                return null;
+            }
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    public Content getEntryAsContent(String entryName)
+    {
+        // If the entry name refers to the content itself, then
+        // just return it immediately.
+        if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
+        {
+            return new MappedJarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
+                m_rootDir, m_file, m_zipFile);
+        }
+
+        // Remove any leading slash.
+        entryName = (entryName.startsWith("/")) ? entryName.substring(1) : entryName;
+
+        if (entryName.trim().startsWith(".." + File.separatorChar) ||
+            entryName.contains(File.separator + ".." + File.separatorChar) ||
+            entryName.trim().endsWith(File.separator + "..") ||
+            entryName.trim().equals(".."))
+        {
+            return null;
+        }
+        // Determine if the entry is an emdedded JAR file or
+        // directory in the bundle JAR file. Ignore any entries
+        // that do not exist per the spec.
+        MappedZipFile.Entry entry = m_zipFile.getEntry(entryName);
+
+        if ((entry != null) && entry.isDirectory())
+        {
+            return new ContentDirectoryContent(this, entryName);
+        }
+        else if ((entry != null) && entry.getName().endsWith(".jar"))
+        {
+            try
+            {
+                File extractJar = JarContent.extractEmbeddedJar(
+                    this, m_revisionLock, m_rootDir, m_file, entryName);
+                return create(
+                    m_logger, m_configMap, m_zipFactory, m_revisionLock,
+                    extractJar.getParentFile(), extractJar);
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(
+                    Logger.LOG_ERROR,
+                    "Unable to extract embedded JAR file.", ex);
+            }
+        }
+
+        // The entry could not be found, so return null.
+        return null;
+    }
+
+    public String getEntryAsNativeLibrary(String entryName)
+    {
+        JarContent content;
+        synchronized (this)
+        {
+            if (m_nativeLibContent == null)
+            {
+                m_nativeLibContent = new JarContent(m_logger, m_configMap,
+                    m_zipFactory, m_revisionLock, m_rootDir, m_file, null);
+            }
+            content = m_nativeLibContent;
+        }
+        return content.getEntryAsNativeLibrary(entryName);
+    }
+
+    public String toString()
+    {
+        return "JAR " + m_file.getPath();
+    }
+
+    public File getFile()
+    {
+        return m_file;
+    }
+
+    /**
+     * Creates the content of the given JAR file, which is mapped into
+     * memory unless it cannot be handled by <tt>MappedZipFile</tt>. The
+     * JAR file must be private to the bundle cache, such as an extracted
+     * embedded JAR file, and the mapping is released when the content is
+     * closed.
+    **/
+    static Content create(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, File file)
+    {
+        try
+        {
+            return new MappedJarContent(logger, configMap, zipFactory,
+                revisionLock, rootDir, file, new MappedZipFile(file), true);
+        }
+        catch (IOException ex)
+        {
+            logger.log(
+                Logger.LOG_DEBUG,
+                "Unable to map JAR file, falling back to regular access: " + file, ex);
+            return new JarContent(logger, configMap, zipFactory,
+                revisionLock, rootDir, file, null);
+        }
+    }
+}
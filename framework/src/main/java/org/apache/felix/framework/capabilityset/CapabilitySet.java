@@ -25,6 +25,7 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,7 @@ import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.apache.felix.framework.util.SecureAction;
 import org.apache.felix.framework.util.StringComparator;
@@ -47,6 +49,12 @@ public class CapabilitySet
 {
     private final SortedMap<String, Map<Object, Set<BundleCapability>>> m_indices; // Should also be concurrent!
     private final Set<Capability> m_capSet = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
+    // Names of the indices holding values other than strings, these
+    // cannot be queried by a plain lookup of the filter value.
+    private final Set<String> m_typedIndices;
+    // Capabilities having a value for each of the indexed attributes, used
+    // to answer presence tests without looking at the indexed values.
+    private final SortedMap<String, Set<BundleCapability>> m_presence;
     private final static SecureAction m_secureAction = new SecureAction();
 
     public void dump()
@@ -84,10 +92,20 @@ public class CapabilitySet
             ? new ConcurrentSkipListMap<String, Map<Object, Set<BundleCapability>>>()
             : new ConcurrentSkipListMap<String, Map<Object, Set<BundleCapability>>>(
                 StringComparator.COMPARATOR);
+        m_typedIndices = (caseSensitive)
+            ? new ConcurrentSkipListSet<String>()
+            : new ConcurrentSkipListSet<String>(StringComparator.COMPARATOR);
+        m_presence = (caseSensitive)
+            ? new ConcurrentSkipListMap<String, Set<BundleCapability>>()
+            : new ConcurrentSkipListMap<String, Set<BundleCapability>>(
+                StringComparator.COMPARATOR);
         for (int i = 0; (indexProps != null) && (i < indexProps.size()); i++)
         {
             m_indices.put(
                 indexProps.get(i), new ConcurrentHashMap<Object, Set<BundleCapability>>());
+            m_presence.put(
+                indexProps.get(i),
+                Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>()));
         }
     }
 
@@ -114,25 +132,42 @@ public class CapabilitySet
                     Collection c = (Collection) value;
                     for (Object o : c)
                     {
-                        indexCapability(index, cap, o);
+                        indexCapability(entry.getKey(), index, cap, o);
                     }
                 }
                 else
                 {
-                    indexCapability(index, cap, value);
+                    indexCapability(entry.getKey(), index, cap, value);
                 }
             }
         }
     }
 
     private void indexCapability(
-        ConcurrentMap<Object, Set<BundleCapability>> index, BundleCapability cap, Object capValue)
+        String name, ConcurrentMap<Object, Set<BundleCapability>> index,
+        BundleCapability cap, Object capValue)
     {
         Set<BundleCapability> caps = Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
-        Set<BundleCapability> prevval = index.putIfAbsent(capValue, caps);
+        Set<BundleCapability> prevval;
+        if (capValue instanceof String)
+        {
+            prevval = index.putIfAbsent(capValue, caps);
+        }
+        else
+        {
+            // Marking the index as typed and adding the value is done under
+            // the same lock as pruneTypedIndex(), so a concurrent removal
+            // can't unmark the index after the value has been added.
+            synchronized (index)
+            {
+                m_typedIndices.add(name);
+                prevval = index.putIfAbsent(capValue, caps);
+            }
+        }
         if (prevval != null)
             caps = prevval;
         caps.add(cap);
+        m_presence.get(name).add(cap);
     }
 
     public void removeCapability(final BundleCapability cap)
@@ -156,20 +191,22 @@ public class CapabilitySet
                         Collection c = (Collection) value;
                         for (Object o : c)
                         {
-                            deindexCapability(index, cap, o);
+                            deindexCapability(entry.getKey(), index, cap, o);
                         }
                     }
                     else
                     {
-                        deindexCapability(index, cap, value);
+                        deindexCapability(entry.getKey(), index, cap, value);
                     }
+                    m_presence.get(entry.getKey()).remove(cap);
                 }
             }
         }
     }
 
     private void deindexCapability(
-        Map<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
+        String name, Map<Object, Set<BundleCapability>> index,
+        BundleCapability cap, Object value)
     {
         Set<BundleCapability> caps = index.get(value);
         if (caps != null)
@@ -178,93 +215,164 @@ public class CapabilitySet
             if (caps.isEmpty())
             {
                 index.remove(value);
+                if (!(value instanceof String))
+                {
+                    pruneTypedIndex(name, index);
+                }
             }
         }
     }
 
-    public Set<Capability> match(final SimpleFilter sf, final boolean obeyMandatory)
+    private void pruneTypedIndex(String name, Map<Object, Set<BundleCapability>> index)
     {
-        final Set<Capability> matches = match(m_capSet, sf);
-        return (obeyMandatory)
-            ? matchMandatory(matches, sf)
-            : matches;
+        // Equality lookups can be used again on the index once the
+        // last value other than a string is gone.
+        synchronized (index)
+        {
+            for (Object value : index.keySet())
+            {
+                if (!(value instanceof String))
+                {
+                    return;
+                }
+            }
+            m_typedIndices.remove(name);
+        }
     }
 
-    private Set<Capability> match(Set<Capability> caps, final SimpleFilter sf)
+    public Set<Capability> match(final SimpleFilter sf, final boolean obeyMandatory)
     {
-        Set<Capability> matches = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
+        final Set<Capability> matches = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
 
-        if (sf.getOperation() == SimpleFilter.MATCH_ALL)
+        // Ask the planner for the smallest set of capabilities that can
+        // possibly match; if none of the indices applies we have to look
+        // at every capability. Either way each candidate is evaluated once
+        // against the whole filter, so no intermediate sets are created
+        // for the individual levels of the filter tree.
+        Collection<? extends Capability> candidates = plan(sf);
+        if (candidates == null)
         {
-            matches.addAll(caps);
+            candidates = m_capSet;
         }
-        else if (sf.getOperation() == SimpleFilter.AND)
+
+        for (Capability cap : candidates)
         {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For AND we calculate the intersection of each subfilter.
-            // We can short-circuit the AND operation if there are no
-            // remaining capabilities.
-            final List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+            if (matchesInternal(cap, sf) && (!obeyMandatory || matchMandatory(cap, sf)))
             {
-                matches = match(caps, sfs.get(i));
-                caps = matches;
+                matches.add(cap);
             }
         }
-        else if (sf.getOperation() == SimpleFilter.OR)
+
+        return matches;
+    }
+
+    /**
+     * Calculates a superset of the capabilities matching the given filter
+     * using the configured indices. For conjunctions the candidates of the
+     * most selective indexed sub-filter are used, for disjunctions the union
+     * of the candidates of all sub-filters if each of them is indexed.
+     * @param sf The filter to plan.
+     * @return The candidate capabilities or <code>null</code> if no index can
+     *         be used to narrow down the capabilities.
+    **/
+    private Collection<? extends Capability> plan(final SimpleFilter sf)
+    {
+        if (sf.getOperation() == SimpleFilter.AND)
         {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For OR we calculate the union of each subfilter.
-            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+            // Intersection is driven by the most selective sub-filter, the
+            // remaining ones are evaluated on its candidates only.
+            Collection<? extends Capability> smallest = null;
+            final List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
             for (int i = 0; i < sfs.size(); i++)
             {
-                matches.addAll(match(caps, sfs.get(i)));
+                Collection<? extends Capability> candidates = plan(sfs.get(i));
+                if ((candidates != null)
+                    && ((smallest == null) || (candidates.size() < smallest.size())))
+                {
+                    smallest = candidates;
+                    if (smallest.isEmpty())
+                    {
+                        break;
+                    }
+                }
             }
+            return smallest;
         }
-        else if (sf.getOperation() == SimpleFilter.NOT)
+        else if (sf.getOperation() == SimpleFilter.OR)
         {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For OR we calculate the union of each subfilter.
-            matches.addAll(caps);
-            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+            Set<Capability> union = null;
+            final List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
             for (int i = 0; i < sfs.size(); i++)
             {
-                matches.removeAll(match(caps, sfs.get(i)));
+                Collection<? extends Capability> candidates = plan(sfs.get(i));
+                if (candidates == null)
+                {
+                    return null;
+                }
+                if (union == null)
+                {
+                    union = new HashSet<Capability>(candidates);
+                }
+                else
+                {
+                    union.addAll(candidates);
+                }
             }
+            return union;
         }
-        else
+        else if ((sf.getOperation() == SimpleFilter.MATCH_ALL)
+            || (sf.getOperation() == SimpleFilter.NOT))
+        {
+            return null;
+        }
+
+        final Map<Object, Set<BundleCapability>> index = m_indices.get(sf.getName());
+        if (index == null)
+        {
+            return null;
+        }
+
+        if (sf.getOperation() == SimpleFilter.PRESENT)
+        {
+            return m_presence.get(sf.getName());
+        }
+
+        if ((sf.getOperation() == SimpleFilter.EQ) && !m_typedIndices.contains(sf.getName()))
+        {
+            final Set<BundleCapability> existingCaps = index.get(sf.getValue());
+            return (existingCaps != null)
+                ? existingCaps
+                : Collections.<Capability>emptySet();
+        }
+
+        // For all other operations evaluate the operation once per distinct
+        // indexed value instead of once per capability. This covers ranges,
+        // approximate and substring matches, which are not kept in an
+        // ordered index since values of one attribute may be of mixed types.
+        Collection<? extends Capability> result = null;
+        Set<Capability> union = null;
+        for (Entry<Object, Set<BundleCapability>> entry : index.entrySet())
         {
-            Map<Object, Set<BundleCapability>> index = m_indices.get(sf.getName());
-            if ((sf.getOperation() == SimpleFilter.EQ) && (index != null))
+            if (compare(entry.getKey(), sf.getValue(), sf.getOperation()))
             {
-                Set<BundleCapability> existingCaps = index.get(sf.getValue());
-                if (existingCaps != null)
+                if (result == null)
                 {
-                    matches.addAll(existingCaps);
-                    if (caps != m_capSet)
-                    {
-                        matches.retainAll(caps);
-                    }
+                    result = entry.getValue();
                 }
-            }
-            else
-            {
-                for (Iterator<Capability> it = caps.iterator(); it.hasNext(); )
+                else
                 {
-                    Capability cap = it.next();
-                    Object lhs = cap.getAttributes().get(sf.getName());
-                    if (lhs != null)
+                    if (union == null)
                     {
-                        if (compare(lhs, sf.getValue(), sf.getOperation()))
-                        {
-                            matches.add(cap);
-                        }
+                        union = new HashSet<Capability>(result);
+                        result = union;
                     }
+                    union.addAll(entry.getValue());
                 }
             }
         }
-
-        return matches;
+        return (result != null)
+            ? result
+            : Collections.<Capability>emptySet();
     }
 
     public static boolean matches(Capability cap, SimpleFilter sf)
@@ -326,20 +434,6 @@ public class CapabilitySet
         return matched;
     }
 
-    private static Set<Capability> matchMandatory(
-        Set<Capability> caps, SimpleFilter sf)
-    {
-        for (Iterator<Capability> it = caps.iterator(); it.hasNext(); )
-        {
-            Capability cap = it.next();
-            if (!matchMandatory(cap, sf))
-            {
-                it.remove();
-            }
-        }
-        return caps;
-    }
-
     private static boolean matchMandatory(Capability cap, SimpleFilter sf)
     {
         Map<String, Object> attrs = cap.getAttributes();
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.ext;
+
+/**
+ * Diagnostic service registered by the framework that reports how often
+ * class and resource lookups of bundle class loaders were answered by the
+ * per wiring cache of not found results.
+**/
+public interface ClassLoaderDiagnostics
+{
+    /**
+     * Returns the number of class and resource lookups that were answered
+     * from the cache of not found results without searching the wiring.
+     * @return the number of lookups answered from the cache.
+    **/
+    long getMissCacheHits();
+
+    /**
+     * Returns the number of class and resource lookups that searched the
+     * wiring without finding anything and were added to the cache of not
+     * found results.
+     * @return the number of not found results added to the cache.
+    **/
+    long getMissCacheMisses();
+
+    /**
+     * Resets all counters to zero.
+    **/
+    void reset();
+}
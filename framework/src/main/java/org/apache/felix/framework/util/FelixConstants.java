@@ -47,14 +47,18 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String LOG_LOGGER_PROP = "felix.log.logger";
     String SYSTEMBUNDLE_ACTIVATORS_PROP = "felix.systembundle.activators";
     String BUNDLE_STARTLEVEL_PROP = "felix.startlevel.bundle";
+    String STARTLEVEL_PARALLELISM_PROP = "felix.startlevel.parallelism";
     String SERVICE_URLHANDLERS_PROP = "felix.service.urlhandlers";
     String IMPLICIT_BOOT_DELEGATION_PROP = "felix.bootdelegation.implicit";
     String BOOT_CLASSLOADERS_PROP = "felix.bootdelegation.classloaders";
     String USE_LOCALURLS_PROP = "felix.jarurls";
+    String CLASSLOADER_MISSCACHE_SIZE_PROP = "felix.classloader.misscache.size";
+    int CLASSLOADER_MISSCACHE_SIZE_VALUE = 256;
     String NATIVE_OS_NAME_ALIAS_PREFIX = "felix.native.osname.alias";
     String NATIVE_PROC_NAME_ALIAS_PREFIX = "felix.native.processor.alias";
     String USE_CACHEDURLS_PROPS = "felix.bundlecodesource.usecachedurls";
     String RESOLVER_PARALLELISM = "felix.resolver.parallelism";
+    String RESOLVER_CACHE_PROP = "felix.resolver.cache";
     String USE_PROPERTY_SUBSTITUTION_IN_SYSTEMPACKAGES = "felix.systempackages.substitution";
 
     // Missing OSGi constant for resolution directive.
@@ -0,0 +1,640 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * This class provides read access to a zip file which is mapped into memory
+ * in its entirety. The central directory is read once when the file is
+ * opened and kept as an index of the entries, so that entries can be looked
+ * up and read concurrently without any locking and without holding on to a
+ * file descriptor. Only stored and deflated entries are supported; zip files
+ * which cannot be handled, such as ZIP64 or encrypted files, are rejected
+ * with a <tt>ZipException</tt> when opened.
+ * <p>
+ * The mapping is released when the zip file is closed. Reads which are in
+ * progress at that time complete first, later reads fail with an
+ * <tt>IOException</tt>. Since a mapped file must not be changed, only files
+ * which are private to the bundle cache should be mapped.
+ */
+public class MappedZipFile
+{
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_HEADER_SIG = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAX_POOLED_INFLATERS = 32;
+    private static final ConcurrentLinkedQueue<Decoder> m_decoders =
+        new ConcurrentLinkedQueue<Decoder>();
+    private static final AtomicInteger m_decoderCount = new AtomicInteger();
+
+    private static final SecureAction m_secureAction = new SecureAction();
+
+    private final File m_file;
+    private final MappedByteBuffer m_mapping;
+    private final ByteBuffer m_buffer;
+    // One reference for the open zip file plus one per read in progress;
+    // the mapping is released when the count drops to zero.
+    private final AtomicInteger m_references = new AtomicInteger(1);
+    private final AtomicBoolean m_closed = new AtomicBoolean();
+    private final String[] m_names;
+    private final Map<String, Entry> m_entries = new HashMap<String, Entry>();
+
+    /**
+     * Maps the specified zip file into memory and reads its central
+     * directory.
+     * @param file the target zip file.
+     * @throws IOException if the zip file could not be opened or uses
+     *         features which are not supported.
+     */
+    public MappedZipFile(File file) throws IOException
+    {
+        m_file = file;
+
+        FileInputStream fis = m_secureAction.getFileInputStream(file);
+        try
+        {
+            FileChannel channel = fis.getChannel();
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE)
+            {
+                throw new ZipException("Zip file too large to be mapped: " + file);
+            }
+            // The mapping stays valid after the channel is closed.
+            m_mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            m_buffer = m_mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        finally
+        {
+            fis.close();
+        }
+
+        try
+        {
+            m_names = readCentralDirectory();
+        }
+        catch (IOException ex)
+        {
+            close();
+            throw ex;
+        }
+        catch (RuntimeException ex)
+        {
+            close();
+            throw (ZipException) new ZipException("Invalid zip file: " + file).initCause(ex);
+        }
+    }
+
+    private String[] readCentralDirectory() throws IOException
+    {
+        int end = findEndHeader();
+        if (end < 0)
+        {
+            throw new ZipException("Not a zip file: " + m_file);
+        }
+        int count = m_buffer.getShort(end + 10) & 0xFFFF;
+        long dirSize = m_buffer.getInt(end + 12) & 0xFFFFFFFFL;
+        long dirOffset = m_buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if ((count == 0xFFFF) || (dirOffset == 0xFFFFFFFFL)
+            || (dirOffset + dirSize > end))
+        {
+            throw new ZipException("Unsupported zip file: " + m_file);
+        }
+
+        String[] names = new String[count];
+        int pos = (int) dirOffset;
+        for (int i = 0; i < count; i++)
+        {
+            if ((pos + CENTRAL_HEADER_SIZE > end)
+                || (m_buffer.getInt(pos) != CENTRAL_HEADER_SIG))
+            {
+                throw new ZipException("Invalid central directory: " + m_file);
+            }
+            int flags = m_buffer.getShort(pos + 8) & 0xFFFF;
+            int method = m_buffer.getShort(pos + 10) & 0xFFFF;
+            long compressedSize = m_buffer.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = m_buffer.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = m_buffer.getShort(pos + 28) & 0xFFFF;
+            int extraLength = m_buffer.getShort(pos + 30) & 0xFFFF;
+            int commentLength = m_buffer.getShort(pos + 32) & 0xFFFF;
+            long offset = m_buffer.getInt(pos + 42) & 0xFFFFFFFFL;
+            if (((flags & 1) != 0)
+                || ((method != ZipEntry.STORED) && (method != ZipEntry.DEFLATED))
+                || (compressedSize == 0xFFFFFFFFL) || (size == 0xFFFFFFFFL)
+                || (offset == 0xFFFFFFFFL) || (size > Integer.MAX_VALUE))
+            {
+                throw new ZipException("Unsupported zip entry in: " + m_file);
+            }
+
+            byte[] name = new byte[nameLength];
+            ByteBuffer dup = m_buffer.duplicate();
+            dup.position(pos + CENTRAL_HEADER_SIZE);
+            dup.get(name);
+            Entry entry = new Entry(new String(name, UTF_8), method,
+                (int) offset, (int) compressedSize, (int) size);
+            names[i] = entry.m_name;
+            // Keep the first of any entries with the same name.
+            if (!m_entries.containsKey(entry.m_name))
+            {
+                m_entries.put(entry.m_name, entry);
+            }
+
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return names;
+    }
+
+    /**
+     * Returns the file this zip file was mapped from.
+     * @return the file.
+     */
+    public File getFile()
+    {
+        return m_file;
+    }
+
+    /**
+     * Returns the entry with the given name. Like <tt>ZipFile</tt>, a
+     * directory entry is also found by its name without the trailing slash.
+     * @param name the entry name.
+     * @return the entry or <tt>null</tt> if there is no such entry.
+     */
+    public Entry getEntry(String name)
+    {
+        Entry entry = m_entries.get(name);
+        if ((entry == null) && !name.endsWith("/"))
+        {
+            entry = m_entries.get(name + "/");
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the names of all entries in the order of the central directory.
+     * @return an enumeration of entry names.
+     */
+    public Enumeration<String> names()
+    {
+        return Collections.enumeration(Arrays.asList(m_names));
+    }
+
+    /**
+     * Returns the uncompressed content of the given entry.
+     * @param entry an entry of this zip file.
+     * @return the content of the entry.
+     * @throws IOException if the entry is corrupt.
+     */
+    public byte[] getBytes(Entry entry) throws IOException
+    {
+        acquire();
+        try
+        {
+            return readBytes(entry);
+        }
+        catch (BufferUnderflowException ex)
+        {
+            throw (ZipException) new ZipException(
+                "Truncated entry " + entry.m_name).initCause(ex);
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+            throw (ZipException) new ZipException(
+                "Invalid entry " + entry.m_name).initCause(ex);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    private byte[] readBytes(Entry entry) throws IOException
+    {
+        byte[] result = new byte[entry.m_size];
+        if (entry.m_method == ZipEntry.STORED)
+        {
+            slice(entry).get(result);
+            return result;
+        }
+
+        Decoder decoder = acquireDecoder();
+        try
+        {
+            ByteBuffer in = slice(entry);
+            int n = 0;
+            while (n < result.length)
+            {
+                if (decoder.m_inflater.needsInput())
+                {
+                    if (!in.hasRemaining())
+                    {
+                        throw new ZipException("Unexpected end of entry " + entry.m_name);
+                    }
+                    int len = Math.min(in.remaining(), decoder.m_input.length);
+                    in.get(decoder.m_input, 0, len);
+                    decoder.m_inflater.setInput(decoder.m_input, 0, len);
+                }
+                int inflated = decoder.m_inflater.inflate(result, n, result.length - n);
+                if ((inflated == 0) && (decoder.m_inflater.finished()
+                    || decoder.m_inflater.needsDictionary()))
+                {
+                    throw new ZipException("Invalid size of entry " + entry.m_name);
+                }
+                n += inflated;
+            }
+        }
+        catch (DataFormatException ex)
+        {
+            throw new ZipException(ex.getMessage());
+        }
+        finally
+        {
+            releaseDecoder(decoder);
+        }
+        return result;
+    }
+
+    /**
+     * Returns an input stream for the uncompressed content of the given entry.
+     * @param entry an entry of this zip file.
+     * @return an input stream for the content of the entry.
+     * @throws IOException if the entry is corrupt.
+     */
+    public InputStream getInputStream(Entry entry) throws IOException
+    {
+        acquire();
+        try
+        {
+            ByteBuffer in = slice(entry);
+            return (entry.m_method == ZipEntry.STORED)
+                ? new ByteBufferInputStream(in)
+                : new EntryInputStream(in, entry.m_size);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    /**
+     * Closes this zip file and releases the mapping as soon as no read is
+     * in progress anymore. Input streams of this zip file can no longer be
+     * read once it is closed.
+     */
+    public void close()
+    {
+        if (m_closed.compareAndSet(false, true))
+        {
+            release();
+        }
+    }
+
+    private void acquire() throws IOException
+    {
+        for (;;)
+        {
+            int references = m_references.get();
+            if (references == 0)
+            {
+                throw new ZipException("Zip file closed: " + m_file);
+            }
+            if (m_references.compareAndSet(references, references + 1))
+            {
+                return;
+            }
+        }
+    }
+
+    private void release()
+    {
+        if (m_references.decrementAndGet() == 0)
+        {
+            unmap(m_mapping);
+        }
+    }
+
+    /**
+     * Releases the given mapping right away instead of waiting for it to
+     * be garbage collected, which keeps the file from being deleted on some
+     * platforms. If the JVM does not allow this, the mapping is left to the
+     * garbage collector.
+     */
+    private static void unmap(MappedByteBuffer mapping)
+    {
+        try
+        {
+            Class unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = null;
+            try
+            {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            }
+            catch (NoSuchMethodException ex)
+            {
+                // Not available before Java 9.
+            }
+            if (invokeCleaner != null)
+            {
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                m_secureAction.setAccesssible(theUnsafe);
+                invokeCleaner.invoke(theUnsafe.get(null), mapping);
+            }
+            else
+            {
+                Method getCleaner = mapping.getClass().getMethod("cleaner");
+                m_secureAction.setAccesssible(getCleaner);
+                Object cleaner = getCleaner.invoke(mapping);
+                if (cleaner != null)
+                {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        }
+        catch (Throwable ex)
+        {
+            // Leave it to the garbage collector.
+        }
+    }
+
+    private ByteBuffer slice(Entry entry) throws IOException
+    {
+        int header = entry.m_offset;
+        if ((header + LOCAL_HEADER_SIZE > m_buffer.limit())
+            || (m_buffer.getInt(header) != LOCAL_HEADER_SIG))
+        {
+            throw new ZipException("Invalid local header for entry " + entry.m_name);
+        }
+        int data = header + LOCAL_HEADER_SIZE
+            + (m_buffer.getShort(header + 26) & 0xFFFF)
+            + (m_buffer.getShort(header + 28) & 0xFFFF);
+        if (data + entry.m_compressedSize > m_buffer.limit())
+        {
+            throw new ZipException("Truncated entry " + entry.m_name);
+        }
+        ByteBuffer dup = m_buffer.duplicate();
+        dup.limit(data + entry.m_compressedSize).position(data);
+        return dup.slice();
+    }
+
+    private int findEndHeader()
+    {
+        int last = m_buffer.limit() - END_HEADER_SIZE;
+        int first = Math.max(0, last - MAX_COMMENT_SIZE);
+        for (int pos = last; pos >= first; pos--)
+        {
+            if (m_buffer.getInt(pos) == END_HEADER_SIG)
+            {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private static Decoder acquireDecoder()
+    {
+        Decoder decoder = m_decoders.poll();
+        if (decoder == null)
+        {
+            return new Decoder();
+        }
+        m_decoderCount.decrementAndGet();
+        return decoder;
+    }
+
+    private static void releaseDecoder(Decoder decoder)
+    {
+        decoder.m_inflater.reset();
+        if (m_decoderCount.incrementAndGet() <= MAX_POOLED_INFLATERS)
+        {
+            m_decoders.offer(decoder);
+        }
+        else
+        {
+            m_decoderCount.decrementAndGet();
+            decoder.m_inflater.end();
+        }
+    }
+
+    /**
+     * An entry of a mapped zip file.
+     */
+    public static class Entry
+    {
+        private final String m_name;
+        private final int m_method;
+        private final int m_offset;
+        private final int m_compressedSize;
+        private final int m_size;
+
+        Entry(String name, int method, int offset, int compressedSize, int size)
+        {
+            m_name = name;
+            m_method = method;
+            m_offset = offset;
+            m_compressedSize = compressedSize;
+            m_size = size;
+        }
+
+        public String getName()
+        {
+            return m_name;
+        }
+
+        public long getSize()
+        {
+            return m_size;
+        }
+
+        public boolean isDirectory()
+        {
+            return m_name.endsWith("/");
+        }
+
+        public String toString()
+        {
+            return m_name;
+        }
+    }
+
+    private static class Decoder
+    {
+        final Inflater m_inflater = new Inflater(true);
+        final byte[] m_input = new byte[8192];
+    }
+
+    private class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer m_in;
+
+        ByteBufferInputStream(ByteBuffer in)
+        {
+            m_in = in;
+        }
+
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == 1) ? (b[0] & 0xFF) : -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!m_in.hasRemaining())
+            {
+                return -1;
+            }
+            len = Math.min(len, m_in.remaining());
+            acquire();
+            try
+            {
+                m_in.get(b, off, len);
+            }
+            finally
+            {
+                release();
+            }
+            return len;
+        }
+
+        public long skip(long n)
+        {
+            int len = (int) Math.max(0, Math.min(n, m_in.remaining()));
+            m_in.position(m_in.position() + len);
+            return len;
+        }
+
+        public int available()
+        {
+            return m_in.remaining();
+        }
+    }
+
+    private class EntryInputStream extends InputStream
+    {
+        private final ByteBuffer m_in;
+        private Decoder m_decoder;
+        private int m_remaining;
+
+        EntryInputStream(ByteBuffer in, int size)
+        {
+            m_in = in;
+            m_remaining = size;
+        }
+
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == 1) ? (b[0] & 0xFF) : -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (m_remaining <= 0)
+            {
+                close();
+                return -1;
+            }
+            if (m_decoder == null)
+            {
+                m_decoder = acquireDecoder();
+            }
+            acquire();
+            try
+            {
+                int n;
+                while ((n = m_decoder.m_inflater.inflate(b, off, Math.min(len, m_remaining))) == 0)
+                {
+                    if (m_decoder.m_inflater.finished() || m_decoder.m_inflater.needsDictionary())
+                    {
+                        throw new ZipException("Unexpected end of entry");
+                    }
+                    if (!m_in.hasRemaining())
+                    {
+                        throw new ZipException("Unexpected end of entry");
+                    }
+                    int inLen = Math.min(m_in.remaining(), m_decoder.m_input.length);
+                    m_in.get(m_decoder.m_input, 0, inLen);
+                    m_decoder.m_inflater.setInput(m_decoder.m_input, 0, inLen);
+                }
+                m_remaining -= n;
+                return n;
+            }
+            catch (DataFormatException ex)
+            {
+                throw new ZipException(ex.getMessage());
+            }
+            finally
+            {
+                release();
+            }
+        }
+
+        public int available()
+        {
+            return m_remaining;
+        }
+
+        public void close()
+        {
+            if (m_decoder != null)
+            {
+                releaseDecoder(m_decoder);
+                m_decoder = null;
+            }
+            m_remaining = 0;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.ext.ClassLoaderDiagnostics;
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleReference;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.hooks.resolver.ResolverHook;
+import org.osgi.framework.hooks.resolver.ResolverHookFactory;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+
+public class ClassLoaderMissCacheTest extends TestCase
+{
+    private File m_cacheDir;
+    private Framework m_felix;
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        if (m_felix != null)
+        {
+            m_felix.stop();
+            m_felix.waitForStop(5000);
+        }
+        if (m_cacheDir != null)
+        {
+            deleteDir(m_cacheDir);
+        }
+    }
+
+    public void testMissesAreCached() throws Exception
+    {
+        start(null);
+        ClassLoaderDiagnostics diagnostics = getDiagnostics();
+
+        Bundle b = install("Bundle-SymbolicName: cache.test\n"
+            + "Bundle-ClassPath: .,lib/\n", true);
+        diagnostics.reset();
+
+        for (int i = 0; i < 3; i++)
+        {
+            try
+            {
+                b.loadClass("test.Missing");
+                fail("Expected ClassNotFoundException");
+            }
+            catch (ClassNotFoundException ex)
+            {
+                assertEquals("test.Missing not found by " + b, ex.getMessage());
+            }
+            assertNull(b.getResource("test/missing.txt"));
+        }
+        assertEquals(2, diagnostics.getMissCacheMisses());
+        assertEquals(4, diagnostics.getMissCacheHits());
+
+        // Both contents of the bundle class path are still searched.
+        assertNotNull(b.getResource("test/resource.txt"));
+        assertEquals(b.getBundleId(),
+            ((BundleReference) b.loadClass(Probe.class.getName()).getClassLoader())
+                .getBundle().getBundleId());
+    }
+
+    public void testDynamicImportMissIsInvalidated() throws Exception
+    {
+        start(null);
+        ClassLoaderDiagnostics diagnostics = getDiagnostics();
+
+        Bundle importer = install("Bundle-SymbolicName: importer.test\n"
+            + "DynamicImport-Package: dynamic.test\n", false);
+        importer.start();
+        diagnostics.reset();
+
+        assertNull(importer.getResource("dynamic/test/resource.txt"));
+        assertNull(importer.getResource("dynamic/test/resource.txt"));
+        assertEquals(1, diagnostics.getMissCacheHits());
+
+        Bundle exporter = install("Bundle-SymbolicName: exporter.test\n"
+            + "Export-Package: dynamic.test\n", true);
+        exporter.start();
+
+        assertNotNull(importer.getResource("dynamic/test/resource.txt"));
+    }
+
+    public void testResolverHookChangeInvalidatesDynamicImportMiss() throws Exception
+    {
+        start(null);
+        ClassLoaderDiagnostics diagnostics = getDiagnostics();
+
+        Bundle exporter = install("Bundle-SymbolicName: exporter.test\n"
+            + "Export-Package: dynamic.test\n", true);
+        exporter.start();
+
+        // Hide the exported package from all dynamic imports.
+        ServiceRegistration<ResolverHookFactory> reg =
+            m_felix.getBundleContext().registerService(ResolverHookFactory.class,
+                new ResolverHookFactory()
+                {
+                    public ResolverHook begin(Collection<BundleRevision> triggers)
+                    {
+                        return new ResolverHook()
+                        {
+                            public void filterResolvable(Collection<BundleRevision> candidates)
+                            {
+                            }
+
+                            public void filterSingletonCollisions(
+                                BundleCapability singleton, Collection<BundleCapability> candidates)
+                            {
+                            }
+
+                            public void filterMatches(
+                                BundleRequirement requirement, Collection<BundleCapability> candidates)
+                            {
+                                candidates.clear();
+                            }
+
+                            public void end()
+                            {
+                            }
+                        };
+                    }
+                }, null);
+
+        Bundle importer = install("Bundle-SymbolicName: importer.test\n"
+            + "DynamicImport-Package: dynamic.test\n", false);
+        importer.start();
+        diagnostics.reset();
+
+        assertNull(importer.getResource("dynamic/test/resource.txt"));
+        assertNull(importer.getResource("dynamic/test/resource.txt"));
+        assertEquals(1, diagnostics.getMissCacheHits());
+
+        reg.unregister();
+
+        assertNotNull(importer.getResource("dynamic/test/resource.txt"));
+    }
+
+    public void testCacheDisabled() throws Exception
+    {
+        start("0");
+        ClassLoaderDiagnostics diagnostics = getDiagnostics();
+
+        Bundle b = install("Bundle-SymbolicName: cache.test\n", false);
+        diagnostics.reset();
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertNull(b.getResource("test/missing.txt"));
+        }
+        assertEquals(0, diagnostics.getMissCacheMisses());
+        assertEquals(0, diagnostics.getMissCacheHits());
+    }
+
+    private void start(String missCacheSize) throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-cache", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, m_cacheDir.getPath());
+        if (missCacheSize != null)
+        {
+            params.put(FelixConstants.CLASSLOADER_MISSCACHE_SIZE_PROP, missCacheSize);
+        }
+
+        m_felix = new Felix(params);
+        m_felix.init();
+        m_felix.start();
+    }
+
+    private ClassLoaderDiagnostics getDiagnostics()
+    {
+        BundleContext context = m_felix.getBundleContext();
+        ServiceReference<ClassLoaderDiagnostics> ref =
+            context.getServiceReference(ClassLoaderDiagnostics.class);
+        assertNotNull(ref);
+        return context.getService(ref);
+    }
+
+    private Bundle install(String manifest, boolean withContent) throws Exception
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", m_cacheDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(
+            ("Bundle-ManifestVersion: 2\n" + manifest).getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        if (withContent)
+        {
+            os.putNextEntry(new ZipEntry("test/resource.txt"));
+            os.write("test".getBytes("utf-8"));
+            os.putNextEntry(new ZipEntry("dynamic/test/resource.txt"));
+            os.write("test".getBytes("utf-8"));
+
+            String path = Probe.class.getName().replace('.', '/') + ".class";
+            os.putNextEntry(new ZipEntry("lib/"));
+            os.putNextEntry(new ZipEntry("lib/" + path));
+            InputStream is = Probe.class.getClassLoader().getResourceAsStream(path);
+            byte[] b = new byte[is.available()];
+            is.read(b);
+            is.close();
+            os.write(b);
+        }
+        os.close();
+
+        return m_felix.getBundleContext().installBundle(f.toURI().toString());
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+
+    public static class Probe
+    {
+    }
+}
@@ -26,9 +26,11 @@ import org.easymock.EasyMock;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.UnfilteredServiceListener;
 import org.osgi.framework.hooks.service.EventHook;
 
 public class EventDispatcherTest extends TestCase
@@ -137,6 +139,97 @@ public class EventDispatcherTest extends TestCase
         assertTrue(calledHooks.contains(eh2));
     }
 
+    public void testFireServiceEventToIndexedListeners() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+
+        final List fired = Collections.synchronizedList(new ArrayList());
+        ServiceListener sl1 = new ServiceListener()
+        {
+            public void serviceChanged(ServiceEvent arg0)
+            {
+                fired.add(this);
+            }
+        };
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sl1,
+            FrameworkUtil.createFilter("(objectClass=java.lang.String)"));
+
+        ServiceListener sl2 = new ServiceListener()
+        {
+            public void serviceChanged(ServiceEvent arg0)
+            {
+                fired.add(this);
+            }
+        };
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sl2,
+            FrameworkUtil.createFilter("(&(objectClass=java.lang.Integer)(foo=bar))"));
+
+        ServiceListener sl3 = new ServiceListener()
+        {
+            public void serviceChanged(ServiceEvent arg0)
+            {
+                fired.add(this);
+            }
+        };
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sl3,
+            FrameworkUtil.createFilter("(|(objectClass=java.lang.String)(objectClass=java.lang.Long))"));
+
+        ServiceListener sl4 = new ServiceListener()
+        {
+            public void serviceChanged(ServiceEvent arg0)
+            {
+                fired.add(this);
+            }
+        };
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sl4, null);
+
+        ServiceListener sl5 = new UnfilteredServiceListener()
+        {
+            public void serviceChanged(ServiceEvent arg0)
+            {
+                fired.add(this);
+            }
+        };
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sl5,
+            FrameworkUtil.createFilter("(objectClass=java.lang.Integer)"));
+
+        ServiceReference sr = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(sr.getProperty(Constants.OBJECTCLASS)).andReturn(new String[]
+            {
+                "java.lang.String", "java.lang.Long"
+            }).anyTimes();
+        EasyMock.expect(sr.isAssignableTo((Bundle) EasyMock.anyObject(), (String) EasyMock.anyObject()))
+            .andReturn(Boolean.TRUE).anyTimes();
+        EasyMock.replay(new Object[]
+            {
+                sr
+            });
+
+        Felix framework = new Felix(new HashMap());
+
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, framework);
+        assertEquals(4, fired.size());
+        assertTrue(fired.containsAll(Arrays.asList(sl1, sl3, sl4, sl5)));
+
+        // Changing the filter must move the listener in the index.
+        fired.clear();
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sl2,
+            FrameworkUtil.createFilter("(objectClass=java.lang.Long)"));
+        ed.removeListener(b1.getBundleContext(), ServiceListener.class, sl1);
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, framework);
+        assertEquals(4, fired.size());
+        assertTrue(fired.containsAll(Arrays.asList(sl2, sl3, sl4, sl5)));
+
+        fired.clear();
+        ed.removeListeners(b1.getBundleContext());
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, framework);
+        assertEquals(0, fired.size());
+    }
+
     private Bundle getMockBundle()
     {
         BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
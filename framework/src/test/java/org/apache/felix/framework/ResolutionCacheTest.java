@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class ResolutionCacheTest extends TestCase
+{
+    private File m_cacheDir;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-cache", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        deleteDir(m_cacheDir);
+    }
+
+    public void testSavedWiringIsReapplied() throws Exception
+    {
+        installAndRestart("true");
+
+        Framework f = startFramework("true");
+        try
+        {
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+
+            // A fresh resolve would prefer the higher provider version,
+            // which was installed after the importer got resolved.
+            assertEquals("provider.v1", getImportProvider(f));
+            Bundle host = getBundle(f, "provider.v1");
+            assertEquals(Bundle.RESOLVED, getBundle(f, "fragment").getState());
+            assertEquals(1, host.adapt(BundleWiring.class)
+                .getProvidedWires(BundleRevision.HOST_NAMESPACE).size());
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    public void testResolveWithoutCache() throws Exception
+    {
+        installAndRestart("false");
+
+        Framework f = startFramework("false");
+        try
+        {
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals("provider.v2", getImportProvider(f));
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    public void testChangedBundlesAreResolvedAgain() throws Exception
+    {
+        installAndRestart("true");
+
+        Framework f = startFramework("true");
+        try
+        {
+            // Installing a bundle invalidates the saved wiring.
+            f.getBundleContext().installBundle(createBundle(
+                "Bundle-SymbolicName: other\n"
+                + "Bundle-ManifestVersion: 2\n").toURI().toString());
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals("provider.v2", getImportProvider(f));
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    private void installAndRestart(String enabled) throws Exception
+    {
+        Framework f = startFramework(enabled);
+        try
+        {
+            install(f, "Bundle-SymbolicName: provider.v1\n"
+                + "Bundle-Version: 1.0.0\n"
+                + "Bundle-ManifestVersion: 2\n"
+                + "Export-Package: test.pkg; version=1.0.0\n");
+            install(f, "Bundle-SymbolicName: fragment\n"
+                + "Bundle-ManifestVersion: 2\n"
+                + "Fragment-Host: provider.v1\n");
+            install(f, "Bundle-SymbolicName: importer\n"
+                + "Bundle-ManifestVersion: 2\n"
+                + "Import-Package: test.pkg; version=\"[1.0.0,3.0.0)\"\n");
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals("provider.v1", getImportProvider(f));
+
+            install(f, "Bundle-SymbolicName: provider.v2\n"
+                + "Bundle-Version: 2.0.0\n"
+                + "Bundle-ManifestVersion: 2\n"
+                + "Export-Package: test.pkg; version=2.0.0\n");
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals("provider.v1", getImportProvider(f));
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    private Framework startFramework(String enabled) throws Exception
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, m_cacheDir.getPath());
+        params.put(FelixConstants.RESOLVER_CACHE_PROP, enabled);
+
+        Framework f = new Felix(params);
+        f.init();
+        f.start();
+        return f;
+    }
+
+    private static void stopFramework(Framework f) throws Exception
+    {
+        f.stop();
+        f.waitForStop(10000);
+    }
+
+    private static String getImportProvider(Framework f)
+    {
+        List<BundleWire> wires = getBundle(f, "importer").adapt(BundleWiring.class)
+            .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE);
+        assertEquals(1, wires.size());
+        return wires.get(0).getProvider().getSymbolicName();
+    }
+
+    private static Bundle getBundle(Framework f, String bsn)
+    {
+        for (Bundle b : f.getBundleContext().getBundles())
+        {
+            if (bsn.equals(b.getSymbolicName()))
+            {
+                return b;
+            }
+        }
+        fail("No bundle " + bsn);
+        return null;
+    }
+
+    private void install(Framework f, String mf) throws Exception
+    {
+        f.getBundleContext().installBundle(createBundle(mf).toURI().toString());
+    }
+
+    private File createBundle(String manifest) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", m_cacheDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+
+public class StartLevelParallelismTest extends TestCase
+{
+    public static final int TIMEOUT = 10000;
+    public static final String PROPERTY_PREFIX = "felix.test.startlevel.";
+    public static final String EVENTS = PROPERTY_PREFIX + "events";
+    public static final String STARTING = PROPERTY_PREFIX + "starting";
+    public static final String THREADS = PROPERTY_PREFIX + "threads";
+
+    public void testParallelStartWithinStartLevel() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        String cache = cacheDir.getPath();
+
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, cache);
+        params.put(FelixConstants.STARTLEVEL_PARALLELISM_PROP, "4");
+
+        // The activators of start level 2 only return once all of them
+        // have been called, so they can only succeed if they run at the
+        // same time. The order of the calls is recorded in a shared list.
+        List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        System.getProperties().put(EVENTS, events);
+        System.getProperties().put(STARTING, new CountDownLatch(4));
+        Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        System.getProperties().put(THREADS, threads);
+
+        Framework f = new Felix(params);
+        f.init();
+        f.start();
+
+        try
+        {
+            List<Bundle> level2 = new ArrayList<Bundle>();
+            for (int i = 0; i < 4; i++)
+            {
+                Bundle b = install(f, "level2.test" + i, cacheDir, 2, true);
+                level2.add(b);
+            }
+            Bundle stopped = install(f, "level2.stopped", cacheDir, 2, false);
+            Bundle level3 = install(f, "level3.test", cacheDir, 3, true);
+
+            final CountDownLatch latch = new CountDownLatch(1);
+            f.adapt(FrameworkStartLevel.class).setStartLevel(3, new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(2 * TIMEOUT, TimeUnit.MILLISECONDS));
+
+            for (Bundle b : level2)
+            {
+                assertEquals(Bundle.ACTIVE, b.getState());
+            }
+            assertEquals(Bundle.ACTIVE, level3.getState());
+
+            // Bundles which are not persistently started are not resolved
+            // as a side effect of the start level change.
+            assertEquals(Bundle.INSTALLED, stopped.getState());
+
+            // Start level 3 is only processed once all bundles of start
+            // level 2 are started.
+            assertEquals(10, events.size());
+            assertEquals("start:" + level3.getBundleId(), events.get(8));
+            assertEquals("end:" + level3.getBundleId(), events.get(9));
+
+            // Bundles are started by threads named as the start level thread.
+            assertEquals(Collections.singleton(FrameworkStartLevelImpl.THREAD_NAME), threads);
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(TIMEOUT);
+            System.getProperties().remove(EVENTS);
+            System.getProperties().remove(STARTING);
+            System.getProperties().remove(THREADS);
+            deleteDir(cacheDir);
+        }
+    }
+
+    public void testInterruptStopsStartLevelChange() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        String cache = cacheDir.getPath();
+
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, cache);
+        params.put(FelixConstants.STARTLEVEL_PARALLELISM_PROP, "4");
+
+        List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        System.getProperties().put(EVENTS, events);
+        System.getProperties().put(THREADS, Collections.synchronizedSet(new HashSet<String>()));
+
+        Framework f = new Felix(params);
+        f.init();
+        f.start();
+
+        try
+        {
+            // The activator of this bundle interrupts the start level thread
+            // while it waits for the bundles of start level 2.
+            install(f, "level2.interrupt", cacheDir, 2, true);
+            install(f, "level2.other", cacheDir, 2, true);
+            Bundle level3 = install(f, "level3.test", cacheDir, 3, true);
+
+            final CountDownLatch latch = new CountDownLatch(1);
+            f.adapt(FrameworkStartLevel.class).setStartLevel(3, new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(2 * TIMEOUT, TimeUnit.MILLISECONDS));
+
+            // The start level change stops at the last completed start level.
+            assertEquals(1, f.adapt(FrameworkStartLevel.class).getStartLevel());
+            assertFalse(level3.getState() == Bundle.ACTIVE);
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(TIMEOUT);
+            System.getProperties().remove(EVENTS);
+            System.getProperties().remove(THREADS);
+            deleteDir(cacheDir);
+        }
+    }
+
+    private static Bundle install(
+        Framework f, String bsn, File tempDir, int level, boolean start)
+        throws Exception
+    {
+        String mf = "Bundle-SymbolicName: " + bsn + "\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.framework\n";
+        Bundle b = f.getBundleContext().installBundle(
+            createBundle(mf, tempDir).toURI().toString());
+        b.adapt(BundleStartLevel.class).setStartLevel(level);
+        if (start)
+        {
+            b.start();
+        }
+        return b;
+    }
+
+    private static File createBundle(String manifest, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_ACTIVATOR, TestBundleActivator.class.getName());
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        String path = TestBundleActivator.class.getName().replace('.', '/') + ".class";
+        os.putNextEntry(new ZipEntry(path));
+
+        InputStream is = TestBundleActivator.class.getClassLoader().getResourceAsStream(path);
+        byte[] b = new byte[is.available()];
+        is.read(b);
+        is.close();
+        os.write(b);
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+
+    public static class TestBundleActivator implements BundleActivator
+    {
+        public void start(BundleContext context) throws Exception
+        {
+            List<String> events = (List<String>) System.getProperties().get(EVENTS);
+            long id = context.getBundle().getBundleId();
+            events.add("start:" + id);
+            ((Set<String>) System.getProperties().get(THREADS)).add(Thread.currentThread().getName());
+            if (context.getBundle().getSymbolicName().equals("level2.interrupt"))
+            {
+                interruptStartLevelThread();
+            }
+            if (context.getBundle().getSymbolicName().startsWith("level2.test"))
+            {
+                CountDownLatch starting = (CountDownLatch) System.getProperties().get(STARTING);
+                starting.countDown();
+                if (!starting.await(TIMEOUT, TimeUnit.MILLISECONDS))
+                {
+                    throw new IllegalStateException("Bundles of start level 2 not started concurrently");
+                }
+            }
+            events.add("end:" + id);
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+
+        private static void interruptStartLevelThread()
+        {
+            for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet())
+            {
+                for (StackTraceElement element : entry.getValue())
+                {
+                    if (element.getMethodName().equals("processStartLevelBatch"))
+                    {
+                        entry.getKey().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.resource.Capability;
+
+public class CapabilitySetTest extends TestCase
+{
+    private static final String NS = "test.namespace";
+
+    private final List<BundleCapability> m_caps = new ArrayList<BundleCapability>();
+    private CapabilitySet m_indexed;
+    private CapabilitySet m_unindexed;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_indexed = new CapabilitySet(Arrays.asList(NS, "version", "tags"), true);
+        m_unindexed = new CapabilitySet(null, true);
+
+        for (int i = 0; i < 50; i++)
+        {
+            Map<String, Object> attrs = new HashMap<String, Object>();
+            attrs.put(NS, "pkg" + (i % 10));
+            attrs.put("version", new Version(i % 5, i % 3, 0));
+            if (i % 2 == 0)
+            {
+                attrs.put("tags", new String[] { "even", "t" + i });
+            }
+            attrs.put("rank", Long.valueOf(i));
+            BundleCapability cap = new BundleCapabilityImpl(
+                null, NS, Collections.<String, String>emptyMap(), attrs);
+            m_caps.add(cap);
+            m_indexed.addCapability(cap);
+            m_unindexed.addCapability(cap);
+        }
+    }
+
+    public void testIndexedMatchesLinearEvaluation()
+    {
+        String[] filters = new String[] {
+            "(" + NS + "=pkg3)",
+            "(" + NS + "=pkg*)",
+            "(" + NS + "~=PKG 4)",
+            "(" + NS + ">=pkg7)",
+            "(" + NS + "=*)",
+            "(version>=2.0.0)",
+            "(version<=1.1.0)",
+            "(version=[1.0.0,3.0.0\\))",
+            "(version=2.2.0)",
+            "(tags=even)",
+            "(tags=t1*)",
+            "(tags=*)",
+            "(!(tags=*))",
+            "(&(" + NS + "=pkg2)(version>=2.0.0))",
+            "(&(" + NS + "=pkg2)(!(version>=2.0.0)))",
+            "(&(rank>=10)(rank<=20)(tags=even))",
+            "(|(" + NS + "=pkg1)(" + NS + "=pkg5))",
+            "(|(" + NS + "=pkg1)(rank<=3))",
+            "(&(|(" + NS + "=pkg1)(version>=4.0.0))(tags=*))",
+            "(" + NS + "=nomatch)",
+            "(&(" + NS + "=nomatch)(rank>=0))"
+        };
+
+        for (String filter : filters)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            Set<Capability> expected = new HashSet<Capability>();
+            for (BundleCapability cap : m_caps)
+            {
+                if (CapabilitySet.matches(cap, sf))
+                {
+                    expected.add(cap);
+                }
+            }
+            assertEquals(filter, expected, m_indexed.match(sf, true));
+            assertEquals(filter, expected, m_unindexed.match(sf, true));
+        }
+    }
+
+    public void testRemovedCapabilitiesAreNotMatched()
+    {
+        for (BundleCapability cap : m_caps)
+        {
+            if ("pkg3".equals(cap.getAttributes().get(NS)))
+            {
+                m_indexed.removeCapability(cap);
+            }
+        }
+        assertTrue(m_indexed.match(SimpleFilter.parse("(" + NS + "=pkg3)"), false).isEmpty());
+        assertTrue(m_indexed.match(SimpleFilter.parse("(" + NS + "=pkg3*)"), false).isEmpty());
+        assertEquals(5, m_indexed.match(SimpleFilter.parse("(" + NS + "=pkg4)"), false).size());
+    }
+
+    public void testRemovedCapabilitiesAreNotPresent()
+    {
+        for (BundleCapability cap : m_caps)
+        {
+            if (cap.getAttributes().containsKey("tags"))
+            {
+                m_indexed.removeCapability(cap);
+            }
+        }
+        assertTrue(m_indexed.match(SimpleFilter.parse("(tags=*)"), false).isEmpty());
+        assertEquals(25, m_indexed.match(SimpleFilter.parse("(!(tags=*))"), false).size());
+    }
+
+    public void testTypedIndexIsPrunedOnRemoval()
+    {
+        CapabilitySet caps = new CapabilitySet(Arrays.asList("v"), false);
+        BundleCapability typed = new BundleCapabilityImpl(
+            null, NS, Collections.<String, String>emptyMap(),
+            Collections.<String, Object>singletonMap("v", new Version(1, 0, 0)));
+        BundleCapability plain = new BundleCapabilityImpl(
+            null, NS, Collections.<String, String>emptyMap(),
+            Collections.<String, Object>singletonMap("v", "1.0.0"));
+        caps.addCapability(typed);
+        caps.addCapability(plain);
+        assertEquals(2, caps.match(SimpleFilter.parse("(v=1.0.0)"), false).size());
+
+        caps.removeCapability(typed);
+        assertEquals(Collections.singleton(plain), caps.match(SimpleFilter.parse("(v=1.0.0)"), false));
+        assertEquals(Collections.singleton(plain), caps.match(SimpleFilter.parse("(v=*)"), false));
+    }
+
+    public void testMatchResultIsOwnedByCaller()
+    {
+        SimpleFilter sf = SimpleFilter.parse("(" + NS + "=pkg4)");
+        Set<Capability> result = m_indexed.match(sf, false);
+        result.clear();
+        assertEquals(5, m_indexed.match(sf, false).size());
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+public class MappedZipFileTest extends TestCase
+{
+    private File m_zip;
+    private byte[] m_content;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_content = new byte[100000];
+        for (int i = 0; i < m_content.length; i++)
+        {
+            m_content[i] = (byte) ((i % 65) + 65);
+        }
+
+        m_zip = File.createTempFile("felix.test", ".zip");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(m_zip));
+        zos.putNextEntry(new ZipEntry("dir/"));
+        zos.putNextEntry(new ZipEntry("dir/deflated.txt"));
+        zos.write(m_content);
+        ZipEntry stored = new ZipEntry("stored.txt");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(m_content.length);
+        CRC32 crc = new CRC32();
+        crc.update(m_content);
+        stored.setCrc(crc.getValue());
+        zos.putNextEntry(stored);
+        zos.write(m_content);
+        zos.putNextEntry(new ZipEntry("empty.txt"));
+        zos.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        m_zip.delete();
+    }
+
+    public void testEntries() throws Exception
+    {
+        MappedZipFile zipFile = new MappedZipFile(m_zip);
+
+        List<String> names = Collections.list(zipFile.names());
+        assertEquals(Arrays.asList("dir/", "dir/deflated.txt", "stored.txt", "empty.txt"), names);
+
+        assertNotNull(zipFile.getEntry("dir/"));
+        assertTrue(zipFile.getEntry("dir").isDirectory());
+        assertNull(zipFile.getEntry("missing.txt"));
+        assertEquals(m_content.length, zipFile.getEntry("stored.txt").getSize());
+    }
+
+    public void testGetBytes() throws Exception
+    {
+        MappedZipFile zipFile = new MappedZipFile(m_zip);
+
+        assertTrue(Arrays.equals(m_content,
+            zipFile.getBytes(zipFile.getEntry("dir/deflated.txt"))));
+        assertTrue(Arrays.equals(m_content,
+            zipFile.getBytes(zipFile.getEntry("stored.txt"))));
+        assertEquals(0, zipFile.getBytes(zipFile.getEntry("empty.txt")).length);
+    }
+
+    public void testGetInputStream() throws Exception
+    {
+        MappedZipFile zipFile = new MappedZipFile(m_zip);
+
+        assertTrue(Arrays.equals(m_content,
+            read(zipFile.getInputStream(zipFile.getEntry("dir/deflated.txt")))));
+        assertTrue(Arrays.equals(m_content,
+            read(zipFile.getInputStream(zipFile.getEntry("stored.txt")))));
+        assertEquals(0, read(zipFile.getInputStream(zipFile.getEntry("empty.txt"))).length);
+    }
+
+    public void testConcurrentReads() throws Exception
+    {
+        final MappedZipFile zipFile = new MappedZipFile(m_zip);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int j = 0; j < 50; j++)
+                        {
+                            assertTrue(Arrays.equals(m_content,
+                                zipFile.getBytes(zipFile.getEntry("dir/deflated.txt"))));
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        errors.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    public void testNotAZipFile() throws Exception
+    {
+        FileOutputStream fos = new FileOutputStream(m_zip);
+        fos.write(m_content);
+        fos.close();
+
+        try
+        {
+            new MappedZipFile(m_zip);
+            fail("Expected ZipException");
+        }
+        catch (ZipException ex)
+        {
+            // Expected.
+        }
+    }
+
+    public void testTruncatedEntry() throws Exception
+    {
+        // Claim a larger size for the stored entry in the central directory
+        // than the data it actually has.
+        RandomAccessFile raf = new RandomAccessFile(m_zip, "rw");
+        byte[] data = new byte[(int) raf.length()];
+        raf.readFully(data);
+        byte[] name = "stored.txt".getBytes("UTF-8");
+        for (int pos = 0; pos + 46 + name.length <= data.length; pos++)
+        {
+            if ((data[pos] == 'P') && (data[pos + 1] == 'K')
+                && (data[pos + 2] == 1) && (data[pos + 3] == 2)
+                && Arrays.equals(name, Arrays.copyOfRange(data, pos + 46, pos + 46 + name.length)))
+            {
+                int size = m_content.length + 10;
+                raf.seek(pos + 24);
+                raf.write(new byte[] {
+                    (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24) });
+            }
+        }
+        raf.close();
+
+        MappedZipFile zipFile = new MappedZipFile(m_zip);
+        try
+        {
+            zipFile.getBytes(zipFile.getEntry("stored.txt"));
+            fail("Expected IOException");
+        }
+        catch (IOException ex)
+        {
+            // Expected.
+        }
+        zipFile.close();
+    }
+
+    public void testClose() throws Exception
+    {
+        MappedZipFile zipFile = new MappedZipFile(m_zip);
+        InputStream is = zipFile.getInputStream(zipFile.getEntry("dir/deflated.txt"));
+        assertTrue(is.read() >= 0);
+
+        zipFile.close();
+        zipFile.close();
+
+        // Entries are still known, but their content can no longer be read.
+        assertNotNull(zipFile.getEntry("stored.txt"));
+        try
+        {
+            zipFile.getBytes(zipFile.getEntry("stored.txt"));
+            fail("Expected IOException");
+        }
+        catch (IOException ex)
+        {
+            // Expected.
+        }
+        try
+        {
+            read(is);
+            fail("Expected IOException");
+        }
+        catch (IOException ex)
+        {
+            // Expected.
+        }
+        assertTrue(m_zip.delete());
+    }
+
+    private static byte[] read(InputStream is) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        for (int n = is.read(buf); n != -1; n = is.read(buf))
+        {
+            baos.write(buf, 0, n);
+        }
+        is.close();
+        return baos.toByteArray();
+    }
+}
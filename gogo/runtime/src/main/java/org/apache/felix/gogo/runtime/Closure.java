@@ -51,6 +51,7 @@ public class Closure implements Function, Evaluate
 
     public static final String LOCATION = ".location";
     public static final String PIPE_EXCEPTION = "pipe-exception";
+    public static final String TYPED_PIPE = ".TypedPipe";
     private static final String DEFAULT_LOCK = ".defaultLock";
 
     private static final ThreadLocal<String> location = new ThreadLocal<>();
@@ -81,7 +82,7 @@ public class Closure implements Function, Evaluate
         {
             try
             {
-                this.program = new Parser(source).program();
+                this.program = session.parse(source);
             }
             catch (Exception e)
             {
@@ -248,6 +249,7 @@ public class Closure implements Function, Evaluate
                 Token e = exec.get(exec.size() - 1);
                 Token t = program.subSequence(s.start - program.start, e.start + e.length - program.start);
                 job = session().createJob(t);
+                boolean typedPipes = Boolean.TRUE.equals(session.get(TYPED_PIPE));
                 for (int i = 0; i < exec.size(); i++) {
                     Statement ex = (Statement) exec.get(i);
                     Operator op = i < exec.size() - 1 ? (Operator) exec.get(++i) : null;
@@ -258,6 +260,15 @@ public class Closure implements Function, Evaluate
                         nstreams = streams;
                         ntoclose = toclose;
                         endOfPipe = true;
+                    } else if (Token.eq("|", op) && typedPipes) {
+                        ObjectPipe pipe = new ObjectPipe(session);
+                        nstreams = streams.clone();
+                        nstreams[1] = pipe.sink();
+                        ntoclose = toclose.clone();
+                        ntoclose[1] = true;
+                        streams[0] = pipe;
+                        toclose[0] = true;
+                        endOfPipe = false;
                     } else if (Token.eq("|", op)) {
                         PipedInputStream pis = new PipedInputStream();
                         PipedOutputStream pos = new PipedOutputStream(pis);
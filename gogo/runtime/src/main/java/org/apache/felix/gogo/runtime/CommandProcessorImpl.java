@@ -35,6 +35,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
+import org.apache.felix.gogo.runtime.Parser.Program;
 import org.apache.felix.service.command.*;
 import org.apache.felix.service.threadio.ThreadIO;
 import org.osgi.annotation.bundle.Capability;
@@ -46,12 +47,25 @@ import org.osgi.namespace.service.ServiceNamespace;
 )
 public class CommandProcessorImpl implements CommandProcessor
 {
+    /**
+     * Number of parsed scripts kept by the program cache.
+     */
+    public static final int PROGRAM_CACHE_SIZE = 256;
+
     protected final Set<Converter> converters = new CopyOnWriteArraySet<>();
     protected final Set<CommandSessionListener> listeners = new CopyOnWriteArraySet<>();
     protected final ConcurrentMap<String, Map<Object, Integer>> commands = new ConcurrentHashMap<>();
     protected final Map<String, Object> constants = new ConcurrentHashMap<>();
     protected final ThreadIO threadIO;
     protected final WeakHashMap<CommandSession, Object> sessions = new WeakHashMap<>();
+    protected final Map<String, Program> programs = new LinkedHashMap<String, Program>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Program> eldest)
+        {
+            return size() > PROGRAM_CACHE_SIZE;
+        }
+    };
     protected boolean stopped;
 
     public CommandProcessorImpl()
@@ -263,7 +277,14 @@ public class CommandProcessorImpl implements CommandProcessor
     {
         // TODO: WARNING: this method does remove all mapping for scope:function
         String key = (scope + ":" + function).toLowerCase();
-        commands.remove(key);
+        Map<Object, Integer> cmdMap = commands.remove(key);
+        if (cmdMap != null)
+        {
+            for (Object target : cmdMap.keySet())
+            {
+                invalidate(target);
+            }
+        }
     }
 
     public void removeCommand(String scope, String function, Object target)
@@ -275,6 +296,7 @@ public class CommandProcessorImpl implements CommandProcessor
         {
             cmdMap.remove(target);
         }
+        invalidate(target);
     }
 
     public void removeCommand(Object target)
@@ -283,6 +305,27 @@ public class CommandProcessorImpl implements CommandProcessor
         {
             cmdMap.remove(target);
         }
+        invalidate(target);
+    }
+
+    /**
+     * Drops the cached method dispatch of a removed command target.
+     */
+    private static void invalidate(Object target)
+    {
+        Class<?> type;
+        if (target instanceof CommandProxy)
+        {
+            type = ((CommandProxy) target).getTargetClass();
+        }
+        else
+        {
+            type = target instanceof Class<?> ? (Class<?>) target : target.getClass();
+        }
+        if (type != null)
+        {
+            Reflective.invalidate(type);
+        }
     }
 
     private String[] getFunctions(Class<?> target)
@@ -360,6 +403,37 @@ public class CommandProcessorImpl implements CommandProcessor
         return session.execute(buf);
     }
 
+    /**
+     * Parses the given script, reusing the program of an earlier parse of
+     * the same text.  Parsed programs are immutable, so they are shared
+     * between sessions.
+     * @param source the script
+     * @return the parsed program
+     * @throws Exception if the script can not be parsed
+     */
+    Program parse(CharSequence source) throws Exception
+    {
+        if (source instanceof Program)
+        {
+            return (Program) source;
+        }
+        String key = source.toString();
+        Program program;
+        synchronized (programs)
+        {
+            program = programs.get(key);
+        }
+        if (program == null)
+        {
+            program = new Parser(key).program();
+            synchronized (programs)
+            {
+                programs.put(key, program);
+            }
+        }
+        return program;
+    }
+
     void beforeExecute(CommandSession session, CharSequence commandline)
     {
         for (CommandSessionListener l : listeners)
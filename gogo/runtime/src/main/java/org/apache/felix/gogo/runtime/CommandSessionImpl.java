@@ -30,6 +30,7 @@ import java.nio.channels.Channel;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -67,6 +68,7 @@ public class CommandSessionImpl implements CommandSession, Converter
     public static final String VARIABLES = ".variables";
     public static final String COMMANDS = ".commands";
     public static final String CONSTANTS = ".constants";
+    public static final String CHARSET = ".charset";
     private static final String COLUMN = "%-20s %s\n";
 
     // Streams and channels
@@ -122,6 +124,21 @@ public class CommandSessionImpl implements CommandSession, Converter
         return processor.threadIO;
     }
 
+    /**
+     * Returns the charset used to convert between text and the bytes
+     * flowing through pipes, set with the {@link #CHARSET} variable.
+     * @return the charset of this session, the platform charset if not set
+     */
+    public Charset charset()
+    {
+        Object cs = get(CHARSET);
+        if (cs instanceof Charset)
+        {
+            return (Charset) cs;
+        }
+        return cs != null ? Charset.forName(cs.toString()) : Charset.defaultCharset();
+    }
+
     public CommandProcessor processor()
     {
         return processor;
@@ -162,6 +179,11 @@ public class CommandSessionImpl implements CommandSession, Converter
         }
     }
 
+    Parser.Program parse(CharSequence source) throws Exception
+    {
+        return processor != null ? processor.parse(source) : new Parser(source).program();
+    }
+
     public Object execute(CharSequence commandline) throws Exception
     {
         assert processor != null;
@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.service.command.Converter;
+
+/**
+ * An in-process pipe between two stages of a pipeline.
+ *
+ * Bytes written by the producing stage and the objects it produces are
+ * queued as they are, so that a consuming stage running in the same JVM
+ * can read them back as objects through {@link #readObject()}.  Objects
+ * are only formatted to text when the consuming stage reads the pipe as
+ * a byte channel, using the charset of the session.
+ *
+ * Typed pipes are only used when the {@link Closure#TYPED_PIPE} session
+ * variable is set to <code>true</code>.
+ */
+public class ObjectPipe implements ByteChannel
+{
+    /**
+     * Number of elements queued before the producing stage is blocked.
+     */
+    public static final int CAPACITY = 1024;
+
+    private static final Object EOF = new Object();
+
+    private final CommandSessionImpl session;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private final Sink sink = new Sink();
+
+    private volatile boolean writerClosed;
+    private volatile boolean readerClosed;
+
+    // reader state, only accessed by the consuming stage
+    private ByteBuffer pending;
+    private ByteArrayOutputStream line;
+    private boolean eof;
+
+    public ObjectPipe(CommandSessionImpl session)
+    {
+        this.session = session;
+    }
+
+    /**
+     * Returns the writing end of this pipe, whose closing marks the end of
+     * the stream for the reader.
+     * @return the channel the producing stage writes to
+     */
+    public Sink sink()
+    {
+        return sink;
+    }
+
+    /**
+     * Queues an object produced by the writing stage.
+     * @param object the object, ignored if <code>null</code>
+     * @throws IOException if the reading end has been closed
+     */
+    public void writeObject(Object object) throws IOException
+    {
+        if (object != null)
+        {
+            put(object);
+        }
+    }
+
+    /**
+     * Reads the next object from the pipe, blocking until one is available.
+     * Text written to the pipe is returned line by line as strings.
+     * @return the next object, or <code>null</code> at the end of the stream
+     * @throws IOException if the pipe has been closed or the read interrupted
+     */
+    public Object readObject() throws IOException
+    {
+        ensureReadable();
+        if (pending != null && pending.hasRemaining())
+        {
+            byte[] b = new byte[pending.remaining()];
+            pending.get(b);
+            appendText(b);
+        }
+        while (true)
+        {
+            if (line != null)
+            {
+                String text = nextLine();
+                if (text != null)
+                {
+                    return text;
+                }
+            }
+            Object o = eof ? EOF : take();
+            if (o == EOF)
+            {
+                eof = true;
+                if (line != null && line.size() > 0)
+                {
+                    String text = new String(line.toByteArray(), session.charset());
+                    line = null;
+                    return text;
+                }
+                return null;
+            }
+            if (o instanceof byte[])
+            {
+                appendText((byte[]) o);
+            }
+            else
+            {
+                return o;
+            }
+        }
+    }
+
+    public int read(ByteBuffer dst) throws IOException
+    {
+        ensureReadable();
+        while (pending == null || !pending.hasRemaining())
+        {
+            if (line != null && line.size() > 0)
+            {
+                pending = ByteBuffer.wrap(line.toByteArray());
+                line = null;
+                break;
+            }
+            Object o = eof ? EOF : take();
+            if (o == EOF)
+            {
+                eof = true;
+                return -1;
+            }
+            pending = ByteBuffer.wrap(o instanceof byte[] ? (byte[]) o : format(o));
+        }
+        int n = Math.min(dst.remaining(), pending.remaining());
+        int limit = pending.limit();
+        pending.limit(pending.position() + n);
+        dst.put(pending);
+        pending.limit(limit);
+        return n;
+    }
+
+    public int write(ByteBuffer src) throws IOException
+    {
+        if (writerClosed)
+        {
+            throw new ClosedChannelException();
+        }
+        int n = src.remaining();
+        if (n > 0)
+        {
+            byte[] b = new byte[n];
+            src.get(b);
+            put(b);
+        }
+        return n;
+    }
+
+    public boolean isOpen()
+    {
+        return !readerClosed;
+    }
+
+    public void close()
+    {
+        readerClosed = true;
+        queue.clear();
+    }
+
+    private void closeWriter() throws IOException
+    {
+        if (!writerClosed)
+        {
+            writerClosed = true;
+            if (!readerClosed)
+            {
+                put(EOF);
+            }
+        }
+    }
+
+    private void put(Object o) throws IOException
+    {
+        try
+        {
+            while (!queue.offer(o, 100, TimeUnit.MILLISECONDS))
+            {
+                if (readerClosed)
+                {
+                    throw new IOException("Pipe closed");
+                }
+            }
+            if (readerClosed)
+            {
+                queue.clear();
+                throw new IOException("Pipe closed");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw (IOException) new InterruptedIOException().initCause(e);
+        }
+    }
+
+    private Object take() throws IOException
+    {
+        try
+        {
+            return queue.take();
+        }
+        catch (InterruptedException e)
+        {
+            throw (IOException) new InterruptedIOException().initCause(e);
+        }
+    }
+
+    private void ensureReadable() throws IOException
+    {
+        if (readerClosed)
+        {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private byte[] format(Object o)
+    {
+        return (session.format(o, Converter.INSPECT) + System.lineSeparator()).getBytes(session.charset());
+    }
+
+    private void appendText(byte[] b)
+    {
+        if (line == null)
+        {
+            line = new ByteArrayOutputStream();
+        }
+        line.write(b, 0, b.length);
+    }
+
+    private String nextLine()
+    {
+        byte[] b = line.toByteArray();
+        for (int i = 0; i < b.length; i++)
+        {
+            if (b[i] == '\n')
+            {
+                int end = i > 0 && b[i - 1] == '\r' ? i - 1 : i;
+                String text = new String(b, 0, end, session.charset());
+                line = new ByteArrayOutputStream();
+                line.write(b, i + 1, b.length - i - 1);
+                return text;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The writing end of an {@link ObjectPipe}.
+     */
+    public class Sink implements ByteChannel
+    {
+        public ObjectPipe pipe()
+        {
+            return ObjectPipe.this;
+        }
+
+        public int read(ByteBuffer dst) throws IOException
+        {
+            throw new IOException("Pipe is not readable");
+        }
+
+        public int write(ByteBuffer src) throws IOException
+        {
+            return ObjectPipe.this.write(src);
+        }
+
+        public boolean isOpen()
+        {
+            return !writerClosed;
+        }
+
+        public void close() throws IOException
+        {
+            closeWriter();
+        }
+    }
+}
@@ -124,6 +124,8 @@ public class Pipe implements Callable<Result>, Process
     InputStream in;
     PrintStream out;
     PrintStream err;
+    ObjectPipe objectIn;
+    ObjectPipe objectOut;
 
     public Pipe(Closure closure, JobImpl job, Statement statement, Channel[] streams, boolean[] toclose, boolean endOfPipe)
     {
@@ -208,6 +210,15 @@ public class Pipe implements Callable<Result>, Process
         return job;
     }
 
+    /**
+     * Returns the typed pipe the previous stage of the pipeline writes to,
+     * so that objects can be read without being formatted to text.
+     * @return the typed input or <code>null</code> if the input is not a typed pipe
+     */
+    public ObjectPipe objectIn() {
+        return objectIn;
+    }
+
     public boolean isTty(int fd) {
         // TODO: this assumes that the session is always created with input/output tty streams
         if (fd < 0 || fd > streams.length) {
@@ -378,14 +389,23 @@ public class Pipe implements Callable<Result>, Process
                 }
             }
 
+            // Typed pipes are only used if no redirection has been applied
+            if (streams[0] instanceof ObjectPipe) {
+                objectIn = (ObjectPipe) streams[0];
+            }
+            if (streams[1] instanceof ObjectPipe.Sink) {
+                objectOut = ((ObjectPipe.Sink) streams[1]).pipe();
+            }
+
             for (int i = 0; i < streams.length; i++) {
                 streams[i] = wrap(streams[i]);
             }
 
             // Create streams
             in = Channels.newInputStream((ReadableByteChannel) streams[0]);
-            out = new PrintStream(Channels.newOutputStream((WritableByteChannel) streams[1]), true);
-            err = new PrintStream(Channels.newOutputStream((WritableByteChannel) streams[2]), true);
+            String charset = closure.session().charset().name();
+            out = new PrintStream(Channels.newOutputStream((WritableByteChannel) streams[1]), true, charset);
+            err = new PrintStream(Channels.newOutputStream((WritableByteChannel) streams[2]), true, charset);
             // Change the error stream to the redirected one, now that
             // the command is about to be executed.
             errChannel = (WritableByteChannel) streams[2];
@@ -423,7 +443,16 @@ public class Pipe implements Callable<Result>, Process
                 // We don't print the result if we're at the end of the pipe
                 if (result != null && !endOfPipe && !Boolean.FALSE.equals(closure.session().get(".FormatPipe")))
                 {
-                    out.println(closure.session().format(result, Converter.INSPECT));
+                    if (objectOut != null)
+                    {
+                        // Pass the result as is, it will be formatted if the next stage reads text
+                        out.flush();
+                        objectOut.writeObject(result);
+                    }
+                    else
+                    {
+                        out.println(closure.session().format(result, Converter.INSPECT));
+                    }
                 }
                 return new Result(result);
 
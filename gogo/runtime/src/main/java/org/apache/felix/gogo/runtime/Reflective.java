@@ -19,10 +19,14 @@
 package org.apache.felix.gogo.runtime;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -32,6 +36,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.service.command.CommandSession;
 import org.apache.felix.service.command.Parameter;
@@ -50,6 +56,17 @@ public final class Reflective
                 "finally", "long", "strictfp", "volatile", "const", "float", "native",
                 "super", "while"));
 
+    /**
+     * Maximum number of command names cached per class, so that invoking
+     * arbitrary names on an object does not grow the cache without bounds.
+     */
+    private static final int MAX_CACHED_COMMANDS = 256;
+
+    /** Dispatch information for methods invoked on instances of a class. */
+    private static final ClassValue<ConcurrentMap<String, Dispatch>> INSTANCE_DISPATCH = new DispatchCache();
+    /** Dispatch information for methods invoked on a class object itself. */
+    private static final ClassValue<ConcurrentMap<String, Dispatch>> STATIC_DISPATCH = new DispatchCache();
+
     /**
      * invokes the named method on the given target using the supplied args,
      * which are converted if necessary.
@@ -63,116 +80,55 @@ public final class Reflective
     public static Object invoke(CommandSession session, Object target, String name,
         List<Object> args) throws Exception
     {
-        Method[] methods = target.getClass().getMethods();
-        name = name.toLowerCase(Locale.ENGLISH);
-
-        String org = name;
-        String get = "get" + name;
-        String is = "is" + name;
-        String set = "set" + name;
-
-        if (KEYWORDS.contains(name))
-        {
-            name = "_" + name;
-        }
-
-        if (target instanceof Class<?>)
-        {
-            Method[] staticMethods = ((Class<?>) target).getMethods();
-            for (Method m : staticMethods)
-            {
-                String mname = m.getName().toLowerCase(Locale.ENGLISH);
-                if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                    || mname.equals(is) || mname.equals(MAIN))
-                {
-                    methods = staticMethods;
-                    break;
-                }
-            }
-        }
+        Dispatch dispatch = getDispatch(target, name);
 
-        Method bestMethod = null;
+        Candidate bestMethod = null;
         Object[] bestArgs = null;
         int lowestMatch = Integer.MAX_VALUE;
         ArrayList<Class<?>[]> possibleTypes = new ArrayList<>();
 
-        for (Method m : methods)
+        for (Candidate c : dispatch.candidates)
         {
-            String mname = m.getName().toLowerCase(Locale.ENGLISH);
-            if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                || mname.equals(is) || mname.equals(MAIN))
-            {
-                Class<?>[] types = m.getParameterTypes();
-                ArrayList<Object> xargs = new ArrayList<>(args);
+            ArrayList<Object> xargs = new ArrayList<>(args);
 
-                // pass command name as argv[0] to main, so it can handle
-                // multiple commands
-                if (mname.equals(MAIN))
-                {
-                    xargs.add(0, org);
-                }
+            // pass command name as argv[0] to main, so it can handle
+            // multiple commands
+            if (c.main)
+            {
+                xargs.add(0, dispatch.command);
+            }
 
-                Object[] parms = new Object[types.length];
-                int match = coerce(session, target, m, types, parms, xargs);
+            Object[] parms = new Object[c.types.length];
+            int match = coerce(session, target, c, parms, xargs);
 
-                if (match < 0)
+            if (match < 0)
+            {
+                // coerce failed
+                possibleTypes.add(c.types);
+            }
+            else
+            {
+                if (match < lowestMatch)
                 {
-                    // coerce failed
-                    possibleTypes.add(types);
+                    lowestMatch = match;
+                    bestMethod = c;
+                    bestArgs = parms;
                 }
-                else
-                {
-                    if (match < lowestMatch)
-                    {
-                        lowestMatch = match;
-                        bestMethod = m;
-                        bestArgs = parms;
-                    }
 
-                    if (match == 0)
-                        break; // can't get better score
-                }
+                if (match == 0)
+                    break; // can't get better score
             }
         }
 
         if (bestMethod != null)
         {
-            bestMethod.setAccessible(true);
-            try
-            {
-                return bestMethod.invoke(target, bestArgs);
-            }
-            catch (InvocationTargetException e)
-            {
-                Throwable cause = e.getCause();
-                if (cause instanceof Exception)
-                {
-                    throw (Exception) cause;
-                }
-                throw e;
-            }
+            return bestMethod.invoke(target, bestArgs);
         }
         else
         {
-            if (args.isEmpty())
+            if (args.isEmpty() && dispatch.field != null)
             {
-                Field[] fields;
-                if (target instanceof Class<?>)
-                {
-                    fields = ((Class<?>) target).getFields();
-                }
-                else
-                    {
-                    fields = target.getClass().getFields();
-                }
-                for (Field f : fields)
-                {
-                    String mname = f.getName().toLowerCase(Locale.ENGLISH);
-                    if (mname.equals(name))
-                    {
-                        return f.get(target);
-                    }
-                }
+                return dispatch.field.get(target);
             }
             ArrayList<String> list = new ArrayList<>();
             for (Class<?>[] types : possibleTypes)
@@ -202,8 +158,40 @@ public final class Reflective
             }
 
             throw new IllegalArgumentException(String.format(
-                "Cannot coerce %s(%s) to any of %s", name, params, list));
+                "Cannot coerce %s(%s) to any of %s", dispatch.name, params, list));
+        }
+    }
+
+    /**
+     * Drops the cached dispatch information of the given class, for instance
+     * when the command service providing it is unregistered.
+     * @param type the class
+     */
+    public static void invalidate(Class<?> type)
+    {
+        INSTANCE_DISPATCH.remove(type);
+        STATIC_DISPATCH.remove(type);
+    }
+
+    private static Dispatch getDispatch(Object target, String command)
+    {
+        boolean isStatic = target instanceof Class<?>;
+        Class<?> type = isStatic ? (Class<?>) target : target.getClass();
+        ConcurrentMap<String, Dispatch> dispatches = (isStatic ? STATIC_DISPATCH : INSTANCE_DISPATCH).get(type);
+        Dispatch dispatch = dispatches.get(command);
+        if (dispatch == null)
+        {
+            dispatch = new Dispatch(type, isStatic, command);
+            if (dispatches.size() < MAX_CACHED_COMMANDS)
+            {
+                Dispatch existing = dispatches.putIfAbsent(command, dispatch);
+                if (existing != null)
+                {
+                    dispatch = existing;
+                }
+            }
         }
+        return dispatch;
     }
 
     /**
@@ -212,46 +200,42 @@ public final class Reflective
      * args: true, value2, arg3
      * @return new ordered list of args.
      */
-    private static List<Object> transformParameters(Method method, List<Object> in)
+    private static List<Object> transformParameters(Candidate c, List<Object> in)
     {
-        Annotation[][] pas = method.getParameterAnnotations();
+        if (c.parameters.length == 0)
+        {
+            return in;
+        }
+
         ArrayList<Object> out = new ArrayList<>();
         ArrayList<Object> parms = new ArrayList<>(in);
 
-        for (Annotation as[] : pas)
+        for (Parameter p : c.parameters)
         {
-            for (Annotation a : as)
+            int i = -1;
+            for (String name : p.names())
             {
-                if (a instanceof Parameter)
-                {
-                    int i = -1;
-                    Parameter p = (Parameter) a;
-                    for (String name : p.names())
-                    {
-                        i = parms.indexOf(name);
-                        if (i >= 0)
-                            break;
-                    }
-
-                    if (i >= 0)
-                    {
-                        // parameter present
-                        parms.remove(i);
-                        Object value = p.presentValue();
-                        if (Parameter.UNSPECIFIED.equals(value))
-                        {
-                            if (i >= parms.size())
-                                return null; // missing parameter, so try other methods
-                            value = parms.remove(i);
-                        }
-                        out.add(value);
-                    }
-                    else
-                    {
-                        out.add(p.absentValue());
-                    }
+                i = parms.indexOf(name);
+                if (i >= 0)
+                    break;
+            }
 
+            if (i >= 0)
+            {
+                // parameter present
+                parms.remove(i);
+                Object value = p.presentValue();
+                if (Parameter.UNSPECIFIED.equals(value))
+                {
+                    if (i >= parms.size())
+                        return null; // missing parameter, so try other methods
+                    value = parms.remove(i);
                 }
+                out.add(value);
+            }
+            else
+            {
+                out.add(p.absentValue());
             }
         }
 
@@ -268,9 +252,10 @@ public final class Reflective
      * @return -1 if arguments can't be coerced; 0 if no coercion was necessary;
      *          > 0 if coercion was needed.
      */
-    private static int coerce(CommandSession session, Object target, Method m,
-        Class<?> types[], Object out[], List<Object> in)
+    private static int coerce(CommandSession session, Object target, Candidate c,
+        Object out[], List<Object> in)
     {
+        Class<?>[] types = c.types;
         List<Object> cnvIn = new ArrayList<>();
         List<Object> cnvIn2 = new ArrayList<>();
         int different = 0;
@@ -290,10 +275,10 @@ public final class Reflective
             }
         }
 
-        cnvIn = transformParameters(m, cnvIn);
+        cnvIn = transformParameters(c, cnvIn);
         if (different != 0)
         {
-            cnvIn2 = transformParameters(m, cnvIn2);
+            cnvIn2 = transformParameters(c, cnvIn2);
         }
         if (cnvIn == null || cnvIn2 == null)
         {
@@ -303,17 +288,17 @@ public final class Reflective
 
         int res;
 
-        res = docoerce(session, target, m, types, out, cnvIn);
+        res = docoerce(session, target, types, out, cnvIn);
         // Without conversion
         if (different != 0 && res < 0)
         {
-            res = docoerce(session, target, m, types, out, cnvIn2);
+            res = docoerce(session, target, types, out, cnvIn2);
         }
         else if (different != 0 && res > 0)
         {
             int res2;
             Object[] out2 = out.clone();
-            res2 = docoerce(session, target, m, types, out2, cnvIn2) + different * 2;
+            res2 = docoerce(session, target, types, out2, cnvIn2) + different * 2;
             if (res >= 0 && res2 <= res)
             {
                 res = res2;
@@ -321,22 +306,21 @@ public final class Reflective
             }
         }
         // Check if the command takes a session
-        if (res < 0 && (types.length > 0) && types[0].isInterface()
-                    && types[0].isAssignableFrom(session.getClass()))
+        if (res < 0 && c.sessionFirst && types[0].isAssignableFrom(session.getClass()))
         {
             cnvIn.add(0, session);
-            res = docoerce(session, target, m, types, out, cnvIn);
+            res = docoerce(session, target, types, out, cnvIn);
             if (different != 0 && res < 0)
             {
                 cnvIn2.add(0, session);
-                res = docoerce(session, target, m, types, out, cnvIn2);
+                res = docoerce(session, target, types, out, cnvIn2);
             }
             else if (different != 0 && res > 0)
             {
                 int res2;
                 cnvIn2.add(0, session);
                 Object[] out2 = out.clone();
-                res2 = docoerce(session, target, m, types, out2, cnvIn2) + different * 2;
+                res2 = docoerce(session, target, types, out2, cnvIn2) + different * 2;
                 if (res >= 0 && res2 <= res)
                 {
                     res = res2;
@@ -347,7 +331,7 @@ public final class Reflective
         return res;
     }
 
-    private static int docoerce(CommandSession session, Object target, Method m,
+    private static int docoerce(CommandSession session, Object target,
                               Class<?> types[], Object out[], List<Object> in)
     {
         int[] convert = { 0 };
@@ -639,4 +623,203 @@ public final class Reflective
         return null;
     }
 
+    private static final class DispatchCache extends ClassValue<ConcurrentMap<String, Dispatch>>
+    {
+        @Override
+        protected ConcurrentMap<String, Dispatch> computeValue(Class<?> type)
+        {
+            return new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * The methods and field a command name resolves to on a given class, in
+     * the order in which they are tried.
+     */
+    private static final class Dispatch
+    {
+        final String command;
+        final String name;
+        final Candidate[] candidates;
+        final Field field;
+
+        Dispatch(Class<?> type, boolean isStatic, String command)
+        {
+            this.command = command.toLowerCase(Locale.ENGLISH);
+            String name = this.command;
+            String get = "get" + name;
+            String is = "is" + name;
+            String set = "set" + name;
+
+            if (KEYWORDS.contains(name))
+            {
+                name = "_" + name;
+            }
+            this.name = name;
+
+            Method[] methods = isStatic ? Class.class.getMethods() : type.getMethods();
+            if (isStatic)
+            {
+                Method[] staticMethods = type.getMethods();
+                for (Method m : staticMethods)
+                {
+                    if (matches(m.getName(), name, get, set, is))
+                    {
+                        methods = staticMethods;
+                        break;
+                    }
+                }
+            }
+
+            List<Candidate> candidates = new ArrayList<>();
+            for (Method m : methods)
+            {
+                if (matches(m.getName(), name, get, set, is))
+                {
+                    candidates.add(new Candidate(m));
+                }
+            }
+            this.candidates = candidates.toArray(new Candidate[candidates.size()]);
+
+            Field field = null;
+            for (Field f : type.getFields())
+            {
+                if (f.getName().toLowerCase(Locale.ENGLISH).equals(name))
+                {
+                    field = f;
+                    break;
+                }
+            }
+            this.field = field;
+        }
+
+        private static boolean matches(String mname, String name, String get, String set, String is)
+        {
+            mname = mname.toLowerCase(Locale.ENGLISH);
+            return mname.equals(name) || mname.equals(get) || mname.equals(set)
+                || mname.equals(is) || mname.equals(MAIN);
+        }
+    }
+
+    /**
+     * A method a command may be dispatched to, along with everything that
+     * is needed to coerce the arguments and invoke it.
+     */
+    private static final class Candidate
+    {
+        final Method method;
+        final Class<?>[] types;
+        final Class<?>[] boxedTypes;
+        final Parameter[] parameters;
+        final boolean main;
+        final boolean sessionFirst;
+        final boolean isStatic;
+        private volatile MethodHandle handle;
+        private volatile boolean resolved;
+
+        Candidate(Method method)
+        {
+            this.method = method;
+            this.types = method.getParameterTypes();
+            this.boxedTypes = new Class<?>[types.length];
+            for (int i = 0; i < types.length; i++)
+            {
+                boxedTypes[i] = types[i].isPrimitive() ? primitiveToObject(types[i]) : types[i];
+            }
+            List<Parameter> parameters = new ArrayList<>();
+            for (Annotation[] as : method.getParameterAnnotations())
+            {
+                for (Annotation a : as)
+                {
+                    if (a instanceof Parameter)
+                    {
+                        parameters.add((Parameter) a);
+                    }
+                }
+            }
+            this.parameters = parameters.toArray(new Parameter[parameters.size()]);
+            this.main = method.getName().toLowerCase(Locale.ENGLISH).equals(MAIN);
+            this.sessionFirst = types.length > 0 && types[0].isInterface();
+            this.isStatic = Modifier.isStatic(method.getModifiers());
+        }
+
+        Object invoke(Object target, Object[] args) throws Exception
+        {
+            MethodHandle mh = getHandle();
+            if (mh != null && accepts(target, args))
+            {
+                try
+                {
+                    return (Object) mh.invokeExact(target, args);
+                }
+                catch (Exception e)
+                {
+                    throw e;
+                }
+                catch (Throwable t)
+                {
+                    throw new InvocationTargetException(t);
+                }
+            }
+
+            // leave arguments which need a widening conversion to reflection
+            method.setAccessible(true);
+            try
+            {
+                return method.invoke(target, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception)
+                {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+
+        private boolean accepts(Object target, Object[] args)
+        {
+            if (!isStatic && !method.getDeclaringClass().isInstance(target))
+            {
+                return false;
+            }
+            for (int i = 0; i < args.length; i++)
+            {
+                if (args[i] == null ? types[i].isPrimitive() : !boxedTypes[i].isInstance(args[i]))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private MethodHandle getHandle()
+        {
+            if (!resolved)
+            {
+                MethodHandle mh = null;
+                try
+                {
+                    method.setAccessible(true);
+                    mh = MethodHandles.lookup().unreflect(method).asFixedArity();
+                    if (isStatic)
+                    {
+                        mh = MethodHandles.dropArguments(mh, 0, Object.class);
+                    }
+                    mh = mh.asSpreader(Object[].class, types.length)
+                        .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+                }
+                catch (RuntimeException | IllegalAccessException e)
+                {
+                    // fall back to reflection
+                    mh = null;
+                }
+                handle = mh;
+                resolved = true;
+            }
+            return handle;
+        }
+    }
 }
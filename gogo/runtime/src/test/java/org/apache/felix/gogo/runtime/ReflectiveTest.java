@@ -49,6 +49,16 @@ public class ReflectiveTest {
         assertEquals(new Object[] { new Object[] { 1, 2 }, "ab" }, invoke("test1", Arrays.asList(new Object[] { 1, 2 }, "ab")));
     }
 
+    @Test
+    public void testCachedDispatch() throws Exception {
+        assertEquals(new Object[] { 1, "ab" }, invoke("test1", Arrays.asList(1, "ab")));
+        assertEquals(new Object[] { 2, "cd" }, invoke("TEST1", Arrays.asList(2, "cd")));
+        assertEquals(3L, invoke("sum", Arrays.asList(1, 2)));
+        Reflective.invalidate(Target.class);
+        assertEquals(new Object[] { 3, "ef" }, invoke("test1", Arrays.asList(3, "ef")));
+        assertEquals(7L, invoke("sum", Arrays.asList(3L, 4L)));
+    }
+
     @Test
     public void testAddConverter() throws Exception {
         InputStream in = new ByteArrayInputStream(new byte[0]);
@@ -84,6 +94,10 @@ public class ReflectiveTest {
         public Object test4(CommandSession session, List<String> argv) {
             return argv;
         }
+
+        public long sum(long a, long b) {
+            return a + b;
+        }
     }
 
     static Object invoke(String method, List<Object> args) throws Exception {
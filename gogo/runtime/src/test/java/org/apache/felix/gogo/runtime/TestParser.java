@@ -19,9 +19,11 @@
 package org.apache.felix.gogo.runtime;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -152,6 +154,30 @@ public class TestParser extends AbstractParserTest
         assertEquals("defghi", c.execute("(echoout abc; echoout def; echoout ghi)|grep 'def|ghi'|capture"));
     }
 
+    @Test
+    public void testTypedPipe() throws Exception
+    {
+        Context c = new Context();
+        c.addCommand("echo", this);
+        c.addCommand("echoout", this);
+        c.addCommand("capture", this);
+        c.addCommand("pipetypes", this);
+        c.addCommand("answer", this);
+        c.addCommand("pipetext", this);
+
+        assertEquals("", c.execute("answer|pipetypes"));
+        assertEquals("42", c.execute("answer|capture"));
+
+        c.set(Closure.TYPED_PIPE, true);
+        assertEquals("Long", c.execute("answer|pipetypes"));
+        assertEquals("String", c.execute("echoout abc|pipetypes"));
+        assertEquals("42", c.execute("answer|capture"));
+
+        c.set(CommandSessionImpl.CHARSET, "UTF-16");
+        assertEquals("\u00e9t\u00e9", c.execute("echoout \u00e9t\u00e9|pipetext"));
+        assertEquals("42", c.execute("answer|pipetext"));
+    }
+
     @Test
     public void testAssignment() throws Exception
     {
@@ -299,6 +325,39 @@ public class TestParser extends AbstractParserTest
         System.out.println(echo(args));
     }
 
+    public long answer()
+    {
+        return 42L;
+    }
+
+    public String pipetext() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        for (int n = System.in.read(buf); n >= 0; n = System.in.read(buf))
+        {
+            bytes.write(buf, 0, n);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_16).trim();
+    }
+
+    public String pipetypes() throws IOException
+    {
+        ObjectPipe pipe = Pipe.getCurrentPipe().objectIn();
+        if (pipe == null)
+        {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Object o = pipe.readObject(); o != null; o = pipe.readObject())
+        {
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append(o.getClass().getSimpleName());
+        }
+        return sb.toString();
+    }
+
     @Test
     public void testContext() throws Exception
     {
@@ -17,10 +17,14 @@
 package org.apache.felix.http.base.internal.registry;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.NotNull;
@@ -40,9 +44,17 @@ import org.osgi.service.http.runtime.dto.ServletContextDTO;
  */
 public final class FilterRegistry
 {
+    private static final FilterHandler[] EMPTY_FILTER_HANDLER = new FilterHandler[0];
+
+    /** Maximum number of filter chains cached per filter index. */
+    private static final int MAX_CACHED_CHAINS = 1024;
+
     /** List of all filter registrations. These are sorted by the status objects. */
     private volatile List<FilterRegistrationStatus> filters = Collections.emptyList();
 
+    /** The index of the active filters, rebuilt whenever the filters change. */
+    private volatile FilterIndex index = new FilterIndex(this.filters);
+
     /**
      * The status object keeps track of the registration status of a filter and holds
      * the resolvers to match against a uri.
@@ -125,7 +137,7 @@ public final class FilterRegistry
         newList.add(status);
         Collections.sort(newList);
 
-        this.filters = newList;
+        this.setFilters(newList);
     }
 
     /**
@@ -150,7 +162,7 @@ public final class FilterRegistry
         }
         if ( found != null )
         {
-            this.filters = newList;
+            this.setFilters(newList);
 
             if ( found.getResult() == -1 && destroy )
             {
@@ -161,7 +173,13 @@ public final class FilterRegistry
 
     public synchronized void cleanup()
     {
-        this.filters = Collections.emptyList();
+        this.setFilters(Collections.<FilterRegistrationStatus>emptyList());
+    }
+
+    private void setFilters(final List<FilterRegistrationStatus> newList)
+    {
+        this.filters = newList;
+        this.index = new FilterIndex(newList);
     }
 
     /**
@@ -176,47 +194,159 @@ public final class FilterRegistry
             @NotNull final DispatcherType dispatcherType,
             @NotNull final String requestURI)
     {
-        final List<FilterHandler> result = new ArrayList<FilterHandler>();
-        final List<FilterRegistrationStatus> allFilters = this.filters;
+        final FilterIndex index = this.index;
+        if ( index.active.length == 0 )
+        {
+            return EMPTY_FILTER_HANDLER;
+        }
+        // check for servlet name if it's not a resource
+        final String servletName = (handler != null && !handler.getServletInfo().isResource()) ? handler.getName() : null;
 
-        for(final FilterRegistrationStatus status : allFilters)
+        final ChainKey key = new ChainKey(servletName, dispatcherType, index.match(requestURI));
+        FilterHandler[] chain = index.chains.get(key);
+        if ( chain == null )
         {
-            // as soon as we encounter a failing filter, we can stop
-            if ( status.getResult() != -1 )
+            chain = index.createChain(key);
+            if ( index.chains.size() >= MAX_CACHED_CHAINS )
             {
-                break;
+                index.chains.clear();
             }
-            if (referencesDispatcherType(status.getHandler(), dispatcherType) )
+            index.chains.put(key, chain);
+        }
+        return chain;
+    }
+
+    /**
+     * The index of the active filters. The patterns of all active filters are
+     * compiled into a single path trie which yields the set of filters matching
+     * a uri. The filter chains are cached per servlet name, dispatcher type and
+     * set of matching filters, as the chain only depends on these.
+     */
+    private final class FilterIndex
+    {
+        /** The active filters in the order of the chain. */
+        private final FilterRegistrationStatus[] active;
+
+        private final Map<PathResolver, Integer> positions = new IdentityHashMap<PathResolver, Integer>();
+
+        private final PathResolverFactory.PathTrie trie;
+
+        private final Map<ChainKey, FilterHandler[]> chains = new ConcurrentHashMap<ChainKey, FilterHandler[]>();
+
+        FilterIndex(final List<FilterRegistrationStatus> allFilters)
+        {
+            final List<FilterRegistrationStatus> activeList = new ArrayList<FilterRegistrationStatus>();
+            for(final FilterRegistrationStatus status : allFilters)
             {
-                boolean added = false;
+                // as soon as we encounter a failing filter, we can stop
+                if ( status.getResult() != -1 )
+                {
+                    break;
+                }
                 for(final PathResolver resolver : status.getResolvers())
                 {
-                    if ( resolver.resolve(requestURI) != null )
-                    {
-                        result.add(status.getHandler());
-                        added = true;
-                        break;
-                    }
+                    this.positions.put(resolver, activeList.size());
                 }
-                // check for servlet name if it's not a resource
-                final String servletName = (handler != null && !handler.getServletInfo().isResource()) ? handler.getName() : null;
-                if ( !added && servletName != null && status.getHandler().getFilterInfo().getServletNames() != null )
+                activeList.add(status);
+            }
+            this.active = activeList.toArray(new FilterRegistrationStatus[activeList.size()]);
+            this.trie = PathResolverFactory.createPathTrie(this.positions.keySet());
+        }
+
+        /**
+         * Get the positions of the active filters with a pattern matching the uri.
+         */
+        BitSet match(final String requestURI)
+        {
+            final List<PathResolver> resolvers = new ArrayList<PathResolver>();
+            this.trie.matchAll(requestURI, resolvers);
+
+            final BitSet matching = new BitSet(this.active.length);
+            for(final PathResolver resolver : resolvers)
+            {
+                matching.set(this.positions.get(resolver));
+            }
+            return matching;
+        }
+
+        FilterHandler[] createChain(final ChainKey key)
+        {
+            final List<FilterHandler> result = new ArrayList<FilterHandler>();
+            for(int i = 0; i < this.active.length; i++)
+            {
+                final FilterHandler filterHandler = this.active[i].getHandler();
+                if ( referencesDispatcherType(filterHandler, key.dispatcherType)
+                     && (key.matching.get(i) || referencesServletName(filterHandler, key.servletName)) )
                 {
-                    for(final String name : status.getHandler().getFilterInfo().getServletNames())
-                    {
-                        if ( servletName.equals(name) )
-                        {
-                            result.add(status.getHandler());
-                            added = true;
-                            break;
-                        }
-                    }
+                    result.add(filterHandler);
                 }
+            }
+            return result.toArray(new FilterHandler[result.size()]);
+        }
+    }
+
+    /**
+     * The key of a cached filter chain.
+     */
+    private static final class ChainKey
+    {
+        private final String servletName;
+
+        private final DispatcherType dispatcherType;
+
+        private final BitSet matching;
+
+        ChainKey(@Nullable final String servletName, @NotNull final DispatcherType dispatcherType, @NotNull final BitSet matching)
+        {
+            this.servletName = servletName;
+            this.dispatcherType = dispatcherType;
+            this.matching = matching;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = 31 * this.dispatcherType.hashCode() + this.matching.hashCode();
+            return servletName == null ? result : 31 * result + this.servletName.hashCode();
+        }
 
+        @Override
+        public boolean equals(final Object obj)
+        {
+            if ( this == obj )
+            {
+                return true;
             }
+            if ( !(obj instanceof ChainKey) )
+            {
+                return false;
+            }
+            final ChainKey other = (ChainKey) obj;
+            return this.dispatcherType == other.dispatcherType
+                    && this.matching.equals(other.matching)
+                    && (this.servletName == null ? other.servletName == null : this.servletName.equals(other.servletName));
         }
+    }
 
-        return result.toArray(new FilterHandler[result.size()]);
+    /**
+     * Check if the filter is registered for the servlet name
+     * @param handler The filter handler
+     * @param servletName The servlet name, might be {@code null}
+     * @return {@code true} if the filter is registered for the servlet name.
+     */
+    private boolean referencesServletName(final FilterHandler handler, final String servletName)
+    {
+        if ( servletName != null && handler.getFilterInfo().getServletNames() != null )
+        {
+            for(final String name : handler.getFilterInfo().getServletNames())
+            {
+                if ( servletName.equals(name) )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
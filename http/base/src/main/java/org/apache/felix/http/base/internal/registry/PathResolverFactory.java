@@ -16,6 +16,12 @@
  */
 package org.apache.felix.http.base.internal.registry;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.jetbrains.annotations.Nullable;
@@ -68,6 +74,209 @@ public abstract class PathResolverFactory {
         return new RegexMatcher(regex);
     }
 
+    /**
+     * Compile the resolvers into a path trie.
+     * The trie has to be created again if the resolvers change.
+     *
+     * @param resolvers The resolvers
+     * @return The path trie
+     */
+    public static @NotNull PathTrie createPathTrie(@NotNull final Collection<PathResolver> resolvers)
+    {
+        return new PathTrie(resolvers);
+    }
+
+    /**
+     * The path trie finds the resolvers matching a uri without trying each
+     * resolver. Exact patterns are looked up by the uri, path patterns by
+     * walking the segments of the uri through the trie and extension patterns
+     * by the suffixes of the uri starting with a dot. Resolvers for any other
+     * pattern, like regular expressions, are tried one by one.
+     */
+    public static final class PathTrie
+    {
+        private final Map<String, List<PathResolver>> exactResolvers = new HashMap<String, List<PathResolver>>();
+
+        private final Node root = new Node();
+
+        private final Map<String, List<PathResolver>> extensionResolvers = new HashMap<String, List<PathResolver>>();
+
+        private final List<PathResolver> rootResolvers = new ArrayList<PathResolver>();
+
+        private final List<PathResolver> defaultResolvers = new ArrayList<PathResolver>();
+
+        private final List<PathResolver> otherResolvers = new ArrayList<PathResolver>();
+
+        private PathTrie(final Collection<PathResolver> resolvers)
+        {
+            for(final PathResolver resolver : resolvers)
+            {
+                if ( resolver instanceof ExactMatcher )
+                {
+                    add(this.exactResolvers, ((ExactMatcher)resolver).path, resolver);
+                }
+                else if ( resolver instanceof ExactAndPathMatcher )
+                {
+                    this.root.getNode(((ExactAndPathMatcher)resolver).path).resolvers.add(resolver);
+                }
+                else if ( resolver instanceof PathMatcher )
+                {
+                    this.root.getNode(((PathMatcher)resolver).path).resolvers.add(resolver);
+                }
+                else if ( resolver instanceof ExtensionMatcher )
+                {
+                    add(this.extensionResolvers, ((ExtensionMatcher)resolver).extension, resolver);
+                }
+                else if ( resolver instanceof RootMatcher )
+                {
+                    this.rootResolvers.add(resolver);
+                }
+                else if ( resolver instanceof DefaultMatcher )
+                {
+                    this.defaultResolvers.add(resolver);
+                }
+                else
+                {
+                    this.otherResolvers.add(resolver);
+                }
+            }
+            Collections.sort(this.otherResolvers);
+        }
+
+        private static void add(final Map<String, List<PathResolver>> map, final String key, final PathResolver resolver)
+        {
+            List<PathResolver> list = map.get(key);
+            if ( list == null )
+            {
+                list = new ArrayList<PathResolver>();
+                map.put(key, list);
+            }
+            list.add(resolver);
+        }
+
+        /**
+         * Find the resolver which is used for the uri. This is the first resolver
+         * in the sort order of the resolvers which matches the uri.
+         *
+         * @param uri The uri
+         * @return The resolver or {@code null}
+         */
+        public @Nullable PathResolver match(@NotNull final String uri)
+        {
+            return collect(uri, null);
+        }
+
+        /**
+         * Find all resolvers matching the uri.
+         *
+         * @param uri The uri
+         * @param result The collection the matching resolvers are added to
+         */
+        public void matchAll(@NotNull final String uri, @NotNull final Collection<PathResolver> result)
+        {
+            collect(uri, result);
+        }
+
+        private PathResolver collect(final String uri, final Collection<PathResolver> all)
+        {
+            PathResolver best = consider(null, this.exactResolvers.get(uri), all);
+
+            // a path pattern matches if its segments are the leading segments of the uri
+            Node node = this.root;
+            int start = 0;
+            while ( node != null )
+            {
+                final int end = uri.indexOf('/', start);
+                node = node.children.get(end == -1 ? uri.substring(start) : uri.substring(start, end));
+                if ( node != null )
+                {
+                    best = consider(best, node.resolvers, all);
+                }
+                if ( end == -1 )
+                {
+                    break;
+                }
+                start = end + 1;
+            }
+            // exact and path patterns are ranked above all other patterns
+            if ( best != null && all == null && this.otherResolvers.isEmpty() )
+            {
+                return best;
+            }
+
+            if ( !this.extensionResolvers.isEmpty() )
+            {
+                for(int pos = uri.indexOf('.'); pos != -1; pos = uri.indexOf('.', pos + 1))
+                {
+                    best = consider(best, this.extensionResolvers.get(uri.substring(pos)), all);
+                }
+            }
+            if ( uri.length() == 0 || uri.equals("/") )
+            {
+                best = consider(best, this.rootResolvers, all);
+            }
+            best = consider(best, this.defaultResolvers, all);
+
+            for(final PathResolver resolver : this.otherResolvers)
+            {
+                if ( best != null && all == null && resolver.compareTo(best) >= 0 )
+                {
+                    break;
+                }
+                if ( resolver.resolve(uri) != null )
+                {
+                    best = consider(best, Collections.singletonList(resolver), all);
+                }
+            }
+            return best;
+        }
+
+        private static PathResolver consider(PathResolver best, final List<PathResolver> matching, final Collection<PathResolver> all)
+        {
+            if ( matching != null )
+            {
+                for(final PathResolver resolver : matching)
+                {
+                    if ( all != null )
+                    {
+                        all.add(resolver);
+                    }
+                    else if ( best == null || resolver.compareTo(best) < 0 )
+                    {
+                        best = resolver;
+                    }
+                }
+            }
+            return best;
+        }
+
+        private static final class Node
+        {
+            private final Map<String, Node> children = new HashMap<String, Node>();
+
+            private final List<PathResolver> resolvers = new ArrayList<PathResolver>();
+
+            /**
+             * Get the node for the path, creating it if required.
+             */
+            Node getNode(final String path)
+            {
+                Node node = this;
+                for(final String segment : path.split("/", -1))
+                {
+                    Node child = node.children.get(segment);
+                    if ( child == null )
+                    {
+                        child = new Node();
+                        node.children.put(segment, child);
+                    }
+                    node = child;
+                }
+                return node;
+            }
+        }
+    }
+
     public static abstract class AbstractMatcher implements PathResolver
     {
         private final int ranking;
@@ -53,6 +53,9 @@ public final class ServletRegistry
 
     private volatile List<PathResolver> activeResolvers = Collections.emptyList();
 
+    /** The active resolvers compiled into a trie, rebuilt whenever they change. */
+    private volatile PathResolverFactory.PathTrie activeTrie = PathResolverFactory.createPathTrie(Collections.<PathResolver>emptyList());
+
     private final Map<String, List<ServletHandler>> inactiveServletMappings = new HashMap<String, List<ServletHandler>>();
 
     private final Map<String, List<ServletHandler>> servletsByName = new ConcurrentHashMap<String, List<ServletHandler>>();
@@ -73,8 +76,8 @@ public final class ServletRegistry
      */
     public PathResolution resolve(@NotNull final String relativeRequestURI)
     {
-        final List<PathResolver> resolvers = this.activeResolvers;
-        for(final PathResolver entry : resolvers)
+        final PathResolver entry = this.activeTrie.match(relativeRequestURI);
+        if ( entry != null )
         {
             final PathResolution pr = entry.resolve(relativeRequestURI);
             if ( pr != null )
@@ -172,8 +175,7 @@ public final class ServletRegistry
             {
                 addToNameMapping(handler);
             }
-            Collections.sort(resolvers);
-            this.activeResolvers = resolvers;
+            this.setActiveResolvers(resolvers);
             this.mapping = newMap;
         }
         else if ( !handler.getServletInfo().isResource() && handler.getServletInfo().getName() != null )
@@ -338,8 +340,7 @@ public final class ServletRegistry
                 }
             }
 
-            Collections.sort(resolvers);
-            this.activeResolvers = resolvers;
+            this.setActiveResolvers(resolvers);
             this.mapping = newMap;
 
             if ( cleanupHandler != null )
@@ -366,12 +367,19 @@ public final class ServletRegistry
 
     public synchronized void cleanup()
     {
-        this.activeResolvers = Collections.emptyList();
+        this.setActiveResolvers(new ArrayList<PathResolver>());
         this.inactiveServletMappings.clear();
         this.servletsByName.clear();
         this.mapping = Collections.emptyMap();
     }
 
+    private void setActiveResolvers(final List<PathResolver> resolvers)
+    {
+        Collections.sort(resolvers);
+        this.activeResolvers = resolvers;
+        this.activeTrie = PathResolverFactory.createPathTrie(resolvers);
+    }
+
     private void addToInactiveList(final String pattern, final ServletHandler handler, final RegistrationStatus status)
     {
         List<ServletHandler> inactiveList = this.inactiveServletMappings.get(pattern);
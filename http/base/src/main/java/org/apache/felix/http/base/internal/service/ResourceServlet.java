@@ -16,12 +16,21 @@
  */
 package org.apache.felix.http.base.internal.service;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -30,11 +39,28 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * The resource servlet
+ *
+ * The servlet supports conditional requests based on the last modified date
+ * and an entity tag derived from it, single byte ranges and precompressed
+ * variants of a resource ({@code .br} and {@code .gz} siblings). Resources
+ * which are files are transferred through their file channel, small resources
+ * are kept in a cache shared by all resource servlets.
  */
 public final class ResourceServlet extends HttpServlet
 {
     private static final long serialVersionUID = 1L;
 
+    /** Resources up to this size are cached. */
+    private static final int MAX_CACHED_RESOURCE_SIZE = 16 * 1024;
+
+    /** The maximum size of all cached resources. */
+    private static final int MAX_CACHE_SIZE = 2 * 1024 * 1024;
+
+    /** The content encodings of precompressed variants and their suffix, in order of preference. */
+    private static final String[][] ENCODINGS = {{"br", ".br"}, {"gzip", ".gz"}};
+
+    private static final ResourceCache CACHE = new ResourceCache(MAX_CACHE_SIZE);
+
     /** The path of the resource registration. */
     private final String prefix;
 
@@ -72,122 +98,578 @@ public final class ResourceServlet extends HttpServlet
             res.setContentType(contentType);
         }
 
-        final long lastModified = getLastModified(url);
-        if (lastModified != 0)
+        // use a precompressed variant if the client accepts it
+        URL resourceURL = url;
+        String encoding = null;
+        final String acceptEncoding = req.getHeader("Accept-Encoding");
+        if (acceptEncoding != null)
         {
-            res.setDateHeader("Last-Modified", lastModified);
+            for (final String[] enc : ENCODINGS)
+            {
+                if (acceptsEncoding(acceptEncoding, enc[0]))
+                {
+                    final URL variant = getServletContext().getResource(resName.concat(enc[1]));
+                    if (variant != null)
+                    {
+                        resourceURL = variant;
+                        encoding = enc[0];
+                        break;
+                    }
+                }
+            }
+        }
+        if (encoding != null)
+        {
+            res.setHeader("Content-Encoding", encoding);
+            res.addHeader("Vary", "Accept-Encoding");
         }
 
-        if (!resourceModified(lastModified, req.getDateHeader("If-Modified-Since")))
+        final Resource resource = new Resource(resourceURL);
+        try
         {
-            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            final long lastModified = resource.getLastModified();
+            if (lastModified != 0)
+            {
+                res.setDateHeader("Last-Modified", lastModified);
+            }
+            final long length = resource.getLength();
+            final String etag = (lastModified != 0 && length >= 0) ? createETag(lastModified, length, encoding) : null;
+            if (etag != null)
+            {
+                res.setHeader("ETag", etag);
+            }
+
+            final String ifNoneMatch = req.getHeader("If-None-Match");
+            if (ifNoneMatch != null ? matchesETag(ifNoneMatch, etag)
+                    : !resourceModified(lastModified, req.getDateHeader("If-Modified-Since")))
+            {
+                res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            long start = 0;
+            long count = length;
+            if (length >= 0)
+            {
+                res.setHeader("Accept-Ranges", "bytes");
+
+                final String range = req.getHeader("Range");
+                if (range != null && isRangeApplicable(req, etag, lastModified))
+                {
+                    final long[] bytes = parseRange(range, length);
+                    if (bytes != null && bytes.length == 0)
+                    {
+                        res.setHeader("Content-Range", "bytes */" + length);
+                        res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                        return;
+                    }
+                    else if (bytes != null)
+                    {
+                        start = bytes[0];
+                        count = bytes[1] - bytes[0] + 1;
+                        res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                        res.setHeader("Content-Range", "bytes " + bytes[0] + "-" + bytes[1] + "/" + length);
+                    }
+                }
+                // FELIX-3987 content length should be set *before* any streaming is done
+                // as headers should be written before the content is actually written...
+                res.setContentLengthLong(count);
+            }
+
+            copyResource(resource, res.getOutputStream(), start, count);
         }
-        else
+        finally
         {
-            copyResource(url, res);
+            resource.close();
         }
     }
 
-    private long getLastModified(final URL url)
+    private boolean resourceModified(long resTimestamp, long modSince)
     {
-        long lastModified = 0;
+        modSince /= 1000;
+        resTimestamp /= 1000;
+
+        return resTimestamp == 0 || modSince == -1 || resTimestamp > modSince;
+    }
+
+    /**
+     * A range request is only served if the resource has not changed since
+     * the validator of the If-Range header has been issued.
+     */
+    private boolean isRangeApplicable(final HttpServletRequest req, final String etag, final long lastModified)
+    {
+        final String ifRange = req.getHeader("If-Range");
+        if (ifRange == null)
+        {
+            return true;
+        }
+        if (ifRange.trim().startsWith("\"") || ifRange.trim().startsWith("W/"))
+        {
+            return etag != null && etag.equals(ifRange.trim());
+        }
+        final long date = req.getDateHeader("If-Range");
+        return lastModified != 0 && date / 1000 == lastModified / 1000;
+    }
 
+    private void copyResource(final Resource resource, final OutputStream os, final long start, final long count)
+            throws IOException
+    {
         try
         {
-            final URLConnection conn = url.openConnection();
-            lastModified = conn.getLastModified();
+            final byte[] content = resource.getCachedContent();
+            if (content != null)
+            {
+                os.write(content, (int) start, (int) (count < 0 ? content.length : count));
+            }
+            else if (resource.getFile() != null)
+            {
+                transferFile(resource.getFile(), os, start, count < 0 ? resource.getFile().length() - start : count);
+            }
+            else
+            {
+                final InputStream is = resource.getInputStream();
+                skipFully(is, start);
+
+                byte[] buf = new byte[8192];
+                long remaining = count < 0 ? Long.MAX_VALUE : count;
+                int n;
+
+                while (remaining > 0 && (n = is.read(buf, 0, (int) Math.min(buf.length, remaining))) >= 0)
+                {
+                    os.write(buf, 0, n);
+                    remaining -= n;
+                }
+            }
         }
-        catch (final Exception e)
+        finally
         {
-            // Do nothing
+            os.close();
         }
+    }
 
-        if (lastModified == 0)
+    private void transferFile(final File file, final OutputStream os, final long start, final long count)
+            throws IOException
+    {
+        final FileInputStream fis = new FileInputStream(file);
+        try
         {
-            final String filepath = url.getPath();
-            if (filepath != null)
+            final FileChannel channel = fis.getChannel();
+            final WritableByteChannel target = Channels.newChannel(os);
+            long position = start;
+            final long end = start + count;
+            while (position < end)
             {
-                final File f = new File(filepath);
-                if (f.exists())
+                final long n = channel.transferTo(position, end - position, target);
+                if (n <= 0)
                 {
-                    lastModified = f.lastModified();
+                    // the file has been truncated
+                    break;
                 }
+                position += n;
             }
         }
+        finally
+        {
+            fis.close();
+        }
+    }
 
-        return lastModified;
+    private static void skipFully(final InputStream is, long count) throws IOException
+    {
+        while (count > 0)
+        {
+            final long n = is.skip(count);
+            if (n <= 0)
+            {
+                if (is.read() < 0)
+                {
+                    break;
+                }
+                count--;
+            }
+            else
+            {
+                count -= n;
+            }
+        }
     }
 
-    private boolean resourceModified(long resTimestamp, long modSince)
+    static String createETag(final long lastModified, final long length, final String encoding)
     {
-        modSince /= 1000;
-        resTimestamp /= 1000;
+        final StringBuilder sb = new StringBuilder("\"");
+        sb.append(Long.toHexString(lastModified)).append('-').append(Long.toHexString(length));
+        if (encoding != null)
+        {
+            sb.append('-').append(encoding);
+        }
+        return sb.append('"').toString();
+    }
 
-        return resTimestamp == 0 || modSince == -1 || resTimestamp > modSince;
+    /**
+     * Check whether the value of an If-None-Match header matches the entity tag.
+     * Weak comparison is used as required for If-None-Match.
+     */
+    static boolean matchesETag(final String header, final String etag)
+    {
+        if (header.trim().equals("*"))
+        {
+            return true;
+        }
+        if (etag == null)
+        {
+            return false;
+        }
+        for (String tag : header.split(","))
+        {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+            {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag))
+            {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void copyResource(final URL url, final HttpServletResponse res) throws IOException
+    /**
+     * Check whether the Accept-Encoding header accepts the encoding,
+     * i.e. lists it without a quality value of 0.
+     */
+    static boolean acceptsEncoding(final String header, final String encoding)
     {
-        URLConnection conn = null;
-        OutputStream os = null;
-        InputStream is = null;
+        for (final String element : header.split(","))
+        {
+            final String[] parts = element.split(";");
+            if (parts[0].trim().equalsIgnoreCase(encoding))
+            {
+                for (int i = 1; i < parts.length; i++)
+                {
+                    final String param = parts[i].trim();
+                    if (param.startsWith("q="))
+                    {
+                        try
+                        {
+                            return Double.parseDouble(param.substring(2)) > 0;
+                        }
+                        catch (final NumberFormatException nfe)
+                        {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
 
+    /**
+     * Parse the value of a Range header.
+     * Only a single byte range is supported, for any other range the whole
+     * resource is sent.
+     *
+     * @param header The header value
+     * @param length The length of the resource
+     * @return The first and last byte position, an empty array if the range
+     *         can't be satisfied or {@code null} if the header is ignored
+     */
+    static long[] parseRange(final String header, final long length)
+    {
+        final String value = header.trim();
+        if (!value.startsWith("bytes=") || value.indexOf(',') != -1)
+        {
+            return null;
+        }
+        final String spec = value.substring(6).trim();
+        final int dash = spec.indexOf('-');
+        if (dash == -1)
+        {
+            return null;
+        }
         try
         {
-            conn = url.openConnection();
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty())
+            {
+                // suffix range: the last n bytes
+                if (last.isEmpty())
+                {
+                    return null;
+                }
+                final long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0)
+                {
+                    return new long[0];
+                }
+                return new long[] {Math.max(0, length - suffix), length - 1};
+            }
+            final long start = Long.parseLong(first);
+            final long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start))
+            {
+                return null;
+            }
+            if (start >= length)
+            {
+                return new long[0];
+            }
+            return new long[] {start, end};
+        }
+        catch (final NumberFormatException nfe)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * A resource to be sent. Its metadata is read once per request, the
+     * content of small resources is taken from the cache if it has not been
+     * modified since it was cached.
+     */
+    private static final class Resource
+    {
+        private final URL url;
+
+        private final File file;
+
+        private URLConnection conn;
+
+        private InputStream is;
+
+        private long lastModified;
+
+        private long length;
+
+        private byte[] content;
+
+        Resource(final URL url) throws IOException
+        {
+            this.url = url;
+            this.file = toFile(url);
+            if (this.file != null)
+            {
+                this.lastModified = this.file.lastModified();
+                this.length = this.file.length();
+            }
+            else
+            {
+                this.conn = url.openConnection();
+                this.lastModified = getLastModified(this.conn);
+                this.length = getContentLength(this.conn);
+            }
 
-            is = conn.getInputStream();
-            os = res.getOutputStream();
-            // FELIX-3987 content length should be set *before* any streaming is done
-            // as headers should be written before the content is actually written...
-            int len = getContentLength(conn);
-            if (len >= 0)
+            if (this.length >= 0 && this.length <= MAX_CACHED_RESOURCE_SIZE)
             {
-                res.setContentLength(len);
+                final ResourceCache.Entry entry = CACHE.get(url.toExternalForm());
+                if (entry != null && entry.lastModified == this.lastModified && entry.lastModified != 0
+                        && entry.content.length == this.length)
+                {
+                    this.content = entry.content;
+                }
+                else if (this.lastModified != 0)
+                {
+                    this.content = readFully(this.file != null ? new FileInputStream(this.file) : getInputStream());
+                    if (this.content.length == this.length)
+                    {
+                        CACHE.put(url.toExternalForm(), new ResourceCache.Entry(this.lastModified, this.content));
+                    }
+                    else
+                    {
+                        this.length = this.content.length;
+                    }
+                }
             }
+        }
+
+        long getLastModified()
+        {
+            return this.lastModified;
+        }
+
+        long getLength()
+        {
+            return this.length;
+        }
+
+        File getFile()
+        {
+            return this.file;
+        }
+
+        byte[] getCachedContent()
+        {
+            return this.content;
+        }
 
-            byte[] buf = new byte[1024];
-            int n;
+        InputStream getInputStream() throws IOException
+        {
+            if (this.is == null)
+            {
+                if (this.conn == null)
+                {
+                    this.conn = this.url.openConnection();
+                }
+                this.is = this.conn.getInputStream();
+            }
+            return this.is;
+        }
 
-            while ((n = is.read(buf, 0, buf.length)) >= 0)
+        void close() throws IOException
+        {
+            if (this.is != null)
             {
-                os.write(buf, 0, n);
+                this.is.close();
+                this.is = null;
             }
         }
-        finally
+
+        private static File toFile(final URL url)
         {
-            if (is != null)
+            if ("file".equals(url.getProtocol()))
+            {
+                try
+                {
+                    final File f = new File(url.toURI());
+                    if (f.isFile())
+                    {
+                        return f;
+                    }
+                }
+                catch (final URISyntaxException e)
+                {
+                    // Do nothing
+                }
+                catch (final IllegalArgumentException e)
+                {
+                    // Do nothing
+                }
+            }
+            return null;
+        }
+
+        private static byte[] readFully(final InputStream is) throws IOException
+        {
+            try
+            {
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final byte[] buf = new byte[4096];
+                int n;
+                while ((n = is.read(buf)) >= 0)
+                {
+                    baos.write(buf, 0, n);
+                }
+                return baos.toByteArray();
+            }
+            finally
             {
                 is.close();
             }
+        }
+
+        private static long getLastModified(final URLConnection conn)
+        {
+            long lastModified = 0;
 
-            if (os != null)
+            try
             {
-                os.close();
+                lastModified = conn.getLastModified();
             }
+            catch (final Exception e)
+            {
+                // Do nothing
+            }
+
+            if (lastModified == 0)
+            {
+                final String filepath = conn.getURL().getPath();
+                if (filepath != null)
+                {
+                    final File f = new File(filepath);
+                    if (f.exists())
+                    {
+                        lastModified = f.lastModified();
+                    }
+                }
+            }
+
+            return lastModified;
+        }
+
+        private static long getContentLength(final URLConnection conn)
+        {
+            long length = conn.getContentLengthLong();
+            if (length < 0)
+            {
+                // Unknown, try whether it is a file, and if so, use the file
+                // API to get the length of the content...
+                String path = conn.getURL().getPath();
+                if (path != null)
+                {
+                    File f = new File(path);
+                    if (f.isFile())
+                    {
+                        length = f.length();
+                    }
+                }
+            }
+            return length;
         }
     }
 
-    private int getContentLength(final URLConnection conn)
+    /**
+     * Least recently used cache of small resources, bounded by the total size
+     * of the cached content.
+     */
+    private static final class ResourceCache
     {
-        int length = -1;
+        static final class Entry
+        {
+            final long lastModified;
+
+            final byte[] content;
+
+            Entry(final long lastModified, final byte[] content)
+            {
+                this.lastModified = lastModified;
+                this.content = content;
+            }
+        }
+
+        private final int maxSize;
+
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
 
-        length = conn.getContentLength();
-        if (length < 0)
+        private int size;
+
+        ResourceCache(final int maxSize)
+        {
+            this.maxSize = maxSize;
+        }
+
+        synchronized Entry get(final String key)
+        {
+            return this.entries.get(key);
+        }
+
+        synchronized void put(final String key, final Entry entry)
         {
-            // Unknown, try whether it is a file, and if so, use the file
-            // API to get the length of the content...
-            String path = conn.getURL().getPath();
-            if (path != null)
+            final Entry old = this.entries.put(key, entry);
+            if (old != null)
             {
-                File f = new File(path);
-                // In case more than 2GB is streamed
-                if (f.length() < Integer.MAX_VALUE)
-                {
-                    length = (int) f.length();
-                }
+                this.size -= old.content.length;
+            }
+            this.size += entry.content.length;
+
+            final Iterator<Map.Entry<String, Entry>> i = this.entries.entrySet().iterator();
+            while (this.size > this.maxSize && i.hasNext())
+            {
+                this.size -= i.next().getValue().content.length;
+                i.remove();
             }
         }
-        return length;
     }
 }
@@ -19,6 +19,12 @@ package org.apache.felix.http.base.internal.registry;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -75,4 +81,44 @@ public class PathResolverFactoryTest {
 
         assertResult(pr, "", "", null);
     }
+
+    @Test public void testPathTrie()
+    {
+        final List<PathResolver> resolvers = new ArrayList<PathResolver>();
+        for(final String pattern : new String[] {"", "/", "/*", "/foo/*", "/foo/bar/*", "/foo/bar",
+                "/foo//*", "*.jsp", "*.gz", "*.tar.gz", "/foo/bar/x.jsp", "bar/*"})
+        {
+            resolvers.add(PathResolverFactory.createPatternMatcher(null, pattern));
+        }
+        resolvers.add(PathResolverFactory.createRegexMatcher(".*/regex"));
+        Collections.sort(resolvers);
+
+        final PathResolverFactory.PathTrie trie = PathResolverFactory.createPathTrie(resolvers);
+        for(final String uri : new String[] {"", "/", "/foo", "/foo/", "/fool", "/foo/bar", "/foo/bar/",
+                "/foo/bar/x.jsp", "/foo/bar/y.jsp", "/foo/baz.jsp", "/a.tar.gz", "/a.gz", "/a.tar",
+                "/foo//x", "bar", "bar/x", "barx", "nothing", "/x/regex", "/foo/regex"})
+        {
+            final List<PathResolver> expected = new ArrayList<PathResolver>();
+            for(final PathResolver resolver : resolvers)
+            {
+                if ( resolver.resolve(uri) != null )
+                {
+                    expected.add(resolver);
+                }
+            }
+            assertSame(uri, expected.get(0), trie.match(uri));
+
+            final List<PathResolver> all = new ArrayList<PathResolver>();
+            trie.matchAll(uri, all);
+            assertEquals(uri, expected.size(), all.size());
+            assertEquals(uri, new HashSet<PathResolver>(expected), new HashSet<PathResolver>(all));
+        }
+    }
+
+    @Test public void testEmptyPathTrie()
+    {
+        final PathResolverFactory.PathTrie trie = PathResolverFactory.createPathTrie(Collections.<PathResolver>emptyList());
+        assertNull(trie.match("/foo"));
+        assertNull(trie.match(""));
+    }
 }
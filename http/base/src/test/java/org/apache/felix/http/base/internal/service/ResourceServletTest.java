@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ResourceServletTest
+{
+    @Test public void testParseRange()
+    {
+        assertArrayEquals(new long[] {0, 99}, ResourceServlet.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[] {500, 999}, ResourceServlet.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[] {900, 999}, ResourceServlet.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[] {0, 999}, ResourceServlet.parseRange("bytes=-2000", 1000));
+        assertArrayEquals(new long[] {990, 999}, ResourceServlet.parseRange("bytes=990-2000", 1000));
+
+        // not satisfiable
+        assertEquals(0, ResourceServlet.parseRange("bytes=1000-", 1000).length);
+        assertEquals(0, ResourceServlet.parseRange("bytes=-0", 1000).length);
+
+        // ignored
+        assertNull(ResourceServlet.parseRange("bytes=0-1,5-6", 1000));
+        assertNull(ResourceServlet.parseRange("bytes=5-1", 1000));
+        assertNull(ResourceServlet.parseRange("bytes=a-b", 1000));
+        assertNull(ResourceServlet.parseRange("items=0-1", 1000));
+        assertNull(ResourceServlet.parseRange("bytes=-", 1000));
+    }
+
+    @Test public void testAcceptsEncoding()
+    {
+        assertTrue(ResourceServlet.acceptsEncoding("gzip, deflate, br", "br"));
+        assertTrue(ResourceServlet.acceptsEncoding("gzip;q=0.5, br;q=1.0", "gzip"));
+        assertTrue(ResourceServlet.acceptsEncoding("GZIP", "gzip"));
+        assertFalse(ResourceServlet.acceptsEncoding("gzip;q=0, br", "gzip"));
+        assertFalse(ResourceServlet.acceptsEncoding("deflate", "gzip"));
+        assertFalse(ResourceServlet.acceptsEncoding("", "br"));
+    }
+
+    @Test public void testETag()
+    {
+        final String etag = ResourceServlet.createETag(1000L, 16L, null);
+        assertEquals("\"3e8-10\"", etag);
+        assertEquals("\"3e8-10-gzip\"", ResourceServlet.createETag(1000L, 16L, "gzip"));
+
+        assertTrue(ResourceServlet.matchesETag(etag, etag));
+        assertTrue(ResourceServlet.matchesETag("\"other\", " + etag, etag));
+        assertTrue(ResourceServlet.matchesETag("W/" + etag, etag));
+        assertTrue(ResourceServlet.matchesETag("*", etag));
+        assertTrue(ResourceServlet.matchesETag("*", null));
+        assertFalse(ResourceServlet.matchesETag("\"other\"", etag));
+        assertFalse(ResourceServlet.matchesETag(etag, null));
+    }
+}
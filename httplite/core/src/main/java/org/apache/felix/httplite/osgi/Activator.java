@@ -126,6 +126,10 @@ public class Activator implements BundleActivator
             context.getProperty(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP));
         config.put(Server.CONFIG_PROPERTY_CONNECTION_TIMEOUT_PROP,
             context.getProperty(Server.CONFIG_PROPERTY_CONNECTION_TIMEOUT_PROP));
+        config.put(Server.CONFIG_PROPERTY_NIO_ENABLE,
+            context.getProperty(Server.CONFIG_PROPERTY_NIO_ENABLE));
+        config.put(Server.CONFIG_PROPERTY_NIO_MAXBODYSIZE_PROP,
+            context.getProperty(Server.CONFIG_PROPERTY_NIO_MAXBODYSIZE_PROP));
 
         return config;
     }
@@ -0,0 +1,304 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.server;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.servlet.ServletException;
+
+import org.apache.felix.httplite.osgi.Logger;
+import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
+import org.apache.felix.httplite.servlet.ConcreteServletInputStream;
+import org.apache.felix.httplite.servlet.HttpServletRequestImpl;
+import org.apache.felix.httplite.servlet.HttpServletResponseImpl;
+
+/**
+ * This class represents a connection accepted by the {@link ChannelSelector}.
+ * The selector thread reads the bytes of the connection without blocking
+ * until a complete request, including its body, has been received. Only then
+ * is the connection added to the thread pool, which services exactly that
+ * request and hands the connection back to the selector. Idle persistent
+ * connections therefore do not occupy a pool thread.
+**/
+public class ChannelConnection extends Connection
+{
+    /**
+     * Maximum size of the request line and headers of a request.
+     */
+    public static final int MAX_HEADER_SIZE = 65536;
+
+    /**
+     * Default maximum size of the body of a request.
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = 1048576;
+
+    private static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes();
+    private static final byte[] TOO_LARGE_RESPONSE = ("HTTP/1.1 413 Request Entity Too Large\r\n"
+        + "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes();
+
+    private final SocketChannel m_channel;
+    private final ChannelSelector m_selector;
+    private final int m_timeout;
+    private final int m_maxBodySize;
+    private final ServiceRegistrationResolver m_resolver;
+    private final Logger m_logger;
+
+    private byte[] m_buffer = new byte[1024];
+    private int m_count = 0;
+    // Position up to which the buffer was scanned and start of the current line.
+    private int m_scanned = 0;
+    private int m_lineStart = 0;
+    // Length of the request line and headers of the buffered request, or -1.
+    private int m_headerLength = -1;
+    private int m_contentLength = 0;
+    private boolean m_expectContinue = false;
+    private boolean m_continueSent = false;
+    private long m_lastActivity = System.currentTimeMillis();
+    private boolean m_close = false;
+
+    /**
+     * Constructs a connection for the specified non-blocking channel.
+     * @param channel The client channel.
+     * @param selector The selector thread owning the channel.
+     * @param timeout The inactivity timeout of the connection in milliseconds.
+     * @param requestLimit The maximum number of consecutive requests.
+     * @param maxBodySize The maximum size of a request body in bytes.
+     * @param resolver resolves a request URI to a client or servlet registration via the HTTP Service.
+     * @param logger logger instance.
+    **/
+    public ChannelConnection(final SocketChannel channel, final ChannelSelector selector,
+        final int timeout, final int requestLimit, final int maxBodySize,
+        final ServiceRegistrationResolver resolver, final Logger logger)
+    {
+        super(channel.socket(), requestLimit, resolver, logger);
+        m_channel = channel;
+        m_selector = selector;
+        m_timeout = timeout;
+        m_maxBodySize = maxBodySize;
+        m_resolver = resolver;
+        m_logger = logger;
+    }
+
+    /**
+     * Returns the channel of this connection.
+     * @return The client channel.
+    **/
+    public SocketChannel getChannel()
+    {
+        return m_channel;
+    }
+
+    /**
+     * Returns the time of the last read from or completed request on this connection.
+     * @return The time in milliseconds.
+    **/
+    public long getLastActivity()
+    {
+        return m_lastActivity;
+    }
+
+    /**
+     * Returns whether the connection must be closed after the request
+     * which was last processed.
+     * @return <tt>true</tt> if the connection must be closed.
+    **/
+    public boolean isClosing()
+    {
+        return m_close;
+    }
+
+    /**
+     * Reads the currently available bytes from the channel. This is only
+     * called by the selector thread.
+     * @return <tt>false</tt> if the client closed the connection.
+     * @throws java.io.IOException If any I/O error occurs.
+    **/
+    public boolean read() throws IOException
+    {
+        if (m_count == m_buffer.length)
+        {
+            byte[] buffer = new byte[m_buffer.length * 2];
+            System.arraycopy(m_buffer, 0, buffer, 0, m_count);
+            m_buffer = buffer;
+        }
+        int n = m_channel.read(ByteBuffer.wrap(m_buffer, m_count, m_buffer.length - m_count));
+        if (n < 0)
+        {
+            return false;
+        }
+        m_count += n;
+        m_lastActivity = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Determines whether a complete request has been buffered. If the client
+     * expects a continue message before sending the body, it is sent here.
+     * A request whose body exceeds the maximum body size is answered with
+     * status 413 and the connection must be closed. This is only called by
+     * the selector thread.
+     * @return <tt>true</tt> if a complete request is available.
+     * @throws java.io.IOException If the request is malformed or too large, or
+     *         if any I/O error occurs.
+    **/
+    public boolean isRequestComplete() throws IOException
+    {
+        if (m_headerLength < 0 && !parseHeaderLength())
+        {
+            if (m_count > MAX_HEADER_SIZE)
+            {
+                throw new IOException("Request header exceeds " + MAX_HEADER_SIZE + " bytes.");
+            }
+            return false;
+        }
+
+        if (m_contentLength > m_maxBodySize)
+        {
+            // Best effort, the connection is closed anyway.
+            m_channel.write(ByteBuffer.wrap(TOO_LARGE_RESPONSE));
+            throw new IOException("Request body exceeds " + m_maxBodySize + " bytes.");
+        }
+
+        if (m_count - m_headerLength >= m_contentLength)
+        {
+            return true;
+        }
+
+        if (m_expectContinue && !m_continueSent)
+        {
+            m_continueSent = true;
+            m_channel.write(ByteBuffer.wrap(CONTINUE_RESPONSE));
+        }
+        return false;
+    }
+
+    /**
+     * Services the buffered request and hands the connection back to the
+     * selector thread, which closes it if required. This method will be
+     * called by threads in the thread pool.
+     * @throws java.io.IOException If any I/O error occurs.
+     * @throws ServletException on servlet errors
+    **/
+    public void process() throws IOException, ServletException
+    {
+        int length = m_headerLength + m_contentLength;
+        ConcreteServletInputStream is = new ConcreteServletInputStream(
+            new ByteArrayInputStream(m_buffer, 0, length));
+        OutputStream os = new BufferedOutputStream(new ChannelOutputStream(m_channel, m_timeout));
+
+        HttpServletRequestImpl request = m_resolver.getServletRequest(m_channel.socket());
+        HttpServletResponseImpl response = m_resolver.getServletResponse(os);
+
+        m_close = true;
+        try
+        {
+            // The body has already been received, so there is no need
+            // to ask the client to continue.
+            m_close = processRequest(request, response, is, false);
+            os.flush();
+        }
+        finally
+        {
+            try
+            {
+                os.close();
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(Logger.LOG_ERROR, "Error closing channel output stream.", ex);
+            }
+
+            // Keep any pipelined bytes of the next request.
+            m_count -= length;
+            System.arraycopy(m_buffer, length, m_buffer, 0, m_count);
+            m_scanned = 0;
+            m_lineStart = 0;
+            m_headerLength = -1;
+            m_contentLength = 0;
+            m_expectContinue = false;
+            m_continueSent = false;
+            m_lastActivity = System.currentTimeMillis();
+
+            m_selector.resume(this);
+        }
+    }
+
+    /**
+     * Scans the buffer for the empty line terminating the request headers and
+     * picks up the content length and expectation of the request on the way.
+     */
+    private boolean parseHeaderLength() throws IOException
+    {
+        for (; m_scanned < m_count; m_scanned++)
+        {
+            if (m_buffer[m_scanned] != '\n')
+            {
+                continue;
+            }
+            int lineEnd = (m_scanned > m_lineStart && m_buffer[m_scanned - 1] == '\r')
+                ? m_scanned - 1 : m_scanned;
+            if (lineEnd == m_lineStart && m_lineStart > 0)
+            {
+                m_headerLength = m_scanned + 1;
+                return true;
+            }
+            parseHeaderLine(new String(m_buffer, m_lineStart, lineEnd - m_lineStart, "ISO-8859-1"));
+            m_lineStart = m_scanned + 1;
+        }
+        return false;
+    }
+
+    private void parseHeaderLine(final String line) throws IOException
+    {
+        int idx = line.indexOf(':');
+        if (idx <= 0)
+        {
+            return;
+        }
+        String header = line.substring(0, idx).trim();
+        String value = line.substring(idx + 1).trim();
+        if (header.equalsIgnoreCase("Content-Length"))
+        {
+            long contentLength;
+            try
+            {
+                contentLength = Long.parseLong(value);
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new IOException("Malformed content length: " + value);
+            }
+            if (contentLength < 0)
+            {
+                throw new IOException("Malformed content length: " + value);
+            }
+            // Anything beyond an int exceeds the maximum body size anyway.
+            m_contentLength = (int) Math.min(contentLength, Integer.MAX_VALUE);
+        }
+        else if (header.equalsIgnoreCase("Expect"))
+        {
+            m_expectContinue = value.equalsIgnoreCase("100-continue");
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * This class implements a blocking output stream on top of a non-blocking
+ * socket channel. If the channel cannot accept more bytes, the writing thread
+ * waits on a private selector until the channel becomes writable again or
+ * the write timeout expires. Closing the stream does not close the channel.
+**/
+public class ChannelOutputStream extends OutputStream
+{
+    private final SocketChannel m_channel;
+    private final int m_timeout;
+    private Selector m_selector;
+
+    /**
+     * Constructs an output stream writing to the specified channel.
+     * @param channel The non-blocking client channel.
+     * @param timeout The write timeout in milliseconds; zero means no timeout.
+    **/
+    public ChannelOutputStream(final SocketChannel channel, final int timeout)
+    {
+        m_channel = channel;
+        m_timeout = timeout;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(int)
+     */
+    public void write(final int b) throws IOException
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write(final byte[] b, final int off, final int len) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining())
+        {
+            if (m_channel.write(buffer) == 0)
+            {
+                awaitWritable();
+            }
+        }
+    }
+
+    /**
+     * Closes the private selector, if any. The channel itself is closed by
+     * the selector thread which owns the connection.
+     * @throws java.io.IOException If any I/O error occurs.
+    **/
+    public void close() throws IOException
+    {
+        if (m_selector != null)
+        {
+            m_selector.close();
+            m_selector = null;
+        }
+    }
+
+    private void awaitWritable() throws IOException
+    {
+        if (m_selector == null)
+        {
+            m_selector = Selector.open();
+            m_channel.register(m_selector, SelectionKey.OP_WRITE);
+        }
+        if (m_selector.select(m_timeout) == 0)
+        {
+            throw new SocketTimeoutException("Timed out writing to " + m_channel.socket());
+        }
+        m_selector.selectedKeys().clear();
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.felix.httplite.osgi.Logger;
+import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
+
+/**
+ * This class implements the non-blocking front end of the web server. A
+ * single thread accepts connections and reads requests off the wire with a
+ * <tt>Selector</tt>. Once a connection has buffered a complete request it is
+ * added to the thread pool; when the request has been serviced, the pool
+ * thread hands the connection back so that the selector can wait for the
+ * next request or close the connection. Connections which have been idle
+ * for longer than the connection timeout are closed by the selector thread.
+**/
+public class ChannelSelector
+{
+    /**
+     * Maximum interval between two checks for idle connections.
+     */
+    private static final int MAX_EXPIRY_INTERVAL = 1000;
+
+    private final ServerSocketChannel m_serverChannel;
+    private final Selector m_selector;
+    private final ThreadPool m_threadPool;
+    private final int m_connectionTimeout;
+    private final int m_connectionRequestLimit;
+    private final int m_maxBodySize;
+    private final ServiceRegistrationResolver m_resolver;
+    private final Logger m_logger;
+
+    private final List m_resumed = new ArrayList();
+    private boolean m_closed = false;
+
+    /**
+     * Constructs a selector for the specified bound server channel.
+     * @param serverChannel The server channel to accept connections from.
+     * @param threadPool The thread pool servicing complete requests.
+     * @param connectionTimeout The inactivity timeout of connections in milliseconds.
+     * @param connectionRequestLimit The maximum number of consecutive requests.
+     * @param maxBodySize The maximum size of a request body in bytes.
+     * @param resolver resolves a request URI to a client or servlet registration via the HTTP Service.
+     * @param logger logger instance.
+     * @throws java.io.IOException If the selector cannot be opened.
+    **/
+    public ChannelSelector(final ServerSocketChannel serverChannel, final ThreadPool threadPool,
+        final int connectionTimeout, final int connectionRequestLimit, final int maxBodySize,
+        final ServiceRegistrationResolver resolver, final Logger logger) throws IOException
+    {
+        m_serverChannel = serverChannel;
+        m_threadPool = threadPool;
+        m_connectionTimeout = connectionTimeout;
+        m_connectionRequestLimit = connectionRequestLimit;
+        m_maxBodySize = maxBodySize;
+        m_resolver = resolver;
+        m_logger = logger;
+
+        m_serverChannel.configureBlocking(false);
+        m_selector = Selector.open();
+        m_serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * This method is the main loop of the selector thread. It returns once
+     * the server channel has been closed; all remaining connections are
+     * closed at that point, except those currently being serviced, which
+     * are closed as soon as they are handed back.
+     * @throws java.io.IOException If the selector fails.
+    **/
+    public void run() throws IOException
+    {
+        int expiryInterval = (m_connectionTimeout > 0)
+            ? Math.min(m_connectionTimeout, MAX_EXPIRY_INTERVAL) : 0;
+        long nextExpiry = System.currentTimeMillis() + expiryInterval;
+
+        try
+        {
+            while (m_serverChannel.isOpen())
+            {
+                m_selector.select(expiryInterval);
+
+                processResumed();
+
+                Iterator it = m_selector.selectedKeys().iterator();
+                while (it.hasNext())
+                {
+                    SelectionKey key = (SelectionKey) it.next();
+                    it.remove();
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+                    if (key.isAcceptable())
+                    {
+                        acceptConnections();
+                    }
+                    else if (key.isReadable())
+                    {
+                        readConnection((ChannelConnection) key.attachment());
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (expiryInterval > 0 && now >= nextExpiry)
+                {
+                    expireConnections(now);
+                    nextExpiry = now + expiryInterval;
+                }
+            }
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                m_closed = true;
+            }
+            Iterator it = m_selector.keys().iterator();
+            while (it.hasNext())
+            {
+                SelectionKey key = (SelectionKey) it.next();
+                // Connections being serviced are closed when they are resumed.
+                if (key.attachment() != null && key.isValid() && key.interestOps() != 0)
+                {
+                    close((ChannelConnection) key.attachment());
+                }
+            }
+            processResumed();
+            m_selector.close();
+            m_serverChannel.close();
+        }
+    }
+
+    /**
+     * Wakes up the selector thread, for instance after the server channel
+     * has been closed.
+    **/
+    public void wakeup()
+    {
+        m_selector.wakeup();
+    }
+
+    /**
+     * Hands a connection whose request has been serviced back to the selector
+     * thread. This is called by threads in the thread pool.
+     * @param connection the connection.
+    **/
+    void resume(final ChannelConnection connection)
+    {
+        synchronized (this)
+        {
+            if (!m_closed)
+            {
+                m_resumed.add(connection);
+                m_selector.wakeup();
+                return;
+            }
+        }
+        close(connection);
+    }
+
+    private void processResumed()
+    {
+        Object[] resumed;
+        synchronized (this)
+        {
+            if (m_resumed.isEmpty())
+            {
+                return;
+            }
+            resumed = m_resumed.toArray();
+            m_resumed.clear();
+        }
+
+        for (int i = 0; i < resumed.length; i++)
+        {
+            ChannelConnection connection = (ChannelConnection) resumed[i];
+            if (connection.isClosing() || !m_serverChannel.isOpen())
+            {
+                close(connection);
+                continue;
+            }
+            try
+            {
+                // The client may have pipelined its next request.
+                if (!dispatch(connection))
+                {
+                    connection.getChannel().keyFor(m_selector).interestOps(SelectionKey.OP_READ);
+                }
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(Logger.LOG_DEBUG, "Error resuming connection: " + ex.getMessage());
+                close(connection);
+            }
+        }
+    }
+
+    private void acceptConnections()
+    {
+        while (true)
+        {
+            SocketChannel channel;
+            try
+            {
+                channel = m_serverChannel.accept();
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(Logger.LOG_ERROR, "The call to accept() terminated with an exception.", ex);
+                return;
+            }
+            if (channel == null)
+            {
+                return;
+            }
+
+            ChannelConnection connection = new ChannelConnection(channel, this,
+                m_connectionTimeout, m_connectionRequestLimit, m_maxBodySize, m_resolver, m_logger);
+            try
+            {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.register(m_selector, SelectionKey.OP_READ, connection);
+                m_logger.log(Logger.LOG_DEBUG, "Accepted a new connection.");
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(Logger.LOG_ERROR, "Error creating connection.", ex);
+                close(connection);
+            }
+        }
+    }
+
+    private void readConnection(final ChannelConnection connection)
+    {
+        try
+        {
+            if (!connection.read())
+            {
+                close(connection);
+            }
+            else
+            {
+                dispatch(connection);
+            }
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Error reading request: " + ex.getMessage());
+            close(connection);
+        }
+    }
+
+    /**
+     * Adds the connection to the thread pool if it has buffered a complete
+     * request, in which case the selector stops reading from it until it has
+     * been resumed.
+     */
+    private boolean dispatch(final ChannelConnection connection) throws IOException
+    {
+        if (!connection.isRequestComplete())
+        {
+            return false;
+        }
+        connection.getChannel().keyFor(m_selector).interestOps(0);
+        try
+        {
+            m_threadPool.addConnection(connection);
+        }
+        catch (IllegalStateException ex)
+        {
+            // The thread pool is stopping.
+            close(connection);
+        }
+        return true;
+    }
+
+    private void expireConnections(final long now)
+    {
+        Iterator it = m_selector.keys().iterator();
+        while (it.hasNext())
+        {
+            SelectionKey key = (SelectionKey) it.next();
+            ChannelConnection connection = (ChannelConnection) key.attachment();
+            if (connection != null && key.isValid() && key.interestOps() != 0
+                && (now - connection.getLastActivity()) > m_connectionTimeout)
+            {
+                m_logger.log(Logger.LOG_INFO, "Connection closed due to inactivity.");
+                close(connection);
+            }
+        }
+    }
+
+    private void close(final ChannelConnection connection)
+    {
+        try
+        {
+            connection.getChannel().close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing socket.", ex);
+        }
+    }
+}
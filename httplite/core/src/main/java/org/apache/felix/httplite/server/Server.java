@@ -20,9 +20,11 @@ package org.apache.felix.httplite.server;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -69,6 +71,15 @@ public class Server
      * The address of the host interface to bind http to. The default is to bind to all interfaces.
      */
     public static final String CONFIG_PROPERTY_HTTP_HOST = "org.apache.felix.http.host"; 
+    /**
+     * Flag to enable the non-blocking front end, which only occupies a pool thread while a
+     * complete request is being serviced. The default is false.
+     */
+    public static final String CONFIG_PROPERTY_NIO_ENABLE = "org.apache.felix.http.nio.enable";
+    /**
+     * Maximum size in bytes of a request body buffered by the non-blocking front end.
+     */
+    public static final String CONFIG_PROPERTY_NIO_MAXBODYSIZE_PROP = "org.apache.felix.http.nio.maxbodysize";
 
     /**
      * Default HTTP port to listen on.
@@ -101,7 +112,10 @@ public class Server
 
     private Thread m_serverThread;
     private ServerSocket m_serverSocket;
+    private ChannelSelector m_channelSelector;
     private final ThreadPool m_threadPool;
+    private final boolean m_nio;
+    private final int m_maxBodySize;
 
     private final int m_connectionTimeout;
     private final int m_connectionRequestLimit;
@@ -138,6 +152,14 @@ public class Server
      *       connections after which the connection is closed; the default value
      *       is 10000 milliseconds.
      *   </li>
+     *   <li><tt>org.apache.felix.http.nio.enable</tt> - whether connections are accepted and read
+     *       by a non-blocking selector thread, so that idle connections do not occupy a thread
+     *       of the thread pool; the default value is false.
+     *   </li>
+     *   <li><tt>org.apache.felix.http.nio.maxbodysize</tt> - the maximum size of a request body
+     *       accepted by the non-blocking selector thread, which buffers the complete request;
+     *       larger requests are rejected with status 413; the default value is 1048576 bytes.
+     *   </li>
      * </ul>
      * The configuration properties cannot be changed after construction. The
      * web server is not active until it is started.
@@ -163,6 +185,10 @@ public class Server
             : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_TIMEOUT_PROP));
         m_connectionRequestLimit = (configMap.get(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP) == null) ? Connection.DEFAULT_CONNECTION_REQUESTLIMIT
             : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP));
+        m_nio = (configMap.get(Server.CONFIG_PROPERTY_NIO_ENABLE) == null) ? false
+            : Boolean.valueOf((String) configMap.get(Server.CONFIG_PROPERTY_NIO_ENABLE)).booleanValue();
+        m_maxBodySize = (configMap.get(Server.CONFIG_PROPERTY_NIO_MAXBODYSIZE_PROP) == null) ? ChannelConnection.DEFAULT_MAX_BODY_SIZE
+            : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_NIO_MAXBODYSIZE_PROP));
     }
 
     /**
@@ -266,7 +292,23 @@ public class Server
         {
             // If inactive, then create server socket, server thread, and
             // set state to active.
-            if (m_bindAddr == null)
+            if (m_nio)
+            {
+                ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                try
+                {
+                    serverChannel.socket().bind(new InetSocketAddress(m_bindAddr, m_port));
+                    m_channelSelector = new ChannelSelector(serverChannel, m_threadPool,
+                        m_connectionTimeout, m_connectionRequestLimit, m_maxBodySize, m_resolver, m_logger);
+                }
+                catch (IOException ex)
+                {
+                    serverChannel.close();
+                    throw ex;
+                }
+                m_serverSocket = serverChannel.socket();
+            }
+            else if (m_bindAddr == null)
             {
                 m_serverSocket = new ServerSocket(m_port);
             }
@@ -279,7 +321,14 @@ public class Server
             {
 				public void run()
                 {
-                    acceptConnections();
+                    if (m_channelSelector != null)
+                    {
+                        selectConnections();
+                    }
+                    else
+                    {
+                        acceptConnections();
+                    }
                 }
             }, "HttpServer");
             m_state = ACTIVE_STATE;
@@ -335,6 +384,10 @@ public class Server
                 catch (IOException ex)
                 {
                 }
+                if (m_channelSelector != null)
+                {
+                    m_channelSelector.wakeup();
+                }
             }
         }
 
@@ -397,6 +450,35 @@ public class Server
         shutdown();
     }
 
+    /**
+     * This method is the main server loop when the non-blocking front end is
+     * enabled; connections are accepted and read by the channel selector. This
+     * is only ever called by the server thread.
+    **/
+    private void selectConnections()
+    {
+        // Start the thread pool.
+        m_threadPool.start();
+
+        m_logger.log(Logger.LOG_DEBUG, "Waiting for connections.");
+
+        try
+        {
+            m_channelSelector.run();
+        }
+        catch (IOException ex)
+        {
+            if (!m_stopping)
+            {
+                m_logger.log(Logger.LOG_ERROR,
+                    "The channel selector terminated with an exception.", ex);
+            }
+        }
+
+        // Shutdown the server.
+        shutdown();
+    }
+
     /**
      * This method shuts down the server; it is only ever called by the
      * server thread.
@@ -427,6 +509,7 @@ public class Server
             // gate and set the state to inactive.
             m_shutdownGate.open();
             m_shutdownGate = null;
+            m_channelSelector = null;
             m_state = INACTIVE_STATE;
         }
         m_logger.log(Logger.LOG_DEBUG, "Shutdown complete.");
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.osgi.test.cases;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.httplite.osgi.HttpServiceImpl;
+import org.apache.felix.httplite.osgi.Logger;
+import org.apache.felix.httplite.server.Server;
+
+
+/**
+ * Tests of the non-blocking front end, which buffers complete requests
+ * before they are serviced.
+ */
+public class TestNonBlockingServer extends TestCase
+{
+    private static final int PORT = 8082;
+
+    private Server m_server;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        Map config = new HashMap();
+        config.put( Server.CONFIG_PROPERTY_HTTP_PORT, Integer.toString( PORT ) );
+        config.put( Server.CONFIG_PROPERTY_NIO_ENABLE, "true" );
+        config.put( Server.CONFIG_PROPERTY_NIO_MAXBODYSIZE_PROP, "1024" );
+
+        Logger logger = new Logger();
+        m_server = new Server( config, logger );
+        HttpServiceImpl httpService = new HttpServiceImpl( null, m_server, logger, new HashMap() );
+        httpService.registerServlet( "/echo", new EchoServlet(), null, null );
+        m_server.start( httpService );
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        m_server.stop();
+        super.tearDown();
+    }
+
+
+    /**
+     * Test a request arriving in several reads is serviced once it is complete.
+     *
+     * @throws Exception
+     */
+    public void testPartialReads() throws Exception
+    {
+        String response = send( new String[]
+            { "POST /echo HTTP/1.1\r\nHo", "st: localhost\r\nContent-Length: 5\r\n\r\nhe", "llo" } );
+
+        assertTrue( response, response.startsWith( "HTTP/1.1 200" ) );
+        assertTrue( response, response.indexOf( "[hello]" ) > 0 );
+    }
+
+
+    /**
+     * Test the bytes of a pipelined request are not taken as part of the
+     * preceding request.
+     *
+     * @throws Exception
+     */
+    public void testPipelinedRequests() throws Exception
+    {
+        String response = send( new String[]
+            { "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nfirst"
+                + "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 6\r\n\r\nsecond" } );
+
+        assertTrue( response, response.startsWith( "HTTP/1.1 200" ) );
+        assertTrue( response, response.indexOf( "[first]" ) > 0 );
+        assertTrue( response, response.indexOf( "firstPOST" ) < 0 );
+    }
+
+
+    /**
+     * Test a request body larger than the maximum body size is rejected
+     * before it is buffered.
+     *
+     * @throws Exception
+     */
+    public void testOversizedBody() throws Exception
+    {
+        String response = send( new String[]
+            { "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 2048\r\n\r\n" } );
+        assertTrue( response, response.startsWith( "HTTP/1.1 413" ) );
+
+        response = send( new String[]
+            { "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 99999999999\r\n\r\n" } );
+        assertTrue( response, response.startsWith( "HTTP/1.1 413" ) );
+
+        // The server still services requests within the limit.
+        response = send( new String[]
+            { "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 2\r\n\r\nok" } );
+        assertTrue( response, response.startsWith( "HTTP/1.1 200" ) );
+    }
+
+
+    /**
+     * Sends the parts of a request with a short pause between them and reads
+     * the response until the server closes the connection.
+     */
+    private static String send( String[] parts ) throws IOException, InterruptedException
+    {
+        Socket socket = new Socket( "localhost", PORT );
+        try
+        {
+            socket.setSoTimeout( 5000 );
+            OutputStream os = socket.getOutputStream();
+            for ( int i = 0; i < parts.length; i++ )
+            {
+                if ( i > 0 )
+                {
+                    Thread.sleep( 100 );
+                }
+                os.write( parts[i].getBytes( "ISO-8859-1" ) );
+                os.flush();
+            }
+
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream is = socket.getInputStream();
+            byte[] buf = new byte[1024];
+            try
+            {
+                for ( int n = is.read( buf ); n >= 0; n = is.read( buf ) )
+                {
+                    response.write( buf, 0, n );
+                }
+            }
+            catch ( SocketTimeoutException e )
+            {
+                // Return what has been received so far.
+            }
+            catch ( IOException e )
+            {
+                // The server may reset the connection after rejecting a request.
+            }
+            return response.toString( "ISO-8859-1" );
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    private static class EchoServlet extends HttpServlet
+    {
+        protected void doPost( HttpServletRequest req, HttpServletResponse resp ) throws ServletException,
+            IOException
+        {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream is = req.getInputStream();
+            byte[] buf = new byte[1024];
+            for ( int n = is.read( buf ); n >= 0; n = is.read( buf ) )
+            {
+                body.write( buf, 0, n );
+            }
+            resp.getOutputStream().write( ( "[" + body.toString( "ISO-8859-1" ) + "]" ).getBytes( "ISO-8859-1" ) );
+        }
+    }
+}
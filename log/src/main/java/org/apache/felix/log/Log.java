@@ -18,7 +18,13 @@
  */
 package org.apache.felix.log;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
@@ -36,19 +42,25 @@ import org.osgi.service.log.LogListener;
  * Class used to represent the log.  This class is used by the implementations
  * of both the {@link org.osgi.service.log.LogService} interface and the
  * {@link org.osgi.service.log.LogReaderService} to access the log.
+ * <p>
+ * A bounded historic log is kept in a fixed size ring buffer which is written
+ * without locking: every entry claims the next position of the buffer and
+ * overwrites the oldest entry, unless a more recent entry has already been
+ * stored in its slot.  An unbounded historic log is kept in a concurrent
+ * deque.
  * @see org.osgi.service.log.LogService
  * @see org.osgi.service.log.LogReaderService
  */
 final class Log implements BundleListener, FrameworkListener, ServiceListener
 {
-    /** The first log entry. */
-    private LogNode m_head;
-    /** The last log entry. */
-    private LogNode m_tail;
-    /** The log size. */
-    private int m_size;
+    /** The entries of a bounded log with their positions, indexed by position modulo the log size. */
+    private final AtomicReferenceArray<Slot> m_entries;
+    /** The next position of a bounded log. */
+    private final AtomicLong m_nextPosition = new AtomicLong();
+    /** The entries of an unbounded log, most recent first. */
+    private final ConcurrentLinkedDeque<LogEntry> m_unbounded;
     /** The log listener thread. */
-    private LogListenerThread listenerThread;
+    private volatile LogListenerThread listenerThread;
     /** The maximum size for the log. */
     private final int m_maxSize;
     /** Whether or not to store debug messages. */
@@ -63,12 +75,23 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
     {
         this.m_maxSize = maxSize;
         this.m_storeDebug = storeDebug;
+
+        if (maxSize > 0)
+        {
+            m_entries = new AtomicReferenceArray<>(maxSize);
+            m_unbounded = null;
+        }
+        else
+        {
+            m_entries = null;
+            m_unbounded = (maxSize == -1) ? new ConcurrentLinkedDeque<LogEntry>() : null;
+        }
     }
 
     /**
      * Close the log.
      */
-    void close()
+    synchronized void close()
     {
         if (listenerThread != null)
         {
@@ -76,9 +99,17 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
             listenerThread = null;
         }
 
-        m_head = null;
-        m_tail = null;
-        m_size = 0;
+        if (m_entries != null)
+        {
+            for (int i = 0; i < m_maxSize; i++)
+            {
+                m_entries.set(i, null);
+            }
+        }
+        else if (m_unbounded != null)
+        {
+            m_unbounded.clear();
+        }
     }
 
     void log(
@@ -89,60 +120,67 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
         final String message,
         final Throwable exception) {
 
-        addEntry(new LogEntryImpl(name, bundle, sr, level, message, exception, getStackTraceElement()));
+        addEntry(new LogEntryImpl(name, bundle, sr, level, message, exception, captureLocation(level)));
+    }
+
+    /**
+     * Captures the location of the caller if the entry to be created will be
+     * stored in the historic log or delivered to listeners.  The stack trace
+     * elements are only created once the location is actually requested.
+     * @param level the level of the entry, or <code>null</code> if unknown
+     * @return the captured call stack or <code>null</code> if nobody will read the entry
+     */
+    Throwable captureLocation(final LogLevel level)
+    {
+        boolean stored = (m_maxSize != 0)
+            && (m_storeDebug || level == null || level != LogLevel.DEBUG);
+        if (!stored && listenerThread == null)
+        {
+            return null;
+        }
+        return new Throwable();
     }
 
     /**
      * Adds the entry to the log.
      * @param entry the entry to add to the log
      */
-    synchronized void addEntry(final LogEntry entry)
+    void addEntry(final LogEntry entry)
     {
-        if (m_maxSize != 0)
+        // add the entry to the historic log
+        if (m_maxSize != 0 && (m_storeDebug || entry.getLogLevel() != LogLevel.DEBUG))
         {
-            // add the entry to the historic log
-            if (m_storeDebug || entry.getLogLevel() != LogLevel.DEBUG)
+            if (m_entries != null)
             {
-                // create a new node for the entry
-                LogNode node = new LogNode(entry);
-
-                // add to the front of the linked list
-                node.setNextNode(m_head);
-                if (m_head != null)
+                // claim the next position, which overwrites the oldest entry;
+                // a writer which has been overtaken by the writer of a later
+                // position of the same slot drops its entry, which would
+                // have been overwritten anyway
+                long position = m_nextPosition.getAndIncrement();
+                int index = (int) (position % m_maxSize);
+                Slot slot = new Slot(position, entry);
+                Slot current;
+                do
                 {
-                    m_head.setPreviousNode(node);
-                }
-
-                // and store the node
-                m_head = node;
-
-                // bump the size of the list
-                ++m_size;
-
-                // if no tail node - add the node to the tail
-                if (m_tail == null)
-                {
-                    m_tail = node;
+                    current = m_entries.get(index);
+                    if (current != null && current.m_position > position)
+                    {
+                        break;
+                    }
                 }
+                while (!m_entries.compareAndSet(index, current, slot));
             }
-
-            // ensure the historic log doesn't grow beyond a certain size
-            if (m_maxSize != -1)
+            else
             {
-                if (m_size > m_maxSize)
-                {
-                    LogNode last = m_tail.getPreviousNode();
-                    last.setNextNode(null);
-                    m_tail = last;
-                    --m_size;
-                }
+                m_unbounded.addFirst(entry);
             }
         }
 
         // notify any listeners
-        if (listenerThread != null)
+        LogListenerThread thread = listenerThread;
+        if (thread != null)
         {
-            listenerThread.addEntry(entry);
+            thread.addEntry(entry);
         }
     }
 
@@ -185,9 +223,31 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
      * Returns an enumeration of all the entries in the log most recent first.
      * @return an enumeration of all the entries in the log most recent first
      */
-    synchronized Enumeration<LogEntry> getEntries()
+    Enumeration<LogEntry> getEntries()
     {
-        return new LogNodeEnumeration(m_head, m_tail);
+        if (m_unbounded != null)
+        {
+            return Collections.enumeration(new ArrayList<>(m_unbounded));
+        }
+        if (m_entries == null)
+        {
+            return Collections.emptyEnumeration();
+        }
+
+        // walk back from the most recent position; slots which are not
+        // written yet or have already been overwritten again are skipped
+        long end = m_nextPosition.get();
+        long start = Math.max(0, end - m_maxSize);
+        List<LogEntry> entries = new ArrayList<>((int) (end - start));
+        for (long position = end - 1; position >= start; position--)
+        {
+            Slot slot = m_entries.get((int) (position % m_maxSize));
+            if (slot != null && slot.m_position == position)
+            {
+                entries.add(slot.m_entry);
+            }
+        }
+        return Collections.enumeration(entries);
     }
 
     /** The messages returned for the framework events. */
@@ -268,17 +328,26 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
         }
     }
 
-    public static StackTraceElement getStackTraceElement() {
-        StackTraceElement[] elements = Thread.currentThread().getStackTrace();
-        if (elements.length == 0) {
+    /**
+     * Returns the first element of the given call stack outside of the log
+     * implementation.
+     * @param elements the call stack captured when the entry was logged
+     * @return the location of the caller or <code>null</code> if unknown
+     */
+    static StackTraceElement getLocation(final StackTraceElement[] elements)
+    {
+        if (elements.length == 0)
+        {
             return null;
         }
-        for (int i = 1; i < elements.length; i++) {
-            if (!elements[i].getClassName().startsWith("org.apache.felix.log")) {
+        for (int i = 0; i < elements.length; i++)
+        {
+            if (!elements[i].getClassName().startsWith("org.apache.felix.log"))
+            {
                 return elements[i];
             }
         }
-        return elements[1];
+        return elements[0];
     }
 
     /** The messages returned for the service events. */
@@ -314,4 +383,20 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
             message,
             null);
     }
-}
\ No newline at end of file
+
+    /**
+     * An entry of a bounded log, stored with its position so that a slot is
+     * never overwritten with an older entry.
+     */
+    private static final class Slot
+    {
+        final long m_position;
+        final LogEntry m_entry;
+
+        Slot(final long position, final LogEntry entry)
+        {
+            m_position = position;
+            m_entry = entry;
+        }
+    }
+}
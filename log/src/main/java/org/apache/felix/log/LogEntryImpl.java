@@ -65,8 +65,9 @@ final class LogEntryImpl implements LogEntry
     private final long m_sequence;
     /** The information about the Thread which logged the message. */
     private final String m_threadInfo;
-    /** The StackTraceElement where the message was originally logged. */
-    private final StackTraceElement m_stackTraceElement;
+    /** The call stack captured when the entry was logged, until the location is resolved. */
+    private volatile Throwable m_locationTrace;
+    private volatile StackTraceElement m_location;
 
     private volatile String _toString;
 
@@ -86,7 +87,7 @@ final class LogEntryImpl implements LogEntry
         final LogLevel level,
         final String message,
         final Throwable exception,
-        final StackTraceElement stackTraceElement)
+        final Throwable locationTrace)
     {
         this.m_name = name;
         this.m_bundle = bundle;
@@ -98,7 +99,7 @@ final class LogEntryImpl implements LogEntry
         this.m_time = System.currentTimeMillis();
         this.m_sequence = m_sequenceGenerator.getAndIncrement();
         this.m_threadInfo = Thread.currentThread().getName();
-        this.m_stackTraceElement = stackTraceElement;
+        this.m_locationTrace = locationTrace;
     }
 
     @SuppressWarnings("deprecation")
@@ -109,7 +110,7 @@ final class LogEntryImpl implements LogEntry
         final int legacyLevel,
         final String message,
         final Throwable exception,
-        final StackTraceElement stackTraceElement)
+        final Throwable locationTrace)
     {
         this.m_name = name;
         this.m_bundle = bundle;
@@ -135,7 +136,7 @@ final class LogEntryImpl implements LogEntry
         this.m_time = System.currentTimeMillis();
         this.m_sequence = m_sequenceGenerator.getAndIncrement();
         this.m_threadInfo = Thread.currentThread().getName();
-        this.m_stackTraceElement = stackTraceElement;
+        this.m_locationTrace = locationTrace;
     }
 
     /**
@@ -240,16 +241,22 @@ final class LogEntryImpl implements LogEntry
 
     @Override
     public StackTraceElement getLocation() {
-        return m_stackTraceElement;
+        Throwable locationTrace = m_locationTrace;
+        if (locationTrace != null) {
+            m_location = Log.getLocation(locationTrace.getStackTrace());
+            m_locationTrace = null;
+        }
+        return m_location;
     }
 
     @Override
     public String toString() {
         if (_toString == null) {
+            StackTraceElement location = getLocation();
             _toString = m_time + "#" + m_sequence + " [" + m_threadInfo + "] " + m_level +
                 " (" + m_legacyLevel + ") [" + m_bundle.getBundleId() + ":" + m_name + "] " +
-                    m_stackTraceElement.getClassName() + ":" +
-                    m_stackTraceElement.getLineNumber() + " > " + m_message +
+                    (location != null ? location.getClassName() + ":" +
+                    location.getLineNumber() : "?") + " > " + m_message +
                         (m_exception != null ? "\n" + exceptionString(m_exception) : "");
         }
         return _toString;
@@ -19,8 +19,8 @@
 package org.apache.felix.log;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogListener;
@@ -30,13 +30,19 @@ import org.osgi.service.log.LogListener;
  * any {@link LogListener} subscribers.  A subscriber can be added using the
  * {@link org.osgi.service.log.LogReaderService#addLogListener(LogListener)}
  * method.
+ * <p>
+ * Entries are delivered in batches: all entries logged since the last
+ * delivery are handed to one listener after the other, and the two entry
+ * lists are swapped instead of copied.
  */
 final class LogListenerThread extends Thread
 {
+    // The lock guarding the entries waiting to be delivered.
+    private final Object m_lock = new Object();
     // The list of entries waiting to be delivered to the log listeners.
-    private final List<LogEntry> m_entriesToDeliver = new ArrayList<>();
+    private List<LogEntry> m_entriesToDeliver = new ArrayList<>();
     // The list of listeners.
-    private final List<LogListener> m_listeners = new ArrayList<>();
+    private final List<LogListener> m_listeners = new CopyOnWriteArrayList<>();
 
     LogListenerThread() {
         super("FelixLogListener");
@@ -48,10 +54,14 @@ final class LogListenerThread extends Thread
      */
     void addEntry(final LogEntry entry)
     {
-        synchronized (m_entriesToDeliver)
+        synchronized (m_lock)
         {
             m_entriesToDeliver.add(entry);
-            m_entriesToDeliver.notifyAll();
+            // only the first entry of a batch needs to wake up the thread
+            if (m_entriesToDeliver.size() == 1)
+            {
+                m_lock.notifyAll();
+            }
         }
     }
 
@@ -61,10 +71,7 @@ final class LogListenerThread extends Thread
      */
     void addListener(final LogListener listener)
     {
-        synchronized (m_listeners)
-        {
-            m_listeners.add(listener);
-        }
+        m_listeners.add(listener);
     }
 
     /**
@@ -73,10 +80,7 @@ final class LogListenerThread extends Thread
      */
     void removeListener(final LogListener listener)
     {
-        synchronized (m_listeners)
-        {
-            m_listeners.remove(listener);
-        }
+        m_listeners.remove(listener);
     }
 
     /**
@@ -85,10 +89,7 @@ final class LogListenerThread extends Thread
      */
     int getListenerCount()
     {
-        synchronized (m_listeners)
-        {
-            return m_listeners.size();
-        }
+        return m_listeners.size();
     }
 
     /**
@@ -96,7 +97,7 @@ final class LogListenerThread extends Thread
      */
     void shutdown()
     {
-        synchronized (m_entriesToDeliver)
+        synchronized (m_lock)
         {
             interrupt();
         }
@@ -108,16 +109,16 @@ final class LogListenerThread extends Thread
      */
     public void run()
     {
+        List<LogEntry> entriesToDeliver = new ArrayList<>();
         while (!isInterrupted())
         {
-            List<LogEntry> entriesToDeliver = new ArrayList<>();
-            synchronized (m_entriesToDeliver)
+            synchronized (m_lock)
             {
                 if (m_entriesToDeliver.isEmpty())
                 {
                     try
                     {
-                        m_entriesToDeliver.wait();
+                        m_lock.wait();
                     }
                     catch (InterruptedException e)
                     {
@@ -125,47 +126,33 @@ final class LogListenerThread extends Thread
                         // interrupt this thread again to stop it...
                         interrupt();
                     }
+                    continue;
                 }
-                else
-                {
-                    // Copy all current entries and deliver them in a single go...
-                    entriesToDeliver.addAll(m_entriesToDeliver);
-                    m_entriesToDeliver.clear();
-                }
+
+                // Take all current entries and deliver them in a single go...
+                List<LogEntry> pending = m_entriesToDeliver;
+                m_entriesToDeliver = entriesToDeliver;
+                entriesToDeliver = pending;
             }
 
-            if (!entriesToDeliver.isEmpty())
+            // The listener list is copied on write, so iterating it
+            // delivers the batch to a snapshot of the current listeners...
+            for (LogListener listener : m_listeners)
             {
-                // Take a snapshot of all current listeners and deliver all
-                // pending messages to them...
-                List<LogListener> listeners = new ArrayList<>();
-                synchronized (m_listeners)
+                for (int i = 0; i < entriesToDeliver.size(); i++)
                 {
-                    listeners.addAll(m_listeners);
-                }
-
-                Iterator<LogEntry> entriesIt = entriesToDeliver.iterator();
-                while (entriesIt.hasNext())
-                {
-                    LogEntry entry = entriesIt.next();
-
-                    Iterator<LogListener> listenerIt = listeners.iterator();
-                    while (listenerIt.hasNext())
+                    try
                     {
-                        LogListener listener = listenerIt.next();
-
-                        try
-                        {
-                            listener.logged(entry);
-                        }
-                        catch (Throwable t)
-                        {
-                            System.err.println("Logger failed to log with " + t.getMessage());
-                            t.printStackTrace(System.err);
-                        }
+                        listener.logged(entriesToDeliver.get(i));
+                    }
+                    catch (Throwable t)
+                    {
+                        System.err.println("Logger failed to log with " + t.getMessage());
+                        t.printStackTrace(System.err);
                     }
                 }
             }
+            entriesToDeliver.clear();
         }
     }
-}
\ No newline at end of file
+}
@@ -284,7 +284,7 @@ public class LoggerImpl implements Logger {
         final ServiceReference<?> sr,
         final Throwable exception) {
 
-        m_log.addEntry(new LogEntryImpl(m_name, m_bundle, sr, level, message, exception, Log.getStackTraceElement()));
+        m_log.addEntry(new LogEntryImpl(m_name, m_bundle, sr, level, message, exception, m_log.captureLocation(null)));
     }
 
     LogParameters getLogParameters(Object arg) {
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogLevel;
+
+public class LogEntryImplTest
+{
+    @Test
+    public void testLocationIsResolvedOnRequest()
+    {
+        final Throwable trace = new Throwable();
+        final LogEntryImpl entry = new LogEntryImpl("test", null, null, LogLevel.INFO, "message", null, trace);
+
+        // the stack trace elements are only read once the location is requested
+        final StackTraceElement caller = new StackTraceElement("com.example.Caller", "call", "Caller.java", 42);
+        trace.setStackTrace(new StackTraceElement[] {
+            new StackTraceElement(Log.class.getName(), "log", "Log.java", 1),
+            caller });
+
+        assertEquals(caller, entry.getLocation());
+        assertSame(entry.getLocation(), entry.getLocation());
+    }
+
+    @Test
+    public void testLoggedEntryHasLocation()
+    {
+        final Log log = new Log(10, false);
+        log.log("test", null, null, LogLevel.INFO, "message", null);
+
+        final LogEntry entry = log.getEntries().nextElement();
+        assertNotNull(entry.getLocation());
+    }
+
+    @Test
+    public void testLocationWithoutTrace()
+    {
+        final LogEntryImpl entry = new LogEntryImpl("test", null, null, LogLevel.INFO, "message", null, null);
+        assertNull(entry.getLocation());
+    }
+
+    @Test
+    public void testLocationIsOnlyCapturedForReadEntries()
+    {
+        assertNull(new Log(0, false).captureLocation(LogLevel.INFO));
+        assertNull(new Log(10, false).captureLocation(LogLevel.DEBUG));
+        assertNotNull(new Log(10, true).captureLocation(LogLevel.DEBUG));
+        assertNotNull(new Log(10, false).captureLocation(LogLevel.INFO));
+    }
+}
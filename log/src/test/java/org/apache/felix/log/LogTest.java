@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogLevel;
+
+public class LogTest
+{
+    @Test
+    public void testBoundedLogKeepsMostRecentEntries()
+    {
+        final Log log = new Log(3, false);
+        for (int i = 0; i < 5; i++)
+        {
+            log.log("test", null, null, LogLevel.INFO, "message " + i, null);
+        }
+
+        assertEquals(Arrays.asList("message 4", "message 3", "message 2"), messages(log));
+    }
+
+    @Test
+    public void testConcurrentWritersKeepMostRecentEntries() throws Exception
+    {
+        final int size = 2;
+        final int perThread = 10000;
+        final Log log = new Log(size, false);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++)
+        {
+            threads.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < perThread; i++)
+                    {
+                        log.log("test", null, null, LogLevel.INFO, "message", null);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        // once all the writers are done, no slot may hold an older entry
+        // than the one written last at its position
+        assertEquals(size, messages(log).size());
+    }
+
+    private static List<String> messages(final Log log)
+    {
+        final List<String> messages = new ArrayList<>();
+        for (LogEntry entry : Collections.list(log.getEntries()))
+        {
+            messages.add(entry.getMessage());
+        }
+        return messages;
+    }
+}
@@ -46,6 +46,11 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    // Package spaces of resolved wirings, kept across resolve operations
+    // since they cannot change as long as the wiring is in use.
+    private final ConcurrentMap<Resource, ResolvedPackages> m_resolvedPackages =
+        new ConcurrentHashMap<Resource, ResolvedPackages>();
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -612,7 +617,7 @@ public class ResolverImpl implements Resolver
         Map<Resource, Resource> allhosts = allCandidates.getRootHosts();
         // Calculate package spaces
         Map<Resource, Packages> resourcePkgMap =
-            calculatePackageSpaces(session, allCandidates, allhosts.values());
+            calculatePackageSpaces(session, allCandidates, allhosts.values(), m_resolvedPackages);
         ResolutionError error = null;
         // Check package consistency
         Map<Resource, Object> resultCache =
@@ -1122,12 +1127,30 @@ public class ResolverImpl implements Resolver
     private static Map<Resource, Packages> calculatePackageSpaces(
             final ResolveSession session,
             final Candidates allCandidates,
-            Collection<Resource> hosts)
+            Collection<Resource> hosts,
+            final ConcurrentMap<Resource, ResolvedPackages> resolvedPackages)
     {
         final EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
 
-        // Parallel compute wire candidates
+        // Drop the package spaces of wirings which are no longer in use,
+        // i.e. of resources which have been refreshed or uninstalled.
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        if (resolvedPackages.size() > wirings.size())
+        {
+            for (Iterator<Entry<Resource, ResolvedPackages>> it = resolvedPackages.entrySet().iterator(); it.hasNext();)
+            {
+                Entry<Resource, ResolvedPackages> entry = it.next();
+                if (wirings.get(entry.getKey()) != entry.getValue().m_wiring)
+                {
+                    it.remove();
+                }
+            }
+        }
+
+        // Parallel compute wire candidates, reusing the package spaces
+        // of resolved wirings computed by previous resolve operations
         final Map<Resource, List<WireCandidate>> allWireCandidates = new ConcurrentHashMap<Resource, List<WireCandidate>>();
+        final Map<Resource, Packages> reusedPackages = new ConcurrentHashMap<Resource, Packages>();
         {
             final ConcurrentMap<Resource, Runnable> tasks = new ConcurrentHashMap<Resource, Runnable>(allCandidates.getNbResources());
             class Computer implements Runnable
@@ -1139,7 +1162,17 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
-                    List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    List<WireCandidate> wireCandidates;
+                    ResolvedPackages resolved = getResolvedPackages(session, resolvedPackages, resource);
+                    if (resolved != null)
+                    {
+                        wireCandidates = resolved.m_wireCandidates;
+                        reusedPackages.put(resource, resolved.m_packages);
+                    }
+                    else
+                    {
+                        wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    }
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
@@ -1166,6 +1199,12 @@ public class ResolverImpl implements Resolver
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
         for (final Resource resource : allWireCandidates.keySet())
         {
+            Packages reused = reusedPackages.get(resource);
+            if (reused != null)
+            {
+                allPackages.put(resource, reused);
+                continue;
+            }
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
             executor.execute(new Runnable()
@@ -1182,6 +1221,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute package lists
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (reusedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1200,7 +1243,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (!packages.m_requiredPkgs.isEmpty() && !reusedPackages.containsKey(resource))
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1211,7 +1254,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (packages.m_sources.isEmpty() && !reusedPackages.containsKey(resource))
             {
                 executor.execute(new Runnable()
                 {
@@ -1227,6 +1270,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute uses
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (reusedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1237,9 +1284,51 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        // Remember the package spaces of resolved wirings; they are complete
+        // now and will not be modified by the consistency checks.
+        for (Map.Entry<Resource, Packages> entry : allPackages.fast())
+        {
+            Resource resource = entry.getKey();
+            Wiring wiring = wirings.get(resource);
+            if (wiring != null
+                && !reusedPackages.containsKey(resource)
+                && !resource.equals(session.getDynamicHost()))
+            {
+                resolvedPackages.put(resource, new ResolvedPackages(
+                    wiring, allWireCandidates.get(resource), entry.getValue()));
+            }
+        }
+
         return allPackages;
     }
 
+    private static ResolvedPackages getResolvedPackages(
+        ResolveSession session,
+        Map<Resource, ResolvedPackages> resolvedPackages,
+        Resource resource)
+    {
+        // The package space of a dynamically importing resource changes
+        // with the dynamic import being resolved.
+        if (resource.equals(session.getDynamicHost()))
+        {
+            return null;
+        }
+        ResolvedPackages resolved = resolvedPackages.get(resource);
+        if (resolved == null)
+        {
+            return null;
+        }
+        // A refreshed resource gets a new wiring and a resolved dynamic
+        // import adds a wire to the existing wiring.
+        Wiring wiring = session.getContext().getWirings().get(resource);
+        if (wiring != resolved.m_wiring
+            || wiring.getRequiredResourceWires(null).size() != resolved.m_wireCandidates.size())
+        {
+            return null;
+        }
+        return resolved;
+    }
+
     private static List<String> parseUses(String s) {
         int nb = 1;
         int l = s.length();
@@ -2133,6 +2222,20 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    private static class ResolvedPackages
+    {
+        public final Wiring m_wiring;
+        public final List<WireCandidate> m_wireCandidates;
+        public final Packages m_packages;
+
+        public ResolvedPackages(Wiring wiring, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            m_wiring = wiring;
+            m_wireCandidates = wireCandidates;
+            m_packages = packages;
+        }
+    }
+
     private static class Blame
     {
         public final Capability m_cap;
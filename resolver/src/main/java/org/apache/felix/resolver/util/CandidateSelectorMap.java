@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.osgi.resource.Requirement;
+
+/**
+ * Map of requirements to their candidate selectors which can be copied in
+ * constant time relative to the number of selectors.
+ * <p>
+ * Every requirement is assigned a slot the first time it is added; the slot
+ * index is shared by all copies of the map. The selectors are stored in
+ * fixed size chunks of slots. A copy shares all chunks with the original and
+ * only copies a chunk, and the selectors in it, when either side modifies an
+ * entry of that chunk. A permutation of the candidates therefore only costs
+ * the chunks it actually changes.
+ * <p>
+ * Selectors returned by {@link #get(Requirement)} may be shared with other
+ * copies and must not be modified; use {@link #getWritable(Requirement)} to
+ * obtain a selector that may be modified.
+ */
+public class CandidateSelectorMap {
+    private static final int CHUNK_SHIFT = 5;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final Slots slots;
+    private Chunk[] chunks;
+    private Object owner;
+    private int size;
+
+    public CandidateSelectorMap() {
+        this.slots = new Slots();
+        this.chunks = new Chunk[0];
+        this.owner = new Object();
+    }
+
+    private CandidateSelectorMap(CandidateSelectorMap map) {
+        this.slots = map.slots;
+        this.chunks = map.chunks.clone();
+        this.owner = new Object();
+        this.size = map.size;
+    }
+
+    /**
+     * Creates a copy of this map. The chunks are shared until they are
+     * modified by either map.
+     *
+     * @return a copy of this map.
+     */
+    public CandidateSelectorMap copy() {
+        // The chunks are now shared, so neither map may modify them in place.
+        owner = new Object();
+        return new CandidateSelectorMap(this);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public CandidateSelector get(Requirement req) {
+        Integer slot = slots.indices.get(req);
+        if (slot == null) {
+            return null;
+        }
+        int chunk = slot >>> CHUNK_SHIFT;
+        return chunk < chunks.length && chunks[chunk] != null
+                ? chunks[chunk].selectors[slot & CHUNK_MASK] : null;
+    }
+
+    /**
+     * Returns the selector of the given requirement, copying it first if
+     * it is shared with another copy of this map.
+     *
+     * @param req the requirement.
+     * @return a selector which is only referenced by this map or null.
+     */
+    public CandidateSelector getWritable(Requirement req) {
+        Integer slot = slots.indices.get(req);
+        if (slot == null || get(req) == null) {
+            return null;
+        }
+        return writableChunk(slot >>> CHUNK_SHIFT).selectors[slot & CHUNK_MASK];
+    }
+
+    public CandidateSelector put(Requirement req, CandidateSelector selector) {
+        if (selector == null) {
+            throw new NullPointerException("selector");
+        }
+        int slot = slots.slotOf(req);
+        CandidateSelector[] selectors = writableChunk(slot >>> CHUNK_SHIFT).selectors;
+        CandidateSelector old = selectors[slot & CHUNK_MASK];
+        selectors[slot & CHUNK_MASK] = selector;
+        if (old == null) {
+            size++;
+        }
+        return old;
+    }
+
+    public CandidateSelector remove(Requirement req) {
+        Integer slot = slots.indices.get(req);
+        if (slot == null) {
+            return null;
+        }
+        CandidateSelector old = get(req);
+        if (old != null) {
+            writableChunk(slot >>> CHUNK_SHIFT).selectors[slot & CHUNK_MASK] = null;
+            size--;
+        }
+        return old;
+    }
+
+    public void trim() {
+        slots.indices.trim();
+    }
+
+    /**
+     * Iterates over the entries of this map in the order in which their
+     * requirements were first added. The entries are not backed by the map.
+     *
+     * @return the entries of this map.
+     */
+    public Iterable<Map.Entry<Requirement, CandidateSelector>> fast() {
+        return new Iterable<Map.Entry<Requirement, CandidateSelector>>() {
+            public Iterator<Map.Entry<Requirement, CandidateSelector>> iterator() {
+                return new Iterator<Map.Entry<Requirement, CandidateSelector>>() {
+                    private final int count = Math.min(slots.keys.size(), chunks.length << CHUNK_SHIFT);
+                    private int next = advance(0);
+
+                    private int advance(int slot) {
+                        while (slot < count) {
+                            Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+                            if (chunk == null) {
+                                slot = (slot | CHUNK_MASK) + 1;
+                            } else if (chunk.selectors[slot & CHUNK_MASK] == null) {
+                                slot++;
+                            } else {
+                                break;
+                            }
+                        }
+                        return slot;
+                    }
+
+                    public boolean hasNext() {
+                        return next < count;
+                    }
+
+                    public Map.Entry<Requirement, CandidateSelector> next() {
+                        if (next >= count) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<Requirement, CandidateSelector> entry =
+                                new AbstractMap.SimpleImmutableEntry<Requirement, CandidateSelector>(
+                                        slots.keys.get(next),
+                                        chunks[next >>> CHUNK_SHIFT].selectors[next & CHUNK_MASK]);
+                        next = advance(next + 1);
+                        return entry;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private Chunk writableChunk(int index) {
+        if (index >= chunks.length) {
+            Chunk[] grown = new Chunk[Math.max(index + 1, chunks.length * 2)];
+            System.arraycopy(chunks, 0, grown, 0, chunks.length);
+            chunks = grown;
+        }
+        Chunk chunk = chunks[index];
+        if (chunk == null) {
+            chunk = new Chunk(owner, new CandidateSelector[CHUNK_SIZE]);
+            chunks[index] = chunk;
+        } else if (chunk.owner != owner) {
+            CandidateSelector[] selectors = new CandidateSelector[CHUNK_SIZE];
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                CandidateSelector selector = chunk.selectors[i];
+                selectors[i] = selector != null ? selector.copy() : null;
+            }
+            chunk = new Chunk(owner, selectors);
+            chunks[index] = chunk;
+        }
+        return chunk;
+    }
+
+    private static final class Chunk {
+        final Object owner;
+        final CandidateSelector[] selectors;
+
+        Chunk(Object owner, CandidateSelector[] selectors) {
+            this.owner = owner;
+            this.selectors = selectors;
+        }
+    }
+
+    /**
+     * Slot assignment shared by all copies of a map; slots are only ever
+     * added.
+     */
+    private static final class Slots {
+        final OpenHashMap<Requirement, Integer> indices = new OpenHashMap<Requirement, Integer>();
+        final List<Requirement> keys = new ArrayList<Requirement>();
+
+        int slotOf(Requirement req) {
+            Integer slot = indices.get(req);
+            if (slot == null) {
+                slot = keys.size();
+                keys.add(req);
+                indices.put(req, slot);
+            }
+            return slot;
+        }
+    }
+}
@@ -20,6 +20,8 @@ package org.apache.felix.resolver.test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -118,6 +120,115 @@ public class BigResolutionTest {
         checkResolutions(wiring1, wiring2);
     }
 
+    @Test
+    @Ignore
+    public void testUsesConflictPermutations() throws Exception {
+        // Every api package is exported in two versions and every lib
+        // package uses it. The root imports the lower api versions while
+        // the libs prefer the higher ones, so each lib causes a uses
+        // conflict which is only solved by permuting its api import. The
+        // filler requirements make every permutation copy a large
+        // candidate map.
+        ResolveContext rc = buildResolutionContext(buildConflictingResolution(40, 600));
+
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_INFO), 1);
+
+        System.out.println("Warming up...");
+        Map<Resource, List<Wire>> wires = resolver.resolve(rc);
+        resolver.resolve(rc);
+
+        System.out.println("Running...");
+        RunningStat stats = new RunningStat();
+        for (int i = 1; i <= 10; i++) {
+            System.gc();
+            Thread.sleep(100);
+            long gc0 = getGarbageCollectionTime();
+            long t0 = System.nanoTime();
+            Map<Resource, List<Wire>> newWires = resolver.resolve(rc);
+            long t1 = System.nanoTime();
+            long gc1 = getGarbageCollectionTime();
+            double dt = (t1 - t0) * 1E-6;
+            System.out.println("Resolver took " + String.format("%7.2f", dt) + " ms"
+                    + " (" + (gc1 - gc0) + " ms in GC)");
+            stats.put(dt);
+            assertEquals(wires, newWires);
+        }
+        System.out.println();
+        System.out.println("Summary");
+        System.out.println("    Min:    " + String.format("%7.2f", stats.getMin()) + " ms");
+        System.out.println("    Max:    " + String.format("%7.2f", stats.getMax()) + " ms");
+        System.out.println("    Avg:    " + String.format("%7.2f", stats.getAverage()) + " ms");
+        System.out.println();
+    }
+
+    private static long getGarbageCollectionTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static Object buildConflictingResolution(int apis, int fillers) {
+        List<Object> resources = new ArrayList<Object>();
+        List<String> rootReqs = new ArrayList<String>();
+        for (int i = 0; i < apis; i++) {
+            for (int v = 1; v <= 2; v++) {
+                resources.add(buildResource("api" + i + ".v" + v,
+                        Collections.singletonList(exportPackage("api" + i, v + ".0.0", null)),
+                        Collections.<String>emptyList()));
+            }
+            resources.add(buildResource("lib" + i,
+                    Collections.singletonList(exportPackage("lib" + i, "1.0.0", "api" + i)),
+                    Collections.singletonList(importPackage("api" + i, "1.0.0", "3.0.0"))));
+            rootReqs.add(importPackage("lib" + i, "1.0.0", "2.0.0"));
+            rootReqs.add(importPackage("api" + i, "1.0.0", "2.0.0"));
+        }
+        for (int i = 0; i < apis; i++) {
+            for (int v = 1; v <= 2; v++) {
+                resources.add(buildResource("service" + i + ".v" + v,
+                        Collections.singletonList("test.service; test.service=service" + i),
+                        Collections.<String>emptyList()));
+            }
+        }
+        for (int i = 0; i < fillers; i++) {
+            List<String> reqs = new ArrayList<String>();
+            for (int j = 0; j < apis; j++) {
+                reqs.add("test.service; filter:=\"(test.service=service" + j + ")\"");
+            }
+            resources.add(buildResource("filler" + i,
+                    Collections.singletonList(exportPackage("filler" + i, "1.0.0", null)),
+                    reqs));
+            rootReqs.add(importPackage("filler" + i, "1.0.0", "2.0.0"));
+        }
+
+        Map<String, Object> resolution = new HashMap<String, Object>();
+        resolution.put("resources", resources);
+        resolution.put("mandatory", Collections.singletonList(
+                buildResource("root", Collections.<String>emptyList(), rootReqs)));
+        return resolution;
+    }
+
+    private static Map<String, Object> buildResource(String name, List<String> caps, List<String> reqs) {
+        List<String> allCaps = new ArrayList<String>();
+        allCaps.add("osgi.identity; osgi.identity=" + name + "; type=osgi.bundle; version:Version=1.0.0");
+        allCaps.addAll(caps);
+        Map<String, Object> resource = new HashMap<String, Object>();
+        resource.put("capabilities", allCaps);
+        resource.put("requirements", reqs);
+        return resource;
+    }
+
+    private static String exportPackage(String name, String version, String uses) {
+        return "osgi.wiring.package; osgi.wiring.package=" + name + "; version:Version=" + version
+                + (uses != null ? "; uses:=" + uses : "");
+    }
+
+    private static String importPackage(String name, String floor, String ceiling) {
+        return "osgi.wiring.package; filter:=\"(&(osgi.wiring.package=" + name
+                + ")(version>=" + floor + ")(!(version>=" + ceiling + ")))\"";
+    }
+
     private ResolveContext buildResolutionContext() throws IOException, BundleException {
         Object resolution;
 
@@ -127,7 +238,10 @@ public class BigResolutionTest {
         } finally {
             is.close();
         }
+        return buildResolutionContext(resolution);
+    }
 
+    private ResolveContext buildResolutionContext(Object resolution) throws BundleException {
         List<Resource> resources = new ArrayList<Resource>();
         ResourceImpl system = new ResourceImpl("system-bundle");
         parseCapability(system, "osgi.ee; osgi.ee=JavaSE; version=1.5");
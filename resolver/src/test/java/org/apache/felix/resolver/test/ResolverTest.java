@@ -913,6 +913,91 @@ public class ResolverTest
         resolver.resolve(rci);
     }
 
+    /**
+     * Test that package spaces of resolved wirings which are reused across
+     * resolve operations still enforce their uses constraints and are
+     * dropped once the wiring changes.
+     */
+    @Test
+    public void testScenario19() throws Exception
+    {
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1);
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+
+        ResourceImpl q1 = new ResourceImpl("Q1");
+        Capability q1_pkgCap = addCap(q1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+
+        ResourceImpl q2 = new ResourceImpl("Q2");
+        Capability q2_pkgCap = addCap(q2, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+
+        ResourceImpl a = new ResourceImpl("A");
+        Capability a_pkgCap = addCap(a, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a", "org.foo.q");
+        Requirement a_pkgReq = addReq(a, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+
+        Map<Resource, List<Wire>> wires = new HashMap<Resource, List<Wire>>();
+        wires.put(q1, new ArrayList<Wire>());
+        wires.put(q2, new ArrayList<Wire>());
+        wires.put(a, new ArrayList<Wire>());
+        wires.get(a).add(new SimpleWire(a_pkgReq, q1_pkgCap));
+
+        Map<Resource, List<Wire>> invertedWires = new HashMap<Resource, List<Wire>>();
+        invertedWires.put(q1, new ArrayList<Wire>());
+        invertedWires.put(q2, new ArrayList<Wire>());
+        invertedWires.put(a, new ArrayList<Wire>());
+        invertedWires.get(q1).add(new SimpleWire(a_pkgReq, q1_pkgCap));
+
+        wirings.put(q1, new SimpleWiring(q1, Collections.singletonList(q1_pkgCap), wires, invertedWires));
+        wirings.put(q2, new SimpleWiring(q2, Collections.singletonList(q2_pkgCap), wires, invertedWires));
+        wirings.put(a, new SimpleWiring(a, Collections.singletonList(a_pkgCap), wires, invertedWires));
+
+        // Each resolve has to pick Q1 over the preferred Q2 because of the
+        // uses constraint of the package exported by A.
+        for (String name : Arrays.asList("B", "C"))
+        {
+            ResourceImpl r = new ResourceImpl(name);
+            Requirement r_pkgReq1 = addReq(r, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a");
+            Requirement r_pkgReq2 = addReq(r, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+            candMap.put(r_pkgReq1, Collections.singletonList(a_pkgCap));
+            candMap.put(r_pkgReq2, Arrays.asList(q2_pkgCap, q1_pkgCap));
+
+            ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap,
+                Collections.<Resource>singletonList(r), Collections.<Resource> emptyList());
+            Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+            assertEquals(q1, getProvider(wireMap.get(r), r_pkgReq2));
+        }
+
+        // Rewire A to Q2, as a refresh would.
+        wires.get(a).set(0, new SimpleWire(a_pkgReq, q2_pkgCap));
+        invertedWires.get(q1).clear();
+        invertedWires.get(q2).add(new SimpleWire(a_pkgReq, q2_pkgCap));
+        wirings.put(a, new SimpleWiring(a, Collections.singletonList(a_pkgCap), wires, invertedWires));
+
+        ResourceImpl d = new ResourceImpl("D");
+        Requirement d_pkgReq1 = addReq(d, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a");
+        Requirement d_pkgReq2 = addReq(d, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+        candMap.put(d_pkgReq1, Collections.singletonList(a_pkgCap));
+        candMap.put(d_pkgReq2, Arrays.asList(q1_pkgCap, q2_pkgCap));
+
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap,
+            Collections.<Resource>singletonList(d), Collections.<Resource> emptyList());
+        Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+        assertEquals(q2, getProvider(wireMap.get(d), d_pkgReq2));
+    }
+
+    private static Resource getProvider(List<Wire> wires, Requirement req)
+    {
+        for (Wire wire : wires)
+        {
+            if (wire.getRequirement().equals(req))
+            {
+                return wire.getProvider();
+            }
+        }
+        return null;
+    }
+
     private ResolveContext populateScenario17(boolean realSubstitute,
         boolean felixResolveContext, boolean existingWirings)
     {
@@ -69,12 +69,15 @@ public class Activator extends AbstractExtender
     private ComponentRegistry m_componentRegistry;
 
     //  thread acting upon configurations
-    private ComponentActorThread m_componentActor;
+    private ComponentActorExecutor m_componentActor;
 
     private ServiceRegistration<ServiceComponentRuntime> m_runtime_reg;
 
     private ComponentCommands m_componentCommands;
 
+    // cache of validated component metadata, null if disabled
+    private ComponentMetadataStore m_metadataStore;
+
     public Activator()
     {
         m_configuration = new ScrConfigurationImpl( this );
@@ -159,19 +162,22 @@ public class Activator extends AbstractExtender
                 m_componentRegistry.getServiceRegistrationProperties() );
         m_componentRegistry.setRegistration(m_runtime_reg);
 
+        if ( m_configuration.cacheMetadata() )
+        {
+            m_metadataStore = ComponentMetadataStore.load( m_context, m_configuration, this.logger );
+        }
+
         // log SCR startup
         logger.log( LogService.LOG_INFO, " Version = {0}",
             null, m_bundle.getVersion().toString() );
 
         // create and start the component actor
-        m_componentActor = new ComponentActorThread( this.logger );
-        Thread t = new Thread( m_componentActor, "SCR Component Actor" );
-        t.setDaemon( true );
-        t.start();
+        m_componentActor = new ComponentActorExecutor( this.logger, m_configuration.actorThreads() );
+        m_componentActor.start();
 
         super.doStart();
 
-        m_componentCommands = new ComponentCommands(m_context, runtime, m_configuration);
+        m_componentCommands = new ComponentCommands(m_context, runtime, m_configuration, m_componentActor);
         m_componentCommands.register();
         m_componentCommands.updateProvideScrInfoService(m_configuration.infoAsService());
     }
@@ -194,6 +200,13 @@ public class Activator extends AbstractExtender
         // stop tracking
         super.doStop();
 
+        // persist the component metadata once all bundles have been unloaded
+        if ( m_metadataStore != null )
+        {
+            m_metadataStore.save();
+            m_metadataStore = null;
+        }
+
         if ( m_componentCommands != null )
         {
             m_componentCommands.unregister();
@@ -209,7 +222,7 @@ public class Activator extends AbstractExtender
             m_componentRegistry = null;
         }
 
-        // terminate the actor thread
+        // terminate the actor threads
         if ( m_componentActor != null )
         {
             m_componentActor.terminate();
@@ -377,7 +390,7 @@ public class Activator extends AbstractExtender
         try
         {
             BundleComponentActivator ga = new BundleComponentActivator( this.logger, m_componentRegistry, m_componentActor,
-                context, m_configuration );
+                context, m_configuration, m_metadataStore );
             ga.initialEnable();
 
             // replace bundle activator in the map
@@ -81,7 +81,7 @@ public class BundleComponentActivator implements ComponentActivator
     private final List<ComponentHolder<?>> m_holders = new ArrayList<>();
 
     // thread acting upon configurations
-    private final ComponentActorThread m_componentActor;
+    private final ComponentActorExecutor m_componentActor;
 
     // true as long as the dispose method is not called
     private final AtomicBoolean m_active = new AtomicBoolean( true );
@@ -90,6 +90,9 @@ public class BundleComponentActivator implements ComponentActivator
     // the configuration
     private final ScrConfiguration m_configuration;
 
+    // cache of validated component metadata, null if disabled
+    private final ComponentMetadataStore m_metadataStore;
+
     private final ConfigAdminTracker configAdminTracker;
 
     private final Map<String, ListenerInfo> listenerMap = new HashMap<>();
@@ -237,14 +240,17 @@ public class BundleComponentActivator implements ComponentActivator
      *      register components with to ensure uniqueness of component names
      *      and to ensure configuration updates.
      * @param   context  The bundle context owning the components
+     * @param metadataStore The cache of validated component metadata or
+     *      <code>null</code> if the metadata is not cached.
      *
      * @throws ComponentException if any error occurrs initializing this class
      */
     public BundleComponentActivator(final ScrLogger scrLogger,
             final ComponentRegistry componentRegistry,
-            final ComponentActorThread componentActor,
+            final ComponentActorExecutor componentActor,
             final BundleContext context,
-            final ScrConfiguration configuration)
+            final ScrConfiguration configuration,
+            final ComponentMetadataStore metadataStore)
     throws ComponentException
     {
         // create a logger on behalf of the bundle
@@ -256,6 +262,7 @@ public class BundleComponentActivator implements ComponentActivator
         m_bundle = context.getBundle();
 
         m_configuration = configuration;
+        m_metadataStore = metadataStore;
 
         logger.log( LogService.LOG_DEBUG, "BundleComponentActivator : Bundle active", null);
 
@@ -295,6 +302,10 @@ public class BundleComponentActivator implements ComponentActivator
         // 112.4.1: The value of the the header is a comma separated list of XML entries within the Bundle
         StringTokenizer st = new StringTokenizer( descriptorLocations, ", " );
 
+        // descriptors with the same path in the bundle and its fragments
+        // are told apart in the metadata cache by their occurrence
+        final Map<String, Integer> occurrences = new HashMap<>();
+
         while ( st.hasMoreTokens() )
         {
             String descriptorLocation = st.nextToken();
@@ -311,7 +322,14 @@ public class BundleComponentActivator implements ComponentActivator
             // load from the descriptors
             for ( URL descriptorURL : descriptorURLs )
             {
-                loadDescriptor( descriptorURL );
+                String cacheKey = descriptorURL.getPath();
+                Integer occurrence = occurrences.get( cacheKey );
+                occurrences.put( cacheKey, occurrence == null ? 1 : occurrence + 1 );
+                if ( occurrence != null )
+                {
+                    cacheKey = cacheKey + "#" + occurrence;
+                }
+                loadDescriptor( descriptorURL, cacheKey );
             }
         }
     }
@@ -410,7 +428,7 @@ public class BundleComponentActivator implements ComponentActivator
         return urls.toArray( new URL[urls.size()] );
     }
 
-    private void loadDescriptor(final URL descriptorURL)
+    private void loadDescriptor(final URL descriptorURL, final String cacheKey)
     {
         // simple path for log messages
         final String descriptorLocation = descriptorURL.getPath();
@@ -418,18 +436,40 @@ public class BundleComponentActivator implements ComponentActivator
         InputStream stream = null;
         try
         {
-            stream = descriptorURL.openStream();
+            // unchanged descriptors are read from the cache, which only
+            // contains metadata that has already been validated
+            List<ComponentMetadata> metadataList = null;
+            if ( m_metadataStore != null )
+            {
+                metadataList = m_metadataStore.get( m_bundle, cacheKey );
+            }
+            final boolean cached = metadataList != null;
+
+            if ( !cached )
+            {
+                stream = descriptorURL.openStream();
 
-            BufferedReader in = new BufferedReader( new InputStreamReader( stream, "UTF-8" ) );
-            XmlHandler handler = new XmlHandler( m_bundle, this.logger, getConfiguration().isFactoryEnabled(),
-                getConfiguration().keepInstances() );
-            final KXml2SAXParser parser = new KXml2SAXParser( in );
+                BufferedReader in = new BufferedReader( new InputStreamReader( stream, "UTF-8" ) );
+                XmlHandler handler = new XmlHandler( m_bundle, this.logger, getConfiguration().isFactoryEnabled(),
+                    getConfiguration().keepInstances() );
+                final KXml2SAXParser parser = new KXml2SAXParser( in );
 
-            parser.parseXML( handler );
+                parser.parseXML( handler );
+                metadataList = handler.getComponentMetadataList();
+            }
+            else
+            {
+                logger.log( LogService.LOG_DEBUG, "Using cached metadata of descriptor entry ''{0}''", null,
+                    descriptorLocation );
+            }
+
+            // only cache descriptors whose components could all be registered
+            // so that failures are reported again on the next start
+            boolean valid = true;
 
             // 112.4.2 Component descriptors may contain a single, root component element
             // or one or more component elements embedded in a larger document
-            for ( ComponentMetadata metadata : handler.getComponentMetadataList() )
+            for ( ComponentMetadata metadata : metadataList )
             {
                 final ComponentLogger componentLogger = new ComponentLogger(metadata, logger);
                 ComponentRegistryKey key = null;
@@ -457,6 +497,7 @@ public class BundleComponentActivator implements ComponentActivator
                     // There is a problem with this particular component, we'll log the error
                     // and proceed to the next one
                     componentLogger.log( LogService.LOG_ERROR, "Cannot register component", t );
+                    valid = false;
 
                     // make sure the name is not reserved any more
                     if ( key != null )
@@ -465,6 +506,11 @@ public class BundleComponentActivator implements ComponentActivator
                     }
                 }
             }
+
+            if ( !cached && valid && m_metadataStore != null )
+            {
+                m_metadataStore.put( m_bundle, cacheKey, metadataList );
+            }
         }
         catch ( IOException ex )
         {
@@ -695,10 +741,10 @@ public class BundleComponentActivator implements ComponentActivator
     {
         if ( isActive() )
         {
-            ComponentActorThread cat = m_componentActor;
-            if ( cat != null )
+            ComponentActorExecutor cae = m_componentActor;
+            if ( cae != null )
             {
-                cat.schedule( task );
+                cae.schedule( this, task );
             }
             else
             {
@@ -750,7 +796,7 @@ public class BundleComponentActivator implements ComponentActivator
     public <S, T> void registerMissingDependency(DependencyManager<S, T> dependencyManager,
         ServiceReference<T> serviceReference, int trackingCount)
     {
-        m_componentRegistry.registerMissingDependency( dependencyManager, serviceReference, trackingCount );
+        m_componentRegistry.registerMissingDependency( dependencyManager, serviceReference, trackingCount, this );
     }
 
     @Override
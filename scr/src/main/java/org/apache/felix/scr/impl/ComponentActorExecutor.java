@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.scr.impl.logger.ScrLogger;
+import org.osgi.service.log.LogService;
+
+
+/**
+ * The <code>ComponentActorExecutor</code> runs the tasks acting upon
+ * registered components of the service component runtime.
+ * <p>
+ * Tasks are scheduled with a key, usually the {@link BundleComponentActivator}
+ * of the bundle declaring the components. Tasks with the same key are run
+ * one after the other in the order in which they have been scheduled, while
+ * tasks with different keys may be run concurrently by the configured number
+ * of threads. With a single thread all tasks are run in the order in which
+ * they have been scheduled.
+ */
+class ComponentActorExecutor
+{
+
+    // the key used for all tasks if there is only one thread
+    private static final Object SINGLE_LANE = new Object();
+
+    // the lanes with tasks, guarded by itself
+    private final Map<Object, Lane> lanes = new HashMap<>();
+
+    // the lanes with tasks which are not being run by a thread
+    private final LinkedList<Lane> readyLanes = new LinkedList<>();
+
+    private final ScrLogger logger;
+
+    private final Thread[] threads;
+
+    // the number of tasks which have been scheduled but not finished
+    private int queued;
+
+    private boolean terminated;
+
+    private final AtomicLong tasksRun = new AtomicLong();
+
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    private final AtomicLong maxLatency = new AtomicLong();
+
+
+    ComponentActorExecutor( final ScrLogger log, final int threadCount )
+    {
+        logger = log;
+        threads = new Thread[Math.max( 1, threadCount )];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runTasks();
+                }
+            }, threads.length == 1 ? "SCR Component Actor" : "SCR Component Actor-" + i );
+            threads[i].setDaemon( true );
+        }
+    }
+
+
+    void start()
+    {
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+    }
+
+
+    // takes lanes with tasks waiting to be run. As lanes come in, this
+    // method runs the first task of the lane, logs any exception happening
+    // and returns the lane to the ready lanes if it has more tasks. A lane
+    // is taken by one thread at most, so its tasks are run in order. If
+    // the executor is terminated and no tasks are left, the thread
+    // terminates.
+    private void runTasks()
+    {
+        logger.log( LogService.LOG_DEBUG, "Starting {0}", null, Thread.currentThread().getName() );
+
+        for ( ;; )
+        {
+            final Lane lane;
+            final Task task;
+            synchronized ( lanes )
+            {
+                while ( readyLanes.isEmpty() )
+                {
+                    if ( terminated )
+                    {
+                        logger.log( LogService.LOG_DEBUG, "Shutting down {0}", null, Thread.currentThread().getName() );
+                        return;
+                    }
+
+                    boolean interrupted = Thread.interrupted();
+                    try
+                    {
+                        lanes.wait();
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        interrupted = true;
+                        // don't care
+                    }
+                    finally
+                    {
+                        if (interrupted)
+                        { // restore interrupt status
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+
+                lane = readyLanes.removeFirst();
+                task = lane.tasks.removeFirst();
+            }
+
+            try
+            {
+                final long latency = System.nanoTime() - task.scheduled;
+                tasksRun.incrementAndGet();
+                totalLatency.addAndGet( latency );
+                for ( long max = maxLatency.get(); latency > max && !maxLatency.compareAndSet( max, latency ); max = maxLatency.get() )
+                {
+                    // retry
+                }
+
+                // execute the task, log any issues
+                logger.log( LogService.LOG_DEBUG, "Running task: " + task.runnable, null );
+                task.runnable.run();
+            }
+            catch ( Throwable t )
+            {
+                logger.log( LogService.LOG_ERROR, "Unexpected problem executing task " + task.runnable, t );
+            }
+            finally
+            {
+                synchronized ( lanes )
+                {
+                    queued--;
+                    if ( lane.tasks.isEmpty() )
+                    {
+                        lanes.remove( lane.key );
+                    }
+                    else
+                    {
+                        readyLanes.add( lane );
+                    }
+                    lanes.notifyAll();
+                }
+            }
+        }
+    }
+
+
+    // waits for all tasks to be run and causes the threads to terminate
+    void terminate()
+    {
+        synchronized ( lanes )
+        {
+            while ( queued > 0 )
+            {
+                boolean interrupted = Thread.interrupted();
+                try
+                {
+                    lanes.wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                    logger.log(LogService.LOG_ERROR,
+                        "Interrupted exception waiting for queue to empty", e);
+                }
+                finally
+                {
+                    if (interrupted)
+                    { // restore interrupt status
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            terminated = true;
+            lanes.notifyAll();
+        }
+    }
+
+
+    // queue the given runnable to be run as soon as possible after the
+    // tasks previously scheduled with the same key
+    void schedule( final Object key, final Runnable task )
+    {
+        final Object laneKey = ( threads.length == 1 || key == null ) ? SINGLE_LANE : key;
+        synchronized ( lanes )
+        {
+            if ( terminated )
+            {
+                logger.log( LogService.LOG_WARNING, "Component actor is terminated; not scheduling {0}", null,
+                        task );
+                return;
+            }
+
+            // append to the task queue of the lane
+            Lane lane = lanes.get( laneKey );
+            if ( lane == null )
+            {
+                lane = new Lane( laneKey );
+                lanes.put( laneKey, lane );
+                readyLanes.add( lane );
+            }
+            lane.tasks.add( new Task( task ) );
+            queued++;
+
+            logger.log( LogService.LOG_DEBUG, "Adding task [{0}] as #{1} in the queue", null,
+                    task, queued);
+
+            // notify the waiting threads
+            lanes.notifyAll();
+        }
+    }
+
+
+    /**
+     * Returns the number of threads running the tasks.
+     */
+    int getThreadCount()
+    {
+        return threads.length;
+    }
+
+
+    /**
+     * Returns the number of tasks which have been scheduled but not
+     * finished yet.
+     */
+    int getQueueDepth()
+    {
+        synchronized ( lanes )
+        {
+            return queued;
+        }
+    }
+
+
+    /**
+     * Returns the number of tasks which have been started.
+     */
+    long getTaskCount()
+    {
+        return tasksRun.get();
+    }
+
+
+    /**
+     * Returns the average time in nanoseconds tasks have been waiting in
+     * the queue before being started.
+     */
+    long getAverageLatency()
+    {
+        final long count = tasksRun.get();
+        return count == 0 ? 0 : totalLatency.get() / count;
+    }
+
+
+    /**
+     * Returns the maximum time in nanoseconds a task has been waiting in
+     * the queue before being started.
+     */
+    long getMaxLatency()
+    {
+        return maxLatency.get();
+    }
+
+
+    private static final class Lane
+    {
+        final Object key;
+
+        final LinkedList<Task> tasks = new LinkedList<>();
+
+        Lane( final Object key )
+        {
+            this.key = key;
+        }
+    }
+
+
+    private static final class Task
+    {
+        final Runnable runnable;
+
+        final long scheduled = System.nanoTime();
+
+        Task( final Runnable runnable )
+        {
+            this.runnable = runnable;
+        }
+    }
+}
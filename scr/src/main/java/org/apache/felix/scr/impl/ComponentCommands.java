@@ -34,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.felix.scr.impl.manager.ScrConfiguration;
 import org.apache.felix.scr.info.ScrInfo;
@@ -64,6 +65,7 @@ public class ComponentCommands {
     private final BundleContext context;
     private final ServiceComponentRuntime scr;
     private final ScrConfiguration scrConfig;
+    private final ComponentActorExecutor componentActor;
 
     private final Comparator<ComponentConfigurationDTO> configDtoComparator = new Comparator<ComponentConfigurationDTO>() {
         @Override
@@ -134,10 +136,11 @@ public class ComponentCommands {
         }
     }
 
-    protected ComponentCommands(BundleContext context, ServiceComponentRuntime scr, ScrConfiguration scrConfig) {
+    protected ComponentCommands(BundleContext context, ServiceComponentRuntime scr, ScrConfiguration scrConfig, ComponentActorExecutor componentActor) {
         this.context = context;
         this.scr = scr;
         this.scrConfig = scrConfig;
+        this.componentActor = componentActor;
     }
 
     @Descriptor("List all components")
@@ -226,6 +229,11 @@ public class ComponentCommands {
         out.put("Stop timeout ms", Long.toString(scrConfig.stopTimeout()));
         out.put("Global extender", Boolean.toString(scrConfig.globalExtender()));
         out.put("Info Service registered", scrConfig.infoAsService() ? "Supported" : "Unsupported");
+        out.put("Component actor threads", Integer.toString(componentActor.getThreadCount()));
+        out.put("Component actor queue depth", Integer.toString(componentActor.getQueueDepth()));
+        out.put("Component actor tasks run", Long.toString(componentActor.getTaskCount()));
+        out.put("Component actor average latency ms", Long.toString(TimeUnit.NANOSECONDS.toMillis(componentActor.getAverageLatency())));
+        out.put("Component actor maximum latency ms", Long.toString(TimeUnit.NANOSECONDS.toMillis(componentActor.getMaxLatency())));
 
         StringBuilder builder = new StringBuilder();
         printColumnsAligned("SCR Configuration", out, '=', builder);
@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.felix.scr.impl.logger.ScrLogger;
+import org.apache.felix.scr.impl.manager.ScrConfiguration;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.service.log.LogService;
+
+/**
+ * The <code>ComponentMetadataStore</code> caches the validated component
+ * metadata of the component descriptors of all bundles in the data area of
+ * the SCR bundle, so that unchanged descriptors need not be parsed again
+ * when SCR or the bundles are restarted.
+ * <p>
+ * The metadata is keyed by bundle id and descriptor path and is discarded
+ * once the last modification time of the bundle or of one of its attached
+ * fragments changes. The whole store is discarded if it was written by a
+ * different version of SCR or with different settings affecting the
+ * parsing of descriptors, and whenever these settings are reconfigured
+ * while SCR is running.
+ */
+public class ComponentMetadataStore
+{
+    static final String FILE_NAME = "componentMetadataStore";
+
+    // incremented whenever the format of the store changes
+    private static final int FORMAT_VERSION = 1;
+
+    private final BundleContext m_context;
+    private final File m_file;
+    private final ScrConfiguration m_configuration;
+    private final ScrLogger m_logger;
+
+    // the settings the cached metadata has been created with
+    private volatile String m_header;
+
+    private final ConcurrentMap<Long, BundleMetadata> m_bundles = new ConcurrentHashMap<>();
+
+    private volatile boolean m_modified;
+
+    ComponentMetadataStore(final BundleContext context, final File file,
+            final ScrConfiguration configuration, final ScrLogger logger)
+    {
+        m_context = context;
+        m_file = file;
+        m_configuration = configuration;
+        m_header = getHeader();
+        m_logger = logger;
+    }
+
+    /**
+     * Returns the current settings which change the metadata created by
+     * the XmlHandler.
+     */
+    private String getHeader()
+    {
+        return m_context.getBundle().getVersion() + ";factoryEnabled="
+            + m_configuration.isFactoryEnabled() + ";keepInstances=" + m_configuration.keepInstances();
+    }
+
+    /**
+     * Discards the cached metadata if the settings it has been created with
+     * have been changed since.
+     */
+    private synchronized void checkHeader()
+    {
+        final String header = getHeader();
+        if ( !header.equals( m_header ) )
+        {
+            m_logger.log( LogService.LOG_DEBUG, "Discarding component metadata cached with settings {0}", null,
+                m_header );
+            m_bundles.clear();
+            m_header = header;
+            m_modified = true;
+        }
+    }
+
+    /**
+     * Creates the store and loads its content from the data area of the
+     * SCR bundle.
+     *
+     * @return the store or <code>null</code> if the framework does not
+     *      provide file system support
+     */
+    static ComponentMetadataStore load(final BundleContext context,
+            final ScrConfiguration configuration, final ScrLogger logger)
+    {
+        final File file = context.getDataFile( FILE_NAME );
+        if ( file == null )
+        {
+            return null;
+        }
+
+        final ComponentMetadataStore store = new ComponentMetadataStore( context, file, configuration, logger );
+        if ( file.isFile() )
+        {
+            try
+            {
+                store.read();
+            }
+            catch ( final IOException ioe )
+            {
+                logger.log( LogService.LOG_WARNING, "Ignoring component metadata store {0}", ioe, file );
+                store.m_bundles.clear();
+                store.m_modified = true;
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Returns the cached metadata of the given descriptor of the bundle.
+     *
+     * @return the validated metadata or <code>null</code> if it is not
+     *      cached or the bundle has been modified since it was cached
+     */
+    public List<ComponentMetadata> get(final Bundle bundle, final String descriptorPath)
+    {
+        checkHeader();
+        final BundleMetadata bundleMetadata = m_bundles.get( bundle.getBundleId() );
+        if ( bundleMetadata == null || bundleMetadata.m_lastModified != getLastModified( bundle ) )
+        {
+            return null;
+        }
+
+        final byte[] data = bundleMetadata.m_descriptors.get( descriptorPath );
+        if ( data == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            return MetadataStoreHelper.load( new DataInputStream( new ByteArrayInputStream( data ) ) );
+        }
+        catch ( final Exception e )
+        {
+            m_logger.log( LogService.LOG_WARNING, "Ignoring cached metadata of descriptor {0} of bundle {1}", e,
+                descriptorPath, bundle.getBundleId() );
+            bundleMetadata.m_descriptors.remove( descriptorPath );
+            m_modified = true;
+            return null;
+        }
+    }
+
+    /**
+     * Caches the validated metadata of the given descriptor of the bundle.
+     */
+    public void put(final Bundle bundle, final String descriptorPath, final List<ComponentMetadata> metadataList)
+    {
+        final byte[] data;
+        try
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream( bytes );
+            MetadataStoreHelper.store( metadataList, out );
+            out.flush();
+            data = bytes.toByteArray();
+        }
+        catch ( final Exception e )
+        {
+            m_logger.log( LogService.LOG_DEBUG, "Cannot cache metadata of descriptor {0} of bundle {1}", e,
+                descriptorPath, bundle.getBundleId() );
+            return;
+        }
+
+        checkHeader();
+        final long lastModified = getLastModified( bundle );
+        BundleMetadata bundleMetadata = m_bundles.get( bundle.getBundleId() );
+        if ( bundleMetadata == null || bundleMetadata.m_lastModified != lastModified )
+        {
+            bundleMetadata = new BundleMetadata( lastModified );
+            m_bundles.put( bundle.getBundleId(), bundleMetadata );
+        }
+        bundleMetadata.m_descriptors.put( descriptorPath, data );
+        m_modified = true;
+    }
+
+    /**
+     * Writes the store to the data area of the SCR bundle if it has been
+     * modified. Entries of bundles which are no longer installed are
+     * dropped.
+     */
+    void save()
+    {
+        for ( final Iterator<Long> it = m_bundles.keySet().iterator(); it.hasNext(); )
+        {
+            if ( m_context.getBundle( it.next() ) == null )
+            {
+                it.remove();
+                m_modified = true;
+            }
+        }
+        if ( !m_modified )
+        {
+            return;
+        }
+
+        final File tmpFile = new File( m_file.getPath() + ".tmp" );
+        try
+        {
+            final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( tmpFile ) ) );
+            try
+            {
+                out.writeInt( FORMAT_VERSION );
+                out.writeUTF( m_header );
+                out.writeInt( m_bundles.size() );
+                for ( final Map.Entry<Long, BundleMetadata> entry : m_bundles.entrySet() )
+                {
+                    out.writeLong( entry.getKey() );
+                    out.writeLong( entry.getValue().m_lastModified );
+                    final Map<String, byte[]> descriptors = entry.getValue().m_descriptors;
+                    out.writeInt( descriptors.size() );
+                    for ( final Map.Entry<String, byte[]> descriptor : descriptors.entrySet() )
+                    {
+                        out.writeUTF( descriptor.getKey() );
+                        out.writeInt( descriptor.getValue().length );
+                        out.write( descriptor.getValue() );
+                    }
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if ( !tmpFile.renameTo( m_file ) )
+            {
+                // renaming onto an existing file fails on some platforms
+                m_file.delete();
+                if ( !tmpFile.renameTo( m_file ) )
+                {
+                    throw new IOException( "Cannot rename " + tmpFile + " to " + m_file );
+                }
+            }
+            m_modified = false;
+        }
+        catch ( final IOException ioe )
+        {
+            m_logger.log( LogService.LOG_WARNING, "Cannot write component metadata store {0}", ioe, m_file );
+            tmpFile.delete();
+        }
+    }
+
+    private void read() throws IOException
+    {
+        final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( m_file ) ) );
+        try
+        {
+            if ( in.readInt() != FORMAT_VERSION || !m_header.equals( in.readUTF() ) )
+            {
+                m_logger.log( LogService.LOG_DEBUG, "Discarding outdated component metadata store {0}", null,
+                    m_file );
+                m_modified = true;
+                return;
+            }
+
+            final int bundles = in.readInt();
+            for ( int i = 0; i < bundles; i++ )
+            {
+                final long bundleId = in.readLong();
+                final BundleMetadata bundleMetadata = new BundleMetadata( in.readLong() );
+                final int descriptors = in.readInt();
+                for ( int j = 0; j < descriptors; j++ )
+                {
+                    final String descriptorPath = in.readUTF();
+                    final byte[] data = new byte[in.readInt()];
+                    in.readFully( data );
+                    bundleMetadata.m_descriptors.put( descriptorPath, data );
+                }
+                m_bundles.put( bundleId, bundleMetadata );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns a value which changes whenever the bundle or one of its
+     * attached fragments is updated or the set of attached fragments
+     * changes.
+     */
+    static long getLastModified(final Bundle bundle)
+    {
+        long lastModified = bundle.getLastModified();
+        final BundleWiring wiring = bundle.adapt( BundleWiring.class );
+        if ( wiring != null )
+        {
+            final List<BundleWire> fragmentWires = wiring.getProvidedWires( BundleRevision.HOST_NAMESPACE );
+            if ( fragmentWires != null )
+            {
+                for ( final BundleWire fragmentWire : fragmentWires )
+                {
+                    final Bundle fragment = fragmentWire.getRequirerWiring().getBundle();
+                    lastModified = 31 * lastModified + fragment.getBundleId();
+                    lastModified = 31 * lastModified + fragment.getLastModified();
+                }
+            }
+        }
+        return lastModified;
+    }
+
+    private static class BundleMetadata
+    {
+        final long m_lastModified;
+        final ConcurrentMap<String, byte[]> m_descriptors = new ConcurrentHashMap<>();
+
+        BundleMetadata(final long lastModified)
+        {
+            m_lastModified = lastModified;
+        }
+    }
+}
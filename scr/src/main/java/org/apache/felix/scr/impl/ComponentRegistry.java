@@ -24,6 +24,7 @@ import java.util.Collection;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
@@ -549,44 +550,61 @@ public class ComponentRegistry
      * Schedule late binding of now-available reference on a different thread.  The late binding cannot occur on this thread
      * due to service registry circular reference detection. We cannot wait for the late binding before returning from the initial
      * getService call because of synchronization in the service registry.
+     * The late binding of each dependency manager is scheduled with the key of the activator of its own bundle, so that it
+     * is ordered with the other tasks of that bundle.
      * @param serviceReference
      * @param actor
      */
-    public synchronized <T> void missingServicePresent( final ServiceReference<T> serviceReference, ComponentActorThread actor )
+    public synchronized <T> void missingServicePresent( final ServiceReference<T> serviceReference, ComponentActorExecutor actor )
     {
-        final List<Entry<?, ?>> dependencyManagers = m_missingDependencies.remove( serviceReference );
-        if ( dependencyManagers != null )
+        final List<Entry<?, ?>> entries = m_missingDependencies.remove( serviceReference );
+        if ( entries != null )
         {
-
-            Runnable runnable = new Runnable()
+            final Map<Object, List<Entry<?, ?>>> entriesByKey = new LinkedHashMap<>();
+            for ( Entry<?, ?> entry : entries )
             {
+                List<Entry<?, ?>> keyEntries = entriesByKey.get( entry.getKey() );
+                if ( keyEntries == null )
+                {
+                    keyEntries = new ArrayList<>();
+                    entriesByKey.put( entry.getKey(), keyEntries );
+                }
+                keyEntries.add( entry );
+            }
 
-                @Override
-                @SuppressWarnings("unchecked")
-                public void run()
+            for ( Map.Entry<Object, List<Entry<?, ?>>> keyEntries : entriesByKey.entrySet() )
+            {
+                final List<Entry<?, ?>> dependencyManagers = keyEntries.getValue();
+                Runnable runnable = new Runnable()
                 {
-                    for ( Entry<?, ?> entry : dependencyManagers )
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public void run()
                     {
-                        ((DependencyManager<?, T>)entry.getDm()).invokeBindMethodLate( serviceReference, entry.getTrackingCount() );
+                        for ( Entry<?, ?> entry : dependencyManagers )
+                        {
+                            ((DependencyManager<?, T>)entry.getDm()).invokeBindMethodLate( serviceReference, entry.getTrackingCount() );
+                        }
+                        m_logger.log(LogService.LOG_DEBUG,
+                            "Ran {0} asynchronously", null, this);
                     }
-                    m_logger.log(LogService.LOG_DEBUG,
-                        "Ran {0} asynchronously", null, this);
-                }
 
-                @Override
-                public String toString()
-                {
-                    return "Late binding task of reference " + serviceReference + " for dependencyManagers " + dependencyManagers;
-                }
+                    @Override
+                    public String toString()
+                    {
+                        return "Late binding task of reference " + serviceReference + " for dependencyManagers " + dependencyManagers;
+                    }
 
-            } ;
-            m_logger.log(LogService.LOG_DEBUG,
-                "Scheduling runnable {0} asynchronously", null, runnable);
-            actor.schedule( runnable );
+                } ;
+                m_logger.log(LogService.LOG_DEBUG,
+                    "Scheduling runnable {0} asynchronously", null, runnable);
+                actor.schedule( keyEntries.getKey(), runnable );
+            }
         }
     }
 
-    public synchronized <S, T> void registerMissingDependency( DependencyManager<S, T> dependencyManager, ServiceReference<T> serviceReference, int trackingCount )
+    public synchronized <S, T> void registerMissingDependency( DependencyManager<S, T> dependencyManager, ServiceReference<T> serviceReference, int trackingCount, Object key )
     {
         //check that the service reference is from scr
         if ( serviceReference.getProperty( ComponentConstants.COMPONENT_NAME ) == null || serviceReference.getProperty( ComponentConstants.COMPONENT_ID ) == null )
@@ -602,7 +620,7 @@ public class ComponentRegistry
             dependencyManagers = new ArrayList<>();
             m_missingDependencies.put( serviceReference, dependencyManagers );
         }
-        dependencyManagers.add( new Entry<>( dependencyManager, trackingCount ) );
+        dependencyManagers.add( new Entry<>( dependencyManager, trackingCount, key ) );
         m_logger.log(LogService.LOG_DEBUG,
             "Dependency managers {0} waiting for missing service {1}", null,
             dependencyManagers, serviceReference);
@@ -612,11 +630,13 @@ public class ComponentRegistry
     {
         private final DependencyManager<S, T> dm;
         private final int trackingCount;
+        private final Object key;
 
-        private Entry( DependencyManager<S, T> dm, int trackingCount )
+        private Entry( DependencyManager<S, T> dm, int trackingCount, Object key )
         {
             this.dm = dm;
             this.trackingCount = trackingCount;
+            this.key = key;
         }
 
         public DependencyManager<S, T> getDm()
@@ -629,6 +649,11 @@ public class ComponentRegistry
             return trackingCount;
         }
 
+        public Object getKey()
+        {
+            return key;
+        }
+
         @Override
         public String toString()
         {
@@ -89,6 +89,10 @@ public class ScrConfigurationImpl implements ScrConfiguration
 
     private Boolean globalExtender;
 
+    private boolean cacheMetadata = false;
+
+    private int actorThreads = 1;
+
     private volatile BundleContext bundleContext;
 
     private volatile ServiceRegistration<?> managedServiceRef;
@@ -175,6 +179,8 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         stopTimeout = DEFAULT_STOP_TIMEOUT_MILLISECONDS;
                         serviceChangecountTimeout = DEFAULT_SERVICE_CHANGECOUNT_TIMEOUT_MILLISECONDS;
                         newGlobalExtender = false;
+                        cacheMetadata = false;
+                        actorThreads = 1;
                     }
                     else
                     {
@@ -186,6 +192,8 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         stopTimeout = getDefaultStopTimeout();
                         serviceChangecountTimeout = getServiceChangecountTimeout();
                         newGlobalExtender = getDefaultGlobalExtender();
+                        cacheMetadata = getDefaultCacheMetadata();
+                        actorThreads = getDefaultActorThreads();
                     }
                 }
                 else
@@ -273,6 +281,18 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return serviceChangecountTimeout;
     }
 
+    @Override
+    public boolean cacheMetadata()
+    {
+        return cacheMetadata;
+    }
+
+    @Override
+    public int actorThreads()
+    {
+        return actorThreads;
+    }
+
     private boolean getDefaultFactoryEnabled()
     {
         return VALUE_TRUE.equals( bundleContext.getProperty( PROP_FACTORY_ENABLED ) );
@@ -330,6 +350,21 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return VALUE_TRUE.equalsIgnoreCase( bundleContext.getProperty( PROP_GLOBAL_EXTENDER) );
     }
 
+    private boolean getDefaultCacheMetadata()
+    {
+        return VALUE_TRUE.equalsIgnoreCase( bundleContext.getProperty( PROP_CACHE_METADATA ) );
+    }
+
+    private int getDefaultActorThreads()
+    {
+        String val = bundleContext.getProperty( PROP_ACTOR_THREADS );
+        if ( val == null )
+        {
+            return 1;
+        }
+        return Math.max( 1, Integer.parseInt( val ) );
+    }
+
     private int getLogLevel( final Object levelObject )
     {
         if ( levelObject != null )
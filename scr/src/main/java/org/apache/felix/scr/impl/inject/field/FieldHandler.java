@@ -19,6 +19,9 @@
 package org.apache.felix.scr.impl.inject.field;
 
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
@@ -40,6 +43,7 @@ import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.manager.ComponentContextImpl;
 import org.apache.felix.scr.impl.manager.RefPair;
 import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.log.LogService;
 
@@ -57,6 +61,12 @@ public class FieldHandler
     /** The field used for the injection. */
     private volatile Field field;
 
+    /** Handle setting the field or <code>null</code> to use reflection. */
+    private volatile MethodHandle setter;
+
+    /** Handle getting the field or <code>null</code> to use reflection. */
+    private volatile MethodHandle getter;
+
     /** Value type. */
     private volatile ValueType valueType;
 
@@ -293,9 +303,27 @@ public class FieldHandler
         return MethodResult.VOID;
     }
 
+    @IgnoreJRERequirement
     private void setFieldValue(final Object componentInstance, final Object value)
     throws InvocationTargetException
     {
+        final MethodHandle setter = this.setter;
+        if ( setter != null )
+        {
+            try
+            {
+                setter.invokeExact(componentInstance, value);
+            }
+            catch ( final Error e )
+            {
+                throw e;
+            }
+            catch ( final Throwable t )
+            {
+                throw new InvocationTargetException(t);
+            }
+            return;
+        }
         try
         {
             field.set(componentInstance, value);
@@ -310,9 +338,26 @@ public class FieldHandler
         }
     }
 
+    @IgnoreJRERequirement
     private Object getFieldValue(final Object componentInstance)
     throws InvocationTargetException
     {
+        final MethodHandle getter = this.getter;
+        if ( getter != null )
+        {
+            try
+            {
+                return (Object) getter.invokeExact(componentInstance);
+            }
+            catch ( final Error e )
+            {
+                throw e;
+            }
+            catch ( final Throwable t )
+            {
+                throw new InvocationTargetException(t);
+            }
+        }
         try
         {
             return field.get(componentInstance);
@@ -439,6 +484,8 @@ public class FieldHandler
         if (result == null)
         {
             field = null;
+            setter = null;
+            getter = null;
             valueType = null;
             state = NotFound.INSTANCE;
             // TODO - will component really fail?
@@ -448,6 +495,8 @@ public class FieldHandler
         else
         {
             field = result.field;
+            setter = getSetter(result.field);
+            getter = getGetter(result.field);
             if (!result.usable)
             {
                 valueType = ValueType.ignore;
@@ -463,6 +512,48 @@ public class FieldHandler
         }
     }
 
+    /**
+     * Binds the setter of the field to a handle of type
+     * <code>(Object, Object)void</code>, which avoids the access and type
+     * checks of <code>Field.set</code> on every call.
+     *
+     * @return The handle or <code>null</code> if the field cannot be set
+     *      through a handle, for example because it is final.
+     */
+    private static MethodHandle getSetter(final Field field)
+    {
+        try
+        {
+            // the field has been made accessible when it was searched
+            return MethodHandles.lookup().unreflectSetter(field)
+                .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        }
+        catch ( final Exception e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Binds the getter of the field to a handle of type
+     * <code>(Object)Object</code>.
+     *
+     * @return The handle or <code>null</code> if the field cannot be read
+     *      through a handle.
+     */
+    private static MethodHandle getGetter(final Field field)
+    {
+        try
+        {
+            return MethodHandles.lookup().unreflectGetter(field)
+                .asType(MethodType.methodType(Object.class, Object.class));
+        }
+        catch ( final Exception e )
+        {
+            return null;
+        }
+    }
+
     public static final class ReferenceMethodImpl
         implements ReferenceMethod
     {
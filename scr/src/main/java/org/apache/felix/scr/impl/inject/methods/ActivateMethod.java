@@ -254,9 +254,8 @@ public class ActivateMethod extends BaseMethod<ActivatorParameter, Object> imple
 
 
     @Override
-    protected Object[] getParameters( Method method, ActivatorParameter rawParameter )
+    protected Object[] getParameters( Class<?>[] parameterTypes, ActivatorParameter rawParameter )
     {
-        final Class<?>[] parameterTypes = method.getParameterTypes();
         final ActivatorParameter ap = rawParameter;
         final Object[] param = new Object[parameterTypes.length];
         for ( int i = 0; i < param.length; i++ )
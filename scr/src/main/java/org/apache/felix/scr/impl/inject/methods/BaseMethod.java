@@ -19,6 +19,10 @@
 package org.apache.felix.scr.impl.inject.methods;
 
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -32,6 +36,7 @@ import org.apache.felix.scr.impl.inject.ClassUtils;
 import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.metadata.DSVersion;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 import org.osgi.service.log.LogService;
 
 
@@ -49,6 +54,15 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
     private volatile Method m_method;
 
+    /**
+     * The method bound to a handle taking the component instance and the
+     * parameter array; <code>null</code> if the method cannot be bound, in
+     * which case the method is called reflectively.
+     */
+    private volatile MethodHandle m_methodHandle;
+
+    private volatile Class<?>[] m_parameterTypes;
+
     private final boolean m_methodRequired;
 
     private volatile State m_state;
@@ -96,6 +110,11 @@ public abstract class BaseMethod<P extends BaseParameter, T>
         return m_method;
     }
 
+    final boolean isBoundToMethodHandle()
+    {
+        return m_methodHandle != null;
+    }
+
     protected final Class<?> getComponentClass()
     {
         return m_componentClass;
@@ -110,12 +129,16 @@ public abstract class BaseMethod<P extends BaseParameter, T>
         if (m_method != null)
         {
             setTypes(methodInfo.getTypes());
+            m_parameterTypes = m_method.getParameterTypes();
+            m_methodHandle = getMethodHandle( m_method, logger );
             m_state = Resolved.INSTANCE;
             logger.log( LogService.LOG_DEBUG, "Found {0} method: {1}", null,
                     getMethodNamePrefix(), m_method );
         }
         else if ( m_methodRequired )
         {
+            m_methodHandle = null;
+            m_parameterTypes = null;
             m_state = NotFound.INSTANCE;
             logger.log(LogService.LOG_ERROR, "{0} method [{1}] not found; Component will fail",
                     null,
@@ -126,6 +149,8 @@ public abstract class BaseMethod<P extends BaseParameter, T>
             // optional method not found, log as DEBUG and ignore
             logger.log( LogService.LOG_DEBUG, "{0} method [{1}] not found, ignoring", null,
                     getMethodNamePrefix(), getMethodName() );
+            m_methodHandle = null;
+            m_parameterTypes = null;
             m_state = NotApplicable.INSTANCE;
         }
     }
@@ -218,28 +243,44 @@ public abstract class BaseMethod<P extends BaseParameter, T>
     private MethodResult invokeMethod(final Object componentInstance, final P rawParameter )
             throws InvocationTargetException
     {
+        final ComponentLogger logger = rawParameter.getComponentContext().getLogger();
         try
         {
             if ( componentInstance != null )
             {
-                final Object[] params = getParameters(m_method, rawParameter);
-                rawParameter.getComponentContext().getLogger().log( LogService.LOG_DEBUG, "invoking {0}: {1}: parameters {2}", null,
-                        getMethodNamePrefix(), getMethodName(), Arrays.asList( params ) );
-                Object result = m_method.invoke(componentInstance, params);
-                rawParameter.getComponentContext().getLogger().log( LogService.LOG_DEBUG, "invoked {0}: {1}", null,
-                        getMethodNamePrefix(), getMethodName() );
+                final Object[] params = getParameters(m_parameterTypes, rawParameter);
+                if ( logger.isLogEnabled( LogService.LOG_DEBUG ) )
+                {
+                    logger.log( LogService.LOG_DEBUG, "invoking {0}: {1}: parameters {2}", null,
+                            getMethodNamePrefix(), getMethodName(), Arrays.asList( params ) );
+                }
+                final MethodHandle methodHandle = m_methodHandle;
+                final Object result;
+                if ( methodHandle != null )
+                {
+                    result = invokeMethodHandle( methodHandle, componentInstance, params );
+                }
+                else
+                {
+                    result = m_method.invoke( componentInstance, params );
+                }
+                if ( logger.isLogEnabled( LogService.LOG_DEBUG ) )
+                {
+                    logger.log( LogService.LOG_DEBUG, "invoked {0}: {1}", null,
+                            getMethodNamePrefix(), getMethodName() );
+                }
                 return new MethodResult((m_method.getReturnType() != Void.TYPE), (Map<String, Object>) result);
             }
             else
             {
-                rawParameter.getComponentContext().getLogger().log( LogService.LOG_WARNING, "Method {0}: {1} cannot be called on null object",
+                logger.log( LogService.LOG_WARNING, "Method {0}: {1} cannot be called on null object",
                         null,
                                 getMethodNamePrefix(), getMethodName() );
             }
         }
         catch ( IllegalStateException ise )
         {
-            rawParameter.getComponentContext().getLogger().log( LogService.LOG_DEBUG, ise.getMessage(), null );
+            logger.log( LogService.LOG_DEBUG, ise.getMessage(), null );
             return null;
         }
         catch ( IllegalAccessException ex )
@@ -247,7 +288,7 @@ public abstract class BaseMethod<P extends BaseParameter, T>
             // 112.3.1 If the method is not is not declared protected or
             // public, SCR must log an error message with the log service,
             // if present, and ignore the method
-            rawParameter.getComponentContext().getLogger().log( LogService.LOG_DEBUG, "Method {0} cannot be called", ex,
+            logger.log( LogService.LOG_DEBUG, "Method {0} cannot be called", ex,
                     getMethodName() );
         }
         catch ( InvocationTargetException ex )
@@ -263,6 +304,63 @@ public abstract class BaseMethod<P extends BaseParameter, T>
         return MethodResult.VOID;
     }
 
+    /**
+     * Calls the method handle, wrapping anything thrown by the method in an
+     * <code>InvocationTargetException</code> as <code>Method.invoke</code>
+     * does. Arguments the handle does not accept as they are, which includes
+     * a mismatch, are passed to <code>Method.invoke</code> instead, so that
+     * they are converted or rejected with an
+     * <code>IllegalArgumentException</code> exactly as by reflection.
+     */
+    @IgnoreJRERequirement
+    private Object invokeMethodHandle( final MethodHandle methodHandle, final Object componentInstance,
+            final Object[] params ) throws IllegalAccessException, InvocationTargetException
+    {
+        final Method method = m_method;
+        if ( !acceptsArguments( method, m_parameterTypes, componentInstance, params ) )
+        {
+            return method.invoke( componentInstance, params );
+        }
+        try
+        {
+            return (Object) methodHandle.invokeExact( componentInstance, params );
+        }
+        catch ( WrongMethodTypeException e )
+        {
+            throw new IllegalArgumentException( e.getMessage(), e );
+        }
+        catch ( Throwable t )
+        {
+            throw new InvocationTargetException( t );
+        }
+    }
+
+    private static boolean acceptsArguments( final Method method, final Class<?>[] parameterTypes,
+            final Object componentInstance, final Object[] params )
+    {
+        if ( !method.getDeclaringClass().isInstance( componentInstance )
+                || params == null || params.length != parameterTypes.length )
+        {
+            return false;
+        }
+        for ( int i = 0; i < params.length; i++ )
+        {
+            final Class<?> type = parameterTypes[i];
+            if ( type.isPrimitive() )
+            {
+                if ( params[i] == null || MethodType.methodType( type ).wrap().returnType() != params[i].getClass() )
+                {
+                    return false;
+                }
+            }
+            else if ( params[i] != null && !type.isInstance( params[i] ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     protected boolean returnValue()
     {
         // allow returning Map if declared as DS 1.2-Felix or newer
@@ -271,14 +369,15 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
     /**
      * Returns the parameter array created from the <code>rawParameter</code>
-     * using the actual parameter type list of the <code>method</code>.
-     * @param method
+     * using the actual parameter type list of the method.
+     * @param parameterTypes The parameter types of the method, which must
+     *      not be modified
      * @param rawParameter
      * @return
      * @throws IllegalStateException If the required parameters cannot be
      *      extracted from the <code>rawParameter</code>
      */
-    protected abstract Object[] getParameters( Method method, P rawParameter );
+    protected abstract Object[] getParameters( Class<?>[] parameterTypes, P rawParameter );
 
 
     protected String getMethodNamePrefix()
@@ -453,6 +552,34 @@ public abstract class BaseMethod<P extends BaseParameter, T>
     }
 
 
+    /**
+     * Binds the method to a handle of type <code>(Object, Object[])Object</code>
+     * taking the component instance and the parameter array. Unlike
+     * <code>Method.invoke</code> the handle does not check access and
+     * arguments on each call and can be inlined by the JIT compiler.
+     *
+     * @return The method handle or <code>null</code> if the method cannot
+     *      be bound, in which case it is called reflectively.
+     */
+    private static MethodHandle getMethodHandle( final Method method, final ComponentLogger logger )
+    {
+        try
+        {
+            // the method has been made accessible by accept, so no
+            // access check is done on behalf of this class
+            return MethodHandles.lookup().unreflect( method )
+                    .asSpreader( Object[].class, method.getParameterTypes().length )
+                    .asType( MethodType.methodType( Object.class, Object.class, Object[].class ) );
+        }
+        catch ( Exception e )
+        {
+            logger.log( LogService.LOG_DEBUG, "Method {0} cannot be bound to a method handle, using reflection", e,
+                    method );
+            return null;
+        }
+    }
+
+
     private static void setAccessible(final Method method)
     {
         AccessController.doPrivileged( new PrivilegedAction<Object>()
@@ -668,15 +668,16 @@ implements org.apache.felix.scr.impl.inject.ReferenceMethod
     }
 
     @Override
-    protected Object[] getParameters( Method method, BindParameters bp )
+    protected Object[] getParameters( Class<?>[] parameterTypes, BindParameters bp )
     {
         ComponentContextImpl<?> key = bp.getComponentContext();
         Object[] result = new Object[ m_paramTypes.size()];
         RefPair<?, ?> refPair = bp.getRefPair();
+        String componentClassName = getComponentClass().getName();
         int i = 0;
         for ( ValueUtils.ValueType pt: m_paramTypes )
         {
-            result[i] = ValueUtils.getValue(getComponentClass().getName(), pt, method.getParameterTypes()[i], key, refPair);
+            result[i] = ValueUtils.getValue(componentClassName, pt, parameterTypes[i], key, refPair);
             i++;
         }
         return result;
@@ -68,6 +68,10 @@ public interface ScrConfiguration
 
     String PROP_SERVICE_CHANGECOUNT_TIMEOUT = "ds.service.changecount.timeout";
 
+    String PROP_CACHE_METADATA = "ds.cache.metadata";
+
+    String PROP_ACTOR_THREADS = "ds.actor.threads";
+
     /**
      * Returns the current log level.
      * @return
@@ -97,4 +101,22 @@ public interface ScrConfiguration
      */
     long serviceChangecountTimeout();
 
+    /**
+     * Returns whether validated component metadata is cached in the data
+     * area of the SCR bundle. This is only read from the bundle context
+     * properties, since the cache is loaded when SCR starts. Caching is
+     * disabled unless the property is set to <code>true</code>.
+     * @since 2.2
+     */
+    boolean cacheMetadata();
+
+    /**
+     * Returns the number of threads running the asynchronous component
+     * tasks. Tasks of the same bundle are always run in order. This is only
+     * read from the bundle context properties, since the threads are started
+     * when SCR starts.
+     * @since 2.2
+     */
+    int actorThreads();
+
 }
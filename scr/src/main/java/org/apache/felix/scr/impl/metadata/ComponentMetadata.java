@@ -18,6 +18,9 @@
  */
 package org.apache.felix.scr.impl.metadata;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -28,6 +31,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataReader;
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataWriter;
 import org.apache.felix.scr.impl.metadata.ServiceMetadata.Scope;
 import org.osgi.service.component.ComponentException;
 
@@ -1074,6 +1079,107 @@ public class ComponentMetadata
     }
 
 
+    /**
+     * Writes this validated metadata.
+     *
+     * @see MetadataStoreHelper#store(List, java.io.DataOutputStream)
+     */
+    void store( final MetaDataWriter writer ) throws IOException
+    {
+        if ( !m_validated )
+        {
+            throw new IllegalArgumentException( "Component " + getName() + " has not been validated" );
+        }
+        final DataOutputStream out = writer.out;
+        writer.writeString( m_dsVersion.name() );
+        writer.writeString( m_name );
+        out.writeBoolean( m_enabled );
+        writer.writeString( m_factory );
+        writer.writeBoolean( m_immediate );
+        writer.writeString( m_implementationClassName );
+        writer.writeString( m_activate );
+        out.writeBoolean( m_activateDeclared );
+        writer.writeString( m_deactivate );
+        out.writeBoolean( m_deactivateDeclared );
+        writer.writeString( m_modified );
+        writer.writeString( m_configurationPolicy );
+        writer.writeStrings( m_configurationPid );
+        writer.writeStrings( m_activationFields );
+        writer.writeProperties( m_properties );
+        writer.writeProperties( m_factoryProperties );
+        out.writeBoolean( m_service != null );
+        if ( m_service != null )
+        {
+            m_service.store( writer );
+        }
+        out.writeInt( m_references.size() );
+        for ( ReferenceMetadata reference : m_references )
+        {
+            reference.store( writer );
+        }
+        out.writeBoolean( m_configurableServiceProperties );
+        out.writeBoolean( m_persistentFactoryComponent );
+        out.writeBoolean( m_deleteCallsModify );
+        writer.writeBoolean( m_obsoleteFactoryComponentFactory );
+        out.writeBoolean( m_configureWithInterfaces );
+        out.writeBoolean( m_delayedKeepInstances );
+        writer.writeString( m_init );
+    }
+
+
+    /**
+     * Reads metadata written by {@link #store(MetaDataWriter)}. The
+     * returned metadata is validated.
+     */
+    static ComponentMetadata load( final MetaDataReader reader ) throws IOException
+    {
+        final DataInputStream in = reader.in;
+        final DSVersion dsVersion;
+        try
+        {
+            dsVersion = DSVersion.valueOf( reader.readString() );
+        }
+        catch ( final IllegalArgumentException iae )
+        {
+            throw new IOException( "Invalid DS version", iae );
+        }
+        final ComponentMetadata metadata = new ComponentMetadata( dsVersion );
+        metadata.m_name = reader.readString();
+        metadata.m_enabled = in.readBoolean();
+        metadata.m_factory = reader.readString();
+        metadata.m_immediate = reader.readBoolean();
+        metadata.m_implementationClassName = reader.readString();
+        metadata.m_activate = reader.readString();
+        metadata.m_activateDeclared = in.readBoolean();
+        metadata.m_deactivate = reader.readString();
+        metadata.m_deactivateDeclared = in.readBoolean();
+        metadata.m_modified = reader.readString();
+        metadata.m_configurationPolicy = reader.readString();
+        metadata.m_configurationPid = reader.readStrings();
+        metadata.m_activationFields = reader.readStrings();
+        reader.readProperties( metadata.m_properties );
+        reader.readProperties( metadata.m_factoryProperties );
+        if ( in.readBoolean() )
+        {
+            metadata.m_service = ServiceMetadata.load( reader );
+        }
+        final int references = in.readInt();
+        for ( int i = 0; i < references; i++ )
+        {
+            metadata.m_references.add( ReferenceMetadata.load( reader ) );
+        }
+        metadata.m_configurableServiceProperties = in.readBoolean();
+        metadata.m_persistentFactoryComponent = in.readBoolean();
+        metadata.m_deleteCallsModify = in.readBoolean();
+        metadata.m_obsoleteFactoryComponentFactory = reader.readBoolean();
+        metadata.m_configureWithInterfaces = in.readBoolean();
+        metadata.m_delayedKeepInstances = in.readBoolean();
+        metadata.m_init = reader.readString();
+        metadata.m_validated = true;
+        return metadata;
+    }
+
+
     /**
      * Returns a <code>ComponentException</code> for this component with the
      * given explanation for failure.
@@ -0,0 +1,373 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.metadata;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper methods to write validated component metadata in a compact binary
+ * form and to read it back. Strings are written once and referred to by
+ * their index afterwards, since the same interface and method names are
+ * usually used by many components.
+ */
+public class MetadataStoreHelper
+{
+    // value type tags
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte FLOAT = 4;
+    private static final byte INTEGER = 5;
+    private static final byte BYTE = 6;
+    private static final byte CHARACTER = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte SHORT = 9;
+    private static final byte ARRAY = 10;
+
+    private static final Class<?>[] ARRAY_TYPES = { null, String.class, long.class, double.class,
+            float.class, int.class, byte.class, char.class, boolean.class, short.class };
+
+    /**
+     * Writes the given validated component metadata.
+     *
+     * @param metadataList the component metadata to write
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if a metadata has not been validated
+     *      or has a property value which cannot be written
+     */
+    public static void store(List<ComponentMetadata> metadataList, DataOutputStream out) throws IOException
+    {
+        MetaDataWriter writer = new MetaDataWriter( out );
+        out.writeInt( metadataList.size() );
+        for ( ComponentMetadata metadata : metadataList )
+        {
+            metadata.store( writer );
+        }
+    }
+
+    /**
+     * Reads component metadata written by {@link #store(List, DataOutputStream)}.
+     * The returned metadata is validated.
+     *
+     * @param in the stream to read from
+     * @return the component metadata
+     * @throws IOException if reading fails
+     */
+    public static List<ComponentMetadata> load(DataInputStream in) throws IOException
+    {
+        MetaDataReader reader = new MetaDataReader( in );
+        int size = in.readInt();
+        List<ComponentMetadata> metadataList = new ArrayList<>( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            metadataList.add( ComponentMetadata.load( reader ) );
+        }
+        return metadataList;
+    }
+
+    static class MetaDataWriter
+    {
+        final DataOutputStream out;
+        private final Map<String, Integer> m_strings = new HashMap<>();
+
+        MetaDataWriter(DataOutputStream out)
+        {
+            this.out = out;
+        }
+
+        void writeString(String value) throws IOException
+        {
+            if ( value == null )
+            {
+                out.writeInt( -1 );
+                return;
+            }
+            Integer index = m_strings.get( value );
+            if ( index != null )
+            {
+                out.writeInt( index );
+                return;
+            }
+            index = m_strings.size();
+            m_strings.put( value, index );
+            out.writeInt( index );
+            out.writeUTF( value );
+        }
+
+        void writeBoolean(Boolean value) throws IOException
+        {
+            out.writeByte( value == null ? -1 : ( value ? 1 : 0 ) );
+        }
+
+        void writeStrings(List<String> values) throws IOException
+        {
+            if ( values == null )
+            {
+                out.writeInt( -1 );
+                return;
+            }
+            out.writeInt( values.size() );
+            for ( String value : values )
+            {
+                writeString( value );
+            }
+        }
+
+        void writeProperties(Map<String, Object> properties) throws IOException
+        {
+            out.writeInt( properties.size() );
+            for ( Map.Entry<String, Object> entry : properties.entrySet() )
+            {
+                writeString( entry.getKey() );
+                writeValue( entry.getValue() );
+            }
+        }
+
+        private void writeValue(Object value) throws IOException
+        {
+            if ( value != null && value.getClass().isArray() )
+            {
+                // property arrays are either string or primitive arrays
+                Class<?> componentType = value.getClass().getComponentType();
+                byte type = ( componentType.isPrimitive() || componentType == String.class )
+                        ? getType( componentType ) : NULL;
+                if ( type == NULL )
+                {
+                    throw new IllegalArgumentException( "Unsupported property type " + value.getClass() );
+                }
+                out.writeByte( ARRAY );
+                out.writeByte( type );
+                int length = Array.getLength( value );
+                out.writeInt( length );
+                for ( int i = 0; i < length; i++ )
+                {
+                    writeValue( type, Array.get( value, i ) );
+                }
+            }
+            else
+            {
+                byte type = value == null ? NULL : getType( value.getClass() );
+                if ( value != null && type == NULL )
+                {
+                    throw new IllegalArgumentException( "Unsupported property type " + value.getClass() );
+                }
+                out.writeByte( type );
+                writeValue( type, value );
+            }
+        }
+
+        private void writeValue(byte type, Object value) throws IOException
+        {
+            switch ( type )
+            {
+                case STRING:
+                    writeString( ( String ) value );
+                    break;
+                case LONG:
+                    out.writeLong( ( Long ) value );
+                    break;
+                case DOUBLE:
+                    out.writeDouble( ( Double ) value );
+                    break;
+                case FLOAT:
+                    out.writeFloat( ( Float ) value );
+                    break;
+                case INTEGER:
+                    out.writeInt( ( Integer ) value );
+                    break;
+                case BYTE:
+                    out.writeByte( ( Byte ) value );
+                    break;
+                case CHARACTER:
+                    out.writeChar( ( Character ) value );
+                    break;
+                case BOOLEAN:
+                    out.writeBoolean( ( Boolean ) value );
+                    break;
+                case SHORT:
+                    out.writeShort( ( Short ) value );
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private static byte getType(Class<?> clazz)
+        {
+            if ( clazz == String.class )
+            {
+                return STRING;
+            }
+            else if ( clazz == Long.class || clazz == long.class )
+            {
+                return LONG;
+            }
+            else if ( clazz == Double.class || clazz == double.class )
+            {
+                return DOUBLE;
+            }
+            else if ( clazz == Float.class || clazz == float.class )
+            {
+                return FLOAT;
+            }
+            else if ( clazz == Integer.class || clazz == int.class )
+            {
+                return INTEGER;
+            }
+            else if ( clazz == Byte.class || clazz == byte.class )
+            {
+                return BYTE;
+            }
+            else if ( clazz == Character.class || clazz == char.class )
+            {
+                return CHARACTER;
+            }
+            else if ( clazz == Boolean.class || clazz == boolean.class )
+            {
+                return BOOLEAN;
+            }
+            else if ( clazz == Short.class || clazz == short.class )
+            {
+                return SHORT;
+            }
+            return NULL;
+        }
+    }
+
+    static class MetaDataReader
+    {
+        final DataInputStream in;
+        private final List<String> m_strings = new ArrayList<>();
+
+        MetaDataReader(DataInputStream in)
+        {
+            this.in = in;
+        }
+
+        String readString() throws IOException
+        {
+            int index = in.readInt();
+            if ( index < 0 )
+            {
+                return null;
+            }
+            if ( index < m_strings.size() )
+            {
+                return m_strings.get( index );
+            }
+            if ( index != m_strings.size() )
+            {
+                throw new IOException( "Invalid string index " + index );
+            }
+            String value = in.readUTF();
+            m_strings.add( value );
+            return value;
+        }
+
+        Boolean readBoolean() throws IOException
+        {
+            byte value = in.readByte();
+            return value < 0 ? null : Boolean.valueOf( value == 1 );
+        }
+
+        List<String> readStrings() throws IOException
+        {
+            int size = in.readInt();
+            if ( size < 0 )
+            {
+                return null;
+            }
+            List<String> values = new ArrayList<>( size );
+            for ( int i = 0; i < size; i++ )
+            {
+                values.add( readString() );
+            }
+            return values;
+        }
+
+        void readProperties(Map<String, Object> properties) throws IOException
+        {
+            int size = in.readInt();
+            for ( int i = 0; i < size; i++ )
+            {
+                String key = readString();
+                properties.put( key, readValue() );
+            }
+        }
+
+        private Object readValue() throws IOException
+        {
+            byte type = in.readByte();
+            if ( type == ARRAY )
+            {
+                type = in.readByte();
+                if ( type <= NULL || type >= ARRAY_TYPES.length )
+                {
+                    throw new IOException( "Invalid array type " + type );
+                }
+                int length = in.readInt();
+                Object array = Array.newInstance( ARRAY_TYPES[type], length );
+                for ( int i = 0; i < length; i++ )
+                {
+                    Array.set( array, i, readValue( type ) );
+                }
+                return array;
+            }
+            return readValue( type );
+        }
+
+        private Object readValue(byte type) throws IOException
+        {
+            switch ( type )
+            {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString();
+                case LONG:
+                    return in.readLong();
+                case DOUBLE:
+                    return in.readDouble();
+                case FLOAT:
+                    return in.readFloat();
+                case INTEGER:
+                    return in.readInt();
+                case BYTE:
+                    return in.readByte();
+                case CHARACTER:
+                    return in.readChar();
+                case BOOLEAN:
+                    return in.readBoolean();
+                case SHORT:
+                    return in.readShort();
+                default:
+                    throw new IOException( "Invalid value type " + type );
+            }
+        }
+    }
+}
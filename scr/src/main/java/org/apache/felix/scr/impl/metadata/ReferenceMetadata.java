@@ -18,9 +18,15 @@
  */
 package org.apache.felix.scr.impl.metadata;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Set;
 import java.util.TreeSet;
 
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataReader;
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataWriter;
+
 /**
  * Information associated to a dependency
  *
@@ -809,6 +815,69 @@ public class ReferenceMetadata
         m_validated = true;
     }
 
+    void store(final MetaDataWriter writer) throws IOException
+    {
+        final DataOutputStream out = writer.out;
+        writer.writeString( m_name );
+        writer.writeString( m_interface );
+        writer.writeString( m_cardinality );
+        writer.writeString( m_target );
+        writer.writeString( m_bind );
+        writer.writeString( m_updated );
+        writer.writeString( m_unbind );
+        writer.writeString( m_field );
+        writer.writeString( m_field_option );
+        writer.writeString( m_collection_type );
+        writer.writeString( m_policy );
+        writer.writeString( m_policy_option );
+        writer.writeString( m_scopeName );
+        writer.writeString( m_scope.name() );
+        writer.writeString( m_parameter );
+        out.writeInt( m_parameterIndex == null ? -1 : m_parameterIndex );
+        out.writeBoolean( m_isStatic );
+        out.writeBoolean( m_isOptional );
+        out.writeBoolean( m_isMultiple );
+        out.writeBoolean( m_isReluctant );
+        out.writeBoolean( m_isReplace );
+    }
+
+    static ReferenceMetadata load(final MetaDataReader reader) throws IOException
+    {
+        final DataInputStream in = reader.in;
+        final ReferenceMetadata metadata = new ReferenceMetadata();
+        metadata.m_name = reader.readString();
+        metadata.m_interface = reader.readString();
+        metadata.m_cardinality = reader.readString();
+        metadata.m_target = reader.readString();
+        metadata.m_bind = reader.readString();
+        metadata.m_updated = reader.readString();
+        metadata.m_unbind = reader.readString();
+        metadata.m_field = reader.readString();
+        metadata.m_field_option = reader.readString();
+        metadata.m_collection_type = reader.readString();
+        metadata.m_policy = reader.readString();
+        metadata.m_policy_option = reader.readString();
+        metadata.m_scopeName = reader.readString();
+        try
+        {
+            metadata.m_scope = ReferenceScope.valueOf( reader.readString() );
+        }
+        catch ( final IllegalArgumentException iae )
+        {
+            throw new IOException( "Invalid reference scope", iae );
+        }
+        metadata.m_parameter = reader.readString();
+        final int parameterIndex = in.readInt();
+        metadata.m_parameterIndex = parameterIndex < 0 ? null : parameterIndex;
+        metadata.m_isStatic = in.readBoolean();
+        metadata.m_isOptional = in.readBoolean();
+        metadata.m_isMultiple = in.readBoolean();
+        metadata.m_isReluctant = in.readBoolean();
+        metadata.m_isReplace = in.readBoolean();
+        metadata.m_validated = true;
+        return metadata;
+    }
+
     public String getDebugInfo()
     {
         return getName() +
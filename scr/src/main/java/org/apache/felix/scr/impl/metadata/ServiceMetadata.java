@@ -18,9 +18,13 @@
  */
 package org.apache.felix.scr.impl.metadata;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataReader;
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataWriter;
+
 /**
  * This class contains the metadata associated to a service that is provided
  * by a component
@@ -134,4 +138,30 @@ public class ServiceMetadata {
         }
         m_validated = true;
     }
+
+    void store(MetaDataWriter writer) throws IOException
+    {
+        writer.writeBoolean( m_serviceFactory );
+        writer.writeString( m_scopeName );
+        writer.writeString( m_scope.name() );
+        writer.writeStrings( m_provides );
+    }
+
+    static ServiceMetadata load(MetaDataReader reader) throws IOException
+    {
+        ServiceMetadata metadata = new ServiceMetadata();
+        metadata.m_serviceFactory = reader.readBoolean();
+        metadata.m_scopeName = reader.readString();
+        try
+        {
+            metadata.m_scope = Scope.valueOf( reader.readString() );
+        }
+        catch ( IllegalArgumentException iae )
+        {
+            throw new IOException( "Invalid service scope", iae );
+        }
+        metadata.m_provides = reader.readStrings();
+        metadata.m_validated = true;
+        return metadata;
+    }
 }
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.impl.logger.MockScrLogger;
+import org.apache.felix.scr.impl.manager.DependencyManager;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.ComponentConstants;
+
+import junit.framework.TestCase;
+
+
+public class ComponentActorExecutorTest extends TestCase
+{
+
+    public void test_order_per_key() throws Exception
+    {
+        final ComponentActorExecutor executor = new ComponentActorExecutor( new MockScrLogger(), 4 );
+        executor.start();
+
+        final Object[] keys = { "a", "b", "c" };
+        final List<List<Integer>> runs = new ArrayList<>();
+        for ( int k = 0; k < keys.length; k++ )
+        {
+            final List<Integer> run = Collections.synchronizedList( new ArrayList<Integer>() );
+            runs.add( run );
+            for ( int i = 0; i < 100; i++ )
+            {
+                final int task = i;
+                executor.schedule( keys[k], new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        run.add( task );
+                    }
+                } );
+            }
+        }
+
+        executor.terminate();
+
+        assertEquals( 0, executor.getQueueDepth() );
+        assertEquals( 300, executor.getTaskCount() );
+        for ( List<Integer> run : runs )
+        {
+            assertEquals( 100, run.size() );
+            for ( int i = 0; i < 100; i++ )
+            {
+                assertEquals( Integer.valueOf( i ), run.get( i ) );
+            }
+        }
+    }
+
+
+    public void test_keys_run_concurrently() throws Exception
+    {
+        final ComponentActorExecutor executor = new ComponentActorExecutor( new MockScrLogger(), 2 );
+        executor.start();
+
+        // the first task only finishes once the task of the other key ran
+        final CountDownLatch latch = new CountDownLatch( 1 );
+        final boolean[] released = new boolean[1];
+        executor.schedule( "a", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    released[0] = latch.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+        executor.schedule( "b", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        } );
+
+        executor.terminate();
+        assertTrue( "Task of other key has not been run concurrently", released[0] );
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public void test_late_binding_on_owner_lane() throws Exception
+    {
+        final ComponentActorExecutor executor = new ComponentActorExecutor( new MockScrLogger(), 2 );
+        executor.start();
+        final ComponentRegistry registry = new ComponentRegistry( null, new MockScrLogger() );
+
+        final ServiceReference<Object> ref = Mockito.mock( ServiceReference.class );
+        Mockito.when( ref.getProperty( ComponentConstants.COMPONENT_NAME ) ).thenReturn( "component" );
+        Mockito.when( ref.getProperty( ComponentConstants.COMPONENT_ID ) ).thenReturn( 1L );
+
+        final List<String> run = Collections.synchronizedList( new ArrayList<String>() );
+        final DependencyManager<Object, Object> dm = Mockito.mock( DependencyManager.class );
+        Mockito.doAnswer( new Answer<Object>()
+        {
+            @Override
+            public Object answer( InvocationOnMock invocation )
+            {
+                run.add( "late" );
+                return null;
+            }
+        } ).when( dm ).invokeBindMethodLate( ref, 3 );
+        registry.registerMissingDependency( dm, ref, 3, "owner" );
+
+        // the task queued on the lane of the owning bundle must run first
+        final CountDownLatch latch = new CountDownLatch( 1 );
+        executor.schedule( "owner", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    latch.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                run.add( "queued" );
+            }
+        } );
+        registry.missingServicePresent( ref, executor );
+        latch.countDown();
+
+        executor.terminate();
+        assertEquals( "[queued, late]", run.toString() );
+    }
+
+
+    public void test_single_thread_order() throws Exception
+    {
+        final ComponentActorExecutor executor = new ComponentActorExecutor( new MockScrLogger(), 1 );
+        executor.start();
+
+        final List<String> run = Collections.synchronizedList( new ArrayList<String>() );
+        for ( int i = 0; i < 10; i++ )
+        {
+            final String task = ( i % 2 == 0 ? "a" : "b" ) + i;
+            executor.schedule( task.substring( 0, 1 ), new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    run.add( task );
+                }
+            } );
+        }
+
+        executor.terminate();
+
+        // with a single thread all tasks are run in the order of scheduling
+        assertEquals( "[a0, b1, a2, b3, a4, b5, a6, b7, a8, b9]", run.toString() );
+        assertEquals( 1, executor.getThreadCount() );
+    }
+
+
+    public void test_failing_task() throws Exception
+    {
+        final ComponentActorExecutor executor = new ComponentActorExecutor( new MockScrLogger(), 2 );
+        executor.start();
+
+        final List<String> run = Collections.synchronizedList( new ArrayList<String>() );
+        executor.schedule( "a", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                throw new IllegalStateException( "expected" );
+            }
+        } );
+        executor.schedule( "a", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                run.add( "a" );
+            }
+        } );
+
+        executor.terminate();
+        assertEquals( Collections.singletonList( "a" ), run );
+    }
+}
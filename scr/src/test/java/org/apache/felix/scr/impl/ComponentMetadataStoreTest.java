@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.io.File;
+import java.util.Collections;
+
+import org.apache.felix.scr.impl.logger.MockScrLogger;
+import org.apache.felix.scr.impl.manager.ScrConfiguration;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+
+import junit.framework.TestCase;
+
+
+public class ComponentMetadataStoreTest extends TestCase
+{
+
+    private static final String DESCRIPTOR = "OSGI-INF/component.xml";
+
+    private File m_file;
+    private BundleContext m_context;
+    private Bundle m_bundle;
+    private ScrConfiguration m_configuration;
+
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_file = File.createTempFile( "componentMetadataStore", null );
+        m_file.delete();
+
+        final Bundle scrBundle = Mockito.mock( Bundle.class );
+        Mockito.when( scrBundle.getVersion() ).thenReturn( new Version( 2, 2, 0 ) );
+        m_context = Mockito.mock( BundleContext.class );
+        Mockito.when( m_context.getBundle() ).thenReturn( scrBundle );
+        Mockito.when( m_context.getDataFile( ComponentMetadataStore.FILE_NAME ) ).thenReturn( m_file );
+
+        m_bundle = Mockito.mock( Bundle.class );
+        Mockito.when( m_bundle.getBundleId() ).thenReturn( 5L );
+        Mockito.when( m_bundle.getLastModified() ).thenReturn( 1000L );
+        Mockito.when( m_context.getBundle( 5L ) ).thenReturn( m_bundle );
+
+        m_configuration = Mockito.mock( ScrConfiguration.class );
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        m_file.delete();
+    }
+
+
+    public void test_cached_across_restart()
+    {
+        ComponentMetadataStore store = ComponentMetadataStore.load( m_context, m_configuration, new MockScrLogger() );
+        assertNull( store.get( m_bundle, DESCRIPTOR ) );
+        store.put( m_bundle, DESCRIPTOR, Collections.<ComponentMetadata> emptyList() );
+        store.save();
+
+        store = ComponentMetadataStore.load( m_context, m_configuration, new MockScrLogger() );
+        assertNotNull( store.get( m_bundle, DESCRIPTOR ) );
+
+        // the bundle has been updated
+        Mockito.when( m_bundle.getLastModified() ).thenReturn( 2000L );
+        assertNull( store.get( m_bundle, DESCRIPTOR ) );
+    }
+
+
+    public void test_discarded_on_reconfiguration()
+    {
+        final ComponentMetadataStore store = ComponentMetadataStore.load( m_context, m_configuration,
+            new MockScrLogger() );
+        store.put( m_bundle, DESCRIPTOR, Collections.<ComponentMetadata> emptyList() );
+        assertNotNull( store.get( m_bundle, DESCRIPTOR ) );
+
+        // the metadata created by the XmlHandler depends on these settings
+        Mockito.when( m_configuration.isFactoryEnabled() ).thenReturn( true );
+        assertNull( store.get( m_bundle, DESCRIPTOR ) );
+
+        store.put( m_bundle, DESCRIPTOR, Collections.<ComponentMetadata> emptyList() );
+        Mockito.when( m_configuration.keepInstances() ).thenReturn( true );
+        assertNull( store.get( m_bundle, DESCRIPTOR ) );
+    }
+
+
+    public void test_discarded_on_restart_with_other_settings()
+    {
+        ComponentMetadataStore store = ComponentMetadataStore.load( m_context, m_configuration, new MockScrLogger() );
+        store.put( m_bundle, DESCRIPTOR, Collections.<ComponentMetadata> emptyList() );
+        store.save();
+
+        Mockito.when( m_configuration.keepInstances() ).thenReturn( true );
+        store = ComponentMetadataStore.load( m_context, m_configuration, new MockScrLogger() );
+        assertNull( store.get( m_bundle, DESCRIPTOR ) );
+    }
+}
@@ -19,6 +19,8 @@
 package org.apache.felix.scr.impl.inject;
 
 
+import java.util.HashMap;
+
 import org.apache.felix.scr.impl.MockBundle;
 import org.apache.felix.scr.impl.inject.methods.BindMethod;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
@@ -442,6 +444,37 @@ public class BindMethodTest extends TestCase
     }
 
 
+    public void test_method_exception()
+    {
+        final MethodResult failure = invokeMethod( "failingT1SI", T1.class, new T1() );
+        assertTrue( failure.getResult().get( "exception" ) instanceof UnsupportedOperationException );
+    }
+
+    public void test_argument_mismatch()
+    {
+        // packageT2SI is declared by T2, so a T1 instance is rejected as by reflection
+        final T1 component = new T1();
+        final MethodResult failure = invokeMethod( "packageT2SI", T2.class, component );
+        assertTrue( failure.getResult().get( "exception" ) instanceof IllegalArgumentException );
+        assertNull( component.callPerformed );
+    }
+
+
+    private MethodResult invokeMethod( final String methodName, final Class<?> componentClass, final T1 component )
+    {
+        ComponentContainer container = newContainer();
+        SingleComponentManager icm = new SingleComponentManager( container, new ComponentMethodsImpl() );
+        BindMethod bm = new BindMethod( methodName, componentClass,
+                FakeService.class.getName(), DSVersion.DS11, false );
+        RefPair refPair = new SingleRefPair( m_serviceReference );
+        ComponentContextImpl<T1> cc = new ComponentContextImpl(icm, new MockBundle(), null);
+        assertTrue( bm.getServiceObject( new BindParameters(cc, refPair), m_context ) );
+        MethodResult failure = new MethodResult( true, new HashMap<String, Object>() );
+        assertSame( failure, bm.invoke( component, new BindParameters(cc, refPair), failure ) );
+        return failure;
+    }
+
+
     private void testMethod( final String methodName, final T1 component, final DSVersion dsVersion,
         final String expectCallPerformed )
     {
@@ -21,11 +21,13 @@ package org.apache.felix.scr.impl.inject.methods;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.felix.scr.impl.inject.ActivatorParameter;
 import org.apache.felix.scr.impl.inject.ComponentMethodsImpl;
+import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.logger.MockComponentLogger;
 import org.apache.felix.scr.impl.manager.ComponentActivator;
@@ -246,6 +248,34 @@ public class ActivateMethodTest extends TestCase
         checkMethod( level2, "activate_precedence_2", "activate_precedence_2_empty" );
     }
 
+    public void test_method_handle() throws Exception
+    {
+        ComponentContainer<?> container = newContainer();
+        SingleComponentManager<?> icm = new SingleComponentManager( container, new ComponentMethodsImpl() );
+        ActivateMethod am = new ActivateMethod( "activate_comp", true, level1.getClass(), DSVersion.DS11, false, false );
+
+        am.invoke( level1, new ActivatorParameter( new ComponentContextImpl(icm, m_bundle, null), -1 ), null );
+        assertTrue( am.isBoundToMethodHandle() );
+        assertEquals( "activate_comp", level1.getCalledMethod() );
+    }
+
+
+    public void test_argument_mismatch() throws Exception
+    {
+        ComponentContainer<?> container = newContainer();
+        SingleComponentManager<?> icm = new SingleComponentManager( container, new ComponentMethodsImpl() );
+        ActivateMethod am = new ActivateMethod( "activate_level1_bundle", true, level1.getClass(), DSVersion.DS11, false, false );
+        ActivatorParameter ap = new ActivatorParameter( new ComponentContextImpl(icm, m_bundle, null), -1 );
+        am.invoke( level1, ap, null );
+
+        // the method is declared by Level1Object, so the base object is rejected as by reflection
+        MethodResult failure = new MethodResult( true, new HashMap<String, Object>() );
+        assertSame( failure, am.invoke( base, ap, failure ) );
+        assertTrue( failure.getResult().get( "exception" ) instanceof IllegalArgumentException );
+        assertNull( base.getCalledMethod() );
+    }
+
+
     //---------- internal
 
     /**
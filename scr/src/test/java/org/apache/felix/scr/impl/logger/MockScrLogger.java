@@ -78,6 +78,18 @@ public class MockScrLogger extends ScrLogger
             public boolean globalExtender() {
                 return false;
             }
+
+            @Override
+            public boolean cacheMetadata()
+            {
+                return false;
+            }
+
+            @Override
+            public int actorThreads()
+            {
+                return 1;
+            }
         }, new MockBundleContext(new MockBundle()));
     }
 }
\ No newline at end of file
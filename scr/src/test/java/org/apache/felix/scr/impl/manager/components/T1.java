@@ -383,6 +383,12 @@ public class T1
         callPerformed = "suitableT1";
     }
     
+    void failingT1SI( FakeService si )
+    {
+        callPerformed = "failingT1SI";
+        throw new UnsupportedOperationException( "failingT1SI" );
+    }
+
     void packageT1Map(Map props)
     {
         if ( props != null && !props.isEmpty())
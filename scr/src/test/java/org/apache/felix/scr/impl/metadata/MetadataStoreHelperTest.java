@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.metadata;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+public class MetadataStoreHelperTest extends TestCase
+{
+
+    public void test_store_load()
+    {
+        final ComponentMetadata cm = new ComponentMetadata( DSVersion.DS14 );
+        cm.setName( "store.component" );
+        cm.setImplementationClassName( "store.component.Implementation" );
+        cm.setConfigurationPid( new String[] { "pid1", "pid2" } );
+        cm.setConfigurationPolicy( "require" );
+        cm.setActivate( "start" );
+        cm.setModified( "modified" );
+        cm.setActivationFields( new String[] { "field1", "field2" } );
+        cm.setInit( "2" );
+        cm.addProperty( createPropertyMetadata( "string", null, "value" ) );
+        cm.addProperty( createPropertyMetadata( "long", "Long", "42" ) );
+        cm.addProperty( createPropertyMetadata( "char", "Character", Integer.toString( 'x' ) ) );
+        final PropertyMetadata array = new PropertyMetadata();
+        array.setName( "array" );
+        array.setType( "Integer" );
+        array.setValues( "1\n2\n3" );
+        cm.addProperty( array );
+
+        final ServiceMetadata sm = new ServiceMetadata();
+        sm.addProvide( "store.Service" );
+        sm.setScope( "prototype" );
+        cm.setService( sm );
+
+        final ReferenceMetadata rm1 = new ReferenceMetadata();
+        rm1.setName( "ref1" );
+        rm1.setInterface( "store.Reference" );
+        rm1.setCardinality( "0..n" );
+        rm1.setPolicy( "dynamic" );
+        rm1.setBind( "bind" );
+        rm1.setUnbind( "unbind" );
+        rm1.setTarget( "(a=b)" );
+        cm.addDependency( rm1 );
+
+        final ReferenceMetadata rm2 = new ReferenceMetadata();
+        rm2.setName( "ref2" );
+        rm2.setInterface( "store.Reference" );
+        rm2.setParameter( "0" );
+        cm.addDependency( rm2 );
+
+        cm.validate();
+
+        final ComponentMetadata loaded = storeAndLoad( cm ).get( 0 );
+
+        assertEquals( DSVersion.DS14, loaded.getDSVersion() );
+        assertEquals( "store.component", loaded.getName() );
+        assertEquals( "store.component.Implementation", loaded.getImplementationClassName() );
+        assertEquals( Arrays.asList( "pid1", "pid2" ), loaded.getConfigurationPid() );
+        assertTrue( loaded.isConfigurationRequired() );
+        assertEquals( "start", loaded.getActivate() );
+        assertTrue( loaded.isActivateDeclared() );
+        assertEquals( "deactivate", loaded.getDeactivate() );
+        assertFalse( loaded.isDeactivateDeclared() );
+        assertEquals( "modified", loaded.getModified() );
+        assertEquals( Arrays.asList( "field1", "field2" ), loaded.getActivationFields() );
+        assertEquals( 2, loaded.getNumberOfConstructorParameters() );
+        assertEquals( cm.isImmediate(), loaded.isImmediate() );
+
+        assertEquals( "value", loaded.getProperties().get( "string" ) );
+        assertEquals( Long.valueOf( 42 ), loaded.getProperties().get( "long" ) );
+        assertEquals( Character.valueOf( 'x' ), loaded.getProperties().get( "char" ) );
+        assertTrue( Arrays.equals( new int[] { 1, 2, 3 }, ( int[] ) loaded.getProperties().get( "array" ) ) );
+        assertEquals( cm.getProperties().keySet(), loaded.getProperties().keySet() );
+
+        assertEquals( cm.getServiceScope(), loaded.getServiceScope() );
+        assertTrue( Arrays.equals( new String[] { "store.Service" }, loaded.getServiceMetadata().getProvides() ) );
+
+        assertEquals( 2, loaded.getDependencies().size() );
+        final ReferenceMetadata lrm1 = loaded.getDependencies().get( 0 );
+        assertEquals( "ref1", lrm1.getName() );
+        assertEquals( "store.Reference", lrm1.getInterface() );
+        assertTrue( lrm1.isMultiple() );
+        assertTrue( lrm1.isOptional() );
+        assertFalse( lrm1.isStatic() );
+        assertEquals( "bind", lrm1.getBind() );
+        assertEquals( "unbind", lrm1.getUnbind() );
+        assertNull( lrm1.getUpdated() );
+        assertEquals( "(a=b)", lrm1.getTarget() );
+        assertNull( lrm1.getParameterIndex() );
+
+        final ReferenceMetadata lrm2 = loaded.getDependencies().get( 1 );
+        assertEquals( "ref2", lrm2.getName() );
+        assertEquals( Integer.valueOf( 0 ), lrm2.getParameterIndex() );
+        assertEquals( rm2.getScope(), lrm2.getScope() );
+    }
+
+
+    public void test_store_unvalidated()
+    {
+        final ComponentMetadata cm = new ComponentMetadata( DSVersion.DS13 );
+        cm.setName( "store.component" );
+        cm.setImplementationClassName( "store.component.Implementation" );
+        try
+        {
+            storeAndLoad( cm );
+            fail( "Expected unvalidated metadata to be rejected" );
+        }
+        catch ( IllegalArgumentException iae )
+        {
+            // expected
+        }
+    }
+
+
+    public void test_load_invalid()
+    {
+        try
+        {
+            MetadataStoreHelper.load( new DataInputStream( new ByteArrayInputStream( new byte[] { 0, 0, 0, 1, 42 } ) ) );
+            fail( "Expected invalid data to be rejected" );
+        }
+        catch ( IOException ioe )
+        {
+            // expected
+        }
+    }
+
+
+    //---------- Helper methods
+
+    private List<ComponentMetadata> storeAndLoad( final ComponentMetadata cm )
+    {
+        try
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream( bytes );
+            MetadataStoreHelper.store( Collections.singletonList( cm ), out );
+            out.flush();
+            return MetadataStoreHelper.load( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+        }
+        catch ( IOException ioe )
+        {
+            throw new AssertionError( ioe );
+        }
+    }
+
+
+    private PropertyMetadata createPropertyMetadata( String propertyName, String type, String value )
+    {
+        PropertyMetadata meta = new PropertyMetadata();
+        meta.setName( propertyName );
+        if ( type != null )
+        {
+            meta.setType( type );
+        }
+        meta.setValue( value );
+        return meta;
+    }
+}